@@ -6,19 +6,36 @@
 
 package name.martingeisse.wicket.experimental.codemirror;
 
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.wicket.Application;
 import org.apache.wicket.Component;
 import org.apache.wicket.behavior.Behavior;
 import org.apache.wicket.markup.head.CssHeaderItem;
+import org.apache.wicket.markup.head.HeaderItem;
 import org.apache.wicket.markup.head.IHeaderResponse;
 import org.apache.wicket.markup.head.JavaScriptHeaderItem;
+import org.apache.wicket.markup.head.JavaScriptReferenceHeaderItem;
+import org.apache.wicket.markup.head.JavaScriptUrlReferenceHeaderItem;
 import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
+import org.apache.wicket.markup.html.DecoratingHeaderResponse;
+import org.apache.wicket.request.cycle.RequestCycle;
 import org.apache.wicket.request.resource.CssResourceReference;
 import org.apache.wicket.request.resource.JavaScriptResourceReference;
+import org.apache.wicket.request.resource.PackageResourceReference;
+import org.apache.wicket.request.resource.ResourceReference;
+import name.martingeisse.wicket.internal.JsUtil;
 import name.martingeisse.wicket.internal.WicketHeadUtil;
 
 /**
  * This behavior turns a text area into a CodeMirror editor.
  * 
+ * In lazy mode (see {@link #setLazy(boolean)}), the editor is only created
+ * once the text area becomes visible or gets the focus.
+ * 
+ * If {@link CodeMirrorResourceBundles} have been installed, CodeMirror and the
+ * mode scripts are loaded as minified, precompressed bundles.
+ * 
  * TODO should clean up different newline encodings (NL, CR/NL)
  * on submit and before autocompile.
  */
@@ -29,6 +46,11 @@ public class CodeMirrorBehavior extends Behavior {
 	 */
 	private final CodeMirrorMode mode;
 
+	/**
+	 * the lazy
+	 */
+	private boolean lazy;
+
 	/**
 	 * Constructor.
 	 * @param mode the CodeMirror mode
@@ -37,17 +59,58 @@ public class CodeMirrorBehavior extends Behavior {
 		this.mode = mode;
 	}
 
+	/**
+	 * Getter method for the lazy.
+	 * @return the lazy
+	 */
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * Setter method for the lazy flag. In lazy mode, CodeMirror and the mode scripts are
+	 * loaded, and the editor is created, only when the text area enters the viewport or gets
+	 * the focus. Until then, the plain text area is shown and can be used as usual.
+	 * 
+	 * @param lazy the lazy to set
+	 * @return this
+	 */
+	public CodeMirrorBehavior setLazy(boolean lazy) {
+		this.lazy = lazy;
+		return this;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.apache.wicket.behavior.Behavior#renderHead(org.apache.wicket.Component, org.apache.wicket.markup.head.IHeaderResponse)
 	 */
 	@Override
 	public void renderHead(Component component, IHeaderResponse response) {
-		response.render(CssHeaderItem.forReference(new CssResourceReference(CodeMirrorBehavior.class, "codemirror.css")));
-		response.render(JavaScriptHeaderItem.forReference(new JavaScriptResourceReference(CodeMirrorBehavior.class, "codemirror.js")));
+		final CodeMirrorResourceBundles bundles = CodeMirrorResourceBundles.get(Application.get());
+		if (bundles == null) {
+			response.render(CssHeaderItem.forReference(new CssResourceReference(CodeMirrorBehavior.class, "codemirror.css")));
+		} else {
+			response.render(CssHeaderItem.forUrl(bundles.getStylesheetUrl()));
+		}
 		WicketHeadUtil.includeClassJavascript(response, CodeMirrorBehavior.class);
-		mode.renderResourceReferences(response);
-		renderInitializerForTextArea(component, response);
+		if (lazy || bundles != null) {
+			final ScriptRecordingHeaderResponse recordingResponse = new ScriptRecordingHeaderResponse(response);
+			recordingResponse.render(JavaScriptHeaderItem.forReference(new JavaScriptResourceReference(CodeMirrorBehavior.class, "codemirror.js")));
+			mode.renderResourceReferences(recordingResponse);
+			final List<String> scriptUrls = (bundles == null ? recordingResponse.getScriptUrls() : recordingResponse.getBundledScriptUrls(bundles));
+			if (lazy) {
+				renderInitializerForTextArea(component, response, scriptUrls);
+				return;
+			}
+			for (String url : scriptUrls) {
+				response.render(JavaScriptHeaderItem.forUrl(url));
+			}
+		} else {
+			response.render(JavaScriptHeaderItem.forReference(new JavaScriptResourceReference(CodeMirrorBehavior.class, "codemirror.js")));
+			mode.renderResourceReferences(response);
+		}
+		renderInitializerForTextArea(component, response, null);
 
+		// lazily created editors are not created while hidden, so they don't need this
 		String script =
 			"var q = $('#" + component.getMarkupId() + "'); \n" +
 			"q.parents('.collapse').on('shown.bs.collapse', function(e) {q.data('codeMirrorInstance').refresh(); });";
@@ -59,9 +122,22 @@ public class CodeMirrorBehavior extends Behavior {
 	 * 
 	 * @param textArea the text area that shall be using CodeMirror
 	 * @param response the response to render to
+	 * @param lazyScriptUrls the URLs of the scripts to load before initializing lazily, or null to initialize on DOM ready
 	 */
-	private void renderInitializerForTextArea(Component textArea, IHeaderResponse response) {
+	private void renderInitializerForTextArea(Component textArea, IHeaderResponse response, List<String> lazyScriptUrls) {
 		StringBuilder builder = new StringBuilder();
+		if (lazyScriptUrls != null) {
+			builder.append("initializeCodeMirrorLazily('").append(textArea.getMarkupId()).append("', [");
+			boolean first = true;
+			for (String url : lazyScriptUrls) {
+				if (!first) {
+					builder.append(", ");
+				}
+				builder.append(JsUtil.toStringLiteral(url));
+				first = false;
+			}
+			builder.append("], function() {\n");
+		}
 		builder.append("var q = $('#").append(textArea.getMarkupId()).append("'); \n");
 		builder.append("var codeMirror = q.createCodeMirrorForTextArea(");
 		mode.renderModeParameter(builder);
@@ -69,6 +145,9 @@ public class CodeMirrorBehavior extends Behavior {
 		renderOptionsArgument(builder);
 		builder.append("); \n");
 		builder.append("q.data('codeMirrorInstance', codeMirror); ");
+		if (lazyScriptUrls != null) {
+			builder.append("return codeMirror; \n});");
+		}
 		response.render(OnDomReadyHeaderItem.forScript(builder.toString()));
 	}
 	
@@ -79,5 +158,86 @@ public class CodeMirrorBehavior extends Behavior {
 	protected void renderOptionsArgument(StringBuilder builder) {
 		builder.append("{}");
 	}
+
+	/**
+	 * Records the URLs of Javascript references instead of rendering them, and
+	 * passes all other header items to the real response.
+	 */
+	private static final class ScriptRecordingHeaderResponse extends DecoratingHeaderResponse {
+
+		/**
+		 * the scriptUrls
+		 */
+		private final List<String> scriptUrls = new ArrayList<>();
+
+		/**
+		 * the references of the recorded scripts, as long as all of them are package resources (null otherwise)
+		 */
+		private List<ResourceReference> packageReferences = new ArrayList<>();
+
+		/**
+		 * Constructor.
+		 * @param real the real header response
+		 */
+		ScriptRecordingHeaderResponse(IHeaderResponse real) {
+			super(real);
+		}
+
+		/**
+		 * Getter method for the scriptUrls.
+		 * @return the scriptUrls
+		 */
+		List<String> getScriptUrls() {
+			return scriptUrls;
+		}
+
+		/**
+		 * Returns the URLs of the bundles that contain the recorded scripts: one for the
+		 * CodeMirror core (the first script) and one for the remaining scripts. Falls back to
+		 * the plain script URLs if any of the scripts cannot be bundled.
+		 * 
+		 * @param bundles the bundles
+		 * @return the URLs
+		 */
+		List<String> getBundledScriptUrls(CodeMirrorResourceBundles bundles) {
+			if (packageReferences == null) {
+				return scriptUrls;
+			}
+			List<String> result = new ArrayList<>();
+			result.add(bundles.getScriptUrl(packageReferences.subList(0, 1)));
+			if (packageReferences.size() > 1) {
+				result.add(bundles.getScriptUrl(packageReferences.subList(1, packageReferences.size())));
+			}
+			return result;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.wicket.markup.html.DecoratingHeaderResponse#render(org.apache.wicket.markup.head.HeaderItem)
+		 */
+		@Override
+		public void render(HeaderItem item) {
+			if (item instanceof JavaScriptReferenceHeaderItem) {
+				ResourceReference reference = ((JavaScriptReferenceHeaderItem)item).getReference();
+				String url = RequestCycle.get().urlFor(reference, null).toString();
+				if (!scriptUrls.contains(url)) {
+					scriptUrls.add(url);
+					if (packageReferences != null && reference instanceof PackageResourceReference) {
+						packageReferences.add(reference);
+					} else {
+						packageReferences = null;
+					}
+				}
+			} else if (item instanceof JavaScriptUrlReferenceHeaderItem) {
+				String url = ((JavaScriptUrlReferenceHeaderItem)item).getUrl();
+				if (!scriptUrls.contains(url)) {
+					scriptUrls.add(url);
+					packageReferences = null;
+				}
+			} else {
+				super.render(item);
+			}
+		}
+
+	}
 	
 }
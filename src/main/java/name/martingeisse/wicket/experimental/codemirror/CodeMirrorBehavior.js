@@ -15,37 +15,248 @@ $.fn.createCodeMirrorForTextArea = function(mode, options) {
 			extraKeys: {
 				'Cmd-S': function() {},
 			},
-			autocompileDelay: 1000,
+			autocompileDelay: 500,
+			autocompileMaxDelay: 5000,
+			autocompileMaxWait: 10000,
+			autocompileRoundTripFactor: 1.5,
+			autocompileDelayPerKilobyte: 2,
 			// viewportMargin: parseFloat('Infinity'),
 		}, options);
 		
-		// create the CodeMirror instance
+		// create the CodeMirror instance; a registered mode that is not loaded yet is loaded
+		// on demand, and CodeMirror shows plain text until it is available
 		var codeMirror = CodeMirror.fromTextArea(this, options);
+		loadCodeMirrorMode(options.mode, function() {
+			codeMirror.setOption('mode', codeMirror.getOption('mode'));
+		});
+		
+		// Auto-compile state. The delay adapts to the measured round-trip time and the document size
+		// reported by the server, and at most one auto-compile request is in flight at any time.
+		var autocompileTimer = null;
+		var autocompileFirstChangeTime = null;
+		var autocompileInFlight = false;
+		var autocompileRequestStartTime = 0;
+		var autocompileChangedWhileInFlight = false;
+		var autocompileBackOffDelay = 0;
+		var autocompileFollowUpRequests = 0;
+		var autocompileRoundTrip = 0;
+		var autocompileUnreportedRoundTrip = undefined;
+		var autocompileDocumentLength = 0;
+		
+		// computes the debounce delay from the current statistics
+		function computeAutocompileDelay() {
+			var delay = options.autocompileDelay + options.autocompileRoundTripFactor * autocompileRoundTrip +
+				options.autocompileDelayPerKilobyte * autocompileDocumentLength / 1024;
+			return Math.min(options.autocompileMaxDelay, Math.round(delay));
+		}
+		
+		// (re-)starts the debounce timer, without delaying beyond the maximum waiting time since the first change
+		function scheduleAutocompiler(delay) {
+			var now = new Date().getTime();
+			if (autocompileFirstChangeTime === null) {
+				autocompileFirstChangeTime = now;
+			}
+			delay = Math.max(0, Math.min(delay, autocompileFirstChangeTime + options.autocompileMaxWait - now));
+			if (autocompileTimer !== null) {
+				clearTimeout(autocompileTimer);
+			}
+			autocompileTimer = setTimeout(saveAndRunAutocompiler, delay);
+		}
 		
 		// this function actually saves the editor and runs the auto-compiler
 		function saveAndRunAutocompiler() {
+			autocompileTimer = null;
+			if (autocompileInFlight) {
+				autocompileChangedWhileInFlight = true;
+				return;
+			}
+			autocompileFirstChangeTime = null;
 			codeMirror.save();
 			var autocompiler = $(textField).data('autocompiler');
 			if (autocompiler) {
+				autocompileInFlight = true;
+				autocompileChangedWhileInFlight = false;
+				autocompileRequestStartTime = new Date().getTime();
 				autocompiler(codeMirror);
 			}
 		}
 		
-		// automatically compile 1 second after changing something
-		var autocompileTriggered = false;
+		// automatically compile once the user has stopped typing for the current delay
 		codeMirror.on('changes', function() {
-			if (!autocompileTriggered) {
-				autocompileTriggered = true;
-				setTimeout(function() {
-					autocompileTriggered = false;
-					saveAndRunAutocompiler();
-				}, options.autocompileDelay);
+			if (autocompileInFlight) {
+				autocompileChangedWhileInFlight = true;
+			} else {
+				scheduleAutocompiler(computeAutocompileDelay());
+			}
+		});
+		
+		// callbacks used by the auto-compiler to report on its requests
+		$(this).data('autocompileControl', {
+			reportDocumentLength: function(documentLength) {
+				autocompileDocumentLength = documentLength;
+			},
+			backOff: function(delay) {
+				autocompileBackOffDelay = delay;
+			},
+			expectFollowUpRequest: function() {
+				autocompileFollowUpRequests++;
+			},
+			requestFinished: function() {
+				if (autocompileFollowUpRequests > 0) {
+					autocompileFollowUpRequests--;
+					return;
+				}
+				var roundTrip = new Date().getTime() - autocompileRequestStartTime;
+				autocompileUnreportedRoundTrip = roundTrip;
+				autocompileRoundTrip = (autocompileRoundTrip == 0 ? roundTrip : Math.round(0.7 * autocompileRoundTrip + 0.3 * roundTrip));
+				autocompileInFlight = false;
+				if (autocompileBackOffDelay > 0) {
+					var delay = Math.max(autocompileBackOffDelay, computeAutocompileDelay());
+					autocompileBackOffDelay = 0;
+					autocompileFirstChangeTime = null;
+					autocompileTimer = setTimeout(saveAndRunAutocompiler, delay);
+				} else if (autocompileChangedWhileInFlight) {
+					scheduleAutocompiler(computeAutocompileDelay());
+				}
+			},
+			runNow: function() {
+				if (autocompileTimer !== null) {
+					clearTimeout(autocompileTimer);
+				}
+				saveAndRunAutocompiler();
+			},
+			getLastRoundTrip: function() {
+				return autocompileRoundTrip;
+			},
+			// returns the round-trip time of the latest request once, to be sent along with the next request
+			takeUnreportedRoundTrip: function() {
+				var roundTrip = autocompileUnreportedRoundTrip;
+				autocompileUnreportedRoundTrip = undefined;
+				return roundTrip;
 			}
 		});
 		
-		//
+		// other behaviors of the text area may wait for the editor, since it can be created lazily
 		$(this).data('codeMirror', codeMirror);
+		$(this).trigger('codeMirrorCreated', [codeMirror]);
 		result = codeMirror;
 	});
 	return result;
 }
+
+// Loads the specified scripts one after another, each at most once per page, then calls the callback.
+// Scripts that the page already includes through a script element count as loaded.
+loadCodeMirrorScripts = (function() {
+	var scriptStates = {};
+	function loadScript(url, callback) {
+		var state = scriptStates[url];
+		if (state === 'loaded' || (state === undefined && $('script[src="' + url + '"]').length > 0)) {
+			scriptStates[url] = 'loaded';
+			callback();
+			return;
+		}
+		if (state !== undefined) {
+			state.push(callback);
+			return;
+		}
+		scriptStates[url] = [callback];
+		var script = document.createElement('script');
+		script.src = url;
+		script.onload = script.onerror = function() {
+			var callbacks = scriptStates[url];
+			scriptStates[url] = 'loaded';
+			for (var i in callbacks) {
+				callbacks[i]();
+			}
+		};
+		document.head.appendChild(script);
+	}
+	return function(urls, callback) {
+		var index = 0;
+		function next() {
+			if (index < urls.length) {
+				loadScript(urls[index++], next);
+			} else {
+				callback();
+			}
+		}
+		next();
+	};
+})();
+
+// The modes that can be loaded on demand, by mode ID, and the mode IDs by MIME type.
+codeMirrorModeRegistry = {modes: {}, mimeTypes: {}};
+
+// Registers modes that can be loaded on demand. Each mode has the URL of its script and the
+// IDs of the modes it depends on.
+codeMirrorRegisterModes = function(modes, mimeTypes) {
+	$.extend(codeMirrorModeRegistry.modes, modes);
+	$.extend(codeMirrorModeRegistry.mimeTypes, mimeTypes);
+};
+
+// Loads the scripts of a registered mode and the modes it depends on, then calls the callback.
+// Returns false without calling the callback if the mode is unknown or already loaded.
+loadCodeMirrorMode = function(mode, callback) {
+	var registry = codeMirrorModeRegistry;
+	function resolve(modeId) {
+		return (registry.mimeTypes.hasOwnProperty(modeId) ? registry.mimeTypes[modeId] : modeId);
+	}
+	var urls = [], visited = {};
+	function collect(modeId) {
+		if (visited[modeId] || CodeMirror.modes.hasOwnProperty(modeId) || !registry.modes.hasOwnProperty(modeId)) {
+			return;
+		}
+		visited[modeId] = true;
+		var dependencies = registry.modes[modeId].dependencies;
+		for (var i = 0; i < dependencies.length; i++) {
+			collect(dependencies[i]);
+		}
+		urls.push(registry.modes[modeId].url);
+	}
+	collect(resolve(mode && typeof mode == 'object' ? mode.name : mode));
+	if (urls.length == 0) {
+		return false;
+	}
+	loadCodeMirrorScripts(urls, callback);
+	return true;
+};
+
+// Creates a CodeMirror editor for the text area with the specified id once it enters the
+// viewport or gets the focus. The initializer creates the editor after the scripts have been
+// loaded, and returns it.
+initializeCodeMirrorLazily = function(id, scriptUrls, initializer) {
+	var textArea = document.getElementById(id);
+	var started = false, observer = null;
+	function start() {
+		if (started) {
+			return;
+		}
+		started = true;
+		if (observer !== null) {
+			observer.disconnect();
+		}
+		$(textArea).off('focus.codeMirrorLazy');
+		loadCodeMirrorScripts(scriptUrls, function() {
+			var hadFocus = (document.activeElement === textArea);
+			var selectionStart = textArea.selectionStart;
+			var codeMirror = initializer();
+			if (hadFocus && codeMirror) {
+				codeMirror.focus();
+				codeMirror.setCursor(codeMirror.posFromIndex(selectionStart || 0));
+			}
+		});
+	}
+	$(textArea).on('focus.codeMirrorLazy', start);
+	if (window.IntersectionObserver) {
+		observer = new IntersectionObserver(function(entries) {
+			for (var i in entries) {
+				if (entries[i].isIntersecting) {
+					start();
+				}
+			}
+		});
+		observer.observe(textArea);
+	} else {
+		start();
+	}
+};
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.wicket.Application;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.http.WebResponse;
+import org.apache.wicket.request.resource.AbstractResource;
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Serves the bundles of {@link CodeMirrorResourceBundles}. Bundle file names contain
+ * a fingerprint of their content, so responses are cached for a year and marked as
+ * immutable. The gzipped form is sent to clients that accept it. Bundles that are not
+ * known yet are built from the sources listed in the URL.
+ *
+ * This class is NOT part of the public API.
+ */
+final class CodeMirrorBundleResource extends AbstractResource {
+
+	/**
+	 * the CACHE_CONTROL
+	 */
+	private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.request.resource.AbstractResource#newResourceResponse(org.apache.wicket.request.resource.IResource.Attributes)
+	 */
+	@Override
+	protected ResourceResponse newResourceResponse(final Attributes attributes) {
+		final ResourceResponse response = new ResourceResponse();
+		final CodeMirrorResourceBundles bundles = CodeMirrorResourceBundles.get(Application.get());
+		final String fileName = attributes.getParameters().get("file").toString();
+		final String encodedSources = attributes.getParameters().get(CodeMirrorResourceBundles.SOURCES_PARAMETER).toString(null);
+		final CodeMirrorResourceBundles.Bundle bundle = (bundles == null || fileName == null ? null : bundles.getBundle(fileName, encodedSources));
+		if (bundle == null) {
+			response.setError(HttpServletResponse.SC_NOT_FOUND);
+			return response;
+		}
+		final String acceptEncoding = ((WebRequest)attributes.getRequest()).getHeader("Accept-Encoding");
+		final boolean gzip = (acceptEncoding != null && acceptEncoding.contains("gzip"));
+		final byte[] data = (gzip ? bundle.gzippedData : bundle.data);
+		response.setContentType(bundle.contentType);
+		response.setTextEncoding("UTF-8");
+		response.setContentLength(data.length);
+		response.setLastModified(bundle.creationTime);
+		response.setCacheDuration(Duration.days(365));
+		response.setCacheScope(WebResponse.CacheScope.PUBLIC);
+		response.getHeaders().addHeader("Vary", "Accept-Encoding");
+		if (gzip) {
+			response.getHeaders().addHeader("Content-Encoding", "gzip");
+		}
+		response.setWriteCallback(new WriteCallback() {
+			@Override
+			public void writeData(final Attributes attributes) throws IOException {
+				attributes.getResponse().write(data);
+			}
+		});
+		return response;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.request.resource.AbstractResource#configureCache(org.apache.wicket.request.resource.AbstractResource.ResourceResponse, org.apache.wicket.request.resource.IResource.Attributes)
+	 */
+	@Override
+	protected void configureCache(final ResourceResponse data, final Attributes attributes) {
+		super.configureCache(data, attributes);
+		if (data.getErrorCode() == null) {
+			((WebResponse)attributes.getResponse()).setHeader("Cache-Control", CACHE_CONTROL);
+		}
+	}
+
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.wicket.Application;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.javascript.DefaultJavaScriptCompressor;
+import org.apache.wicket.protocol.http.WebApplication;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+import org.apache.wicket.request.resource.IResource;
+import org.apache.wicket.request.resource.PackageResourceReference;
+import org.apache.wicket.request.resource.ResourceReference;
+import org.apache.wicket.util.lang.Packages;
+import org.apache.wicket.util.time.Time;
+
+/**
+ * Serves CodeMirror and its modes as bundles. The core script is one bundle, and the scripts
+ * of each mode are combined into another one, so a page needs at most two requests per mode
+ * and all editors share the core bundle. Bundles are minified and gzip-compressed once, when
+ * first needed, and served under a URL that contains a fingerprint of their content, so
+ * browsers may cache them forever. The stylesheet is served the same way.
+ *
+ * Bundle URLs also list the resources the bundle consists of. A bundle that is requested
+ * before any page has asked for its URL, for example after a restart or on another node
+ * of a cluster, is built from that list. It is only served if its fingerprint matches the
+ * requested one, so a URL can neither produce other content than the one it was created
+ * for nor be used to read resources whose content the client does not already know.
+ *
+ * Bundles are only used if this object has been installed by calling
+ * {@link #initialize(WebApplication, String)} during application startup.
+ */
+public final class CodeMirrorResourceBundles {
+
+	/**
+	 * The metadata key for this object.
+	 */
+	public static final MetaDataKey<CodeMirrorResourceBundles> KEY = new MetaDataKey<CodeMirrorResourceBundles>() {
+	};
+
+	/**
+	 * the reference under which all bundles are served
+	 */
+	private static final ResourceReference REFERENCE = new ResourceReference(CodeMirrorResourceBundles.class, "bundle") {
+		@Override
+		public IResource getResource() {
+			return new CodeMirrorBundleResource();
+		}
+	};
+
+	/**
+	 * Installs the bundles for the specified application and mounts them at the specified path.
+	 *
+	 * @param application the Wicket application
+	 * @param mountPath the path to mount the bundles at, e.g. "codemirror"
+	 * @return the bundles
+	 */
+	public static CodeMirrorResourceBundles initialize(final WebApplication application, final String mountPath) {
+		final CodeMirrorResourceBundles bundles = new CodeMirrorResourceBundles();
+		application.setMetaData(KEY, bundles);
+		application.mountResource(mountPath + "/${file}", REFERENCE);
+		return bundles;
+	}
+
+	/**
+	 * Returns the bundles for the specified application.
+	 *
+	 * @param application the Wicket application
+	 * @return the bundles, or null if they have not been installed
+	 */
+	public static CodeMirrorResourceBundles get(final Application application) {
+		return application.getMetaData(KEY);
+	}
+
+	/**
+	 * the name of the URL parameter that lists the sources of a bundle
+	 */
+	static final String SOURCES_PARAMETER = "sources";
+
+	/**
+	 * the bundles by the keys of their sources
+	 */
+	private final ConcurrentMap<String, Bundle> bundlesBySources = new ConcurrentHashMap<>();
+
+	/**
+	 * the bundles by file name
+	 */
+	private final ConcurrentMap<String, Bundle> bundlesByFileName = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor.
+	 */
+	private CodeMirrorResourceBundles() {
+	}
+
+	/**
+	 * Returns the URL of the bundle that contains the specified scripts.
+	 *
+	 * @param scripts the scripts, in the order they must be executed
+	 * @return the URL
+	 */
+	public String getScriptUrl(final List<? extends ResourceReference> scripts) {
+		return getUrl(new ArrayList<ResourceReference>(scripts), ".js", "text/javascript");
+	}
+
+	/**
+	 * Returns the URL of the stylesheet bundle.
+	 *
+	 * @return the URL
+	 */
+	public String getStylesheetUrl() {
+		final List<ResourceReference> sources = new ArrayList<>();
+		sources.add(new PackageResourceReference(CodeMirrorBehavior.class, "codemirror.css"));
+		return getUrl(sources, ".css", "text/css");
+	}
+
+	/**
+	 *
+	 */
+	private String getUrl(final List<ResourceReference> sources, final String extension, final String contentType) {
+		final StringBuilder sourcesBuilder = new StringBuilder();
+		for (final ResourceReference source : sources) {
+			if (sourcesBuilder.length() > 0) {
+				sourcesBuilder.append(',');
+			}
+			sourcesBuilder.append(source.getScope().getName()).append(':').append(source.getName());
+		}
+		final String encodedSources = sourcesBuilder.toString();
+		Bundle bundle = bundlesBySources.get(extension + '|' + encodedSources);
+		if (bundle == null) {
+			bundle = register(extension + '|' + encodedSources, new Bundle(sources, extension, contentType));
+		}
+		return RequestCycle.get().urlFor(REFERENCE, new PageParameters().set("file", bundle.fileName).set(SOURCES_PARAMETER, encodedSources)).toString();
+	}
+
+	/**
+	 * Registers a bundle unless another one is already registered for the same sources.
+	 * @return the registered bundle
+	 */
+	private Bundle register(final String key, final Bundle bundle) {
+		final Bundle existingBundle = bundlesBySources.putIfAbsent(key, bundle);
+		if (existingBundle != null) {
+			return existingBundle;
+		}
+		bundlesByFileName.put(bundle.fileName, bundle);
+		return bundle;
+	}
+
+	/**
+	 * Returns the bundle with the specified file name. If no page has asked for the URL of
+	 * that bundle yet, the bundle is built from the sources listed in its URL.
+	 *
+	 * @param fileName the file name, i.e. fingerprint and extension
+	 * @param encodedSources the sources listed in the URL (may be null)
+	 * @return the bundle, or null if there is no such bundle
+	 */
+	Bundle getBundle(final String fileName, final String encodedSources) {
+		final Bundle bundle = bundlesByFileName.get(fileName);
+		if (bundle != null || encodedSources == null || encodedSources.isEmpty()) {
+			return bundle;
+		}
+		final String extension = (fileName.endsWith(".js") ? ".js" : fileName.endsWith(".css") ? ".css" : null);
+		if (extension == null) {
+			return null;
+		}
+		final List<ResourceReference> sources = new ArrayList<>();
+		for (final String encodedSource : encodedSources.split(",")) {
+			final ResourceReference source = resolveSource(encodedSource, extension);
+			if (source == null) {
+				return null;
+			}
+			sources.add(source);
+		}
+		final Bundle rebuiltBundle;
+		try {
+			rebuiltBundle = new Bundle(sources, extension, extension.equals(".js") ? "text/javascript" : "text/css");
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+		if (!rebuiltBundle.fileName.equals(fileName)) {
+			// outdated or forged URL
+			return null;
+		}
+		return register(extension + '|' + encodedSources, rebuiltBundle);
+	}
+
+	/**
+	 * Resolves a source listed in a bundle URL, or returns null if it is invalid or
+	 * not allowed by the package resource guard.
+	 */
+	private static ResourceReference resolveSource(final String encodedSource, final String extension) {
+		final int colonIndex = encodedSource.indexOf(':');
+		if (colonIndex <= 0) {
+			return null;
+		}
+		final String name = encodedSource.substring(colonIndex + 1);
+		if (!name.endsWith(extension)) {
+			return null;
+		}
+		final Application application = Application.get();
+		final Class<?> scope;
+		try {
+			scope = application.getApplicationSettings().getClassResolver().resolveClass(encodedSource.substring(0, colonIndex));
+		} catch (final ClassNotFoundException e) {
+			return null;
+		}
+		if (!application.getResourceSettings().getPackageResourceGuard().accept(Packages.absolutePath(scope, name))) {
+			return null;
+		}
+		return new PackageResourceReference(scope, name);
+	}
+
+	/**
+	 * A single bundle in plain and compressed form.
+	 */
+	static final class Bundle {
+
+		/**
+		 * the fileName
+		 */
+		final String fileName;
+
+		/**
+		 * the contentType
+		 */
+		final String contentType;
+
+		/**
+		 * the plain data
+		 */
+		final byte[] data;
+
+		/**
+		 * the gzipped data
+		 */
+		final byte[] gzippedData;
+
+		/**
+		 * the creation time, used as the last modification time
+		 */
+		final Time creationTime = Time.now();
+
+		/**
+		 * Constructor.
+		 */
+		Bundle(final List<ResourceReference> sources, final String extension, final String contentType) {
+			final StringBuilder builder = new StringBuilder();
+			for (final ResourceReference source : sources) {
+				try (InputStream inputStream = source.getScope().getResourceAsStream(source.getName())) {
+					if (inputStream == null) {
+						throw new IllegalArgumentException("resource not found: " + source.getName() + " relative to " + source.getScope());
+					}
+					builder.append(IOUtils.toString(inputStream, StandardCharsets.UTF_8)).append('\n');
+					if (extension.equals(".js")) {
+						builder.append(";\n");
+					}
+				} catch (final IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			final String minified = (extension.equals(".js") ? new DefaultJavaScriptCompressor().compress(builder.toString()) : minifyStylesheet(builder.toString()));
+			this.data = minified.getBytes(StandardCharsets.UTF_8);
+			this.gzippedData = gzip(data);
+			this.fileName = DigestUtils.sha1Hex(data).substring(0, 20) + extension;
+			this.contentType = contentType;
+		}
+
+		/**
+		 * Removes comments and unneeded whitespace from a stylesheet.
+		 */
+		private static String minifyStylesheet(final String stylesheet) {
+			return stylesheet.replaceAll("(?s)/\\*.*?\\*/", "").replaceAll("\\s+", " ").replaceAll(" ?([{};,]) ?", "$1").trim();
+		}
+
+		/**
+		 *
+		 */
+		private static byte[] gzip(final byte[] data) {
+			final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+			try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream)) {
+				gzipOutputStream.write(data);
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+			return byteArrayOutputStream.toByteArray();
+		}
+
+	}
+
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.wicket.Application;
+import org.apache.wicket.Component;
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.Page;
+import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.attributes.AjaxCallListener;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes.Method;
+import org.apache.wicket.ajax.attributes.CallbackParameter;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.util.visit.IVisit;
+import org.apache.wicket.util.visit.IVisitor;
+import name.martingeisse.wicket.internal.WicketHeadUtil;
+
+/**
+ * Page-level coordinator for pages with several auto-compiled editors. When
+ * this behavior is added to the page, the {@link CodeMirrorAutocompileBehavior}s
+ * on that page don't send their own compile requests. Instead, the client collects
+ * the compile requests of all editors for a short time and sends them as a single
+ * batch. The server compiles the documents and responds with the markers for
+ * all editors at once. If an {@link AutocompileScheduler} is installed, the
+ * documents are compiled in parallel on its worker threads; otherwise, they
+ * are compiled one after another on the request thread, just like the
+ * documents of editors without this behavior.
+ *
+ * Batches are sent one at a time; compile requests that come up while a batch
+ * is in flight are collected for the next batch. Follow-up requests for streamed
+ * markers and lazily loaded markers are still sent by the individual editors,
+ * but within a batch, each editor gets its final result right away.
+ *
+ * The Javascript function codeMirrorAutocompileAll() compiles all editors
+ * immediately, for example before saving. With {@link #setCompileAllOnLoad(boolean)},
+ * this is done once the page has loaded.
+ */
+public class AutocompileBatchBehavior extends AbstractDefaultAjaxBehavior {
+
+	/**
+	 * the collectDelay
+	 */
+	private int collectDelay = 30;
+
+	/**
+	 * the compileAllOnLoad
+	 */
+	private boolean compileAllOnLoad;
+
+	/**
+	 * Constructor.
+	 */
+	public AutocompileBatchBehavior() {
+	}
+
+	/**
+	 * Returns the batch behavior of the page of the specified component.
+	 *
+	 * @param component the component
+	 * @return the batch behavior, or null if the page has none
+	 */
+	public static AutocompileBatchBehavior find(final Component component) {
+		final List<AutocompileBatchBehavior> behaviors = component.getPage().getBehaviors(AutocompileBatchBehavior.class);
+		return (behaviors.isEmpty() ? null : behaviors.get(0));
+	}
+
+	/**
+	 * Getter method for the collectDelay.
+	 * @return the collectDelay
+	 */
+	public int getCollectDelay() {
+		return collectDelay;
+	}
+
+	/**
+	 * Setter method for the collectDelay, that is, the time in milliseconds for
+	 * which compile requests are collected before the batch is sent.
+	 *
+	 * @param collectDelay the collectDelay to set
+	 * @return this
+	 */
+	public AutocompileBatchBehavior setCollectDelay(final int collectDelay) {
+		this.collectDelay = collectDelay;
+		return this;
+	}
+
+	/**
+	 * Getter method for the compileAllOnLoad.
+	 * @return the compileAllOnLoad
+	 */
+	public boolean isCompileAllOnLoad() {
+		return compileAllOnLoad;
+	}
+
+	/**
+	 * Setter method for the compileAllOnLoad.
+	 * @param compileAllOnLoad the compileAllOnLoad to set
+	 * @return this
+	 */
+	public AutocompileBatchBehavior setCompileAllOnLoad(final boolean compileAllOnLoad) {
+		this.compileAllOnLoad = compileAllOnLoad;
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.behavior.AbstractAjaxBehavior#onBind()
+	 */
+	@Override
+	protected void onBind() {
+		super.onBind();
+		if (!(getComponent() instanceof Page)) {
+			throw new IllegalStateException("AutocompileBatchBehavior must be added to the page, not to " + getComponent());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#renderHead(org.apache.wicket.Component, org.apache.wicket.markup.head.IHeaderResponse)
+	 */
+	@Override
+	public void renderHead(final Component component, final IHeaderResponse response) {
+		super.renderHead(component, response);
+		WicketHeadUtil.includeClassJavascript(response, CodeMirrorAutocompileBehavior.class);
+
+		final StringBuilder builder = new StringBuilder();
+		builder.append("initializeCodeMirrorAutocompileBatch({collectDelay: ").append(collectDelay).append("}, ");
+		builder.append(getCallbackFunction(CallbackParameter.explicit("batch")));
+		builder.append("); ");
+		if (compileAllOnLoad) {
+			builder.append("codeMirrorAutocompileAll(); ");
+		}
+		response.render(OnDomReadyHeaderItem.forScript(builder.toString()));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#updateAjaxAttributes(org.apache.wicket.ajax.attributes.AjaxRequestAttributes)
+	 */
+	@Override
+	protected void updateAjaxAttributes(final AjaxRequestAttributes attributes) {
+		super.updateAjaxAttributes(attributes);
+		attributes.setMethod(Method.POST);
+		attributes.getAjaxCallListeners().add(new AjaxCallListener().onComplete("codeMirrorAutocompileBatchComplete(attrs);"));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#respond(org.apache.wicket.ajax.AjaxRequestTarget)
+	 */
+	@Override
+	protected void respond(final AjaxRequestTarget target) {
+		final long requestStartTime = RequestCycle.get().getStartTime();
+		AutocompileMetrics.record(AutocompileMetric.REQUEST_TO_HANDLER_MILLIS, System.currentTimeMillis() - requestStartTime);
+		final AutocompileRequest[] requests = AutocompileRequest.fromBatchJson(RequestCycle.get().getRequest().getPostParameters().getParameterValue("batch").toString(null));
+		if (requests == null) {
+			return;
+		}
+		try {
+			handleBatch(target, requests);
+		} finally {
+			AutocompileMetrics.record(AutocompileMetric.SERVER_MILLIS, System.currentTimeMillis() - requestStartTime);
+		}
+	}
+
+	/**
+	 * Compiles the documents of a batch and responds with their markers.
+	 */
+	private void handleBatch(final AjaxRequestTarget target, final AutocompileRequest[] requests) {
+
+		// prepare the compilations
+		final Map<String, CodeMirrorAutocompileBehavior> editorBehaviors = findEditorBehaviors();
+		final List<AutocompileRequest> preparedRequests = new ArrayList<>();
+		final List<CodeMirrorAutocompileBehavior> preparedBehaviors = new ArrayList<>();
+		final List<PendingAutocompilation> preparedCompilations = new ArrayList<>();
+		for (final AutocompileRequest request : requests) {
+			final CodeMirrorAutocompileBehavior editorBehavior = (request == null ? null : editorBehaviors.get(request.getId()));
+			if (editorBehavior != null) {
+				AutocompileMetrics.record(AutocompileMetric.CLIENT_ROUND_TRIP_MILLIS, request.getRoundTrip());
+				preparedRequests.add(request);
+				preparedBehaviors.add(editorBehavior);
+				preparedCompilations.add(editorBehavior.prepareCompilation(request));
+			}
+		}
+
+		// with a scheduler, submit all compilations before waiting for any of them
+		final AutocompileScheduler scheduler = AutocompileScheduler.get(Application.get());
+		if (scheduler != null) {
+			final String sessionKey = CodeMirrorAutocompileBehavior.getSessionKey();
+			for (int i = 0; i < preparedCompilations.size(); i++) {
+				final PendingAutocompilation pendingCompilation = preparedCompilations.get(i);
+				pendingCompilation.setTicket(scheduler.submit(sessionKey, preparedBehaviors.get(i).getEditorKey(), pendingCompilation.getCompiler(), preparedRequests.get(i).getDocument()));
+			}
+			for (int i = 0; i < preparedCompilations.size(); i++) {
+				preparedBehaviors.get(i).finishScheduledCompilation(target, preparedRequests.get(i), scheduler, preparedCompilations.get(i));
+			}
+			return;
+		}
+
+		// without a scheduler, compile on the request thread
+		for (int i = 0; i < preparedCompilations.size(); i++) {
+			final CodeMirrorAutocompileBehavior editorBehavior = preparedBehaviors.get(i);
+			final PendingAutocompilation pendingCompilation = preparedCompilations.get(i);
+			final CompilerResult result = CodeMirrorAutocompileBehavior.compile(pendingCompilation, preparedRequests.get(i).getDocument());
+			editorBehavior.finishCompilation(target, preparedRequests.get(i), editorBehavior.getEditorState(), pendingCompilation, result);
+		}
+
+	}
+
+	/**
+	 * Finds the auto-compile behaviors of the editors on the page that may currently be
+	 * compiled, indexed by the markup id of the editor.
+	 */
+	private Map<String, CodeMirrorAutocompileBehavior> findEditorBehaviors() {
+		final Map<String, CodeMirrorAutocompileBehavior> result = new HashMap<>();
+		((MarkupContainer)getComponent()).visitChildren(new IVisitor<Component, Void>() {
+			@Override
+			public void component(final Component component, final IVisit<Void> visit) {
+				final List<CodeMirrorAutocompileBehavior> behaviors = component.getBehaviors(CodeMirrorAutocompileBehavior.class);
+				if (!behaviors.isEmpty() && component.isVisibleInHierarchy() && component.isEnabledInHierarchy()) {
+					result.put(component.getMarkupId(), behaviors.get(0));
+				}
+			}
+		});
+		return result;
+	}
+
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+/**
+ * Server-side state for a single auto-compiled editor, kept by
+ * {@link AutocompileEditorStates}. Requests for the same editor are
+ * serialized by the page lock, but the methods of this class are
+ * synchronized anyway since compilers may run on worker threads.
+ */
+public final class AutocompileEditorState {
+
+	/**
+	 * the revision of the document the compiler state belongs to
+	 */
+	private long revision = -1;
+
+	/**
+	 * the compilerState
+	 */
+	private Object compilerState;
+
+	/**
+	 * the pendingCompilation
+	 */
+	private PendingAutocompilation pendingCompilation;
+
+	/**
+	 * the markerLineIndex
+	 */
+	private MarkerLineIndex markerLineIndex;
+
+	/**
+	 * the revision of the searchDocument
+	 */
+	private long searchRevision;
+
+	/**
+	 * the latest document sent by the client, kept for searching (null if searching is disabled)
+	 */
+	private String searchDocument;
+
+	/**
+	 * the search index of the searchDocument (null until the document is first searched)
+	 */
+	private DocumentSearchIndex searchIndex;
+
+	/**
+	 * the completionIndex
+	 */
+	private CompletionIndex completionIndex;
+
+	/**
+	 * the generation of the latest project compiler result sent to the client
+	 */
+	private long projectGeneration;
+
+	/**
+	 * Constructor.
+	 */
+	AutocompileEditorState() {
+	}
+
+	/**
+	 * Returns the compiler state if it belongs to the specified document revision.
+	 *
+	 * @param expectedRevision the revision the caller's edits are based on
+	 * @return the compiler state, or null if there is none for that revision
+	 */
+	public synchronized Object getCompilerState(final long expectedRevision) {
+		return (expectedRevision >= 0 && expectedRevision == revision ? compilerState : null);
+	}
+
+	/**
+	 * Stores the compiler state for the specified document revision.
+	 *
+	 * @param revision the document revision
+	 * @param compilerState the compiler state
+	 */
+	public synchronized void setCompilerState(final long revision, final Object compilerState) {
+		this.revision = revision;
+		this.compilerState = compilerState;
+	}
+
+	/**
+	 * Discards the compiler state, for example after a cancelled compilation.
+	 */
+	public synchronized void clearCompilerState() {
+		this.revision = -1;
+		this.compilerState = null;
+	}
+
+	/**
+	 * Getter method for the revision.
+	 * @return the revision of the document the compiler state belongs to, or -1 if none
+	 */
+	public synchronized long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Getter method for the pendingCompilation.
+	 * @return the compilation whose remaining markers have not been delivered yet, or null
+	 */
+	synchronized PendingAutocompilation getPendingCompilation() {
+		return pendingCompilation;
+	}
+
+	/**
+	 * Setter method for the pendingCompilation.
+	 * @param pendingCompilation the pendingCompilation to set
+	 */
+	synchronized void setPendingCompilation(final PendingAutocompilation pendingCompilation) {
+		this.pendingCompilation = pendingCompilation;
+	}
+
+	/**
+	 * Getter method for the markerLineIndex.
+	 * @return the markers of the latest result if they are delivered to the client lazily, or null
+	 */
+	synchronized MarkerLineIndex getMarkerLineIndex() {
+		return markerLineIndex;
+	}
+
+	/**
+	 * Setter method for the markerLineIndex.
+	 * @param markerLineIndex the markerLineIndex to set
+	 */
+	synchronized void setMarkerLineIndex(final MarkerLineIndex markerLineIndex) {
+		this.markerLineIndex = markerLineIndex;
+	}
+
+	/**
+	 * Keeps the latest document sent by the client for searching. This only keeps a reference
+	 * to the document; the search index is built when the document is first searched. The
+	 * index of an earlier revision is dropped.
+	 *
+	 * @param revision the client-side revision of the document
+	 * @param document the document
+	 */
+	synchronized void setSearchDocument(final long revision, final String document) {
+		if (searchIndex != null && searchIndex.getRevision() != revision) {
+			searchIndex = null;
+		}
+		this.searchRevision = revision;
+		this.searchDocument = document;
+	}
+
+	/**
+	 * Returns the search index of the kept document, building it on first use.
+	 *
+	 * @param expectedRevision the revision the client expects to be searched
+	 * @param ngramThreshold the minimum document length for building trigram postings
+	 * @return the search index, or null if the kept document does not have the expected revision
+	 */
+	synchronized DocumentSearchIndex getSearchIndex(final long expectedRevision, final int ngramThreshold) {
+		if (searchDocument == null || searchRevision != expectedRevision) {
+			return null;
+		}
+		if (searchIndex == null) {
+			searchIndex = new DocumentSearchIndex(searchRevision, searchDocument, ngramThreshold);
+		}
+		return searchIndex;
+	}
+
+	/**
+	 * Getter method for the completionIndex.
+	 * @return the completion items of the latest compiler result that had any, or null
+	 */
+	synchronized CompletionIndex getCompletionIndex() {
+		return completionIndex;
+	}
+
+	/**
+	 * Setter method for the completionIndex.
+	 * @param completionIndex the completionIndex to set
+	 */
+	synchronized void setCompletionIndex(final CompletionIndex completionIndex) {
+		this.completionIndex = completionIndex;
+	}
+
+	/**
+	 * Getter method for the projectGeneration.
+	 * @return the generation (see {@link ProjectCompiler#getGeneration(String)}) of the latest result sent to the client
+	 */
+	synchronized long getProjectGeneration() {
+		return projectGeneration;
+	}
+
+	/**
+	 * Setter method for the projectGeneration.
+	 * @param projectGeneration the projectGeneration to set
+	 */
+	synchronized void setProjectGeneration(final long projectGeneration) {
+		this.projectGeneration = projectGeneration;
+	}
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.wicket.Application;
+import org.apache.wicket.MetaDataKey;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Keeps server-side state for auto-compiled editors, such as the state of an
+ * {@link IIncrementalCompiler}, in memory. This state is deliberately kept out
+ * of the page so it never ends up in the page store.
+ *
+ * States are evicted when the maximum number of editors is exceeded or when an
+ * editor has not been used for a while. An evicted state simply causes the next
+ * compilation of that editor to start from scratch.
+ *
+ * An instance with default limits is created on first use. Call
+ * {@link #initialize(Application, long, long)} during application startup
+ * to use different limits.
+ */
+public final class AutocompileEditorStates {
+
+	/**
+	 * The metadata key for this object.
+	 */
+	public static final MetaDataKey<AutocompileEditorStates> KEY = new MetaDataKey<AutocompileEditorStates>() {
+	};
+
+	/**
+	 * the DEFAULT_MAXIMUM_EDITOR_COUNT
+	 */
+	public static final long DEFAULT_MAXIMUM_EDITOR_COUNT = 1000;
+
+	/**
+	 * the DEFAULT_EXPIRE_AFTER_ACCESS_MINUTES
+	 */
+	public static final long DEFAULT_EXPIRE_AFTER_ACCESS_MINUTES = 30;
+
+	/**
+	 * Creates the editor state store for the specified application.
+	 *
+	 * @param application the Wicket application
+	 * @param maximumEditorCount the maximum number of editors to keep state for
+	 * @param expireAfterAccessMinutes the time after which the state of an unused editor is evicted
+	 * @return the editor state store
+	 */
+	public static AutocompileEditorStates initialize(final Application application, final long maximumEditorCount, final long expireAfterAccessMinutes) {
+		final AutocompileEditorStates states = new AutocompileEditorStates(maximumEditorCount, expireAfterAccessMinutes);
+		application.setMetaData(KEY, states);
+		return states;
+	}
+
+	/**
+	 * Returns the editor state store for the application of the calling thread,
+	 * creating one with default limits if necessary.
+	 *
+	 * @return the editor state store
+	 */
+	public static AutocompileEditorStates get() {
+		return get(Application.get());
+	}
+
+	/**
+	 * Returns the editor state store for the specified application, creating one
+	 * with default limits if necessary.
+	 *
+	 * @param application the Wicket application
+	 * @return the editor state store
+	 */
+	public static AutocompileEditorStates get(final Application application) {
+		AutocompileEditorStates states = application.getMetaData(KEY);
+		if (states == null) {
+			synchronized (application) {
+				states = application.getMetaData(KEY);
+				if (states == null) {
+					states = initialize(application, DEFAULT_MAXIMUM_EDITOR_COUNT, DEFAULT_EXPIRE_AFTER_ACCESS_MINUTES);
+				}
+			}
+		}
+		return states;
+	}
+
+	/**
+	 * the cache
+	 */
+	private final Cache<String, AutocompileEditorState> cache;
+
+	/**
+	 * Constructor.
+	 */
+	private AutocompileEditorStates(final long maximumEditorCount, final long expireAfterAccessMinutes) {
+		this.cache = CacheBuilder.newBuilder().maximumSize(maximumEditorCount).expireAfterAccess(expireAfterAccessMinutes, TimeUnit.MINUTES).build();
+	}
+
+	/**
+	 * Returns the state for the specified editor, creating an empty state if none exists.
+	 *
+	 * @param editorKey the key that identifies the editor across sessions
+	 * @return the state
+	 */
+	public AutocompileEditorState get(final String editorKey) {
+		try {
+			return cache.get(editorKey, new Callable<AutocompileEditorState>() {
+				@Override
+				public AutocompileEditorState call() {
+					return new AutocompileEditorState();
+				}
+			});
+		} catch (final ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the state for the specified editor, or null if none exists.
+	 *
+	 * @param editorKey the key that identifies the editor across sessions
+	 * @return the state or null
+	 */
+	public AutocompileEditorState getIfPresent(final String editorKey) {
+		return cache.getIfPresent(editorKey);
+	}
+
+	/**
+	 * Discards the state for the specified editor.
+	 *
+	 * @param editorKey the key that identifies the editor across sessions
+	 */
+	public void remove(final String editorKey) {
+		cache.invalidate(editorKey);
+	}
+
+	/**
+	 * @return the number of editors state is currently kept for
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+}
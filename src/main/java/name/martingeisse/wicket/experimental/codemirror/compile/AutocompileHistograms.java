@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.wicket.Application;
+import org.apache.wicket.IApplicationListener;
+
+/**
+ * An {@link IAutocompileMetrics} that keeps a histogram per {@link AutocompileMetric}.
+ * When installed using {@link #initialize(Application)}, the histograms are also
+ * registered with the platform MBean server, under the name
+ * "name.martingeisse.wicket:type=AutocompileHistograms,application=(application name)",
+ * so they can be watched with any JMX console.
+ */
+public final class AutocompileHistograms implements IAutocompileMetrics, AutocompileHistogramsMXBean {
+
+	/**
+	 * the logger
+	 */
+	private static Logger logger = LogManager.getLogger(AutocompileHistograms.class);
+
+	/**
+	 * Creates histograms, installs them as the metrics of the specified application
+	 * and registers them with the platform MBean server. They are unregistered
+	 * automatically when the application gets destroyed.
+	 *
+	 * @param application the Wicket application
+	 * @return the histograms
+	 */
+	public static AutocompileHistograms initialize(final Application application) {
+		final AutocompileHistograms histograms = new AutocompileHistograms();
+		AutocompileMetrics.install(application, histograms);
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name;
+		try {
+			name = new ObjectName("name.martingeisse.wicket:type=AutocompileHistograms,application=" + ObjectName.quote(application.getName()));
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(histograms, name);
+		} catch (final JMException e) {
+			logger.error("could not register auto-compile histograms with JMX", e);
+			return histograms;
+		}
+		application.getApplicationListeners().add(new IApplicationListener() {
+
+			@Override
+			public void onAfterInitialized(final Application application) {
+			}
+
+			@Override
+			public void onBeforeDestroyed(final Application application) {
+				try {
+					server.unregisterMBean(name);
+				} catch (final JMException e) {
+					logger.warn("could not unregister auto-compile histograms from JMX", e);
+				}
+			}
+
+		});
+		return histograms;
+	}
+
+	/**
+	 * the histograms
+	 */
+	private final Map<AutocompileMetric, Histogram> histograms = new EnumMap<>(AutocompileMetric.class);
+
+	/**
+	 * Constructor. Use this constructor to keep histograms without registering
+	 * them with JMX, for example to show them on a status page.
+	 */
+	public AutocompileHistograms() {
+		for (final AutocompileMetric metric : AutocompileMetric.values()) {
+			histograms.put(metric, new Histogram());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.IAutocompileMetrics#record(name.martingeisse.wicket.experimental.codemirror.compile.AutocompileMetric, long)
+	 */
+	@Override
+	public void record(final AutocompileMetric metric, final long value) {
+		histograms.get(metric).record(value);
+	}
+
+	/**
+	 * Returns a snapshot of the histogram for the specified metric.
+	 *
+	 * @param metric the metric
+	 * @return the snapshot
+	 */
+	public HistogramSnapshot getSnapshot(final AutocompileMetric metric) {
+		return histograms.get(metric).snapshot();
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.AutocompileHistogramsMXBean#getRequestToHandlerMillis()
+	 */
+	@Override
+	public HistogramSnapshot getRequestToHandlerMillis() {
+		return getSnapshot(AutocompileMetric.REQUEST_TO_HANDLER_MILLIS);
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.AutocompileHistogramsMXBean#getQueueWaitMillis()
+	 */
+	@Override
+	public HistogramSnapshot getQueueWaitMillis() {
+		return getSnapshot(AutocompileMetric.QUEUE_WAIT_MILLIS);
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.AutocompileHistogramsMXBean#getCompileMillis()
+	 */
+	@Override
+	public HistogramSnapshot getCompileMillis() {
+		return getSnapshot(AutocompileMetric.COMPILE_MILLIS);
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.AutocompileHistogramsMXBean#getMarkerSerializationMillis()
+	 */
+	@Override
+	public HistogramSnapshot getMarkerSerializationMillis() {
+		return getSnapshot(AutocompileMetric.MARKER_SERIALIZATION_MILLIS);
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.AutocompileHistogramsMXBean#getResponseSizeChars()
+	 */
+	@Override
+	public HistogramSnapshot getResponseSizeChars() {
+		return getSnapshot(AutocompileMetric.RESPONSE_SIZE_CHARS);
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.AutocompileHistogramsMXBean#getServerMillis()
+	 */
+	@Override
+	public HistogramSnapshot getServerMillis() {
+		return getSnapshot(AutocompileMetric.SERVER_MILLIS);
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.AutocompileHistogramsMXBean#getClientRoundTripMillis()
+	 */
+	@Override
+	public HistogramSnapshot getClientRoundTripMillis() {
+		return getSnapshot(AutocompileMetric.CLIENT_ROUND_TRIP_MILLIS);
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.AutocompileHistogramsMXBean#reset()
+	 */
+	@Override
+	public void reset() {
+		for (final Histogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+	}
+
+}
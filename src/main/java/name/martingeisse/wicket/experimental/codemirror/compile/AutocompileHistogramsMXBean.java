@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+/**
+ * The JMX management interface of {@link AutocompileHistograms}.
+ * Each attribute is the histogram of one {@link AutocompileMetric}.
+ */
+public interface AutocompileHistogramsMXBean {
+
+	/**
+	 * @return the histogram of {@link AutocompileMetric#REQUEST_TO_HANDLER_MILLIS}
+	 */
+	public HistogramSnapshot getRequestToHandlerMillis();
+
+	/**
+	 * @return the histogram of {@link AutocompileMetric#QUEUE_WAIT_MILLIS}
+	 */
+	public HistogramSnapshot getQueueWaitMillis();
+
+	/**
+	 * @return the histogram of {@link AutocompileMetric#COMPILE_MILLIS}
+	 */
+	public HistogramSnapshot getCompileMillis();
+
+	/**
+	 * @return the histogram of {@link AutocompileMetric#MARKER_SERIALIZATION_MILLIS}
+	 */
+	public HistogramSnapshot getMarkerSerializationMillis();
+
+	/**
+	 * @return the histogram of {@link AutocompileMetric#RESPONSE_SIZE_CHARS}
+	 */
+	public HistogramSnapshot getResponseSizeChars();
+
+	/**
+	 * @return the histogram of {@link AutocompileMetric#SERVER_MILLIS}
+	 */
+	public HistogramSnapshot getServerMillis();
+
+	/**
+	 * @return the histogram of {@link AutocompileMetric#CLIENT_ROUND_TRIP_MILLIS}
+	 */
+	public HistogramSnapshot getClientRoundTripMillis();
+
+	/**
+	 * Clears all histograms.
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+/**
+ * The figures recorded for auto-compile requests (see {@link IAutocompileMetrics}).
+ * Together they tell whether slow feedback in the editor comes from the network,
+ * from getting the request to the behavior (including the page lock), from the
+ * compiler or from the size of the response.
+ */
+public enum AutocompileMetric {
+
+	/**
+	 * The time in milliseconds from the start of the request cycle until the behavior
+	 * starts handling the request. This includes decoding the request, waiting for the
+	 * page lock, loading (and possibly deserializing) the page and dispatching to the
+	 * behavior, so it is an upper bound for the time spent waiting for the page lock,
+	 * not a measurement of it. It does not include time the request spent in the
+	 * servlet container before Wicket started handling it.
+	 */
+	REQUEST_TO_HANDLER_MILLIS,
+
+	/**
+	 * The time in milliseconds a compilation waited in the queue of the
+	 * {@link AutocompileScheduler}. Only recorded if a scheduler is installed.
+	 */
+	QUEUE_WAIT_MILLIS,
+
+	/**
+	 * The time in milliseconds the compiler ran.
+	 */
+	COMPILE_MILLIS,
+
+	/**
+	 * The time in milliseconds spent turning markers into the script of the response.
+	 */
+	MARKER_SERIALIZATION_MILLIS,
+
+	/**
+	 * The length in characters of the script that shows the markers in the editor.
+	 */
+	RESPONSE_SIZE_CHARS,
+
+	/**
+	 * The time in milliseconds from the start of the request cycle (or, for the stateless
+	 * endpoint, from the start of the resource) until the response has been built.
+	 */
+	SERVER_MILLIS,
+
+	/**
+	 * The round-trip time in milliseconds of a compile request as measured in the browser,
+	 * from sending the request until the response was processed. The browser sends
+	 * it along with the next compile request.
+	 */
+	CLIENT_ROUND_TRIP_MILLIS;
+
+}
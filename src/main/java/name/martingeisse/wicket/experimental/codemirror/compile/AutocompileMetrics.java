@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.MetaDataKey;
+
+/**
+ * Associates an {@link IAutocompileMetrics} with a Wicket application. If none
+ * is installed, nothing is recorded.
+ */
+public final class AutocompileMetrics {
+
+	/**
+	 * The metadata key for the installed metrics.
+	 */
+	public static final MetaDataKey<IAutocompileMetrics> KEY = new MetaDataKey<IAutocompileMetrics>() {
+	};
+
+	/**
+	 * Prevent instantiation.
+	 */
+	private AutocompileMetrics() {
+	}
+
+	/**
+	 * Installs the specified metrics for the specified application.
+	 *
+	 * @param application the Wicket application
+	 * @param metrics the metrics, or null to stop recording
+	 */
+	public static void install(final Application application, final IAutocompileMetrics metrics) {
+		application.setMetaData(KEY, metrics);
+	}
+
+	/**
+	 * Returns the metrics for the specified application, or null if none
+	 * are installed for the application.
+	 *
+	 * @param application the Wicket application
+	 * @return the metrics
+	 */
+	public static IAutocompileMetrics get(final Application application) {
+		return application.getMetaData(KEY);
+	}
+
+	/**
+	 * Records a value with the metrics of the application of the calling thread, if any.
+	 *
+	 * This method is NOT part of the public API.
+	 */
+	static void record(final AutocompileMetric metric, final long value) {
+		final IAutocompileMetrics metrics = get(Application.get());
+		if (metrics != null && value >= 0) {
+			metrics.record(metric, value);
+		}
+	}
+
+	/**
+	 * Records a duration, given in nanoseconds, in milliseconds.
+	 *
+	 * This method is NOT part of the public API.
+	 */
+	static void recordNanos(final AutocompileMetric metric, final long nanos) {
+		record(metric, nanos / 1000000);
+	}
+
+}
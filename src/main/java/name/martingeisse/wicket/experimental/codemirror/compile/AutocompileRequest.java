@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.wicket.request.IRequestParameters;
+import org.apache.wicket.util.string.Strings;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * The data sent by the client for a single editor, either as the parameters of
+ * an autocompile request or as one entry of a batch (see {@link AutocompileBatchBehavior}).
+ * Entries of a batch are read from JSON by Gson, so the field names match the
+ * parameter names.
+ *
+ * This class is NOT part of the public API.
+ */
+final class AutocompileRequest {
+
+	/**
+	 * the markup id of the editor (only used for batch entries)
+	 */
+	private String id;
+
+	/**
+	 * the document
+	 */
+	private String value;
+
+	/**
+	 * the revision
+	 */
+	private long revision = -1;
+
+	/**
+	 * the previousRevision
+	 */
+	private long previousRevision = -1;
+
+	/**
+	 * the line edits as a JSON array of [startLine, oldEndLine, newEndLine] arrays
+	 */
+	private String edits;
+
+	/**
+	 * the id of the stream whose remaining markers are requested
+	 */
+	private String stream;
+
+	/**
+	 * the first visible line
+	 */
+	private int viewportFrom = -1;
+
+	/**
+	 * the last visible line
+	 */
+	private int viewportTo = -1;
+
+	/**
+	 * the marker range, as "indexId:from:to"
+	 */
+	private String markerRange;
+
+	/**
+	 * the search query as JSON (see {@link Search})
+	 */
+	private String search;
+
+	/**
+	 * the round-trip time of the previous compile request, as measured by the client
+	 */
+	private long roundTrip = -1;
+
+	/**
+	 * Constructor.
+	 */
+	AutocompileRequest() {
+	}
+
+	/**
+	 * Reads the request data from the specified request parameters.
+	 *
+	 * @param parameters the request parameters
+	 * @return the request data
+	 */
+	static AutocompileRequest fromParameters(final IRequestParameters parameters) {
+		final AutocompileRequest request = new AutocompileRequest();
+		request.value = getOptionalString(parameters, "value");
+		request.revision = parameters.getParameterValue("revision").toLong(-1);
+		request.previousRevision = parameters.getParameterValue("previousRevision").toLong(-1);
+		request.edits = parameters.getParameterValue("edits").toString(null);
+		request.stream = getOptionalString(parameters, "stream");
+		request.viewportFrom = parameters.getParameterValue("viewportFrom").toInt(-1);
+		request.viewportTo = parameters.getParameterValue("viewportTo").toInt(-1);
+		request.markerRange = getOptionalString(parameters, "markerRange");
+		request.search = getOptionalString(parameters, "search");
+		request.roundTrip = parameters.getParameterValue("roundTrip").toLong(-1);
+		return request;
+	}
+
+	/**
+	 * Returns the value of an optional parameter. The client sends undefined callback
+	 * parameters as empty values, so an empty value counts as missing.
+	 */
+	private static String getOptionalString(final IRequestParameters parameters, final String name) {
+		final String value = parameters.getParameterValue(name).toString(null);
+		return (Strings.isEmpty(value) ? null : value);
+	}
+
+	/**
+	 * Reads the entries of a batch from the specified JSON array.
+	 *
+	 * @param json the JSON array
+	 * @return the entries, or null if the JSON is malformed
+	 */
+	static AutocompileRequest[] fromBatchJson(final String json) {
+		if (json == null) {
+			return null;
+		}
+		try {
+			return new Gson().fromJson(json, AutocompileRequest[].class);
+		} catch (final JsonParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Getter method for the id.
+	 * @return the id
+	 */
+	String getId() {
+		return id;
+	}
+
+	/**
+	 * Getter method for the document.
+	 * @return the document (never null)
+	 */
+	String getDocument() {
+		return (value == null ? "" : value);
+	}
+
+	/**
+	 * Note that an empty document cannot be told apart from a missing one, so this
+	 * method returns false for an empty document.
+	 *
+	 * @return true if the client sent the document, false if not
+	 */
+	boolean hasDocument() {
+		return (value != null);
+	}
+
+	/**
+	 * Getter method for the revision.
+	 * @return the revision
+	 */
+	long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Getter method for the previousRevision.
+	 * @return the previousRevision
+	 */
+	long getPreviousRevision() {
+		return previousRevision;
+	}
+
+	/**
+	 * Parses the line edits sent by the client.
+	 *
+	 * @return the edits, or null if they are missing or malformed
+	 */
+	List<LineEdit> getEdits() {
+		if (edits == null) {
+			return null;
+		}
+		try {
+			final int[][] rawEdits = new Gson().fromJson(edits, int[][].class);
+			if (rawEdits == null) {
+				return Collections.emptyList();
+			}
+			final List<LineEdit> result = new ArrayList<>(rawEdits.length);
+			for (final int[] rawEdit : rawEdits) {
+				result.add(new LineEdit(rawEdit[0], rawEdit[1], rawEdit[2]));
+			}
+			return result;
+		} catch (final JsonParseException | IllegalArgumentException | IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Getter method for the stream.
+	 * @return the stream id, or null if this is not a follow-up request
+	 */
+	String getStream() {
+		return stream;
+	}
+
+	/**
+	 * Getter method for the viewportFrom.
+	 * @return the viewportFrom, or -1 if unknown
+	 */
+	int getViewportFrom() {
+		return viewportFrom;
+	}
+
+	/**
+	 * Getter method for the viewportTo.
+	 * @return the viewportTo, or -1 if unknown
+	 */
+	int getViewportTo() {
+		return viewportTo;
+	}
+
+	/**
+	 * Getter method for the markerRange.
+	 * @return the markerRange, or null if this is not a lazy marker request
+	 */
+	String getMarkerRange() {
+		return markerRange;
+	}
+
+	/**
+	 * Getter method for the roundTrip.
+	 * @return the round-trip time of the previous compile request in milliseconds, as measured by the client, or -1 if unknown
+	 */
+	long getRoundTrip() {
+		return roundTrip;
+	}
+
+	/**
+	 * @return true if this is a search request, false if not
+	 */
+	boolean isSearchRequest() {
+		return (search != null);
+	}
+
+	/**
+	 * Parses the search query sent by the client.
+	 *
+	 * @return the search query, or null if this is not a search request or the query is malformed
+	 */
+	Search getSearch() {
+		if (search == null) {
+			return null;
+		}
+		try {
+			final Search result = new Gson().fromJson(search, Search.class);
+			return (result == null || result.query == null || result.query.isEmpty() || result.query.indexOf('\n') >= 0 ? null : result);
+		} catch (final JsonParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A search query, read from JSON by Gson.
+	 */
+	static final class Search {
+
+		/**
+		 * the query
+		 */
+		String query;
+
+		/**
+		 * the caseSensitive
+		 */
+		boolean caseSensitive;
+
+		/**
+		 * the page
+		 */
+		int page;
+
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.wicket.Application;
+import org.apache.wicket.request.IRequestParameters;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.resource.AbstractResource;
+import org.apache.wicket.util.string.Strings;
+import com.google.gson.Gson;
+
+/**
+ * The stateless compile endpoint of the {@link CompilerRegistry}. The client posts
+ * the compiler key, the document, an editor key (used by the {@link AutocompileScheduler}
+ * to supersede outdated requests) and the round-trip time of its previous request. The
+ * response is JSON: either the markers and the document length, or the time to back off
+ * if the scheduler is overloaded.
+ *
+ * This class is NOT part of the public API.
+ */
+final class AutocompileResource extends AbstractResource {
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.request.resource.AbstractResource#newResourceResponse(org.apache.wicket.request.resource.IResource.Attributes)
+	 */
+	@Override
+	protected ResourceResponse newResourceResponse(final Attributes attributes) {
+		final long arrivalTime = System.nanoTime();
+		final ResourceResponse response = new ResourceResponse();
+		response.disableCaching();
+		final WebRequest request = (WebRequest)attributes.getRequest();
+		final CompilerRegistry registry = CompilerRegistry.get(Application.get());
+		final IRequestParameters parameters = request.getPostParameters();
+		final ICompiler compiler = (registry == null ? null : registry.getCompiler(parameters.getParameterValue("key").toString(null)));
+		final String document = parameters.getParameterValue("value").toString(null);
+		if (compiler == null || document == null) {
+			response.setError(HttpServletResponse.SC_BAD_REQUEST);
+			return response;
+		}
+		if (document.length() > registry.getMaxDocumentLength()) {
+			response.setError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			return response;
+		}
+		AutocompileMetrics.record(AutocompileMetric.CLIENT_ROUND_TRIP_MILLIS, parameters.getParameterValue("roundTrip").toLong(-1));
+		
+		// compile, on the scheduler if there is one
+		final Map<String, Object> data = new HashMap<>();
+		final AutocompileScheduler scheduler = AutocompileScheduler.get(Application.get());
+		CompilerResult result;
+		if (scheduler == null) {
+			final long startTime = System.nanoTime();
+			result = ICompiler.Util.compileSafe(compiler, document);
+			AutocompileMetrics.recordNanos(AutocompileMetric.COMPILE_MILLIS, System.nanoTime() - startTime);
+		} else {
+			final AutocompileScheduler.Ticket ticket = scheduler.submit(getSessionKey(request), Strings.defaultIfEmpty(parameters.getParameterValue("editor").toString(null), null), compiler, document);
+			result = scheduler.await(ticket);
+			AutocompileMetrics.recordNanos(AutocompileMetric.QUEUE_WAIT_MILLIS, ticket.getQueueNanos());
+			AutocompileMetrics.recordNanos(AutocompileMetric.COMPILE_MILLIS, ticket.getCompileNanos());
+			if (result == null && ticket.isRejected()) {
+				data.put("backOff", scheduler.getSuggestedBackOffMillis());
+			}
+		}
+		
+		// build the response
+		final long serializationStartTime = System.nanoTime();
+		if (result != null) {
+			final List<Object[]> markers = new ArrayList<>();
+			for (final CompilerMarker marker : result.getMarkerSnapshot()) {
+				markers.add(new Object[] {
+					marker.getStartLine(), marker.getStartColumn(), marker.getEndLine(), marker.getEndColumn(), marker.getErrorLevel().name(), marker.getMessage()
+				});
+			}
+			data.put("markers", markers);
+			data.put("documentLength", document.length());
+		}
+		final byte[] json = new Gson().toJson(data).getBytes(StandardCharsets.UTF_8);
+		AutocompileMetrics.recordNanos(AutocompileMetric.MARKER_SERIALIZATION_MILLIS, System.nanoTime() - serializationStartTime);
+		AutocompileMetrics.record(AutocompileMetric.RESPONSE_SIZE_CHARS, json.length);
+		AutocompileMetrics.recordNanos(AutocompileMetric.SERVER_MILLIS, System.nanoTime() - arrivalTime);
+		response.setContentType("application/json");
+		response.setTextEncoding("UTF-8");
+		response.setContentLength(json.length);
+		response.setWriteCallback(new WriteCallback() {
+			@Override
+			public void writeData(final Attributes attributes) {
+				attributes.getResponse().write(json);
+			}
+		});
+		return response;
+		
+	}
+
+	/**
+	 * Returns the key that identifies the client's session for fair scheduling. This
+	 * uses the session id sent by the client, so no session is created or loaded.
+	 */
+	private static String getSessionKey(final WebRequest request) {
+		final Object containerRequest = request.getContainerRequest();
+		final String sessionId = (containerRequest instanceof HttpServletRequest ? ((HttpServletRequest)containerRequest).getRequestedSessionId() : null);
+		return (sessionId == null ? "" : sessionId);
+	}
+
+}
@@ -0,0 +1,777 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.wicket.Application;
+import org.apache.wicket.IApplicationListener;
+import org.apache.wicket.MetaDataKey;
+import name.martingeisse.wicket.helpers.IConsumer;
+import name.martingeisse.wicket.internal.ParameterUtil;
+
+/**
+ * Application-wide scheduler for auto-compile requests. When installed
+ * using {@link #initialize(Application, int, int, long)},
+ * {@link CodeMirrorAutocompileBehavior} no longer compiles on the servlet
+ * thread but hands the document to this scheduler and waits for the result.
+ *
+ * The scheduler runs compilers on a bounded pool of worker threads. Pending
+ * compilations are queued per session, and the workers serve the sessions in
+ * round-robin order, so a single user with many editors cannot starve everybody
+ * else. Each editor has at most one pending compilation: submitting a document
+ * for an editor that already has a queued (not yet running) compilation
+ * replaces the queued document in its place in the queue, and the caller that
+ * was waiting for the replaced compilation gets a "superseded" ticket. Page-bound
+ * clients never have two compilations of an editor in flight, but clients of
+ * the stateless endpoint are not bound by the page lock.
+ *
+ * The caller waits for its compilation on the request thread. For page-bound
+ * behaviors, this thread holds the page lock, so further requests for the same
+ * page wait as well. This is acceptable since the client never sends another
+ * compile request for an editor while one is in flight, and the waiting time
+ * is bounded by the time budget of the compilation (see below).
+ *
+ * If the number of queued compilations of a session reaches the per-session
+ * maximum, or the total number of queued compilations reaches the overall
+ * maximum, new submissions are rejected immediately (load shedding). The
+ * per-session limit is checked first, so a single session (or a client that
+ * sends many editor keys) cannot fill the queue for everybody else. The auto-compile
+ * behavior then tells the client to back off for {@link #getSuggestedBackOffMillis()}
+ * before trying again.
+ *
+ * Each compilation has a time budget that starts when it is submitted, so
+ * time spent waiting in the queue counts against it; see {@link TimeBoxedCompilerRunner}
+ * for what happens on timeout.
+ *
+ * Simple counters and latency figures are available through the getter
+ * methods of this class.
+ */
+public final class AutocompileScheduler {
+
+	/**
+	 * The metadata key for this object.
+	 */
+	public static final MetaDataKey<AutocompileScheduler> KEY = new MetaDataKey<AutocompileScheduler>() {
+	};
+
+	/**
+	 * the DEFAULT_MAX_QUEUED_COMPILATIONS_PER_SESSION
+	 */
+	public static final int DEFAULT_MAX_QUEUED_COMPILATIONS_PER_SESSION = 8;
+
+	/**
+	 * Creates a scheduler and installs it for the specified application. The scheduler
+	 * is shut down automatically when the application gets destroyed.
+	 *
+	 * @param application the Wicket application
+	 * @param workerCount the number of worker threads
+	 * @param maxQueuedCompilations the maximum number of queued (not yet running) compilations
+	 * @param compileTimeoutMillis the time budget for each compilation, including time spent in the queue
+	 * @return the scheduler
+	 */
+	public static AutocompileScheduler initialize(final Application application, final int workerCount, final int maxQueuedCompilations, final long compileTimeoutMillis) {
+		return initialize(application, workerCount, maxQueuedCompilations, Math.min(maxQueuedCompilations, DEFAULT_MAX_QUEUED_COMPILATIONS_PER_SESSION), compileTimeoutMillis);
+	}
+
+	/**
+	 * Creates a scheduler and installs it for the specified application. The scheduler
+	 * is shut down automatically when the application gets destroyed.
+	 *
+	 * @param application the Wicket application
+	 * @param workerCount the number of worker threads
+	 * @param maxQueuedCompilations the maximum number of queued (not yet running) compilations
+	 * @param maxQueuedCompilationsPerSession the maximum number of queued compilations of a single session
+	 * @param compileTimeoutMillis the time budget for each compilation, including time spent in the queue
+	 * @return the scheduler
+	 */
+	public static AutocompileScheduler initialize(final Application application, final int workerCount, final int maxQueuedCompilations, final int maxQueuedCompilationsPerSession, final long compileTimeoutMillis) {
+		final AutocompileScheduler scheduler = new AutocompileScheduler(workerCount, maxQueuedCompilations, maxQueuedCompilationsPerSession, compileTimeoutMillis);
+		application.setMetaData(KEY, scheduler);
+		application.getApplicationListeners().add(new IApplicationListener() {
+
+			@Override
+			public void onAfterInitialized(final Application application) {
+			}
+
+			@Override
+			public void onBeforeDestroyed(final Application application) {
+				scheduler.shutdown();
+			}
+
+		});
+		return scheduler;
+	}
+
+	/**
+	 * Returns the scheduler for the application of the calling thread,
+	 * or null if none is associated with that application.
+	 *
+	 * @return the scheduler
+	 */
+	public static AutocompileScheduler get() {
+		return get(Application.get());
+	}
+
+	/**
+	 * Returns the scheduler for the specified application, or null if none
+	 * is associated with the application.
+	 *
+	 * @param application the Wicket application
+	 * @return the scheduler
+	 */
+	public static AutocompileScheduler get(final Application application) {
+		return application.getMetaData(KEY);
+	}
+
+	/**
+	 * the maxQueuedCompilations
+	 */
+	private final int maxQueuedCompilations;
+
+	/**
+	 * the maxQueuedCompilationsPerSession
+	 */
+	private final int maxQueuedCompilationsPerSession;
+
+	/**
+	 * the compileTimeoutMillis
+	 */
+	private final long compileTimeoutMillis;
+
+	/**
+	 * the executor
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Queued tickets, grouped by session key and then by editor key, in submission
+	 * order within each session. Tickets without an editor key use themselves as
+	 * the key. Sessions are kept in round-robin order: a session that gets served
+	 * is moved to the end. Guarded by itself.
+	 */
+	private final LinkedHashMap<String, LinkedHashMap<Object, Ticket>> queuedTickets;
+
+	/**
+	 * the queueDepth (guarded by queuedTickets)
+	 */
+	private int queueDepth;
+
+	/**
+	 * the shutdown flag (guarded by queuedTickets)
+	 */
+	private boolean shutdown;
+
+	/**
+	 * the submittedCount
+	 */
+	private final AtomicLong submittedCount = new AtomicLong();
+
+	/**
+	 * the completedCount
+	 */
+	private final AtomicLong completedCount = new AtomicLong();
+
+	/**
+	 * the rejectedCount
+	 */
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * the supersededCount
+	 */
+	private final AtomicLong supersededCount = new AtomicLong();
+
+	/**
+	 * the timedOutCount
+	 */
+	private final AtomicLong timedOutCount = new AtomicLong();
+
+	/**
+	 * the totalQueueNanos
+	 */
+	private final AtomicLong totalQueueNanos = new AtomicLong();
+
+	/**
+	 * the maxQueueNanos
+	 */
+	private final AtomicLong maxQueueNanos = new AtomicLong();
+
+	/**
+	 * the totalCompileNanos
+	 */
+	private final AtomicLong totalCompileNanos = new AtomicLong();
+
+	/**
+	 * the maxCompileNanos
+	 */
+	private final AtomicLong maxCompileNanos = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param workerCount the number of worker threads
+	 * @param maxQueuedCompilations the maximum number of queued (not yet running) compilations
+	 * @param maxQueuedCompilationsPerSession the maximum number of queued compilations of a single session
+	 * @param compileTimeoutMillis the time budget for each compilation
+	 */
+	private AutocompileScheduler(final int workerCount, final int maxQueuedCompilations, final int maxQueuedCompilationsPerSession, final long compileTimeoutMillis) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("workerCount must be positive: " + workerCount);
+		}
+		if (maxQueuedCompilations < 1) {
+			throw new IllegalArgumentException("maxQueuedCompilations must be positive: " + maxQueuedCompilations);
+		}
+		if (maxQueuedCompilationsPerSession < 1) {
+			throw new IllegalArgumentException("maxQueuedCompilationsPerSession must be positive: " + maxQueuedCompilationsPerSession);
+		}
+		if (compileTimeoutMillis < 0) {
+			throw new IllegalArgumentException("compileTimeoutMillis is negative: " + compileTimeoutMillis);
+		}
+		this.maxQueuedCompilations = maxQueuedCompilations;
+		this.maxQueuedCompilationsPerSession = maxQueuedCompilationsPerSession;
+		this.compileTimeoutMillis = compileTimeoutMillis;
+		this.executor = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+		this.queuedTickets = new LinkedHashMap<>();
+		this.queueDepth = 0;
+		this.shutdown = false;
+	}
+
+	/**
+	 * Getter method for the maxQueuedCompilations.
+	 * @return the maxQueuedCompilations
+	 */
+	public int getMaxQueuedCompilations() {
+		return maxQueuedCompilations;
+	}
+
+	/**
+	 * Getter method for the maxQueuedCompilationsPerSession.
+	 * @return the maxQueuedCompilationsPerSession
+	 */
+	public int getMaxQueuedCompilationsPerSession() {
+		return maxQueuedCompilationsPerSession;
+	}
+
+	/**
+	 * Getter method for the compileTimeoutMillis.
+	 * @return the compileTimeoutMillis
+	 */
+	public long getCompileTimeoutMillis() {
+		return compileTimeoutMillis;
+	}
+
+	/**
+	 * Submits a document for compilation. This method does not block. The returned
+	 * ticket is already rejected if the queue is full or the scheduler has been shut down.
+	 * If the editor already has a queued compilation, the new document takes its place
+	 * and the older ticket is superseded.
+	 *
+	 * @param sessionKey identifies the session, used for fair scheduling
+	 * @param editorKey identifies the editor within the session, or null to never supersede
+	 * @param compiler the compiler
+	 * @param document the document
+	 * @return the ticket
+	 */
+	public Ticket submit(final String sessionKey, final String editorKey, final ICompiler compiler, final String document) {
+		return submit(sessionKey, editorKey, compiler, document, null);
+	}
+
+	/**
+	 * Like {@link #submit(String, String, ICompiler, String)}, but also installs a
+	 * marker sink on the result object before the compilation can start, so the
+	 * caller learns about markers the compiler publishes before it finishes
+	 * (see {@link CompilerResult#publishMarkers()}).
+	 *
+	 * @param sessionKey identifies the session, used for fair scheduling
+	 * @param editorKey identifies the editor within the session, or null to never supersede
+	 * @param compiler the compiler
+	 * @param document the document
+	 * @param markerSink the marker sink (may be null)
+	 * @return the ticket
+	 */
+	public Ticket submit(final String sessionKey, final String editorKey, final ICompiler compiler, final String document, final IConsumer<List<CompilerMarker>> markerSink) {
+		ParameterUtil.ensureNotNull(sessionKey, "sessionKey");
+		ParameterUtil.ensureNotNull(compiler, "compiler");
+		final CompilerResult result = new CompilerResult(document);
+		result.setMarkerSink(markerSink);
+		final Ticket ticket = new Ticket(sessionKey, editorKey, compiler, result, CompileCancellationToken.withTimeout(compileTimeoutMillis));
+		submittedCount.incrementAndGet();
+		synchronized (queuedTickets) {
+			if (shutdown) {
+				rejectedCount.incrementAndGet();
+				ticket.finish(TicketState.REJECTED);
+				return ticket;
+			}
+			LinkedHashMap<Object, Ticket> sessionTickets = queuedTickets.get(sessionKey);
+			final Ticket previous = (sessionTickets == null || editorKey == null ? null : sessionTickets.get(editorKey));
+			if (previous != null) {
+				// replace the queued ticket in place; its worker slot is taken over by the new one
+				sessionTickets.put(editorKey, ticket);
+				supersededCount.incrementAndGet();
+				previous.finish(TicketState.SUPERSEDED);
+				return ticket;
+			}
+			if ((sessionTickets != null && sessionTickets.size() >= maxQueuedCompilationsPerSession) || queueDepth >= maxQueuedCompilations) {
+				rejectedCount.incrementAndGet();
+				ticket.finish(TicketState.REJECTED);
+				return ticket;
+			}
+			if (sessionTickets == null) {
+				sessionTickets = new LinkedHashMap<>();
+				queuedTickets.put(sessionKey, sessionTickets);
+			}
+			sessionTickets.put(ticket.getQueueKey(), ticket);
+			queueDepth++;
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					runNextTicket();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			if (removeQueuedTicket(ticket)) {
+				rejectedCount.incrementAndGet();
+				ticket.finish(TicketState.REJECTED);
+			}
+		}
+		return ticket;
+	}
+
+	/**
+	 * Waits for the compilation of the specified ticket to finish, at most until
+	 * its time budget is used up. If the compilation has not finished by then, it
+	 * is cancelled (or removed from the queue if it has not started yet) and a
+	 * partial result with a timeout marker is returned. If the calling thread is
+	 * interrupted while waiting, the marker reports the interruption instead.
+	 *
+	 * @param ticket the ticket
+	 * @return the result, or null if the ticket was rejected or superseded
+	 */
+	public CompilerResult await(final Ticket ticket) {
+		final CompilerResult result = TimeBoxedCompilerRunner.await(ticket.future, ticket.result, ticket.cancellationToken);
+		switch (ticket.state) {
+
+		case REJECTED:
+		case SUPERSEDED:
+			return null;
+
+		case FINISHED:
+			return result;
+
+		default:
+			// the time budget was used up while queued or running, or the waiting thread was interrupted
+			if (!Thread.currentThread().isInterrupted()) {
+				timedOutCount.incrementAndGet();
+			}
+			removeQueuedTicket(ticket);
+			return (result == ticket.result ? TimeBoxedCompilerRunner.createTimeoutResult(result, ticket.cancellationToken) : result);
+
+		}
+	}
+
+	/**
+	 * Submits a document for compilation and waits for the result. This is a
+	 * shortcut for {@link #submit(String, String, ICompiler, String)} followed by
+	 * {@link #await(Ticket)}.
+	 *
+	 * @param sessionKey identifies the session, used for fair scheduling
+	 * @param editorKey identifies the editor within the session, or null to never supersede
+	 * @param compiler the compiler
+	 * @param document the document
+	 * @return the result, or null if the compilation was rejected or superseded
+	 */
+	public CompilerResult compile(final String sessionKey, final String editorKey, final ICompiler compiler, final String document) {
+		return await(submit(sessionKey, editorKey, compiler, document));
+	}
+
+	/**
+	 * Returns the time a client should wait before submitting again after its
+	 * compilation was rejected. This is based on the current queue depth and
+	 * the average compile time, clamped to a range of 0.5 to 10 seconds.
+	 *
+	 * @return the suggested back-off time in milliseconds
+	 */
+	public long getSuggestedBackOffMillis() {
+		final long perWorkerDepth = 1 + getQueueDepth() / executor.getMaximumPoolSize();
+		final long estimate = perWorkerDepth * Math.max(getAverageCompileMillis(), 1);
+		return Math.max(500, Math.min(10000, estimate));
+	}
+
+	/**
+	 * Stops all worker threads and rejects all queued compilations.
+	 */
+	public void shutdown() {
+		synchronized (queuedTickets) {
+			shutdown = true;
+			for (final Map<Object, Ticket> sessionTickets : queuedTickets.values()) {
+				for (final Ticket ticket : sessionTickets.values()) {
+					ticket.finish(TicketState.REJECTED);
+				}
+			}
+			queuedTickets.clear();
+			queueDepth = 0;
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Takes the next ticket in round-robin session order and runs it. Called
+	 * on a worker thread, exactly once for each queued ticket.
+	 */
+	private void runNextTicket() {
+		final Ticket ticket;
+		synchronized (queuedTickets) {
+			final Iterator<Map.Entry<String, LinkedHashMap<Object, Ticket>>> sessionIterator = queuedTickets.entrySet().iterator();
+			if (!sessionIterator.hasNext()) {
+				return;
+			}
+			final Map.Entry<String, LinkedHashMap<Object, Ticket>> sessionEntry = sessionIterator.next();
+			final LinkedHashMap<Object, Ticket> sessionTickets = sessionEntry.getValue();
+			final Iterator<Ticket> ticketIterator = sessionTickets.values().iterator();
+			ticket = ticketIterator.next();
+			ticketIterator.remove();
+			sessionIterator.remove();
+			if (!sessionTickets.isEmpty()) {
+				queuedTickets.put(sessionEntry.getKey(), sessionTickets);
+			}
+			queueDepth--;
+		}
+		if (ticket.cancellationToken.isCancelled()) {
+			ticket.finish(TicketState.CANCELLED);
+			return;
+		}
+		final long startTime = System.nanoTime();
+		ticket.queueNanos = startTime - ticket.submitTime;
+		recordLatency(ticket.queueNanos, totalQueueNanos, maxQueueNanos);
+		ticket.state = TicketState.RUNNING;
+		ICompiler.Util.compileSafe(ticket.compiler, ticket.result, ticket.cancellationToken);
+		ticket.compileNanos = System.nanoTime() - startTime;
+		recordLatency(ticket.compileNanos, totalCompileNanos, maxCompileNanos);
+		completedCount.incrementAndGet();
+		ticket.finish(ticket.cancellationToken.isCancelled() ? TicketState.CANCELLED : TicketState.FINISHED);
+	}
+
+	/**
+	 * Removes the specified ticket from the queue if it is still queued.
+	 * @return true if removed, false if not queued
+	 */
+	private boolean removeQueuedTicket(final Ticket ticket) {
+		synchronized (queuedTickets) {
+			final Map<Object, Ticket> sessionTickets = queuedTickets.get(ticket.sessionKey);
+			if (sessionTickets == null || sessionTickets.get(ticket.getQueueKey()) != ticket) {
+				return false;
+			}
+			sessionTickets.remove(ticket.getQueueKey());
+			if (sessionTickets.isEmpty()) {
+				queuedTickets.remove(ticket.sessionKey);
+			}
+			queueDepth--;
+			return true;
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static void recordLatency(final long nanos, final AtomicLong total, final AtomicLong max) {
+		total.addAndGet(nanos);
+		long previousMax;
+		do {
+			previousMax = max.get();
+		} while (nanos > previousMax && !max.compareAndSet(previousMax, nanos));
+	}
+
+	/**
+	 * Returns the number of compilations that are queued but not yet running.
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		synchronized (queuedTickets) {
+			return queueDepth;
+		}
+	}
+
+	/**
+	 * Returns the number of compilations that are currently running.
+	 * @return the number of active workers
+	 */
+	public int getActiveWorkerCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Getter method for the submittedCount.
+	 * @return the number of compilations submitted so far
+	 */
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	/**
+	 * Getter method for the completedCount.
+	 * @return the number of compilations that have been run so far
+	 */
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	/**
+	 * Getter method for the rejectedCount.
+	 * @return the number of compilations rejected due to a full queue or shutdown
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Getter method for the supersededCount.
+	 * @return the number of queued compilations replaced by a newer document from the same editor
+	 */
+	public long getSupersededCount() {
+		return supersededCount.get();
+	}
+
+	/**
+	 * Getter method for the timedOutCount.
+	 * @return the number of compilations whose time budget was used up
+	 */
+	public long getTimedOutCount() {
+		return timedOutCount.get();
+	}
+
+	/**
+	 * @return the average time compilations spent in the queue, in milliseconds
+	 */
+	public long getAverageQueueMillis() {
+		final long count = completedCount.get();
+		return (count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalQueueNanos.get() / count));
+	}
+
+	/**
+	 * @return the maximum time a compilation spent in the queue, in milliseconds
+	 */
+	public long getMaxQueueMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxQueueNanos.get());
+	}
+
+	/**
+	 * @return the average time spent compiling, in milliseconds
+	 */
+	public long getAverageCompileMillis() {
+		final long count = completedCount.get();
+		return (count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalCompileNanos.get() / count));
+	}
+
+	/**
+	 * @return the maximum time spent compiling a single document, in milliseconds
+	 */
+	public long getMaxCompileMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxCompileNanos.get());
+	}
+
+	/**
+	 * The states of a {@link Ticket}.
+	 */
+	static enum TicketState {
+
+		/**
+		 * Waiting in the queue.
+		 */
+		QUEUED,
+
+		/**
+		 * Being compiled by a worker.
+		 */
+		RUNNING,
+
+		/**
+		 * Compiled successfully (possibly with errors in the document).
+		 */
+		FINISHED,
+
+		/**
+		 * Cancelled because its time budget was used up.
+		 */
+		CANCELLED,
+
+		/**
+		 * Replaced by a newer document from the same editor before it was compiled.
+		 */
+		SUPERSEDED,
+
+		/**
+		 * Not accepted by the scheduler.
+		 */
+		REJECTED;
+
+	}
+
+	/**
+	 * Represents a single submitted compilation.
+	 */
+	public static final class Ticket {
+
+		/**
+		 * the sessionKey
+		 */
+		private final String sessionKey;
+
+		/**
+		 * the editorKey (may be null)
+		 */
+		private final String editorKey;
+
+		/**
+		 * the compiler
+		 */
+		private final ICompiler compiler;
+
+		/**
+		 * the result
+		 */
+		private final CompilerResult result;
+
+		/**
+		 * the cancellationToken
+		 */
+		private final CompileCancellationToken cancellationToken;
+
+		/**
+		 * the submitTime
+		 */
+		private final long submitTime;
+
+		/**
+		 * the future
+		 */
+		private final CompletableFuture<Void> future;
+
+		/**
+		 * the state
+		 */
+		private volatile TicketState state;
+
+		/**
+		 * the queueNanos (-1 until the compilation starts)
+		 */
+		private volatile long queueNanos = -1;
+
+		/**
+		 * the compileNanos (-1 until the compilation has finished)
+		 */
+		private volatile long compileNanos = -1;
+
+		/**
+		 * Constructor.
+		 */
+		Ticket(final String sessionKey, final String editorKey, final ICompiler compiler, final CompilerResult result, final CompileCancellationToken cancellationToken) {
+			this.sessionKey = sessionKey;
+			this.editorKey = editorKey;
+			this.compiler = compiler;
+			this.result = result;
+			this.cancellationToken = cancellationToken;
+			this.submitTime = System.nanoTime();
+			this.future = new CompletableFuture<>();
+			this.state = TicketState.QUEUED;
+		}
+
+		/**
+		 *
+		 */
+		void finish(final TicketState finalState) {
+			this.state = finalState;
+			future.complete(null);
+		}
+
+		/**
+		 * Returns the key of this ticket within the queued tickets of its session.
+		 */
+		Object getQueueKey() {
+			return (editorKey == null ? this : editorKey);
+		}
+
+		/**
+		 * @return true if the scheduler did not accept this compilation
+		 */
+		public boolean isRejected() {
+			return (state == TicketState.REJECTED);
+		}
+
+		/**
+		 * @return true if this compilation was replaced by a newer one for the same editor
+		 */
+		public boolean isSuperseded() {
+			return (state == TicketState.SUPERSEDED);
+		}
+
+		/**
+		 * Getter method for the queueNanos.
+		 * @return the time the compilation waited in the queue, in nanoseconds, or -1 if it has not started
+		 */
+		public long getQueueNanos() {
+			return queueNanos;
+		}
+
+		/**
+		 * Getter method for the compileNanos.
+		 * @return the time the compiler ran, in nanoseconds, or -1 if it has not finished
+		 */
+		public long getCompileNanos() {
+			return compileNanos;
+		}
+
+		/**
+		 * Getter method for the cancellationToken.
+		 * @return the cancellationToken
+		 */
+		public CompileCancellationToken getCancellationToken() {
+			return cancellationToken;
+		}
+
+		/**
+		 * Returns a future that completes when this ticket reaches its final state.
+		 * @return the completion future
+		 */
+		CompletableFuture<Void> getCompletionFuture() {
+			return future;
+		}
+
+	}
+
+	/**
+	 * Creates daemon worker threads.
+	 */
+	private static final class WorkerThreadFactory implements ThreadFactory {
+
+		/**
+		 * the threadCounter
+		 */
+		private final AtomicInteger threadCounter = new AtomicInteger();
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+		 */
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "autocompile-worker-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.resource.PackageResourceReference;
+import name.martingeisse.wicket.experimental.codemirror.CodeMirrorMode;
+import name.martingeisse.wicket.experimental.codemirror.modes.CodeMirrorModes;
+
+/**
+ * Well-formedness checks that run in the browser, in a Web Worker, so that
+ * documents in the built-in JSON and XML modes need no server round-trip just
+ * to report syntax errors. The markers produced by the validator look like
+ * those from the server. Whether the server compiler runs in addition is
+ * controlled by the {@link ServerCompilePolicy}.
+ *
+ * See {@link CodeMirrorAutocompileBehavior#setClientSideValidator(ClientSideValidator, ServerCompilePolicy)}.
+ */
+public enum ClientSideValidator {
+
+	/**
+	 * Checks that the document is well-formed JSON.
+	 */
+	JSON("json"),
+
+	/**
+	 * Checks that the document is well-formed XML. Namespaces and DTDs are not checked.
+	 */
+	XML("xml");
+
+	/**
+	 * the kind
+	 */
+	private final String kind;
+
+	/**
+	 * Constructor.
+	 * @param kind the kind of document, as understood by the worker script
+	 */
+	private ClientSideValidator(final String kind) {
+		this.kind = kind;
+	}
+
+	/**
+	 * Getter method for the kind.
+	 * @return the kind
+	 */
+	public String getKind() {
+		return kind;
+	}
+
+	/**
+	 * Returns the validator for the specified built-in mode.
+	 *
+	 * @param mode the CodeMirror mode
+	 * @return the validator, or null if there is none for that mode
+	 */
+	public static ClientSideValidator forMode(final CodeMirrorMode mode) {
+		if (mode == CodeMirrorModes.JSON) {
+			return JSON;
+		} else if (mode == CodeMirrorModes.XML) {
+			return XML;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the URL of the worker script. This must be called within a request cycle.
+	 *
+	 * @return the URL
+	 */
+	static String getWorkerScriptUrl() {
+		return RequestCycle.get().urlFor(new PackageResourceReference(ClientSideValidator.class, "ClientSideValidator.js"), null).toString();
+	}
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Web Worker that checks JSON and XML documents for well-formedness. Messages
+ * sent to the worker have the form {requestId, kind, document}, where kind is
+ * 'json' or 'xml'. The worker answers with {requestId, markers}, where each
+ * marker is [startLine, startColumn, endLine, endColumn, errorLevel, message]
+ * like the markers sent by the server. Only the first error is reported since
+ * the rest of the document cannot be checked reliably after it.
+ */
+
+function ValidationError(position, message) {
+	this.position = position;
+	this.message = message;
+}
+
+function toMarker(document, position, message) {
+	var line = 0, lineStart = 0;
+	position = Math.min(position, document.length);
+	for (var i = 0; i < position; i++) {
+		if (document.charAt(i) == '\n') {
+			line++;
+			lineStart = i + 1;
+		}
+	}
+	var column = position - lineStart;
+	var endColumn = (position < document.length && document.charAt(position) != '\n' ? column + 1 : column);
+	return [line, column, line, endColumn, 'ERROR', message];
+}
+
+function describe(document, position) {
+	return (position < document.length ? "'" + document.charAt(position) + "'" : 'end of document');
+}
+
+function isWhitespace(c) {
+	return (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+}
+
+/*
+ * JSON
+ */
+function validateJson(document) {
+	var position = 0;
+
+	function skipWhitespace() {
+		while (position < document.length && isWhitespace(document.charAt(position))) {
+			position++;
+		}
+	}
+
+	function fail(message) {
+		throw new ValidationError(position, message || ('unexpected ' + describe(document, position)));
+	}
+
+	function expect(c) {
+		if (document.charAt(position) != c) {
+			fail('expected \'' + c + '\' but found ' + describe(document, position));
+		}
+		position++;
+	}
+
+	function parseString() {
+		expect('"');
+		while (true) {
+			if (position >= document.length) {
+				fail('unterminated string');
+			}
+			var c = document.charAt(position);
+			if (c == '"') {
+				position++;
+				return;
+			} else if (c == '\\') {
+				position++;
+				c = document.charAt(position);
+				if (c == 'u') {
+					for (var i = 1; i <= 4; i++) {
+						if (!/[0-9a-fA-F]/.test(document.charAt(position + i))) {
+							position += i;
+							fail('invalid unicode escape');
+						}
+					}
+					position += 5;
+				} else if ('"\\/bfnrt'.indexOf(c) >= 0 && c != '') {
+					position++;
+				} else {
+					fail('invalid escape sequence');
+				}
+			} else if (c < ' ') {
+				fail('control character in string');
+			} else {
+				position++;
+			}
+		}
+	}
+
+	function parseNumber() {
+		var match = /^-?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?/.exec(document.substring(position, position + 400));
+		if (!match || match[0] == '' || match[0] == '-') {
+			fail('invalid number');
+		}
+		position += match[0].length;
+	}
+
+	function parseLiteral(literal) {
+		if (document.substring(position, position + literal.length) != literal) {
+			fail();
+		}
+		position += literal.length;
+	}
+
+	function parseValue() {
+		skipWhitespace();
+		var c = document.charAt(position);
+		if (c == '{') {
+			position++;
+			skipWhitespace();
+			if (document.charAt(position) == '}') {
+				position++;
+				return;
+			}
+			while (true) {
+				skipWhitespace();
+				if (document.charAt(position) != '"') {
+					fail('expected property name but found ' + describe(document, position));
+				}
+				parseString();
+				skipWhitespace();
+				expect(':');
+				parseValue();
+				skipWhitespace();
+				if (document.charAt(position) == ',') {
+					position++;
+				} else {
+					expect('}');
+					return;
+				}
+			}
+		} else if (c == '[') {
+			position++;
+			skipWhitespace();
+			if (document.charAt(position) == ']') {
+				position++;
+				return;
+			}
+			while (true) {
+				parseValue();
+				skipWhitespace();
+				if (document.charAt(position) == ',') {
+					position++;
+				} else {
+					expect(']');
+					return;
+				}
+			}
+		} else if (c == '"') {
+			parseString();
+		} else if (c == '-' || (c >= '0' && c <= '9')) {
+			parseNumber();
+		} else if (c == 't') {
+			parseLiteral('true');
+		} else if (c == 'f') {
+			parseLiteral('false');
+		} else if (c == 'n') {
+			parseLiteral('null');
+		} else {
+			fail();
+		}
+	}
+
+	parseValue();
+	skipWhitespace();
+	if (position < document.length) {
+		fail('unexpected ' + describe(document, position) + ' after the end of the document');
+	}
+}
+
+/*
+ * XML
+ */
+function validateXml(document) {
+	var position = 0;
+	var openElements = [];
+	var rootSeen = false;
+	var namePattern = /^[A-Za-z_:\u0080-\uFFFF][-A-Za-z0-9_:.\u0080-\uFFFF]*/;
+
+	function fail(message, errorPosition) {
+		throw new ValidationError(errorPosition === undefined ? position : errorPosition, message);
+	}
+
+	function startsWith(s) {
+		return document.substring(position, position + s.length) == s;
+	}
+
+	function skipPast(terminator, what) {
+		var end = document.indexOf(terminator, position);
+		if (end < 0) {
+			fail('unterminated ' + what);
+		}
+		position = end + terminator.length;
+	}
+
+	function parseName() {
+		var match = namePattern.exec(document.substring(position, position + 1000));
+		if (!match) {
+			fail('expected a name but found ' + describe(document, position));
+		}
+		position += match[0].length;
+		return match[0];
+	}
+
+	function skipWhitespace() {
+		var start = position;
+		while (position < document.length && isWhitespace(document.charAt(position))) {
+			position++;
+		}
+		return position > start;
+	}
+
+	function parseReference() {
+		var match = /^&([A-Za-z_:][-A-Za-z0-9_:.]*|#[0-9]+|#x[0-9a-fA-F]+);/.exec(document.substring(position, position + 1000));
+		if (!match) {
+			fail('invalid entity or character reference');
+		}
+		position += match[0].length;
+	}
+
+	function parseStartTag() {
+		var tagStart = position;
+		position++;
+		var name = parseName();
+		var attributes = {};
+		while (true) {
+			var hadWhitespace = skipWhitespace();
+			if (startsWith('/>')) {
+				position += 2;
+				return;
+			} else if (startsWith('>')) {
+				position++;
+				openElements.push({name: name, position: tagStart});
+				return;
+			} else if (position >= document.length) {
+				fail('unterminated start tag', tagStart);
+			}
+			if (!hadWhitespace) {
+				fail('expected whitespace, \'>\' or \'/>\' but found ' + describe(document, position));
+			}
+			var attributeStart = position;
+			var attributeName = parseName();
+			if (attributes.hasOwnProperty(attributeName)) {
+				fail('duplicate attribute: ' + attributeName, attributeStart);
+			}
+			attributes[attributeName] = true;
+			skipWhitespace();
+			if (document.charAt(position) != '=') {
+				fail('expected \'=\' after attribute name');
+			}
+			position++;
+			skipWhitespace();
+			var quote = document.charAt(position);
+			if (quote != '"' && quote != '\'') {
+				fail('expected a quoted attribute value');
+			}
+			position++;
+			while (document.charAt(position) != quote) {
+				if (position >= document.length) {
+					fail('unterminated attribute value', attributeStart);
+				}
+				var c = document.charAt(position);
+				if (c == '<') {
+					fail('\'<\' is not allowed in attribute values');
+				} else if (c == '&') {
+					parseReference();
+				} else {
+					position++;
+				}
+			}
+			position++;
+		}
+	}
+
+	function parseEndTag() {
+		var tagStart = position;
+		position += 2;
+		var name = parseName();
+		skipWhitespace();
+		if (document.charAt(position) != '>') {
+			fail('expected \'>\' but found ' + describe(document, position));
+		}
+		position++;
+		if (openElements.length == 0) {
+			fail('unexpected end tag: ' + name, tagStart);
+		}
+		var expected = openElements.pop().name;
+		if (expected != name) {
+			fail('end tag </' + name + '> does not match start tag <' + expected + '>', tagStart);
+		}
+	}
+
+	function parseDoctype() {
+		position += 9;
+		var depth = 0;
+		while (position < document.length) {
+			var c = document.charAt(position++);
+			if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				depth--;
+			} else if (c == '>' && depth <= 0) {
+				return;
+			}
+		}
+		fail('unterminated document type declaration');
+	}
+
+	while (position < document.length) {
+		var c = document.charAt(position);
+		if (c == '<') {
+			if (startsWith('<!--')) {
+				skipPast('-->', 'comment');
+			} else if (startsWith('<![CDATA[')) {
+				if (openElements.length == 0) {
+					fail('CDATA section outside of the root element');
+				}
+				skipPast(']]>', 'CDATA section');
+			} else if (startsWith('<?')) {
+				skipPast('?>', 'processing instruction');
+			} else if (startsWith('<!DOCTYPE')) {
+				if (rootSeen) {
+					fail('document type declaration after the root element');
+				}
+				parseDoctype();
+			} else if (startsWith('</')) {
+				parseEndTag();
+			} else {
+				if (openElements.length == 0) {
+					if (rootSeen) {
+						fail('only one root element is allowed');
+					}
+					rootSeen = true;
+				}
+				parseStartTag();
+			}
+		} else if (openElements.length == 0) {
+			if (!isWhitespace(c)) {
+				fail('text outside of the root element');
+			}
+			position++;
+		} else if (c == '&') {
+			parseReference();
+		} else {
+			position++;
+		}
+	}
+	if (openElements.length > 0) {
+		var unclosed = openElements.pop();
+		fail('element is not closed: <' + unclosed.name + '>', unclosed.position);
+	}
+	if (!rootSeen) {
+		fail('no root element');
+	}
+}
+
+var validators = {
+	json: validateJson,
+	xml: validateXml
+};
+
+onmessage = function(event) {
+	var request = event.data;
+	var markers = [];
+	try {
+		validators[request.kind](request.document);
+	} catch (e) {
+		if (e instanceof ValidationError) {
+			markers.push(toMarker(request.document, e.position, e.message));
+		} else {
+			markers = null;
+		}
+	}
+	postMessage({requestId: request.requestId, markers: markers});
+};
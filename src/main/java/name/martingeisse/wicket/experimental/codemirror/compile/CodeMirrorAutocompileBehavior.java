@@ -4,9 +4,14 @@
 
 package name.martingeisse.wicket.experimental.codemirror.compile;
 
+import java.io.Serializable;
+import java.util.List;
+import org.apache.wicket.Application;
 import org.apache.wicket.Component;
+import org.apache.wicket.Session;
 import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.attributes.AjaxCallListener;
 import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
 import org.apache.wicket.ajax.attributes.AjaxRequestAttributes.Method;
 import org.apache.wicket.ajax.attributes.CallbackParameter;
@@ -15,6 +20,8 @@ import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
 import org.apache.wicket.markup.html.form.FormComponent;
 import org.apache.wicket.markup.html.form.TextField;
 import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.util.visit.IVisit;
+import org.apache.wicket.util.visit.IVisitor;
 import name.martingeisse.wicket.experimental.codemirror.CodeMirrorBehavior;
 import name.martingeisse.wicket.helpers.IConsumer;
 import name.martingeisse.wicket.internal.JsUtil;
@@ -35,6 +42,54 @@ import name.martingeisse.wicket.internal.WicketHeadUtil;
  * 
  * An optional result consumer can be added that gets passed the
  * {@link CompilerResult}.
+ * 
+ * If an {@link AutocompileScheduler} is installed for the application,
+ * compilation is delegated to that scheduler instead of running on the
+ * request thread. If the scheduler sheds the request, the client is told
+ * to back off and retry later.
+ * 
+ * If the compiler is an {@link IIncrementalCompiler}, the client also
+ * reports the line edits since the previous request, and the compiler
+ * state is kept per editor in {@link AutocompileEditorStates}.
+ * 
+ * With a scheduler, compilers can publish markers before they finish (see
+ * {@link CompilerResult#publishMarkers()}). The response then contains the
+ * markers found so far, and the client immediately asks for the remaining
+ * markers with a follow-up request that waits for the next publication or
+ * the final result.
+ * 
+ * For documents with more lines than {@link #getLazyMarkerLineThreshold()},
+ * the client reports its visible line range with each request. Only the
+ * markers near that range are sent right away, together with an overview
+ * of marker counts per region that is shown next to the scrollbar; the
+ * other markers are fetched as the user scrolls.
+ * 
+ * If the page has an {@link AutocompileBatchBehavior}, compile requests
+ * are sent through that behavior together with those of other editors.
+ * 
+ * A {@link ClientSideValidator} can check JSON and XML documents in the
+ * browser, so the server compiler only runs as the
+ * {@link ServerCompilePolicy} demands.
+ * 
+ * If the behavior is searchable (see {@link #setSearchable(boolean)}), the
+ * latest document sent by the client is kept on the server, and the client
+ * can search it with codeMirrorAutocompilerSearch(). This is much faster
+ * than searching in the browser for huge documents. Matches are sent in
+ * pages and shown as highlighting markers. The search index of a document
+ * is only built when that revision is first searched, so compiling does
+ * not pay for it.
+ * 
+ * A behavior constructed with the key of a compiler from the {@link CompilerRegistry}
+ * sends its compile requests to the registry's stateless endpoint instead of this
+ * behavior, so compiling neither loads nor locks the page. Searching still goes through
+ * this behavior.
+ * 
+ * With a {@link ProjectDocumentCompiler}, compiling the document of one editor may
+ * recompile other documents of the project. Their markers are sent along to the
+ * editors on the same page that show them (without calling their result consumers).
+ * 
+ * If {@link IAutocompileMetrics} are installed for the application, the
+ * timings of each request are recorded there (see {@link AutocompileMetric}).
  */
 public class CodeMirrorAutocompileBehavior extends AbstractDefaultAjaxBehavior {
 
@@ -43,10 +98,55 @@ public class CodeMirrorAutocompileBehavior extends AbstractDefaultAjaxBehavior {
 	 */
 	private final ICompiler compiler;
 
+	/**
+	 * the number of lines outside the visible range for which markers are sent along
+	 */
+	private static final int VIEWPORT_MARGIN = 100;
+
+	/**
+	 * the number of regions shown in the marker overview bar
+	 */
+	private static final int OVERVIEW_REGION_COUNT = 200;
+
+	/**
+	 * the number of search matches sent per page
+	 */
+	private static final int SEARCH_PAGE_SIZE = 500;
+
 	/**
 	 * the resultConsumer
 	 */
 	private IConsumer<CompilerResult> resultConsumer;
+
+	/**
+	 * the compactResultConsumer
+	 */
+	private IConsumer<CompactCompilerResult> compactResultConsumer;
+
+	/**
+	 * the lazyMarkerLineThreshold
+	 */
+	private int lazyMarkerLineThreshold = 5000;
+
+	/**
+	 * the clientSideValidator
+	 */
+	private ClientSideValidator clientSideValidator;
+
+	/**
+	 * the serverCompilePolicy
+	 */
+	private ServerCompilePolicy serverCompilePolicy = ServerCompilePolicy.ALWAYS;
+
+	/**
+	 * the searchable
+	 */
+	private boolean searchable;
+
+	/**
+	 * the searchNgramThreshold
+	 */
+	private int searchNgramThreshold = 256 * 1024;
 	
 	/**
 	 * Constructor.
@@ -55,6 +155,36 @@ public class CodeMirrorAutocompileBehavior extends AbstractDefaultAjaxBehavior {
 	public CodeMirrorAutocompileBehavior(final ICompiler compiler) {
 		this.compiler = ParameterUtil.ensureNotNull(compiler, "compiler");
 	}
+
+	/**
+	 * Constructor for editors whose compile requests are sent to the stateless endpoint
+	 * of the {@link CompilerRegistry}, which must be installed and have a compiler
+	 * registered with the specified key. Compiling is stateless, so the compiler is
+	 * not incremental, markers are not streamed or loaded lazily, and the result
+	 * consumers are not called.
+	 * 
+	 * @param compilerKey the key of the compiler in the registry
+	 */
+	public CodeMirrorAutocompileBehavior(final String compilerKey) {
+		final CompilerRegistry registry = CompilerRegistry.get();
+		if (registry == null) {
+			throw new IllegalStateException("no CompilerRegistry installed");
+		}
+		if (registry.getCompiler(ParameterUtil.ensureNotNull(compilerKey, "compilerKey")) == null) {
+			throw new IllegalArgumentException("no compiler registered with key " + compilerKey);
+		}
+		this.compiler = new RegisteredCompiler(compilerKey);
+	}
+
+	/**
+	 * Constructor for editors that are only checked on the client and never compiled on the server.
+	 * @param clientSideValidator the client-side validator
+	 */
+	public CodeMirrorAutocompileBehavior(final ClientSideValidator clientSideValidator) {
+		this.compiler = new NullCompiler();
+		this.clientSideValidator = ParameterUtil.ensureNotNull(clientSideValidator, "clientSideValidator");
+		this.serverCompilePolicy = ServerCompilePolicy.NEVER;
+	}
 	
 	/**
 	 * Getter method for the resultConsumer.
@@ -74,6 +204,120 @@ public class CodeMirrorAutocompileBehavior extends AbstractDefaultAjaxBehavior {
 		return this;
 	}
 
+	/**
+	 * Getter method for the compactResultConsumer.
+	 * @return the compactResultConsumer
+	 */
+	public IConsumer<CompactCompilerResult> getCompactResultConsumer() {
+		return compactResultConsumer;
+	}
+
+	/**
+	 * Setter method for the compactResultConsumer. Use this instead of a plain result
+	 * consumer if the consumer keeps the result in the page, to keep the document and
+	 * the marker objects out of the page store.
+	 * 
+	 * @param compactResultConsumer the compactResultConsumer to set
+	 * @return this
+	 */
+	public CodeMirrorAutocompileBehavior setCompactResultConsumer(IConsumer<CompactCompilerResult> compactResultConsumer) {
+		this.compactResultConsumer = compactResultConsumer;
+		return this;
+	}
+
+	/**
+	 * Getter method for the clientSideValidator.
+	 * @return the clientSideValidator
+	 */
+	public ClientSideValidator getClientSideValidator() {
+		return clientSideValidator;
+	}
+
+	/**
+	 * Getter method for the serverCompilePolicy.
+	 * @return the serverCompilePolicy
+	 */
+	public ServerCompilePolicy getServerCompilePolicy() {
+		return serverCompilePolicy;
+	}
+
+	/**
+	 * Sets a validator that checks the document in the browser before it is sent to the
+	 * server, and decides whether the server compiler runs at all. Passing null for the
+	 * validator turns client-side validation off and always runs the server compiler.
+	 * 
+	 * @param clientSideValidator the client-side validator, or null
+	 * @param serverCompilePolicy the server compile policy (ignored if the validator is null)
+	 * @return this
+	 */
+	public CodeMirrorAutocompileBehavior setClientSideValidator(ClientSideValidator clientSideValidator, ServerCompilePolicy serverCompilePolicy) {
+		this.clientSideValidator = clientSideValidator;
+		this.serverCompilePolicy = (clientSideValidator == null ? ServerCompilePolicy.ALWAYS : ParameterUtil.ensureNotNull(serverCompilePolicy, "serverCompilePolicy"));
+		return this;
+	}
+
+	/**
+	 * Getter method for the lazyMarkerLineThreshold.
+	 * @return the lazyMarkerLineThreshold
+	 */
+	public int getLazyMarkerLineThreshold() {
+		return lazyMarkerLineThreshold;
+	}
+
+	/**
+	 * Setter method for the lazyMarkerLineThreshold. For documents with more lines
+	 * than this, only the markers near the visible range are sent with the compiler
+	 * result, and the other markers are fetched as the user scrolls.
+	 * 
+	 * @param lazyMarkerLineThreshold the lazyMarkerLineThreshold to set
+	 * @return this
+	 */
+	public CodeMirrorAutocompileBehavior setLazyMarkerLineThreshold(int lazyMarkerLineThreshold) {
+		this.lazyMarkerLineThreshold = lazyMarkerLineThreshold;
+		return this;
+	}
+
+	/**
+	 * Getter method for the searchable.
+	 * @return the searchable
+	 */
+	public boolean isSearchable() {
+		return searchable;
+	}
+
+	/**
+	 * Setter method for the searchable flag. A searchable editor keeps the latest document
+	 * sent by the client on the server, so it can be searched there.
+	 * 
+	 * @param searchable the searchable to set
+	 * @return this
+	 */
+	public CodeMirrorAutocompileBehavior setSearchable(boolean searchable) {
+		this.searchable = searchable;
+		return this;
+	}
+
+	/**
+	 * Getter method for the searchNgramThreshold.
+	 * @return the searchNgramThreshold
+	 */
+	public int getSearchNgramThreshold() {
+		return searchNgramThreshold;
+	}
+
+	/**
+	 * Setter method for the searchNgramThreshold. For documents of at least this length,
+	 * the server builds trigram postings on the first search, which make later searches
+	 * faster at the cost of memory.
+	 * 
+	 * @param searchNgramThreshold the searchNgramThreshold to set
+	 * @return this
+	 */
+	public CodeMirrorAutocompileBehavior setSearchNgramThreshold(int searchNgramThreshold) {
+		this.searchNgramThreshold = searchNgramThreshold;
+		return this;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#renderHead(org.apache.wicket.Component, org.apache.wicket.markup.head.IHeaderResponse)
 	 */
@@ -86,8 +330,19 @@ public class CodeMirrorAutocompileBehavior extends AbstractDefaultAjaxBehavior {
 		final StringBuilder builder = new StringBuilder();
 		builder.append("initializeCodeMirrorAutocompiler('");
 		builder.append(component.getMarkupId());
-		builder.append("', {}, ");
-		builder.append(getCallbackFunction(CallbackParameter.explicit("value")));
+		builder.append("', {incremental: ").append(compiler instanceof IIncrementalCompiler);
+		builder.append(", batched: ").append(AutocompileBatchBehavior.find(component) != null);
+		if (compiler instanceof RegisteredCompiler) {
+			builder.append(", statelessUrl: ").append(JsUtil.toStringLiteralCharSequence(CompilerRegistry.get().getEndpointUrl()));
+			builder.append(", compilerKey: ").append(JsUtil.toStringLiteralCharSequence(((RegisteredCompiler)compiler).getKey()));
+		}
+		if (clientSideValidator != null) {
+			builder.append(", validator: '").append(clientSideValidator.getKind());
+			builder.append("', validatorUrl: ").append(JsUtil.toStringLiteralCharSequence(ClientSideValidator.getWorkerScriptUrl()));
+			builder.append(", serverCompile: '").append(serverCompilePolicy.name()).append("'");
+		}
+		builder.append("}, ");
+		builder.append(getCallbackFunction(CallbackParameter.explicit("value"), CallbackParameter.explicit("revision"), CallbackParameter.explicit("previousRevision"), CallbackParameter.explicit("edits"), CallbackParameter.explicit("stream"), CallbackParameter.explicit("viewportFrom"), CallbackParameter.explicit("viewportTo"), CallbackParameter.explicit("markerRange"), CallbackParameter.explicit("search"), CallbackParameter.explicit("roundTrip")));
 		builder.append("); ");
 		response.render(OnDomReadyHeaderItem.forScript(builder.toString()));
 	}
@@ -99,6 +354,7 @@ public class CodeMirrorAutocompileBehavior extends AbstractDefaultAjaxBehavior {
 	protected void updateAjaxAttributes(final AjaxRequestAttributes attributes) {
 		super.updateAjaxAttributes(attributes);
 		attributes.setMethod(Method.POST);
+		attributes.getAjaxCallListeners().add(new AjaxCallListener().onComplete("codeMirrorAutocompilerRequestComplete('" + getComponent().getMarkupId() + "', attrs);"));
 	}
 
 	/* (non-Javadoc)
@@ -106,19 +362,379 @@ public class CodeMirrorAutocompileBehavior extends AbstractDefaultAjaxBehavior {
 	 */
 	@Override
 	protected void respond(final AjaxRequestTarget target) {
+		final long requestStartTime = RequestCycle.get().getStartTime();
+		AutocompileMetrics.record(AutocompileMetric.REQUEST_TO_HANDLER_MILLIS, System.currentTimeMillis() - requestStartTime);
+		final AutocompileRequest request = AutocompileRequest.fromParameters(RequestCycle.get().getRequest().getPostParameters());
+		AutocompileMetrics.record(AutocompileMetric.CLIENT_ROUND_TRIP_MILLIS, request.getRoundTrip());
+		try {
+			handleRequest(target, request);
+		} finally {
+			AutocompileMetrics.record(AutocompileMetric.SERVER_MILLIS, System.currentTimeMillis() - requestStartTime);
+		}
+	}
+
+	/**
+	 * Handles a request for this behavior.
+	 */
+	private void handleRequest(final AjaxRequestTarget target, final AutocompileRequest request) {
+		final AutocompileScheduler scheduler = AutocompileScheduler.get(Application.get());
+		
+		// search requests search the latest document
+		if (request.isSearchRequest()) {
+			respondWithSearchResults(target, request);
+			return;
+		}
+		
+		// lazy marker requests fetch the markers for a range of lines of the latest result
+		if (request.getMarkerRange() != null) {
+			respondWithMarkerRange(target, request.getMarkerRange());
+			return;
+		}
+		
+		// follow-up requests pick up the remaining markers of a compilation that is still running
+		final String streamId = request.getStream();
+		if (streamId != null) {
+			final AutocompileEditorState editorState = getEditorState();
+			final PendingAutocompilation pendingCompilation = editorState.getPendingCompilation();
+			if (scheduler != null && pendingCompilation != null && pendingCompilation.getStreamId().equals(streamId)) {
+				editorState.setPendingCompilation(null);
+				respondWhenPublishedOrDone(target, request, scheduler, editorState, pendingCompilation);
+			}
+			return;
+		}
+		
+		// without a scheduler, compile on the request thread
+		final AutocompileEditorState editorState = getEditorState();
+		final PendingAutocompilation pendingCompilation = prepareCompilation(request);
+		if (scheduler == null) {
+			final CompilerResult result = compile(pendingCompilation, request.getDocument());
+			finishCompilation(target, request, editorState, pendingCompilation, result);
+			return;
+		}
+		
+		// hand the document to the scheduler
+		pendingCompilation.setTicket(scheduler.submit(getSessionKey(), getEditorKey(), pendingCompilation.getCompiler(), request.getDocument(), pendingCompilation));
+		respondWhenPublishedOrDone(target, request, scheduler, editorState, pendingCompilation);
 		
-		// compile the document
-		final String document = RequestCycle.get().getRequest().getPostParameters().getParameterValue("value").toString("");
-		final CompilerResult result = ICompiler.Util.compileSafe(compiler, document);
+	}
+
+	/**
+	 * Prepares the compilation of a new document for this editor. This determines the compiler
+	 * to use -- incremental compilers are wrapped together with their previous state -- and
+	 * cancels any earlier compilation whose remaining markers have not been delivered yet.
+	 * 
+	 * This method is NOT part of the public API.
+	 */
+	PendingAutocompilation prepareCompilation(final AutocompileRequest request) {
+		final String document = request.getDocument();
+		final AutocompileEditorState editorState = getEditorState();
+		if (searchable) {
+			editorState.setSearchDocument(request.getRevision(), document);
+		}
+		
+		// a new document for this editor makes the remaining markers of an earlier compilation useless
+		final PendingAutocompilation previousCompilation = editorState.getPendingCompilation();
+		if (previousCompilation != null) {
+			editorState.setPendingCompilation(null);
+			previousCompilation.cancel();
+		}
+		
+		// determine the compiler to use; registered compilers are resolved here since they cannot be resolved on worker threads
+		final ICompiler resolvedCompiler = (compiler instanceof RegisteredCompiler ? ((RegisteredCompiler)compiler).resolve() : compiler);
+		final IncrementalCompilation<?> incrementalCompilation;
+		final long revision;
+		if (resolvedCompiler instanceof IIncrementalCompiler) {
+			revision = request.getRevision();
+			final Object previousState = editorState.getCompilerState(request.getPreviousRevision());
+			final List<LineEdit> edits = (previousState == null ? null : request.getEdits());
+			incrementalCompilation = IncrementalCompilation.create((IIncrementalCompiler<?>)resolvedCompiler, previousState, edits);
+		} else {
+			revision = -1;
+			incrementalCompilation = null;
+		}
+		return new PendingAutocompilation(Long.toString(System.nanoTime()), resolvedCompiler, incrementalCompilation, revision, countLines(document));
+		
+	}
+
+	/**
+	 * Runs the compiler of a prepared compilation on the calling thread and keeps
+	 * the time it took for the metrics.
+	 * 
+	 * This method is NOT part of the public API.
+	 */
+	static CompilerResult compile(final PendingAutocompilation pendingCompilation, final String document) {
+		final long startTime = System.nanoTime();
+		final CompilerResult result = ICompiler.Util.compileSafe(pendingCompilation.getCompiler(), document);
+		pendingCompilation.setCompileNanos(System.nanoTime() - startTime);
+		return result;
+	}
+
+	/**
+	 * Waits for a compilation running on the scheduler until it either publishes new markers
+	 * or is done. In the former case, the markers found so far are sent to the client along
+	 * with a request to fetch the remaining markers; in the latter case, the final result is sent.
+	 */
+	private void respondWhenPublishedOrDone(final AjaxRequestTarget target, final AutocompileRequest request, final AutocompileScheduler scheduler, final AutocompileEditorState editorState, final PendingAutocompilation pendingCompilation) {
+		final AutocompileScheduler.Ticket ticket = pendingCompilation.getTicket();
+		
+		// wait for a publication
+		List<CompilerMarker> publishedMarkers;
+		try {
+			publishedMarkers = pendingCompilation.awaitPublication(ticket.getCancellationToken().getRemainingMillis());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			publishedMarkers = null;
+		}
+		if (publishedMarkers != null) {
+			final long serializationStartTime = System.nanoTime();
+			final String markupId = getComponent().getMarkupId();
+			final StringBuilder builder = new StringBuilder();
+			deliverMarkers(builder, markupId, request, editorState, pendingCompilation.getLineCount(), publishedMarkers);
+			builder.append("codeMirrorAutocompilerFetchRemaining('").append(markupId).append("', '").append(pendingCompilation.getStreamId()).append("');");
+			appendMarkerScript(target, builder, serializationStartTime);
+			editorState.setPendingCompilation(pendingCompilation);
+			return;
+		}
+		
+		// no (further) publication, so wait for the final result
+		finishScheduledCompilation(target, request, scheduler, pendingCompilation);
+		
+	}
+
+	/**
+	 * Waits for the final result of a compilation running on the scheduler and handles it.
+	 * 
+	 * This method is NOT part of the public API.
+	 */
+	void finishScheduledCompilation(final AjaxRequestTarget target, final AutocompileRequest request, final AutocompileScheduler scheduler, final PendingAutocompilation pendingCompilation) {
+		final AutocompileScheduler.Ticket ticket = pendingCompilation.getTicket();
+		final CompilerResult result = scheduler.await(ticket);
+		if (result == null) {
+			if (ticket.isRejected()) {
+				target.appendJavaScript("codeMirrorAutocompilerBackOff('" + getComponent().getMarkupId() + "', " + scheduler.getSuggestedBackOffMillis() + ");");
+			}
+			return;
+		}
+		finishCompilation(target, request, getEditorState(), pendingCompilation, result);
+	}
+
+	/**
+	 * Handles the final result of a compilation.
+	 * 
+	 * This method is NOT part of the public API.
+	 */
+	void finishCompilation(final AjaxRequestTarget target, final AutocompileRequest request, final AutocompileEditorState editorState, final PendingAutocompilation pendingCompilation, final CompilerResult result) {
+		
+		// keep the new compiler state only if the compilation has finished; otherwise the next one starts from scratch
+		if (pendingCompilation.getIncrementalCompilation() != null) {
+			pendingCompilation.getIncrementalCompilation().storeState(editorState, pendingCompilation.getRevision());
+		}
+		
+		// keep the completion items for a CodeMirrorCompletionBehavior; a result without any (for example,
+		// after a syntax error) keeps the previous ones so completion still works while the user is typing
+		final List<CompletionItem> completionItems = result.getCompletionItems();
+		if (!completionItems.isEmpty()) {
+			editorState.setCompletionIndex(CompletionIndex.build(completionItems));
+		}
+		
+		// record how long the compilation took
+		final AutocompileScheduler.Ticket ticket = pendingCompilation.getTicket();
+		if (ticket != null) {
+			AutocompileMetrics.recordNanos(AutocompileMetric.QUEUE_WAIT_MILLIS, ticket.getQueueNanos());
+		}
+		AutocompileMetrics.recordNanos(AutocompileMetric.COMPILE_MILLIS, pendingCompilation.getCompileNanos());
 		
 		// build the AJAX response script snippets that modify CodeMirror
+		final long serializationStartTime = System.nanoTime();
+		final String markupId = getComponent().getMarkupId();
 		final StringBuilder builder = new StringBuilder();
+		deliverMarkers(builder, markupId, request, editorState, pendingCompilation.getLineCount(), result.getMarkerSnapshot());
+		builder.append("codeMirrorAutocompilerReportStatistics('");
+		builder.append(markupId);
+		builder.append("', ").append(result.getDocument().length()).append(");");
+		if (compiler instanceof ProjectDocumentCompiler) {
+			deliverProjectMarkers(builder, editorState);
+		}
+		appendMarkerScript(target, builder, serializationStartTime);
+		
+		// notify the result consumers
+		if (resultConsumer != null) {
+			resultConsumer.consume(result);
+		}
+		if (compactResultConsumer != null) {
+			compactResultConsumer.consume(result.toCompact());
+		}
+		
+	}
+
+	/**
+	 * Renders script snippets that replace the markers of the other editors on the page that show
+	 * a document of the same project, if that document has been recompiled since their markers
+	 * were last sent.
+	 */
+	private void deliverProjectMarkers(final StringBuilder builder, final AutocompileEditorState editorState) {
+		final ProjectDocumentCompiler projectDocumentCompiler = (ProjectDocumentCompiler)compiler;
+		final ProjectCompiler project = projectDocumentCompiler.getProject();
+		editorState.setProjectGeneration(project.getGeneration(projectDocumentCompiler.getDocumentId()));
+		getComponent().getPage().visitChildren(new IVisitor<Component, Void>() {
+			@Override
+			public void component(final Component component, final IVisit<Void> visit) {
+				if (component == getComponent() || !component.isVisibleInHierarchy()) {
+					return;
+				}
+				for (final CodeMirrorAutocompileBehavior behavior : component.getBehaviors(CodeMirrorAutocompileBehavior.class)) {
+					if (behavior.compiler instanceof ProjectDocumentCompiler) {
+						final ProjectDocumentCompiler otherCompiler = (ProjectDocumentCompiler)behavior.compiler;
+						if (otherCompiler.getProject() == project) {
+							final AutocompileEditorState otherState = behavior.getEditorState();
+							final long generation = project.getGeneration(otherCompiler.getDocumentId());
+							final CompilerResult otherResult = project.getResult(otherCompiler.getDocumentId());
+							if (otherResult != null && generation > otherState.getProjectGeneration()) {
+								otherState.setProjectGeneration(generation);
+								otherState.setMarkerLineIndex(null);
+								renderMarkers(builder, component.getMarkupId(), otherResult.getMarkerSnapshot());
+								builder.append("codeMirrorAutocompilerSetOverview('").append(component.getMarkupId()).append("', 0, 0, []);");
+							}
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Appends a script that shows markers to the response and records the time spent
+	 * building it and its size.
+	 */
+	private static void appendMarkerScript(final AjaxRequestTarget target, final StringBuilder builder, final long serializationStartTime) {
+		final String script = builder.toString();
+		AutocompileMetrics.recordNanos(AutocompileMetric.MARKER_SERIALIZATION_MILLIS, System.nanoTime() - serializationStartTime);
+		AutocompileMetrics.record(AutocompileMetric.RESPONSE_SIZE_CHARS, script.length());
+		target.appendJavaScript(script);
+	}
+
+	/**
+	 * Renders script snippets that replace the markers shown in the editor. For huge documents,
+	 * only the markers near the visible range (as reported by the client) are sent, together with
+	 * an overview of the marker counts per region; the other markers are kept on the server
+	 * and fetched by the client as the user scrolls.
+	 */
+	private void deliverMarkers(final StringBuilder builder, final String markupId, final AutocompileRequest request, final AutocompileEditorState editorState, final int lineCount, final List<CompilerMarker> markers) {
+		final int viewportFrom = request.getViewportFrom();
+		final int viewportTo = request.getViewportTo();
+		if (lineCount <= lazyMarkerLineThreshold || viewportFrom < 0 || viewportTo < viewportFrom) {
+			editorState.setMarkerLineIndex(null);
+			renderMarkers(builder, markupId, markers);
+			builder.append("codeMirrorAutocompilerSetOverview('").append(markupId).append("', 0, 0, []);");
+			return;
+		}
+		
+		// send the markers near the visible range
+		final MarkerLineIndex index = new MarkerLineIndex(Long.toString(System.nanoTime()), lineCount, markers);
+		final int loadedFrom = Math.max(0, viewportFrom - VIEWPORT_MARGIN);
+		final int loadedTo = viewportTo + VIEWPORT_MARGIN;
+		editorState.setMarkerLineIndex(index);
+		renderMarkers(builder, markupId, index.getMarkersInLineRange(loadedFrom, loadedTo));
+		builder.append("codeMirrorAutocompilerSetLazyMarkers('").append(markupId).append("', '").append(index.getId());
+		builder.append("', ").append(loadedFrom).append(", ").append(loadedTo).append(", ").append(VIEWPORT_MARGIN).append(");");
+		
+		// send the overview
+		final int regionSize = (lineCount + OVERVIEW_REGION_COUNT - 1) / OVERVIEW_REGION_COUNT;
+		builder.append("codeMirrorAutocompilerSetOverview('").append(markupId).append("', ").append(lineCount).append(", ").append(regionSize).append(", [");
+		boolean first = true;
+		for (final int[] regionCounts : index.countMarkersPerRegion(regionSize)) {
+			if (first) {
+				first = false;
+			} else {
+				builder.append(',');
+			}
+			builder.append('[').append(regionCounts[0]).append(',').append(regionCounts[1]).append(',').append(regionCounts[2]).append(',').append(regionCounts[3]).append(']');
+		}
+		builder.append("]);");
+		
+	}
+
+	/**
+	 * Responds to a request for the markers in a range of lines, specified as "indexId:from:to".
+	 */
+	private void respondWithMarkerRange(final AjaxRequestTarget target, final String markerRange) {
+		final String[] segments = markerRange.split(":");
+		final MarkerLineIndex index = getEditorState().getMarkerLineIndex();
+		if (segments.length != 3 || index == null || !index.getId().equals(segments[0])) {
+			return;
+		}
+		final int from, to;
+		try {
+			from = Integer.parseInt(segments[1]);
+			to = Integer.parseInt(segments[2]);
+		} catch (final NumberFormatException e) {
+			return;
+		}
+		final String markupId = getComponent().getMarkupId();
+		final StringBuilder builder = new StringBuilder();
+		renderMarkerAdditions(builder, markupId, index.getMarkersInLineRange(from, to));
+		target.appendJavaScript(builder.toString());
+	}
+
+	/**
+	 * Responds to a search request with a page of matches. If the request contains the
+	 * document, that document is searched and kept for later searches. Otherwise the kept
+	 * document is searched if it has the revision the client expects; if not, the client
+	 * is asked to send the search again together with the document.
+	 */
+	private void respondWithSearchResults(final AjaxRequestTarget target, final AutocompileRequest request) {
+		final AutocompileRequest.Search search = request.getSearch();
+		if (!searchable || search == null) {
+			return;
+		}
+		final String markupId = getComponent().getMarkupId();
+		final AutocompileEditorState editorState = getEditorState();
+		if (request.hasDocument()) {
+			editorState.setSearchDocument(request.getRevision(), request.getDocument());
+		}
+		final DocumentSearchIndex index = editorState.getSearchIndex(request.getRevision(), searchNgramThreshold);
+		if (index == null) {
+			target.appendJavaScript("codeMirrorAutocompilerSearchStale('" + markupId + "');");
+			return;
+		}
+		
+		// render the requested page
+		final DocumentSearchIndex.Matches matches = index.search(search.query, search.caseSensitive);
+		final int pageCount = Math.max(1, (matches.getCount() + SEARCH_PAGE_SIZE - 1) / SEARCH_PAGE_SIZE);
+		final int page = Math.max(0, Math.min(search.page, pageCount - 1));
+		final int end = Math.min(matches.getCount(), (page + 1) * SEARCH_PAGE_SIZE);
+		final StringBuilder builder = new StringBuilder();
+		builder.append("codeMirrorAutocompilerShowSearchResults('").append(markupId).append("', {query: ").append(JsUtil.toStringLiteralCharSequence(search.query));
+		builder.append(", caseSensitive: ").append(search.caseSensitive);
+		builder.append(", total: ").append(matches.getCount()).append(", truncated: ").append(matches.isTruncated());
+		builder.append(", page: ").append(page).append(", pageCount: ").append(pageCount).append(", matches: [");
+		for (int i = page * SEARCH_PAGE_SIZE; i < end; i++) {
+			if (i > page * SEARCH_PAGE_SIZE) {
+				builder.append(',');
+			}
+			builder.append('[').append(matches.getLine(i)).append(',').append(matches.getStartColumn(i)).append(',').append(matches.getEndColumn(i)).append(']');
+		}
+		builder.append("]});");
+		target.appendJavaScript(builder.toString());
+	}
+
+	/**
+	 * Renders script snippets that replace the markers shown in the editor.
+	 */
+	private static void renderMarkers(final StringBuilder builder, final String markupId, final List<CompilerMarker> markers) {
 		builder.append("codeMirrorAutocompilerClearMarkers('");
-		builder.append(getComponent().getMarkupId());
+		builder.append(markupId);
 		builder.append("');");
-		for (CompilerMarker marker : result.getMarkers()) {
+		renderMarkerAdditions(builder, markupId, markers);
+	}
+
+	/**
+	 * Renders script snippets that add markers to the editor.
+	 */
+	private static void renderMarkerAdditions(final StringBuilder builder, final String markupId, final List<CompilerMarker> markers) {
+		for (CompilerMarker marker : markers) {
 			builder.append("addCodeMirrorAutocompilerMarkerToDocument('");
-			builder.append(getComponent().getMarkupId());
+			builder.append(markupId);
 			builder.append("', ").append(marker.getStartLine());
 			builder.append(", ").append(marker.getStartColumn());
 			builder.append(", ").append(marker.getEndLine());
@@ -127,14 +743,56 @@ public class CodeMirrorAutocompileBehavior extends AbstractDefaultAjaxBehavior {
 			builder.append("', ").append(JsUtil.toStringLiteralCharSequence(marker.getMessage()));
 			builder.append(");");
 		}
-		builder.append("console.log('autocompiling done!');");
-		target.appendJavaScript(builder.toString());
-		
-		// notify the result consumer
-		if (resultConsumer != null) {
-			resultConsumer.consume(result);
+	}
+
+	/**
+	 * Returns the key that identifies the current session for fair scheduling.
+	 */
+	static String getSessionKey() {
+		final Session session = Session.get();
+		return (session.isTemporary() ? "" : session.getId());
+	}
+
+	/**
+	 * Returns the key that identifies the editor of this behavior within its session.
+	 */
+	String getEditorKey() {
+		final Component component = getComponent();
+		return component.getPage().getPageId() + ":" + component.getPageRelativePath();
+	}
+
+	/**
+	 * Returns the server-side state for the editor of this behavior.
+	 */
+	AutocompileEditorState getEditorState() {
+		return AutocompileEditorStates.get(Application.get()).get(getSessionKey() + ":" + getEditorKey());
+	}
+
+	/**
+	 * Compiler for editors that are only checked on the client.
+	 */
+	private static final class NullCompiler implements ICompiler, Serializable {
+
+		/* (non-Javadoc)
+		 * @see name.martingeisse.wicket.experimental.codemirror.compile.ICompiler#compile(java.lang.String, name.martingeisse.wicket.experimental.codemirror.compile.CompilerResult)
+		 */
+		@Override
+		public void compile(final String document, final CompilerResult result) {
 		}
-		
+
+	}
+
+	/**
+	 * Counts the lines in the specified document.
+	 */
+	private static int countLines(final String document) {
+		int count = 1;
+		for (int i = 0; i < document.length(); i++) {
+			if (document.charAt(i) == '\n') {
+				count++;
+			}
+		}
+		return count;
 	}
 
 }
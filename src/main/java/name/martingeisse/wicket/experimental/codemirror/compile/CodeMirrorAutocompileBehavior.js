@@ -1,20 +1,469 @@
 
 initializeCodeMirrorAutocompiler = function(id, options, serverCallback) {
 	var q = $('#' + id);
+	
+	// For incremental compilers, the line edits since the previous request are sent along. Each request
+	// gets a new revision number; the server only uses the edits if its compiler state belongs to the
+	// previous revision, so lost requests simply cause a full compilation. The first revision number is
+	// time-based to keep multiple browser tabs showing the same page instance apart.
+	var trackedCodeMirror = null;
+	var edits = [];
+	var previousRevision = -1;
+	var nextRevision = new Date().getTime();
+	
+	// The visible line range is sent with each request, so for huge documents the server can send the
+	// markers near that range first. The remaining markers are fetched when the user scrolls to them.
+	var viewedCodeMirror = null;
+	var viewportTimer = null;
+	var getViewport = function() {
+		return (viewedCodeMirror ? viewedCodeMirror.getViewport() : {from: undefined, to: undefined});
+	};
+	var trackViewport = function(codeMirror) {
+		if (viewedCodeMirror === codeMirror) {
+			return;
+		}
+		viewedCodeMirror = codeMirror;
+		codeMirror.on('viewportChange', function() {
+			if (viewportTimer !== null) {
+				clearTimeout(viewportTimer);
+			}
+			viewportTimer = setTimeout(function() {
+				viewportTimer = null;
+				var lazyMarkers = q.data('autocompilerLazyMarkers');
+				if (lazyMarkers) {
+					var viewport = codeMirror.getViewport();
+					var missingRanges = lazyMarkers.claimMissingRanges(viewport.from - lazyMarkers.margin, viewport.to + lazyMarkers.margin);
+					for (var i in missingRanges) {
+						serverCallback(undefined, undefined, undefined, undefined, undefined, undefined, undefined,
+							lazyMarkers.indexId + ':' + missingRanges[i][0] + ':' + missingRanges[i][1]);
+					}
+				}
+			}, 100);
+		});
+	};
+	
+	q.data('autocompilerFetchRemaining', function(streamId) {
+		var viewport = getViewport();
+		serverCallback(undefined, undefined, undefined, undefined, streamId, viewport.from, viewport.to);
+	});
+	// The server keeps the latest document for searching (if the editor is searchable). A search only
+	// refers to that document by its revision if the editor has not changed since it was sent; otherwise,
+	// or if the server has lost the document, the search is sent together with the document.
+	var sentDocument = null;
+	var rememberSentDocument = function(codeMirror, revision) {
+		sentDocument = {codeMirror: codeMirror, revision: revision, generation: codeMirror.changeGeneration()};
+	};
+	var lastSearch = null;
+	q.data('autocompilerSearch', function(search, withDocument) {
+		var codeMirror = q.data('codeMirror');
+		if (!codeMirror) {
+			return;
+		}
+		lastSearch = search;
+		if (!withDocument && sentDocument !== null && sentDocument.codeMirror === codeMirror && codeMirror.isClean(sentDocument.generation)) {
+			serverCallback(undefined, sentDocument.revision, undefined, undefined, undefined, undefined, undefined, undefined, JSON.stringify(search));
+		} else if (codeMirror.getDoc().getValue() === '') {
+			// the server cannot tell an empty document from a missing one, and there is nothing to find anyway
+			codeMirrorAutocompilerShowSearchResults(id, {query: search.query, caseSensitive: search.caseSensitive, total: 0, truncated: false, page: 0, pageCount: 1, matches: []});
+		} else {
+			var revision = nextRevision++;
+			rememberSentDocument(codeMirror, revision);
+			serverCallback(codeMirror.getDoc().getValue(), revision, undefined, undefined, undefined, undefined, undefined, undefined, JSON.stringify(search));
+		}
+	});
+	q.data('autocompilerRepeatSearch', function() {
+		if (lastSearch !== null) {
+			q.data('autocompilerSearch')(lastSearch, true);
+		}
+	});
+	
+	// compile requests go through the page's batch coordinator if there is one; the round-trip time
+	// of the previous compile request is sent along for the server's metrics. Stateless requests send an
+	// editor key that is unique per browser tab, so the server only supersedes requests of the same editor.
+	var statelessEditorKey = id + ':' + nextRevision + ':' + Math.floor(Math.random() * 1000000000);
+	var sendCompileRequest = function(value, revision, previousRevision, edits) {
+		var viewport = getViewport();
+		var control = q.data('autocompileControl');
+		var roundTrip = (control ? control.takeUnreportedRoundTrip() : undefined);
+		if (options.statelessUrl) {
+			$.ajax({
+				url: options.statelessUrl,
+				type: 'POST',
+				dataType: 'json',
+				data: {key: options.compilerKey, editor: statelessEditorKey, value: value, roundTrip: roundTrip}
+			}).done(function(response) {
+				codeMirrorAutocompilerShowStatelessResult(id, response);
+			}).always(function() {
+				codeMirrorAutocompilerRequestComplete(id);
+			});
+		} else if (options.batched && window.codeMirrorAutocompileBatch) {
+			codeMirrorAutocompileBatch.enqueue({
+				id: id,
+				value: value,
+				revision: revision,
+				previousRevision: previousRevision,
+				edits: edits,
+				viewportFrom: viewport.from,
+				viewportTo: viewport.to,
+				roundTrip: roundTrip
+			});
+		} else {
+			serverCallback(value, revision, previousRevision, edits, undefined, viewport.from, viewport.to, undefined, undefined, roundTrip);
+		}
+	};
+	
+	// With a client-side validator, the document is checked in a Web Worker first. Its markers are kept
+	// so they survive when the server replaces the markers, and the server compiler only runs if the
+	// policy says so. If the validator is not available, the server compiler runs anyway.
 	q.data('autocompiler', function(codeMirror) {
-		console.log('autocompiling...');
-		serverCallback(codeMirror.getDoc().getValue());
+		trackViewport(codeMirror);
+		if (!options.validator) {
+			compileOnServer(codeMirror);
+			return;
+		}
+		codeMirrorAutocompileValidate(options.validatorUrl, options.validator, codeMirror.getDoc().getValue(), function(markers) {
+			q.data('autocompilerClientMarkers', markers || []);
+			codeMirrorAutocompilerClearMarkers(id);
+			if (markers === null || options.serverCompile == 'ALWAYS' || (options.serverCompile == 'IF_VALID' && markers.length == 0)) {
+				compileOnServer(codeMirror);
+			} else {
+				codeMirrorAutocompilerRequestComplete(id);
+			}
+		});
+	});
+	
+	var compileOnServer = function(codeMirror) {
+		if (!options.incremental) {
+			var plainRevision = nextRevision++;
+			rememberSentDocument(codeMirror, plainRevision);
+			sendCompileRequest(codeMirror.getDoc().getValue(), plainRevision);
+			return;
+		}
+		if (trackedCodeMirror !== codeMirror) {
+			trackedCodeMirror = codeMirror;
+			previousRevision = -1;
+			codeMirror.on('change', function(codeMirror, change) {
+				edits.push([change.from.line, change.to.line, change.from.line + change.text.length - 1]);
+			});
+		}
+		var revision = nextRevision++;
+		var sentEdits = edits;
+		edits = [];
+		rememberSentDocument(codeMirror, revision);
+		sendCompileRequest(codeMirror.getDoc().getValue(), revision, previousRevision, JSON.stringify(sentEdits));
+		previousRevision = revision;
+	};
+	
+};
+
+codeMirrorAutocompileValidate = (function() {
+	
+	// one worker per page and script, created on first use
+	var workers = {};
+	var callbacks = {};
+	var nextRequestId = 0;
+	
+	function getWorker(url) {
+		if (workers[url] === undefined) {
+			try {
+				workers[url] = new Worker(url);
+				workers[url].onmessage = function(event) {
+					var callback = callbacks[event.data.requestId];
+					delete callbacks[event.data.requestId];
+					if (callback) {
+						callback(event.data.markers);
+					}
+				};
+				workers[url].onerror = function(event) {
+					workers[url] = null;
+					for (var requestId in callbacks) {
+						callbacks[requestId](null);
+					}
+					callbacks = {};
+				};
+			} catch (e) {
+				// the server compiler runs instead
+				workers[url] = null;
+			}
+		}
+		return workers[url];
+	}
+	
+	return function(url, kind, document, callback) {
+		var worker = getWorker(url);
+		if (worker === null) {
+			callback(null);
+			return;
+		}
+		var requestId = nextRequestId++;
+		callbacks[requestId] = callback;
+		worker.postMessage({requestId: requestId, kind: kind, document: document});
+	};
+	
+})();
+
+initializeCodeMirrorAutocompileBatch = function(options, serverCallback) {
+	
+	// the pending compile requests by editor id; a newer request for the same editor replaces the older one
+	var pending = {};
+	var pendingCount = 0;
+	var timer = null;
+	var inFlight = false;
+	
+	function send() {
+		timer = null;
+		if (inFlight || pendingCount == 0) {
+			return;
+		}
+		var entries = [];
+		for (var id in pending) {
+			entries.push(pending[id]);
+		}
+		pending = {};
+		pendingCount = 0;
+		inFlight = true;
+		serverCallback(JSON.stringify(entries));
+	}
+	
+	codeMirrorAutocompileBatch = {
+		enqueue: function(entry) {
+			if (!pending[entry.id]) {
+				pendingCount++;
+			}
+			pending[entry.id] = entry;
+			if (timer === null && !inFlight) {
+				timer = setTimeout(send, options.collectDelay);
+			}
+		},
+		requestFinished: function() {
+			inFlight = false;
+			if (pendingCount > 0 && timer === null) {
+				timer = setTimeout(send, 0);
+			}
+		}
+	};
+	
+};
+
+codeMirrorAutocompileBatchComplete = function(attrs) {
+	for (var i in attrs.ep) {
+		if (attrs.ep[i].name == 'batch') {
+			var entries = JSON.parse(attrs.ep[i].value);
+			for (var j in entries) {
+				codeMirrorAutocompilerRequestComplete(entries[j].id);
+			}
+		}
+	}
+	codeMirrorAutocompileBatch.requestFinished();
+};
+
+codeMirrorAutocompileAll = function() {
+	$('textarea').each(function() {
+		var control = $(this).data('autocompileControl');
+		if (control && $(this).data('autocompiler')) {
+			control.runNow();
+		}
+	});
+};
+
+codeMirrorAutocompilerSetLazyMarkers = function(id, indexId, loadedFrom, loadedTo, margin) {
+	
+	// the line ranges whose markers have been loaded (or requested), sorted and non-overlapping
+	var loadedRanges = [[loadedFrom, loadedTo]];
+	$('#' + id).data('autocompilerLazyMarkers', {
+		indexId: indexId,
+		margin: margin,
+		claimMissingRanges: function(from, to) {
+			from = Math.max(from, 0);
+			var missingRanges = [], position = from;
+			for (var i in loadedRanges) {
+				var range = loadedRanges[i];
+				if (range[1] < position) {
+					continue;
+				}
+				if (range[0] > to) {
+					break;
+				}
+				if (range[0] > position) {
+					missingRanges.push([position, range[0] - 1]);
+				}
+				position = range[1] + 1;
+			}
+			if (position <= to) {
+				missingRanges.push([position, to]);
+			}
+			if (missingRanges.length > 0) {
+				loadedRanges.push([from, to]);
+				loadedRanges.sort(function(a, b) {
+					return a[0] - b[0];
+				});
+				var mergedRanges = [loadedRanges[0]];
+				for (var j = 1; j < loadedRanges.length; j++) {
+					var last = mergedRanges[mergedRanges.length - 1];
+					if (loadedRanges[j][0] <= last[1] + 1) {
+						last[1] = Math.max(last[1], loadedRanges[j][1]);
+					} else {
+						mergedRanges.push(loadedRanges[j]);
+					}
+				}
+				loadedRanges = mergedRanges;
+			}
+			return missingRanges;
+		}
+	});
+	
+};
+
+codeMirrorAutocompilerSetOverview = function(id, lineCount, regionSize, regions) {
+	var q = $('#' + id);
+	var codeMirror = q.data('codeMirror');
+	var $wrapper = $(codeMirror.getWrapperElement());
+	var $overview = $wrapper.children('.autocompile-overview');
+	if (regions.length == 0) {
+		$overview.remove();
+		return;
+	}
+	if ($overview.length == 0) {
+		$overview = $('<div class="autocompile-overview"></div>').appendTo($wrapper);
+	} else {
+		$overview.empty();
+	}
+	for (var i in regions) {
+		var region = regions[i], firstLine = region[0] * regionSize;
+		var errorLevel = (region[1] > 0 ? 'error' : region[2] > 0 ? 'warning' : 'info');
+		var title = region[1] + ' errors, ' + region[2] + ' warnings, ' + region[3] + ' infos in lines ' + (firstLine + 1) + '-' + Math.min(firstLine + regionSize, lineCount);
+		$('<div class="autocompile-overview-region"></div>')
+			.addClass('autocompile-overview-' + errorLevel)
+			.css('top', (100 * firstLine / lineCount) + '%')
+			.attr('title', title)
+			.data('line', firstLine)
+			.appendTo($overview);
+	}
+	$overview.children().click(function() {
+		codeMirror.scrollIntoView({line: $(this).data('line'), ch: 0}, codeMirror.getScrollInfo().clientHeight / 2);
 	});
 };
 
+codeMirrorAutocompilerFetchRemaining = function(id, streamId) {
+	var q = $('#' + id);
+	var control = q.data('autocompileControl');
+	if (control) {
+		control.expectFollowUpRequest();
+	}
+	q.data('autocompilerFetchRemaining')(streamId);
+};
+
+codeMirrorAutocompilerBackOff = function(id, delay) {
+	var control = $('#' + id).data('autocompileControl');
+	if (control) {
+		control.backOff(delay);
+	}
+};
+
+// shows the response of the stateless compile endpoint
+codeMirrorAutocompilerShowStatelessResult = function(id, response) {
+	if (response.backOff) {
+		codeMirrorAutocompilerBackOff(id, response.backOff);
+	}
+	if (!response.markers) {
+		return;
+	}
+	codeMirrorAutocompilerClearMarkers(id);
+	for (var i = 0; i < response.markers.length; i++) {
+		var marker = response.markers[i];
+		addCodeMirrorAutocompilerMarkerToDocument(id, marker[0], marker[1], marker[2], marker[3], marker[4], marker[5]);
+	}
+	codeMirrorAutocompilerSetOverview(id, 0, 0, []);
+	codeMirrorAutocompilerReportStatistics(id, response.documentLength);
+};
+
+codeMirrorAutocompilerReportStatistics = function(id, documentLength) {
+	var control = $('#' + id).data('autocompileControl');
+	if (control) {
+		control.reportDocumentLength(documentLength);
+	}
+};
+
+codeMirrorAutocompilerRequestComplete = function(id, attrs) {
+	
+	// lazy marker requests and search requests are not autocompile requests
+	if (attrs && attrs.ep) {
+		for (var i in attrs.ep) {
+			if ((attrs.ep[i].name == 'markerRange' || attrs.ep[i].name == 'search') && attrs.ep[i].value) {
+				return;
+			}
+		}
+	}
+	
+	var control = $('#' + id).data('autocompileControl');
+	if (control) {
+		control.requestFinished();
+	}
+};
+
+// Searches the document of a searchable editor on the server. The options may contain caseSensitive
+// and page. The matches of the requested page are highlighted, and an autocompileSearchResults event
+// is triggered on the text area with the total number of matches and the number of pages.
+// An empty query removes the highlighting.
+codeMirrorAutocompilerSearch = function(id, query, options) {
+	var q = $('#' + id);
+	if (!query) {
+		codeMirrorAutocompilerShowSearchResults(id, {query: '', total: 0, truncated: false, page: 0, pageCount: 0, matches: []});
+		return;
+	}
+	options = options || {};
+	q.data('autocompilerSearch')({query: query, caseSensitive: !!options.caseSensitive, page: options.page || 0}, false);
+};
+
+codeMirrorAutocompilerSearchStale = function(id) {
+	$('#' + id).data('autocompilerRepeatSearch')();
+};
+
+codeMirrorAutocompilerShowSearchResults = function(id, results) {
+	var q = $('#' + id);
+	var codeMirror = q.data('codeMirror');
+	var oldMarks = q.data('autocompilerSearchMarks') || [];
+	var newMarks = [];
+	codeMirror.operation(function() {
+		for (var i in oldMarks) {
+			oldMarks[i].clear();
+		}
+		for (var j in results.matches) {
+			var match = results.matches[j];
+			var mark = codeMirror.markText({line: match[0], ch: match[1]}, {line: match[0], ch: match[2]}, {
+				className: 'autocompile-search-match'
+			});
+			mark.autocompilerSearchMatch = true;
+			newMarks.push(mark);
+		}
+	});
+	q.data('autocompilerSearchMarks', newMarks);
+	if (results.matches.length > 0) {
+		var first = results.matches[0];
+		codeMirror.scrollIntoView({line: first[0], ch: first[1]}, codeMirror.getScrollInfo().clientHeight / 2);
+	}
+	q.trigger('autocompileSearchResults', [results]);
+};
+
 codeMirrorAutocompilerClearMarkers = function(id) {
 	var q = $('#' + id);
 	var codeMirror = q.data('codeMirror');
 	var markers = codeMirror.getAllMarks();
 	for (i in markers) {
-		markers[i].clear();
+		if (!markers[i].autocompilerSearchMatch) {
+			markers[i].clear();
+		}
 	}
 	codeMirror.clearGutter('marker-gutter');
+	q.removeData('autocompilerLazyMarkers');
+	
+	// the markers from the client-side validator stay until the next validation
+	var clientMarkers = q.data('autocompilerClientMarkers');
+	for (var j in clientMarkers) {
+		var marker = clientMarkers[j];
+		addCodeMirrorAutocompilerMarkerToDocument(id, marker[0], marker[1], marker[2], marker[3], marker[4], marker[5]);
+	}
+	
 }
 
 addCodeMirrorAutocompilerMarkerToDocument = function(id, startLine, startColumn, endLine, endColumn, errorLevel, message) {
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.attributes.CallbackParameter;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.request.IRequestParameters;
+import org.apache.wicket.request.cycle.RequestCycle;
+import com.google.gson.Gson;
+import name.martingeisse.wicket.experimental.codemirror.CodeMirrorBehavior;
+import name.martingeisse.wicket.internal.JsUtil;
+import name.martingeisse.wicket.internal.WicketHeadUtil;
+
+/**
+ * Additional behavior on top of {@link CodeMirrorBehavior} that offers
+ * completion proposals for the word before the cursor. The proposals
+ * are taken from a shared {@link CompletionIndex}, such as the keywords
+ * and library functions of a language, and from the completion items of
+ * the latest compiler result if the same component also has a
+ * {@link CodeMirrorAutocompileBehavior}.
+ * 
+ * The client debounces its requests and keeps the latest proposals. If
+ * these were complete for a prefix, longer prefixes are filtered on the
+ * client without asking the server again.
+ * 
+ * Completion is triggered by Ctrl-Space, and automatically while typing
+ * a word of at least {@link #getMinimumAutomaticPrefixLength()} characters.
+ */
+public class CodeMirrorCompletionBehavior extends AbstractDefaultAjaxBehavior {
+
+	/**
+	 * the maximum number of proposals the client may request at once
+	 */
+	private static final int MAX_LIMIT = 1000;
+
+	/**
+	 * the model for the shared index (the index itself should not be serialized
+	 * with the page, so the model should fetch it from a static field or similar)
+	 */
+	private final IModel<CompletionIndex> sharedIndexModel;
+
+	/**
+	 * the maximum number of proposals shown
+	 */
+	private int limit = 50;
+
+	/**
+	 * the debounce delay in milliseconds
+	 */
+	private int delay = 100;
+
+	/**
+	 * the minimum length of the word before the cursor for automatic completion (0 to disable)
+	 */
+	private int minimumAutomaticPrefixLength = 2;
+
+	/**
+	 * Constructor for a behavior that only proposes the completion items
+	 * found by the compiler of a {@link CodeMirrorAutocompileBehavior}.
+	 */
+	public CodeMirrorCompletionBehavior() {
+		this(null);
+	}
+
+	/**
+	 * Constructor.
+	 * @param sharedIndexModel the model for the shared index (may be null)
+	 */
+	public CodeMirrorCompletionBehavior(final IModel<CompletionIndex> sharedIndexModel) {
+		this.sharedIndexModel = sharedIndexModel;
+	}
+
+	/**
+	 * Getter method for the sharedIndexModel.
+	 * @return the sharedIndexModel
+	 */
+	public IModel<CompletionIndex> getSharedIndexModel() {
+		return sharedIndexModel;
+	}
+
+	/**
+	 * Getter method for the limit.
+	 * @return the limit
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Setter method for the limit.
+	 * @param limit the limit to set
+	 * @return this
+	 */
+	public CodeMirrorCompletionBehavior setLimit(final int limit) {
+		this.limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+		return this;
+	}
+
+	/**
+	 * Getter method for the delay.
+	 * @return the delay
+	 */
+	public int getDelay() {
+		return delay;
+	}
+
+	/**
+	 * Setter method for the delay.
+	 * @param delay the delay to set
+	 * @return this
+	 */
+	public CodeMirrorCompletionBehavior setDelay(final int delay) {
+		this.delay = delay;
+		return this;
+	}
+
+	/**
+	 * Getter method for the minimumAutomaticPrefixLength.
+	 * @return the minimumAutomaticPrefixLength
+	 */
+	public int getMinimumAutomaticPrefixLength() {
+		return minimumAutomaticPrefixLength;
+	}
+
+	/**
+	 * Setter method for the minimumAutomaticPrefixLength.
+	 * @param minimumAutomaticPrefixLength the minimumAutomaticPrefixLength to set (0 to disable automatic completion)
+	 * @return this
+	 */
+	public CodeMirrorCompletionBehavior setMinimumAutomaticPrefixLength(final int minimumAutomaticPrefixLength) {
+		this.minimumAutomaticPrefixLength = minimumAutomaticPrefixLength;
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.behavior.Behavior#detach(org.apache.wicket.Component)
+	 */
+	@Override
+	public void detach(final Component component) {
+		super.detach(component);
+		if (sharedIndexModel != null) {
+			sharedIndexModel.detach();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#renderHead(org.apache.wicket.Component, org.apache.wicket.markup.head.IHeaderResponse)
+	 */
+	@Override
+	public void renderHead(final Component component, final IHeaderResponse response) {
+		super.renderHead(component, response);
+		WicketHeadUtil.includeClassJavascript(response, CodeMirrorCompletionBehavior.class);
+		WicketHeadUtil.includeClassStylesheet(response, CodeMirrorCompletionBehavior.class);
+		final StringBuilder builder = new StringBuilder();
+		builder.append("initializeCodeMirrorCompletion('").append(component.getMarkupId()).append("', {");
+		builder.append("limit: ").append(limit);
+		builder.append(", delay: ").append(delay);
+		builder.append(", minimumAutomaticPrefixLength: ").append(minimumAutomaticPrefixLength);
+		builder.append("}, ");
+		builder.append(getCallbackFunction(CallbackParameter.explicit("prefix"), CallbackParameter.explicit("requestId")));
+		builder.append(");");
+		response.render(OnDomReadyHeaderItem.forScript(builder.toString()));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#respond(org.apache.wicket.ajax.AjaxRequestTarget)
+	 */
+	@Override
+	protected void respond(final AjaxRequestTarget target) {
+		final IRequestParameters parameters = RequestCycle.get().getRequest().getRequestParameters();
+		final String prefix = parameters.getParameterValue("prefix").toString("");
+		final long requestId = parameters.getParameterValue("requestId").toLong(0);
+		
+		// ask for one more proposal than shown, to tell the client whether the list is complete
+		final List<CompletionIndex> indexes = new ArrayList<>();
+		indexes.add(sharedIndexModel == null ? null : sharedIndexModel.getObject());
+		indexes.add(getCompilerIndex());
+		final List<CompletionItem> items = CompletionIndex.complete(indexes, prefix, limit + 1);
+		final boolean complete = (items.size() <= limit);
+		final List<Map<String, String>> proposals = new ArrayList<>();
+		for (final CompletionItem item : (complete ? items : items.subList(0, limit))) {
+			final Map<String, String> proposal = new HashMap<>();
+			proposal.put("text", item.getText());
+			proposal.put("kind", item.getKind());
+			proposal.put("detail", item.getDetail());
+			proposals.add(proposal);
+		}
+		
+		final StringBuilder builder = new StringBuilder();
+		builder.append("codeMirrorCompletionResults('").append(getComponent().getMarkupId()).append("', ").append(requestId).append(", ");
+		builder.append(JsUtil.toStringLiteral(prefix)).append(", ").append(complete).append(", ").append(new Gson().toJson(proposals)).append(");");
+		target.appendJavaScript(builder.toString());
+		
+	}
+
+	/**
+	 * Returns the index built from the latest compiler result, or null if there is none.
+	 */
+	private CompletionIndex getCompilerIndex() {
+		for (final CodeMirrorAutocompileBehavior autocompileBehavior : getComponent().getBehaviors(CodeMirrorAutocompileBehavior.class)) {
+			return autocompileBehavior.getEditorState().getCompletionIndex();
+		}
+		return null;
+	}
+
+}
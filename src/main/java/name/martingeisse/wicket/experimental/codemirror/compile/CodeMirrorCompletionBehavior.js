@@ -0,0 +1,200 @@
+initializeCodeMirrorCompletion = function(id, options, serverCallback) {
+	var q = $('#' + id);
+	
+	// The proposals of the latest response are kept for the word they were requested for. If they are complete
+	// for their prefix, typing further is handled by filtering them on the client. Otherwise, they are still shown
+	// while a new request is on its way. Requests are debounced, and responses to requests other than the latest
+	// one are ignored. A new word always asks the server again, since the compiler may have found new symbols.
+	var cache = null;
+	var latestRequestId = 0;
+	var latestRequestWord = null;
+	var requestTimer = null;
+	var codeMirror = null;
+	var widget = null;
+	
+	var isWordCharacter = function(c) {
+		return /[\w$]/.test(c);
+	};
+	
+	// returns the word before the cursor as {prefix, from, to}, or null if there is a selection
+	var getWordBeforeCursor = function() {
+		if (codeMirror.somethingSelected()) {
+			return null;
+		}
+		var cursor = codeMirror.getCursor();
+		var line = codeMirror.getLine(cursor.line);
+		var start = cursor.ch;
+		while (start > 0 && isWordCharacter(line.charAt(start - 1))) {
+			start--;
+		}
+		return {prefix: line.substring(start, cursor.ch), from: CodeMirror.Pos(cursor.line, start), to: cursor};
+	};
+	
+	var isCachedFor = function(word) {
+		return (cache !== null && cache.from.line === word.from.line && cache.from.ch === word.from.ch &&
+			word.prefix.toLowerCase().indexOf(cache.prefix.toLowerCase()) === 0);
+	};
+	
+	var filterItems = function(items, prefix) {
+		var lowerCasePrefix = prefix.toLowerCase();
+		var result = [];
+		for (var i = 0; i < items.length; i++) {
+			if (items[i].text.toLowerCase().indexOf(lowerCasePrefix) === 0 && items[i].text !== prefix) {
+				result.push(items[i]);
+			}
+		}
+		return result;
+	};
+	
+	var closeWidget = function() {
+		if (widget !== null) {
+			codeMirror.removeKeyMap(widget.keyMap);
+			widget.element.remove();
+			widget = null;
+		}
+	};
+	
+	var pick = function(item) {
+		var word = widget.word;
+		closeWidget();
+		codeMirror.replaceRange(item.text, word.from, word.to, '+complete');
+		codeMirror.focus();
+	};
+	
+	var select = function(index) {
+		var entries = widget.element.children();
+		index = (index + entries.length) % entries.length;
+		entries.eq(widget.selected).removeClass('codemirror-completion-selected');
+		entries.eq(index).addClass('codemirror-completion-selected');
+		widget.selected = index;
+		var entry = entries.get(index), list = widget.element.get(0);
+		if (entry.offsetTop < list.scrollTop) {
+			list.scrollTop = entry.offsetTop;
+		} else if (entry.offsetTop + entry.offsetHeight > list.scrollTop + list.clientHeight) {
+			list.scrollTop = entry.offsetTop + entry.offsetHeight - list.clientHeight;
+		}
+	};
+	
+	var showWidget = function(word, items) {
+		closeWidget();
+		if (items.length === 0) {
+			return;
+		}
+		var element = $('<ul class="codemirror-completion"></ul>');
+		$.each(items, function(index, item) {
+			var entry = $('<li></li>').text(item.text);
+			if (item.kind) {
+				entry.addClass('codemirror-completion-' + item.kind.replace(/[^\w-]/g, ''));
+				entry.append($('<span class="codemirror-completion-kind"></span>').text(item.kind));
+			}
+			if (item.detail) {
+				entry.attr('title', item.detail);
+			}
+			entry.on('mousedown', function(event) {
+				event.preventDefault();
+				pick(item);
+			});
+			element.append(entry);
+		});
+		var coordinates = codeMirror.cursorCoords(word.from, 'page');
+		element.css({left: coordinates.left + 'px', top: coordinates.bottom + 'px'}).appendTo(document.body);
+		widget = {
+			word: word,
+			items: items,
+			element: element,
+			selected: 0,
+			keyMap: {
+				'Up': function() { select(widget.selected - 1); },
+				'Down': function() { select(widget.selected + 1); },
+				'PageUp': function() { select(Math.max(0, widget.selected - 10)); },
+				'PageDown': function() { select(Math.min(widget.items.length - 1, widget.selected + 10)); },
+				'Enter': function() { pick(widget.items[widget.selected]); },
+				'Tab': function() { pick(widget.items[widget.selected]); },
+				'Esc': closeWidget
+			}
+		};
+		codeMirror.addKeyMap(widget.keyMap);
+		select(0);
+	};
+	
+	// shows the proposals for the word before the cursor, from the cache and/or the server
+	var complete = function(explicit) {
+		var word = getWordBeforeCursor();
+		if (word === null || (!explicit && word.prefix.length < options.minimumAutomaticPrefixLength)) {
+			closeWidget();
+			return;
+		}
+		if (isCachedFor(word)) {
+			showWidget(word, filterItems(cache.items, word.prefix));
+			if (cache.complete) {
+				return;
+			}
+		} else {
+			closeWidget();
+		}
+		if (requestTimer !== null) {
+			clearTimeout(requestTimer);
+		}
+		requestTimer = setTimeout(function() {
+			requestTimer = null;
+			latestRequestId++;
+			latestRequestWord = word;
+			serverCallback(word.prefix, latestRequestId);
+		}, options.delay);
+	};
+	
+	q.data('completionResults', function(requestId, prefix, complete, items) {
+		if (requestId !== latestRequestId) {
+			return;
+		}
+		cache = {prefix: prefix, from: latestRequestWord.from, complete: complete, items: items};
+		if (codeMirror === null || !codeMirror.hasFocus()) {
+			return;
+		}
+		var word = getWordBeforeCursor();
+		if (word !== null && isCachedFor(word)) {
+			showWidget(word, filterItems(items, word.prefix));
+		}
+	});
+	
+	// the CodeMirror instance may be created lazily
+	var attach = function(createdCodeMirror) {
+		codeMirror = createdCodeMirror;
+		codeMirror.addKeyMap({
+			'Ctrl-Space': function() {
+				complete(true);
+			}
+		});
+		codeMirror.on('inputRead', function(codeMirror, change) {
+			if (options.minimumAutomaticPrefixLength > 0 && change.text.length === 1 && isWordCharacter(change.text[0].slice(-1))) {
+				complete(false);
+			}
+		});
+		codeMirror.on('cursorActivity', function() {
+			if (widget !== null) {
+				var word = getWordBeforeCursor();
+				if (word === null || word.from.line !== widget.word.from.line || word.from.ch !== widget.word.from.ch || word.prefix.length === 0) {
+					closeWidget();
+				} else if (isCachedFor(word)) {
+					showWidget(word, filterItems(cache.items, word.prefix));
+				}
+			}
+		});
+		codeMirror.on('blur', closeWidget);
+	};
+	if (q.data('codeMirror')) {
+		attach(q.data('codeMirror'));
+	} else {
+		q.one('codeMirrorCreated', function(event, createdCodeMirror) {
+			attach(createdCodeMirror);
+		});
+	}
+	
+};
+
+codeMirrorCompletionResults = function(id, requestId, prefix, complete, items) {
+	var handler = $('#' + id).data('completionResults');
+	if (handler) {
+		handler(requestId, prefix, complete, items);
+	}
+};
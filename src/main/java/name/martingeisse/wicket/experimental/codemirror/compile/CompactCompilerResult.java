@@ -0,0 +1,330 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.codec.digest.DigestUtils;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * A memory-lean, immutable form of a {@link CompilerResult}, intended for results
+ * that are kept in a page or session and therefore serialized with each request.
+ *
+ * Marker positions are stored in primitive columns, and each distinct message is
+ * stored only once and interned across results. The document itself is transient:
+ * after deserialization only its length and SHA-1 hash are available, which is
+ * enough to tell whether the result still belongs to a given document.
+ *
+ * Markers are sorted by error level, errors first, and keep their original order
+ * within each level.
+ */
+public final class CompactCompilerResult implements Serializable {
+
+	/**
+	 * the messageInterner
+	 */
+	private static final Interner<String> messageInterner = Interners.newWeakInterner();
+
+	/**
+	 * the ERROR_LEVELS
+	 */
+	private static final CompilerErrorLevel[] ERROR_LEVELS = CompilerErrorLevel.values();
+
+	/**
+	 * the document (not serialized)
+	 */
+	private final transient String document;
+
+	/**
+	 * the documentLength
+	 */
+	private final int documentLength;
+
+	/**
+	 * the documentHash
+	 */
+	private final String documentHash;
+
+	/**
+	 * the overallErrorLevel
+	 */
+	private final CompilerErrorLevel overallErrorLevel;
+
+	/**
+	 * the startLines
+	 */
+	private final int[] startLines;
+
+	/**
+	 * the startColumns
+	 */
+	private final int[] startColumns;
+
+	/**
+	 * the endLines
+	 */
+	private final int[] endLines;
+
+	/**
+	 * the endColumns
+	 */
+	private final int[] endColumns;
+
+	/**
+	 * the error level ordinals
+	 */
+	private final byte[] errorLevels;
+
+	/**
+	 * the indices of the marker messages in the message table
+	 */
+	private final int[] messageIndices;
+
+	/**
+	 * the distinct messages
+	 */
+	private final String[] messages;
+
+	/**
+	 * Constructor.
+	 * @param result the result to convert
+	 */
+	public CompactCompilerResult(final CompilerResult result) {
+		final String document = result.getDocument();
+		final List<CompilerMarker> markers = result.getMarkerSnapshot();
+		final int markerCount = markers.size();
+		this.document = document;
+		this.documentLength = (document == null ? 0 : document.length());
+		this.documentHash = (document == null ? null : DigestUtils.sha1Hex(document));
+		this.overallErrorLevel = result.getOverallErrorLevel();
+		this.startLines = new int[markerCount];
+		this.startColumns = new int[markerCount];
+		this.endLines = new int[markerCount];
+		this.endColumns = new int[markerCount];
+		this.errorLevels = new byte[markerCount];
+		this.messageIndices = new int[markerCount];
+
+		// counting sort by error level: count, then turn counts into start offsets
+		final int[] offsets = new int[ERROR_LEVELS.length];
+		for (final CompilerMarker marker : markers) {
+			offsets[marker.getErrorLevel().ordinal()]++;
+		}
+		int total = 0;
+		for (int i = 0; i < offsets.length; i++) {
+			final int count = offsets[i];
+			offsets[i] = total;
+			total += count;
+		}
+
+		// fill the columns, collecting distinct messages on the way
+		final Map<String, Integer> messageTable = new HashMap<>();
+		for (final CompilerMarker marker : markers) {
+			final int ordinal = marker.getErrorLevel().ordinal();
+			final int index = offsets[ordinal]++;
+			startLines[index] = marker.getStartLine();
+			startColumns[index] = marker.getStartColumn();
+			endLines[index] = marker.getEndLine();
+			endColumns[index] = marker.getEndColumn();
+			errorLevels[index] = (byte)ordinal;
+			Integer messageIndex = messageTable.get(marker.getMessage());
+			if (messageIndex == null) {
+				messageIndex = messageTable.size();
+				messageTable.put(marker.getMessage(), messageIndex);
+			}
+			messageIndices[index] = messageIndex;
+		}
+		this.messages = new String[messageTable.size()];
+		for (final Map.Entry<String, Integer> entry : messageTable.entrySet()) {
+			messages[entry.getValue()] = intern(entry.getKey());
+		}
+
+	}
+
+	/**
+	 *
+	 */
+	private static String intern(final String message) {
+		return (message == null ? null : messageInterner.intern(message));
+	}
+
+	/**
+	 * Re-interns the messages after deserialization.
+	 */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		for (int i = 0; i < messages.length; i++) {
+			messages[i] = intern(messages[i]);
+		}
+	}
+
+	/**
+	 * Getter method for the document.
+	 * @return the document, or null if this result has been deserialized
+	 */
+	public String getDocument() {
+		return document;
+	}
+
+	/**
+	 * Getter method for the documentLength.
+	 * @return the documentLength
+	 */
+	public int getDocumentLength() {
+		return documentLength;
+	}
+
+	/**
+	 * Getter method for the documentHash.
+	 * @return the SHA-1 hash of the document in hex form
+	 */
+	public String getDocumentHash() {
+		return documentHash;
+	}
+
+	/**
+	 * Checks whether this result belongs to the specified document.
+	 *
+	 * @param document the document
+	 * @return true if the document is the one this result was created for
+	 */
+	public boolean belongsTo(final String document) {
+		if (document == null || documentHash == null) {
+			return (document == null && documentHash == null);
+		}
+		if (this.document != null) {
+			return this.document.equals(document);
+		}
+		return document.length() == documentLength && DigestUtils.sha1Hex(document).equals(documentHash);
+	}
+
+	/**
+	 * Getter method for the overallErrorLevel.
+	 * @return the overallErrorLevel
+	 */
+	public CompilerErrorLevel getOverallErrorLevel() {
+		return overallErrorLevel;
+	}
+
+	/**
+	 * @return the number of markers
+	 */
+	public int getMarkerCount() {
+		return startLines.length;
+	}
+
+	/**
+	 * @param index the marker index
+	 * @return the start line of the marker
+	 */
+	public int getStartLine(final int index) {
+		return startLines[index];
+	}
+
+	/**
+	 * @param index the marker index
+	 * @return the start column of the marker
+	 */
+	public int getStartColumn(final int index) {
+		return startColumns[index];
+	}
+
+	/**
+	 * @param index the marker index
+	 * @return the end line of the marker
+	 */
+	public int getEndLine(final int index) {
+		return endLines[index];
+	}
+
+	/**
+	 * @param index the marker index
+	 * @return the end column of the marker
+	 */
+	public int getEndColumn(final int index) {
+		return endColumns[index];
+	}
+
+	/**
+	 * @param index the marker index
+	 * @return the error level of the marker
+	 */
+	public CompilerErrorLevel getErrorLevel(final int index) {
+		return ERROR_LEVELS[errorLevels[index]];
+	}
+
+	/**
+	 * @param index the marker index
+	 * @return the message of the marker
+	 */
+	public String getMessage(final int index) {
+		return messages[messageIndices[index]];
+	}
+
+	/**
+	 * Counts the markers with the specified error level. This doesn't look at
+	 * the individual markers since they are sorted by error level.
+	 *
+	 * @param errorLevel the error level
+	 * @return the number of markers with that level
+	 */
+	public int countMarkers(final CompilerErrorLevel errorLevel) {
+		return findFirstIndexOfLevel(errorLevel.ordinal() + 1) - findFirstIndexOfLevel(errorLevel.ordinal());
+	}
+
+	/**
+	 * Returns the index of the first marker whose error level ordinal is at least the specified one.
+	 */
+	private int findFirstIndexOfLevel(final int ordinal) {
+		int low = 0, high = errorLevels.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (errorLevels[middle] < ordinal) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Creates a marker object for the marker with the specified index.
+	 *
+	 * @param index the marker index
+	 * @return the marker
+	 */
+	public CompilerMarker getMarker(final int index) {
+		return new CompilerMarker(startLines[index], startColumns[index], endLines[index], endColumns[index], getErrorLevel(index), getMessage(index));
+	}
+
+	/**
+	 * Returns a read-only view of the markers. Marker objects are created on access.
+	 *
+	 * @return the markers
+	 */
+	public List<CompilerMarker> getMarkers() {
+		return new AbstractList<CompilerMarker>() {
+
+			@Override
+			public CompilerMarker get(final int index) {
+				return getMarker(index);
+			}
+
+			@Override
+			public int size() {
+				return getMarkerCount();
+			}
+
+		};
+	}
+
+}
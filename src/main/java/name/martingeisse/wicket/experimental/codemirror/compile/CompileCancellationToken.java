@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells a compiler that it should stop working on a document, either
+ * because the result is no longer needed or because its time budget
+ * has been used up.
+ *
+ * Cancellation is cooperative: the compiler is expected to call
+ * {@link #isCancelled()} or {@link #checkCancelled()} between
+ * reasonably small units of work. Tokens are safe to use from
+ * multiple threads.
+ */
+public final class CompileCancellationToken {
+
+	/**
+	 * the timeoutMillis
+	 */
+	private final long timeoutMillis;
+
+	/**
+	 * the deadline (in terms of {@link System#nanoTime()})
+	 */
+	private final long deadline;
+
+	/**
+	 * the cancelled
+	 */
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructor.
+	 * @param timeoutMillis the timeout in milliseconds, or a negative value for no timeout
+	 */
+	private CompileCancellationToken(final long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+		this.deadline = (timeoutMillis < 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+		this.cancelled = false;
+	}
+
+	/**
+	 * Creates a token that has no deadline and is only cancelled explicitly.
+	 * @return the token
+	 */
+	public static CompileCancellationToken withoutDeadline() {
+		return new CompileCancellationToken(-1);
+	}
+
+	/**
+	 * Creates a token whose deadline is the specified amount of time from now.
+	 * @param timeoutMillis the timeout in milliseconds
+	 * @return the token
+	 */
+	public static CompileCancellationToken withTimeout(final long timeoutMillis) {
+		if (timeoutMillis < 0) {
+			throw new IllegalArgumentException("timeoutMillis is negative: " + timeoutMillis);
+		}
+		return new CompileCancellationToken(timeoutMillis);
+	}
+
+	/**
+	 * Cancels the compilation this token belongs to.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Checks whether this token has a deadline.
+	 * @return true if there is a deadline, false if not
+	 */
+	public boolean hasDeadline() {
+		return (timeoutMillis >= 0);
+	}
+
+	/**
+	 * Getter method for the timeoutMillis.
+	 * @return the timeout this token was created with, or -1 if it has no deadline
+	 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * Returns the time left until the deadline. Returns {@link Long#MAX_VALUE}
+	 * for tokens without a deadline and 0 for tokens whose deadline has passed.
+	 *
+	 * @return the remaining time in milliseconds
+	 */
+	public long getRemainingMillis() {
+		if (!hasDeadline()) {
+			return Long.MAX_VALUE;
+		}
+		final long remainingNanos = deadline - System.nanoTime();
+		return (remainingNanos <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(remainingNanos));
+	}
+
+	/**
+	 * Checks whether the deadline of this token has passed.
+	 * @return true if expired, false if not or if there is no deadline
+	 */
+	public boolean isExpired() {
+		return hasDeadline() && (deadline - System.nanoTime() <= 0);
+	}
+
+	/**
+	 * Checks whether the compiler should stop, either due to explicit
+	 * cancellation or because the deadline has passed.
+	 *
+	 * @return true if cancelled, false if not
+	 */
+	public boolean isCancelled() {
+		return cancelled || isExpired();
+	}
+
+	/**
+	 * Throws a {@link CompileCancelledException} if this token has been
+	 * cancelled or has expired. Compilers may call this method instead of
+	 * {@link #isCancelled()} to unwind from deeply nested code.
+	 *
+	 * @throws CompileCancelledException if cancelled
+	 */
+	public void checkCancelled() throws CompileCancelledException {
+		if (isCancelled()) {
+			throw new CompileCancelledException(cancelled ? "compilation cancelled" : "compilation timed out");
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+/**
+ * This exception type is thrown by {@link CompileCancellationToken#checkCancelled()}
+ * to abort a compilation that has been cancelled or has run out of time. It is
+ * not an error: the markers produced so far are kept as a partial result.
+ */
+public class CompileCancelledException extends RuntimeException {
+
+	/**
+	 * Constructor.
+	 */
+	public CompileCancelledException() {
+		super();
+	}
+
+	/**
+	 * Constructor.
+	 * @param message the exception message
+	 */
+	public CompileCancelledException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.wicket.Application;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.protocol.http.WebApplication;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.resource.IResource;
+import org.apache.wicket.request.resource.ResourceReference;
+import name.martingeisse.wicket.internal.ParameterUtil;
+
+/**
+ * Application-wide registry of compilers by key, together with a stateless
+ * endpoint that compiles documents with them. Editors whose
+ * {@link CodeMirrorAutocompileBehavior} refers to a compiler by its key send
+ * their compile requests to that endpoint instead of the behavior. Such requests
+ * neither load nor lock the page, so they are not slowed down by other requests
+ * for the same page and never touch the page store.
+ *
+ * Compiling is a pure function of the document here: the endpoint keeps no
+ * state, so incremental compilation, streamed and lazily loaded markers are
+ * not available, and the result consumers of the behavior are not called.
+ * If an {@link AutocompileScheduler} is installed, the endpoint compiles on
+ * the scheduler.
+ *
+ * Registered compilers are shared by all editors and requests, so they must
+ * be thread-safe. The registry is only available if it has been installed by
+ * calling {@link #initialize(WebApplication, String)} during application startup.
+ */
+public final class CompilerRegistry {
+
+	/**
+	 * The metadata key for this object.
+	 */
+	public static final MetaDataKey<CompilerRegistry> KEY = new MetaDataKey<CompilerRegistry>() {
+	};
+
+	/**
+	 * the reference under which the endpoint is served
+	 */
+	private static final ResourceReference REFERENCE = new ResourceReference(CompilerRegistry.class, "autocompile") {
+		@Override
+		public IResource getResource() {
+			return new AutocompileResource();
+		}
+	};
+
+	/**
+	 * Installs a registry for the specified application and mounts its endpoint at the specified path.
+	 *
+	 * @param application the Wicket application
+	 * @param mountPath the path to mount the endpoint at, e.g. "autocompile"
+	 * @return the registry
+	 */
+	public static CompilerRegistry initialize(final WebApplication application, final String mountPath) {
+		final CompilerRegistry registry = new CompilerRegistry();
+		application.setMetaData(KEY, registry);
+		application.mountResource(mountPath, REFERENCE);
+		return registry;
+	}
+
+	/**
+	 * Returns the registry for the application of the calling thread.
+	 *
+	 * @return the registry, or null if it has not been installed
+	 */
+	public static CompilerRegistry get() {
+		return get(Application.get());
+	}
+
+	/**
+	 * Returns the registry for the specified application.
+	 *
+	 * @param application the Wicket application
+	 * @return the registry, or null if it has not been installed
+	 */
+	public static CompilerRegistry get(final Application application) {
+		return application.getMetaData(KEY);
+	}
+
+	/**
+	 * the compilers by key
+	 */
+	private final ConcurrentMap<String, ICompiler> compilers = new ConcurrentHashMap<>();
+
+	/**
+	 * the maxDocumentLength
+	 */
+	private volatile int maxDocumentLength = 10 * 1024 * 1024;
+
+	/**
+	 * Constructor.
+	 */
+	private CompilerRegistry() {
+	}
+
+	/**
+	 * Registers a compiler, replacing any compiler previously registered with the same key.
+	 *
+	 * @param key the key
+	 * @param compiler the compiler (must be thread-safe)
+	 * @return this
+	 */
+	public CompilerRegistry register(final String key, final ICompiler compiler) {
+		compilers.put(ParameterUtil.ensureNotNull(key, "key"), ParameterUtil.ensureNotNull(compiler, "compiler"));
+		return this;
+	}
+
+	/**
+	 * Returns the compiler registered with the specified key.
+	 *
+	 * @param key the key
+	 * @return the compiler, or null if none is registered with that key
+	 */
+	public ICompiler getCompiler(final String key) {
+		return (key == null ? null : compilers.get(key));
+	}
+
+	/**
+	 * Getter method for the maxDocumentLength.
+	 * @return the maxDocumentLength
+	 */
+	public int getMaxDocumentLength() {
+		return maxDocumentLength;
+	}
+
+	/**
+	 * Setter method for the maxDocumentLength. The endpoint refuses to compile longer documents.
+	 * @param maxDocumentLength the maxDocumentLength to set
+	 * @return this
+	 */
+	public CompilerRegistry setMaxDocumentLength(final int maxDocumentLength) {
+		this.maxDocumentLength = maxDocumentLength;
+		return this;
+	}
+
+	/**
+	 * Returns the URL of the endpoint for the current request.
+	 *
+	 * @return the URL
+	 */
+	public String getEndpointUrl() {
+		return RequestCycle.get().urlFor(REFERENCE, null).toString();
+	}
+
+}
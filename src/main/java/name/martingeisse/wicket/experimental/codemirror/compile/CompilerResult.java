@@ -6,10 +6,20 @@ package name.martingeisse.wicket.experimental.codemirror.compile;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import name.martingeisse.wicket.helpers.IConsumer;
 
 /**
  * The result returned by the compiler for a document.
+ * 
+ * Compilers that work in phases (for example, syntax checks followed by slow
+ * semantic checks) can call {@link #publishMarkers()} after each phase. This
+ * passes the markers found so far to the marker sink, if any, so they can be
+ * shown to the user while the compiler continues.
+ * 
+ * Compilers can also report the symbols they find as {@link CompletionItem}s.
+ * These are offered by a {@link CodeMirrorCompletionBehavior} on the same editor.
  */
 public final class CompilerResult implements Serializable {
 
@@ -24,9 +34,20 @@ public final class CompilerResult implements Serializable {
 	private CompilerErrorLevel overallErrorLevel;
 
 	/**
-	 * the markers
+	 * the markers (synchronized, since a compiler thread may still be adding
+	 * markers while a timed-out caller takes a snapshot)
 	 */
-	private final List<CompilerMarker> markers = new ArrayList<>();
+	private final List<CompilerMarker> markers = Collections.synchronizedList(new ArrayList<CompilerMarker>());
+
+	/**
+	 * the completionItems (synchronized for the same reason as the markers)
+	 */
+	private final List<CompletionItem> completionItems = Collections.synchronizedList(new ArrayList<CompletionItem>());
+
+	/**
+	 * the markerSink
+	 */
+	private transient volatile IConsumer<List<CompilerMarker>> markerSink;
 
 	/**
 	 * Constructor.
@@ -68,4 +89,74 @@ public final class CompilerResult implements Serializable {
 		return markers;
 	}
 
+	/**
+	 * Returns a copy of the markers that is safe to use while the compiler
+	 * is still adding markers from another thread.
+	 * 
+	 * @return the markers found so far
+	 */
+	public List<CompilerMarker> getMarkerSnapshot() {
+		synchronized (markers) {
+			return new ArrayList<>(markers);
+		}
+	}
+
+	/**
+	 * Adds a completion item, such as the name of a symbol declared in the document.
+	 * 
+	 * @param item the item to add
+	 */
+	public void addCompletionItem(final CompletionItem item) {
+		completionItems.add(item);
+	}
+
+	/**
+	 * Returns a copy of the completion items found so far.
+	 * 
+	 * @return the completion items
+	 */
+	public List<CompletionItem> getCompletionItems() {
+		synchronized (completionItems) {
+			return new ArrayList<>(completionItems);
+		}
+	}
+
+	/**
+	 * Getter method for the markerSink.
+	 * @return the markerSink
+	 */
+	public IConsumer<List<CompilerMarker>> getMarkerSink() {
+		return markerSink;
+	}
+
+	/**
+	 * Setter method for the markerSink.
+	 * @param markerSink the markerSink to set
+	 */
+	public void setMarkerSink(final IConsumer<List<CompilerMarker>> markerSink) {
+		this.markerSink = markerSink;
+	}
+
+	/**
+	 * Converts this result to its compact form, which is better suited for
+	 * keeping it in a page or session.
+	 * 
+	 * @return the compact result
+	 */
+	public CompactCompilerResult toCompact() {
+		return new CompactCompilerResult(this);
+	}
+
+	/**
+	 * Passes a snapshot of the markers found so far to the marker sink. Compilers
+	 * should call this method at the end of each phase except the last. Does nothing
+	 * if no marker sink is set.
+	 */
+	public void publishMarkers() {
+		final IConsumer<List<CompilerMarker>> sink = markerSink;
+		if (sink != null) {
+			sink.consume(getMarkerSnapshot());
+		}
+	}
+
 }
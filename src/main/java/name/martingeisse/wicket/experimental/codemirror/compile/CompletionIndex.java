@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * An immutable index of {@link CompletionItem}s that answers case-insensitive
+ * prefix queries by binary search in a sorted array, so a query takes
+ * microseconds even for large symbol tables. Since it is immutable, a single
+ * index can be shared by all editors, for example for the keywords and
+ * library functions of a language.
+ *
+ * Indexes are not meant to be serialized. Keep shared indexes in static fields
+ * or application-scoped objects, and supply them through models that do not
+ * store them.
+ */
+public final class CompletionIndex {
+
+	/**
+	 * The empty index.
+	 */
+	public static final CompletionIndex EMPTY = new CompletionIndex(new CompletionItem[0]);
+
+	/**
+	 * the items, sorted by their keys
+	 */
+	private final CompletionItem[] items;
+
+	/**
+	 * the lower-case texts of the items
+	 */
+	private final String[] keys;
+
+	/**
+	 * Builds an index from the specified items. Duplicates are removed.
+	 *
+	 * @param items the items
+	 * @return the index
+	 */
+	public static CompletionIndex build(final Iterable<CompletionItem> items) {
+		final Set<CompletionItem> uniqueItems = new LinkedHashSet<>();
+		for (final CompletionItem item : items) {
+			uniqueItems.add(item);
+		}
+		final CompletionItem[] sortedItems = uniqueItems.toArray(new CompletionItem[uniqueItems.size()]);
+		Arrays.sort(sortedItems, new Comparator<CompletionItem>() {
+			@Override
+			public int compare(final CompletionItem a, final CompletionItem b) {
+				final int keyComparison = toKey(a.getText()).compareTo(toKey(b.getText()));
+				return (keyComparison != 0 ? keyComparison : a.getText().compareTo(b.getText()));
+			}
+		});
+		return new CompletionIndex(sortedItems);
+	}
+
+	/**
+	 * Constructor.
+	 */
+	private CompletionIndex(final CompletionItem[] items) {
+		this.items = items;
+		this.keys = new String[items.length];
+		for (int i = 0; i < items.length; i++) {
+			keys[i] = toKey(items[i].getText());
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static String toKey(final String text) {
+		return text.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return the number of items
+	 */
+	public int size() {
+		return items.length;
+	}
+
+	/**
+	 * Returns the items whose text starts with the specified prefix, ignoring case,
+	 * in the order of their texts.
+	 *
+	 * @param prefix the prefix
+	 * @param limit the maximum number of items to return
+	 * @return the items
+	 */
+	public List<CompletionItem> complete(final String prefix, final int limit) {
+		final String keyPrefix = toKey(prefix);
+		final List<CompletionItem> result = new ArrayList<>();
+		for (int i = findFirst(keyPrefix); i < keys.length && result.size() < limit && keys[i].startsWith(keyPrefix); i++) {
+			result.add(items[i]);
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Returns the index of the first key that is not less than the specified key.
+	 */
+	private int findFirst(final String key) {
+		int low = 0, high = keys.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (keys[middle].compareTo(key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the items of several indexes whose text starts with the specified prefix,
+	 * ignoring case, in the order of their texts. Items that occur in several indexes
+	 * are only returned once.
+	 *
+	 * @param indexes the indexes (null elements are ignored)
+	 * @param prefix the prefix
+	 * @param limit the maximum number of items to return
+	 * @return the items
+	 */
+	public static List<CompletionItem> complete(final List<CompletionIndex> indexes, final String prefix, final int limit) {
+		final List<List<CompletionItem>> partialResults = new ArrayList<>();
+		for (final CompletionIndex index : indexes) {
+			if (index != null) {
+				partialResults.add(index.complete(prefix, limit));
+			}
+		}
+		if (partialResults.size() == 1) {
+			return partialResults.get(0);
+		}
+		final Set<CompletionItem> merged = new LinkedHashSet<>();
+		final int[] positions = new int[partialResults.size()];
+		while (merged.size() < limit) {
+			int best = -1;
+			for (int i = 0; i < positions.length; i++) {
+				final List<CompletionItem> partialResult = partialResults.get(i);
+				if (positions[i] < partialResult.size() && (best < 0 || toKey(partialResult.get(positions[i]).getText()).compareTo(toKey(partialResults.get(best).get(positions[best]).getText())) < 0)) {
+					best = i;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			merged.add(partialResults.get(best).get(positions[best]));
+			positions[best]++;
+		}
+		return Collections.unmodifiableList(new ArrayList<>(merged));
+	}
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.io.Serializable;
+import name.martingeisse.wicket.internal.ParameterUtil;
+
+/**
+ * A single completion proposal, such as a keyword or a symbol that a compiler
+ * found in the document. Completion items are collected in a {@link CompletionIndex}.
+ */
+public final class CompletionItem implements Serializable {
+
+	/**
+	 * the text
+	 */
+	private final String text;
+
+	/**
+	 * the kind
+	 */
+	private final String kind;
+
+	/**
+	 * the detail
+	 */
+	private final String detail;
+
+	/**
+	 * Constructor.
+	 * @param text the text to insert
+	 * @param kind the kind of item, such as "keyword" or "function" (shown to the user and used as a CSS class suffix; may be null)
+	 * @param detail additional information for the user, such as a signature (may be null)
+	 */
+	public CompletionItem(final String text, final String kind, final String detail) {
+		this.text = ParameterUtil.ensureNotNull(text, "text");
+		this.kind = kind;
+		this.detail = detail;
+	}
+
+	/**
+	 * Getter method for the text.
+	 * @return the text
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Getter method for the kind.
+	 * @return the kind
+	 */
+	public String getKind() {
+		return kind;
+	}
+
+	/**
+	 * Getter method for the detail.
+	 * @return the detail
+	 */
+	public String getDetail() {
+		return detail;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (!(obj instanceof CompletionItem)) {
+			return false;
+		}
+		final CompletionItem other = (CompletionItem)obj;
+		return text.equals(other.text) && equal(kind, other.kind) && equal(detail, other.detail);
+	}
+
+	/**
+	 *
+	 */
+	private static boolean equal(final String a, final String b) {
+		return (a == null ? b == null : a.equals(b));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return text.hashCode() ^ (kind == null ? 0 : kind.hashCode() * 31) ^ (detail == null ? 0 : detail.hashCode() * 961);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return text + (kind == null ? "" : " (" + kind + ")");
+	}
+
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The server-side replica of an editor's document, prepared for searching. The
+ * index holds the start offset of each line and, for documents of at least the
+ * n-gram threshold length, the lines that contain each trigram (ignoring case).
+ * A query of three or more characters then only needs to check the lines that
+ * contain all of its trigrams. Both are built when the document is first searched.
+ *
+ * Matches never span lines, so queries must not contain line breaks. The matches
+ * of the most recent query are kept, so fetching further pages is cheap.
+ *
+ * This class is NOT part of the public API.
+ */
+final class DocumentSearchIndex {
+
+	/**
+	 * the maximum number of matches found per query
+	 */
+	static final int MAX_MATCHES = 100000;
+
+	/**
+	 * the revision
+	 */
+	private final long revision;
+
+	/**
+	 * the document
+	 */
+	private final String document;
+
+	/**
+	 * the minimum document length for building trigram postings
+	 */
+	private final int ngramThreshold;
+
+	/**
+	 * the line start offsets (null until first used)
+	 */
+	private int[] lineStarts;
+
+	/**
+	 * the lines that contain each trigram (null until first used or if the document is too short)
+	 */
+	private Map<Long, int[]> trigramPostings;
+
+	/**
+	 * the query whose matches are cached
+	 */
+	private String cachedQuery;
+
+	/**
+	 * whether the cached matches were found case-sensitively
+	 */
+	private boolean cachedCaseSensitive;
+
+	/**
+	 * the cached matches
+	 */
+	private Matches cachedMatches;
+
+	/**
+	 * Constructor.
+	 * @param revision the client-side revision of the document
+	 * @param document the document
+	 * @param ngramThreshold the minimum document length for building trigram postings
+	 */
+	DocumentSearchIndex(final long revision, final String document, final int ngramThreshold) {
+		this.revision = revision;
+		this.document = document;
+		this.ngramThreshold = ngramThreshold;
+	}
+
+	/**
+	 * Getter method for the revision.
+	 * @return the revision
+	 */
+	long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Finds the matches of a query.
+	 *
+	 * @param query the query (must not be empty or contain line breaks)
+	 * @param caseSensitive whether to search case-sensitively
+	 * @return the matches
+	 */
+	synchronized Matches search(final String query, final boolean caseSensitive) {
+		if (cachedMatches != null && query.equals(cachedQuery) && caseSensitive == cachedCaseSensitive) {
+			return cachedMatches;
+		}
+		buildIndex();
+		final Matches matches = new Matches();
+		final int[] candidateLines = findCandidateLines(query);
+		if (candidateLines == null) {
+			for (int line = 0; line < lineStarts.length && !matches.truncated; line++) {
+				searchLine(line, query, caseSensitive, matches);
+			}
+		} else {
+			for (int i = 0; i < candidateLines.length && !matches.truncated; i++) {
+				searchLine(candidateLines[i], query, caseSensitive, matches);
+			}
+		}
+		cachedQuery = query;
+		cachedCaseSensitive = caseSensitive;
+		cachedMatches = matches;
+		return matches;
+	}
+
+	/**
+	 *
+	 */
+	private void searchLine(final int line, final String query, final boolean caseSensitive, final Matches matches) {
+		final int lineStart = lineStarts[line];
+		final int lineEnd = (line + 1 < lineStarts.length ? lineStarts[line + 1] - 1 : document.length());
+		int position = lineStart;
+		while (position + query.length() <= lineEnd) {
+			if (document.regionMatches(!caseSensitive, position, query, 0, query.length())) {
+				if (!matches.add(line, position - lineStart, position - lineStart + query.length())) {
+					return;
+				}
+				position += query.length();
+			} else {
+				position++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the lines that contain all trigrams of the query, or null if all lines must be searched.
+	 */
+	private int[] findCandidateLines(final String query) {
+		if (trigramPostings == null || query.length() < 3) {
+			return null;
+		}
+		int[] result = null;
+		for (int i = 0; i + 3 <= query.length(); i++) {
+			final int[] postings = trigramPostings.get(getTrigramKey(query, i));
+			if (postings == null) {
+				return new int[0];
+			}
+			result = (result == null ? postings : intersect(result, postings));
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	private static int[] intersect(final int[] a, final int[] b) {
+		final int[] result = new int[Math.min(a.length, b.length)];
+		int count = 0, i = 0, j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[count] = a[i];
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Builds the line start offsets and, for long documents, the trigram postings.
+	 */
+	private void buildIndex() {
+		if (lineStarts != null) {
+			return;
+		}
+		int[] starts = new int[16];
+		int lineCount = 1;
+		for (int i = 0; i < document.length(); i++) {
+			if (document.charAt(i) == '\n') {
+				if (lineCount == starts.length) {
+					starts = Arrays.copyOf(starts, starts.length * 2);
+				}
+				starts[lineCount] = i + 1;
+				lineCount++;
+			}
+		}
+		lineStarts = Arrays.copyOf(starts, lineCount);
+		if (document.length() >= ngramThreshold) {
+			buildTrigramPostings();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void buildTrigramPostings() {
+		final Map<Long, GrowingPostings> growingPostings = new HashMap<>();
+		for (int line = 0; line < lineStarts.length; line++) {
+			final int lineEnd = (line + 1 < lineStarts.length ? lineStarts[line + 1] - 1 : document.length());
+			for (int i = lineStarts[line]; i + 3 <= lineEnd; i++) {
+				final Long key = getTrigramKey(document, i);
+				GrowingPostings postings = growingPostings.get(key);
+				if (postings == null) {
+					postings = new GrowingPostings();
+					growingPostings.put(key, postings);
+				} else if (postings.lines[postings.size - 1] == line) {
+					continue;
+				} else if (postings.size == postings.lines.length) {
+					postings.lines = Arrays.copyOf(postings.lines, postings.size * 2);
+				}
+				postings.lines[postings.size] = line;
+				postings.size++;
+			}
+		}
+		trigramPostings = new HashMap<>();
+		for (final Map.Entry<Long, GrowingPostings> entry : growingPostings.entrySet()) {
+			trigramPostings.put(entry.getKey(), Arrays.copyOf(entry.getValue().lines, entry.getValue().size));
+		}
+	}
+
+	/**
+	 * Builds the key of the trigram at the specified position, folding case the same way
+	 * as {@link String#regionMatches(boolean, int, String, int, int)}.
+	 */
+	private static long getTrigramKey(final String text, final int position) {
+		long key = 0;
+		for (int i = 0; i < 3; i++) {
+			key = (key << 16) | Character.toLowerCase(Character.toUpperCase(text.charAt(position + i)));
+		}
+		return key;
+	}
+
+	/**
+	 * The postings of a trigram while they are being built.
+	 */
+	private static final class GrowingPostings {
+
+		/**
+		 * the lines
+		 */
+		int[] lines = new int[4];
+
+		/**
+		 * the number of valid elements in the lines array
+		 */
+		int size;
+
+	}
+
+	/**
+	 * The matches of a query, as (line, startColumn, endColumn) triples.
+	 */
+	static final class Matches {
+
+		/**
+		 * the triples
+		 */
+		private int[] data = new int[48];
+
+		/**
+		 * the count
+		 */
+		private int count;
+
+		/**
+		 * whether there are more than MAX_MATCHES matches
+		 */
+		private boolean truncated;
+
+		/**
+		 * Adds a match.
+		 * @return true if the match was added, false if there are too many matches
+		 */
+		private boolean add(final int line, final int startColumn, final int endColumn) {
+			if (count == MAX_MATCHES) {
+				truncated = true;
+				return false;
+			}
+			if (3 * count + 3 > data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			data[3 * count] = line;
+			data[3 * count + 1] = startColumn;
+			data[3 * count + 2] = endColumn;
+			count++;
+			return true;
+		}
+
+		/**
+		 * Getter method for the count.
+		 * @return the count
+		 */
+		int getCount() {
+			return count;
+		}
+
+		/**
+		 * Getter method for the truncated.
+		 * @return the truncated
+		 */
+		boolean isTruncated() {
+			return truncated;
+		}
+
+		/**
+		 * @param index the match index
+		 * @return the line of the match
+		 */
+		int getLine(final int index) {
+			return data[3 * index];
+		}
+
+		/**
+		 * @param index the match index
+		 * @return the start column of the match
+		 */
+		int getStartColumn(final int index) {
+			return data[3 * index + 1];
+		}
+
+		/**
+		 * @param index the match index
+		 * @return the end column of the match
+		 */
+		int getEndColumn(final int index) {
+			return data[3 * index + 2];
+		}
+
+	}
+
+}
@@ -0,0 +1,398 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecuteResultHandler;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteStreamHandler;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A single long-lived worker process of an {@link ExternalCompilerProcessPool}.
+ * The process is started through commons-exec, and its standard input and output
+ * are used for the line-based protocol described in {@link ExternalCompilerProcessPool}.
+ * Lines from standard output are read by a separate thread so that waiting for
+ * them can be time-boxed; standard error is logged.
+ *
+ * An instance is used by one thread at a time. Once a protocol error or a timeout
+ * occurs, the process is destroyed since its protocol state is unknown.
+ *
+ * This class is NOT part of the public API.
+ */
+final class ExternalCompilerProcess {
+
+	/**
+	 * the logger
+	 */
+	private static Logger logger = LogManager.getLogger(ExternalCompilerProcess.class);
+
+	/**
+	 * Marks the end of standard output in the line queue.
+	 */
+	private static final String END_OF_OUTPUT = new String("end of output");
+
+	/**
+	 * the name
+	 */
+	private final String name;
+
+	/**
+	 * the watchdog, used to destroy the process
+	 */
+	private final ExecuteWatchdog watchdog;
+
+	/**
+	 * the resultHandler
+	 */
+	private final DefaultExecuteResultHandler resultHandler;
+
+	/**
+	 * the lines read from standard output
+	 */
+	private final BlockingQueue<String> outputLines = new LinkedBlockingQueue<>();
+
+	/**
+	 * signals that the process streams have been connected
+	 */
+	private final CountDownLatch streamsConnected = new CountDownLatch(1);
+
+	/**
+	 * the writer for standard input
+	 */
+	private volatile Writer inputWriter;
+
+	/**
+	 * the number of compilations done by this process
+	 */
+	private int compileCount;
+
+	/**
+	 * the time the process was last used, in milliseconds
+	 */
+	private long lastUseTime;
+
+	/**
+	 * the broken flag
+	 */
+	private volatile boolean broken;
+
+	/**
+	 * Starts a worker process.
+	 *
+	 * @param name the name of the process, used for thread names and log messages
+	 * @param commandLine the command line
+	 * @param workingDirectory the working directory, or null for the current one
+	 * @throws IOException if the process cannot be started
+	 */
+	ExternalCompilerProcess(final String name, final CommandLine commandLine, final File workingDirectory) throws IOException {
+		this.name = name;
+		this.watchdog = new ExecuteWatchdog(ExecuteWatchdog.INFINITE_TIMEOUT);
+		this.resultHandler = new DefaultExecuteResultHandler();
+		final DefaultExecutor executor = new DefaultExecutor();
+		executor.setWatchdog(watchdog);
+		executor.setStreamHandler(new StreamHandler());
+		executor.setExitValues(null);
+		if (workingDirectory != null) {
+			executor.setWorkingDirectory(workingDirectory);
+		}
+		executor.execute(commandLine, resultHandler);
+		this.lastUseTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Getter method for the name.
+	 * @return the name
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Getter method for the compileCount.
+	 * @return the compileCount
+	 */
+	int getCompileCount() {
+		return compileCount;
+	}
+
+	/**
+	 * Getter method for the lastUseTime.
+	 * @return the lastUseTime
+	 */
+	long getLastUseTime() {
+		return lastUseTime;
+	}
+
+	/**
+	 * @return true if the process is still usable
+	 */
+	boolean isUsable() {
+		return !broken && !resultHandler.hasResult();
+	}
+
+	/**
+	 * Sends PING and waits for PONG.
+	 *
+	 * @param timeoutMillis the maximum time to wait
+	 * @return true if the process answered in time, false if it has been destroyed
+	 */
+	boolean ping(final long timeoutMillis) {
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		try {
+			if (!streamsConnected.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				destroy("no streams after " + timeoutMillis + " ms");
+				return false;
+			}
+			send("PING\n");
+			final String line = readLine(deadline, null);
+			if (!"PONG".equals(line)) {
+				destroy(line == null ? "no answer to PING" : "unexpected answer to PING: " + line);
+				return false;
+			}
+			lastUseTime = System.currentTimeMillis();
+			return true;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			destroy("interrupted");
+			return false;
+		} catch (final IOException e) {
+			destroy(e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Compiles a document in this process.
+	 *
+	 * @param document the document
+	 * @param result the result to add markers to
+	 * @param token the cancellation token
+	 * @param timeoutMillis the maximum time for this compilation
+	 * @return true if the compilation finished, false if it timed out (the process has been destroyed then)
+	 * @throws IOException if the process cannot be talked to (the process has been destroyed then)
+	 * @throws CompileCancelledException if cancelled (the process has been destroyed then)
+	 */
+	boolean compile(final String document, final CompilerResult result, final CompileCancellationToken token, final long timeoutMillis) throws IOException {
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		compileCount++;
+		lastUseTime = System.currentTimeMillis();
+		try {
+
+			// send the request
+			final String[] lines = document.split("\r\n|\r|\n", -1);
+			final StringBuilder builder = new StringBuilder(document.length() + 32);
+			builder.append("COMPILE ").append(lines.length).append('\n');
+			for (final String line : lines) {
+				builder.append(line).append('\n');
+			}
+			send(builder.toString());
+
+			// receive the response
+			while (true) {
+				final String line = readLine(deadline, token);
+				if (line == null) {
+					destroy("timed out after " + timeoutMillis + " ms");
+					return false;
+				} else if (line.equals("END")) {
+					lastUseTime = System.currentTimeMillis();
+					return true;
+				} else if (line.equals("PUBLISH")) {
+					result.publishMarkers();
+				} else if (line.startsWith("MARKER ")) {
+					result.getMarkers().add(parseMarker(line));
+				} else {
+					throw new IOException("unexpected line from external compiler: " + line);
+				}
+			}
+
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			destroy("interrupted");
+			throw new CompileCancelledException("interrupted while waiting for the external compiler");
+		} catch (final IOException | RuntimeException e) {
+			destroy(e.toString());
+			throw e;
+		}
+	}
+
+	/**
+	 * Parses a line of the form MARKER startLine startColumn endLine endColumn level message.
+	 */
+	private static CompilerMarker parseMarker(final String line) throws IOException {
+		final String[] segments = line.split(" ", 7);
+		if (segments.length < 6) {
+			throw new IOException("malformed marker line: " + line);
+		}
+		try {
+			final int startLine = Integer.parseInt(segments[1]);
+			final int startColumn = Integer.parseInt(segments[2]);
+			final int endLine = Integer.parseInt(segments[3]);
+			final int endColumn = Integer.parseInt(segments[4]);
+			final CompilerErrorLevel errorLevel = CompilerErrorLevel.valueOf(segments[5]);
+			return new CompilerMarker(startLine, startColumn, endLine, endColumn, errorLevel, segments.length > 6 ? segments[6] : "");
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("malformed marker line: " + line, e);
+		}
+	}
+
+	/**
+	 * Sends text to standard input.
+	 */
+	private void send(final String text) throws IOException {
+		final Writer writer = inputWriter;
+		if (writer == null || !isUsable()) {
+			throw new IOException("external compiler process " + name + " is not running");
+		}
+		writer.write(text);
+		writer.flush();
+	}
+
+	/**
+	 * Reads a line from standard output, waiting until the deadline. The token (if any)
+	 * is checked regularly while waiting.
+	 *
+	 * @return the line, or null if the deadline has passed
+	 */
+	private String readLine(final long deadline, final CompileCancellationToken token) throws InterruptedException, IOException {
+		while (true) {
+			final long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return null;
+			}
+			if (token != null && token.isCancelled()) {
+				destroy("cancelled");
+				token.checkCancelled();
+			}
+			final String line = outputLines.poll(Math.min(remaining, 100), TimeUnit.MILLISECONDS);
+			if (line == END_OF_OUTPUT) {
+				outputLines.offer(END_OF_OUTPUT);
+				throw new IOException("external compiler process " + name + " has closed its output");
+			} else if (line != null) {
+				return line;
+			}
+		}
+	}
+
+	/**
+	 * Destroys the process.
+	 *
+	 * @param reason the reason, for logging
+	 */
+	void destroy(final String reason) {
+		if (!broken) {
+			broken = true;
+			logger.debug("destroying external compiler process " + name + ": " + reason);
+		}
+		IOUtils.closeQuietly(inputWriter);
+		watchdog.destroyProcess();
+	}
+
+	/**
+	 * Connects the process streams: a writer for standard input, and reader threads
+	 * for standard output (into the line queue) and standard error (into the log).
+	 */
+	private final class StreamHandler implements ExecuteStreamHandler {
+
+		/**
+		 * the output
+		 */
+		private InputStream output;
+
+		/**
+		 * the error
+		 */
+		private InputStream error;
+
+		/* (non-Javadoc)
+		 * @see org.apache.commons.exec.ExecuteStreamHandler#setProcessInputStream(java.io.OutputStream)
+		 */
+		@Override
+		public void setProcessInputStream(final OutputStream os) {
+			inputWriter = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.commons.exec.ExecuteStreamHandler#setProcessOutputStream(java.io.InputStream)
+		 */
+		@Override
+		public void setProcessOutputStream(final InputStream is) {
+			this.output = is;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.commons.exec.ExecuteStreamHandler#setProcessErrorStream(java.io.InputStream)
+		 */
+		@Override
+		public void setProcessErrorStream(final InputStream is) {
+			this.error = is;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.commons.exec.ExecuteStreamHandler#start()
+		 */
+		@Override
+		public void start() {
+			startReaderThread("stdout", output, true);
+			startReaderThread("stderr", error, false);
+			streamsConnected.countDown();
+		}
+
+		/**
+		 *
+		 */
+		private void startReaderThread(final String streamName, final InputStream stream, final boolean protocol) {
+			final Thread thread = new Thread(name + "-" + streamName) {
+				@Override
+				public void run() {
+					try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+						String line;
+						while ((line = reader.readLine()) != null) {
+							if (protocol) {
+								outputLines.add(line);
+							} else {
+								logger.warn("external compiler process " + name + ": " + line);
+							}
+						}
+					} catch (final IOException e) {
+						logger.debug("error reading " + streamName + " of external compiler process " + name, e);
+					} finally {
+						if (protocol) {
+							outputLines.add(END_OF_OUTPUT);
+						}
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.commons.exec.ExecuteStreamHandler#stop()
+		 */
+		@Override
+		public void stop() {
+		}
+
+	}
+
+}
@@ -0,0 +1,391 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.exec.CommandLine;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import name.martingeisse.wicket.internal.ParameterUtil;
+
+/**
+ * A pool of long-lived external compiler processes, used through
+ * {@link ExternalProcessCompiler}. Keeping the processes running avoids paying
+ * for process startup on every compilation.
+ *
+ * The processes must speak the following line-based protocol on standard input
+ * and output, using UTF-8:
+ *
+ * - Health check: the pool sends "PING", and the process answers "PONG".
+ * - Compilation: the pool sends "COMPILE n" followed by the n lines of the document.
+ *   The process answers with any number of marker lines
+ *   "MARKER startLine startColumn endLine endColumn level message" (zero-based
+ *   positions; level is ERROR, WARNING or INFO; the message extends to the end of
+ *   the line), optionally "PUBLISH" lines to pass the markers found so far to the
+ *   user (see {@link CompilerResult#publishMarkers()}), and finally "END".
+ *
+ * Anything written to standard error is logged. A process that breaks the protocol,
+ * exceeds the compile timeout or fails a health check is destroyed and replaced
+ * on demand. Processes are also recycled after a configurable number of compilations,
+ * which keeps memory leaks in external tools in check, and health-checked before use
+ * if they have been idle for a while.
+ *
+ * Pools are registered by name when created, so that compilers stored in pages only
+ * need to keep the name. Call {@link #shutdown()} when the application is destroyed.
+ */
+public final class ExternalCompilerProcessPool {
+
+	/**
+	 * the logger
+	 */
+	private static Logger logger = LogManager.getLogger(ExternalCompilerProcessPool.class);
+
+	/**
+	 * the pools by name
+	 */
+	private static final ConcurrentMap<String, ExternalCompilerProcessPool> pools = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the pool with the specified name.
+	 *
+	 * @param name the name of the pool
+	 * @return the pool, or null if there is no such pool
+	 */
+	public static ExternalCompilerProcessPool get(final String name) {
+		return pools.get(name);
+	}
+
+	/**
+	 * the name
+	 */
+	private final String name;
+
+	/**
+	 * the commandLine
+	 */
+	private final CommandLine commandLine;
+
+	/**
+	 * the maximum number of processes
+	 */
+	private final int size;
+
+	/**
+	 * the workingDirectory
+	 */
+	private volatile File workingDirectory;
+
+	/**
+	 * the maxCompilesPerProcess
+	 */
+	private volatile int maxCompilesPerProcess = 100;
+
+	/**
+	 * the compileTimeoutMillis
+	 */
+	private volatile long compileTimeoutMillis = 10000;
+
+	/**
+	 * the healthCheckTimeoutMillis
+	 */
+	private volatile long healthCheckTimeoutMillis = 5000;
+
+	/**
+	 * the healthCheckIntervalMillis
+	 */
+	private volatile long healthCheckIntervalMillis = 30000;
+
+	/**
+	 * the idle processes, most recently used first
+	 */
+	private final Deque<ExternalCompilerProcess> idleProcesses = new ArrayDeque<>();
+
+	/**
+	 * the number of processes that are either idle or in use
+	 */
+	private int processCount;
+
+	/**
+	 * the number of processes started so far, used for naming
+	 */
+	private int startedProcessCount;
+
+	/**
+	 * the shutdown flag
+	 */
+	private boolean shutdown;
+
+	/**
+	 * Constructor. Processes are started on demand.
+	 *
+	 * @param name the name of this pool (must be unique among the existing pools)
+	 * @param commandLine the command line used to start a process
+	 * @param size the maximum number of processes
+	 */
+	public ExternalCompilerProcessPool(final String name, final CommandLine commandLine, final int size) {
+		this.name = ParameterUtil.ensureNotNull(name, "name");
+		this.commandLine = ParameterUtil.ensureNotNull(commandLine, "commandLine");
+		if (size < 1) {
+			throw new IllegalArgumentException("size must be positive");
+		}
+		this.size = size;
+		if (pools.putIfAbsent(name, this) != null) {
+			throw new IllegalStateException("an external compiler process pool with name " + name + " already exists");
+		}
+	}
+
+	/**
+	 * Getter method for the name.
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Getter method for the workingDirectory.
+	 * @return the workingDirectory
+	 */
+	public File getWorkingDirectory() {
+		return workingDirectory;
+	}
+
+	/**
+	 * Setter method for the workingDirectory.
+	 * @param workingDirectory the workingDirectory to set
+	 * @return this
+	 */
+	public ExternalCompilerProcessPool setWorkingDirectory(final File workingDirectory) {
+		this.workingDirectory = workingDirectory;
+		return this;
+	}
+
+	/**
+	 * Getter method for the maxCompilesPerProcess.
+	 * @return the maxCompilesPerProcess
+	 */
+	public int getMaxCompilesPerProcess() {
+		return maxCompilesPerProcess;
+	}
+
+	/**
+	 * Setter method for the maxCompilesPerProcess.
+	 * @param maxCompilesPerProcess the number of compilations after which a process is replaced
+	 * @return this
+	 */
+	public ExternalCompilerProcessPool setMaxCompilesPerProcess(final int maxCompilesPerProcess) {
+		this.maxCompilesPerProcess = maxCompilesPerProcess;
+		return this;
+	}
+
+	/**
+	 * Getter method for the compileTimeoutMillis.
+	 * @return the compileTimeoutMillis
+	 */
+	public long getCompileTimeoutMillis() {
+		return compileTimeoutMillis;
+	}
+
+	/**
+	 * Setter method for the compileTimeoutMillis.
+	 * @param compileTimeoutMillis the maximum time for a single compilation, including waiting for a process
+	 * @return this
+	 */
+	public ExternalCompilerProcessPool setCompileTimeoutMillis(final long compileTimeoutMillis) {
+		this.compileTimeoutMillis = compileTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * Getter method for the healthCheckTimeoutMillis.
+	 * @return the healthCheckTimeoutMillis
+	 */
+	public long getHealthCheckTimeoutMillis() {
+		return healthCheckTimeoutMillis;
+	}
+
+	/**
+	 * Setter method for the healthCheckTimeoutMillis.
+	 * @param healthCheckTimeoutMillis the time a process may take to answer a health check, including startup
+	 * @return this
+	 */
+	public ExternalCompilerProcessPool setHealthCheckTimeoutMillis(final long healthCheckTimeoutMillis) {
+		this.healthCheckTimeoutMillis = healthCheckTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * Getter method for the healthCheckIntervalMillis.
+	 * @return the healthCheckIntervalMillis
+	 */
+	public long getHealthCheckIntervalMillis() {
+		return healthCheckIntervalMillis;
+	}
+
+	/**
+	 * Setter method for the healthCheckIntervalMillis.
+	 * @param healthCheckIntervalMillis the idle time after which a process is health-checked before use
+	 * @return this
+	 */
+	public ExternalCompilerProcessPool setHealthCheckIntervalMillis(final long healthCheckIntervalMillis) {
+		this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * @return the number of processes that are currently running
+	 */
+	public synchronized int getProcessCount() {
+		return processCount;
+	}
+
+	/**
+	 * Compiles a document in one of the processes of this pool. If no process becomes
+	 * available or the process does not answer in time, a warning marker is added
+	 * instead of the compiler's markers.
+	 *
+	 * @param document the document
+	 * @param result the result to add markers to
+	 * @param token the cancellation token
+	 * @throws IOException if the process cannot be talked to
+	 */
+	public void compile(final String document, final CompilerResult result, final CompileCancellationToken token) throws IOException {
+		final long deadline = System.currentTimeMillis() + Math.min(compileTimeoutMillis, token.getRemainingMillis());
+		final ExternalCompilerProcess process = acquire(deadline, token);
+		if (process == null) {
+			result.getMarkers().add(new CompilerMarker(0, 0, 0, 0, CompilerErrorLevel.WARNING, "external compiler is busy; please retry later"));
+			return;
+		}
+		boolean finished = false;
+		try {
+			final long remaining = deadline - System.currentTimeMillis();
+			finished = (remaining > 0 && process.compile(document, result, token, remaining));
+			if (!finished) {
+				result.getMarkers().add(new CompilerMarker(0, 0, 0, 0, CompilerErrorLevel.WARNING, "external compiler timed out after " + compileTimeoutMillis + " ms; results are incomplete"));
+			}
+		} finally {
+			release(process, finished);
+		}
+	}
+
+	/**
+	 * Takes an idle process or starts a new one, waiting until the deadline if all processes are busy.
+	 */
+	private ExternalCompilerProcess acquire(final long deadline, final CompileCancellationToken token) throws IOException {
+		while (true) {
+			token.checkCancelled();
+
+			// take an idle process or reserve a slot for a new one
+			ExternalCompilerProcess process = null;
+			synchronized (this) {
+				while (true) {
+					if (shutdown) {
+						throw new IOException("external compiler process pool " + name + " has been shut down");
+					}
+					process = idleProcesses.pollFirst();
+					if (process != null || processCount < size) {
+						break;
+					}
+					final long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0 || token.isCancelled()) {
+						return null;
+					}
+					try {
+						wait(Math.min(remaining, 100));
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new CompileCancelledException("interrupted while waiting for an external compiler process");
+					}
+				}
+				if (process == null) {
+					processCount++;
+					startedProcessCount++;
+				}
+			}
+
+			// start a new process if necessary
+			if (process == null) {
+				final String processName;
+				synchronized (this) {
+					processName = name + "-" + startedProcessCount;
+				}
+				try {
+					process = new ExternalCompilerProcess(processName, commandLine, workingDirectory);
+				} catch (final IOException | RuntimeException e) {
+					processGone();
+					throw e;
+				}
+				if (process.ping(healthCheckTimeoutMillis)) {
+					return process;
+				}
+				logger.warn("external compiler process " + processName + " failed to start");
+				processGone();
+				throw new IOException("external compiler process " + processName + " failed to start");
+			}
+
+			// use an idle process if it is still healthy
+			final boolean needsHealthCheck = (System.currentTimeMillis() - process.getLastUseTime() >= healthCheckIntervalMillis);
+			if (process.isUsable() && (!needsHealthCheck || process.ping(healthCheckTimeoutMillis))) {
+				return process;
+			}
+			logger.info("external compiler process " + process.getName() + " failed its health check");
+			process.destroy("failed health check");
+			processGone();
+
+		}
+	}
+
+	/**
+	 * Returns a process to the pool, or destroys it if it is broken or has done enough compilations.
+	 */
+	private void release(final ExternalCompilerProcess process, final boolean finished) {
+		final boolean keep = finished && process.isUsable() && process.getCompileCount() < maxCompilesPerProcess;
+		if (!keep) {
+			process.destroy(finished ? "recycled after " + process.getCompileCount() + " compilations" : "did not finish");
+		}
+		synchronized (this) {
+			if (keep && !shutdown) {
+				idleProcesses.addFirst(process);
+			} else {
+				if (keep) {
+					process.destroy("pool shut down");
+				}
+				processCount--;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Frees the slot of a process that has been destroyed.
+	 */
+	private synchronized void processGone() {
+		processCount--;
+		notifyAll();
+	}
+
+	/**
+	 * Destroys all idle processes and unregisters this pool. Processes that are in use
+	 * are destroyed when their compilation ends.
+	 */
+	public void shutdown() {
+		pools.remove(name, this);
+		synchronized (this) {
+			shutdown = true;
+			for (final ExternalCompilerProcess process : idleProcesses) {
+				process.destroy("pool shut down");
+				processCount--;
+			}
+			idleProcesses.clear();
+			notifyAll();
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.io.Serializable;
+import name.martingeisse.wicket.internal.ParameterUtil;
+
+/**
+ * A compiler that runs in the processes of an {@link ExternalCompilerProcessPool}.
+ * This object only keeps the name of the pool, so it can be stored in pages; the
+ * pool itself must be created during application startup.
+ */
+public final class ExternalProcessCompiler implements ICancellableCompiler, Serializable {
+
+	/**
+	 * the poolName
+	 */
+	private final String poolName;
+
+	/**
+	 * Constructor.
+	 * @param pool the process pool
+	 */
+	public ExternalProcessCompiler(final ExternalCompilerProcessPool pool) {
+		this(ParameterUtil.ensureNotNull(pool, "pool").getName());
+	}
+
+	/**
+	 * Constructor.
+	 * @param poolName the name of the process pool
+	 */
+	public ExternalProcessCompiler(final String poolName) {
+		this.poolName = ParameterUtil.ensureNotNull(poolName, "poolName");
+	}
+
+	/**
+	 * Getter method for the poolName.
+	 * @return the poolName
+	 */
+	public String getPoolName() {
+		return poolName;
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.ICancellableCompiler#compile(java.lang.String, name.martingeisse.wicket.experimental.codemirror.compile.CompilerResult, name.martingeisse.wicket.experimental.codemirror.compile.CompileCancellationToken)
+	 */
+	@Override
+	public void compile(final String document, final CompilerResult result, final CompileCancellationToken cancellationToken) throws Exception {
+		final ExternalCompilerProcessPool pool = ExternalCompilerProcessPool.get(poolName);
+		if (pool == null) {
+			throw new IllegalStateException("no external compiler process pool with name " + poolName);
+		}
+		pool.compile(document, result, cancellationToken);
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values with logarithmic buckets. Values
+ * below 8 have their own bucket; above that, each power of two is split into 8
+ * buckets, so percentiles are accurate to within about 6%.
+ *
+ * This class is NOT part of the public API.
+ */
+final class Histogram {
+
+	/**
+	 * the number of buckets per power of two, as a power of two itself
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+
+	/**
+	 * the number of buckets per power of two
+	 */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * the total number of buckets, enough for all non-negative long values
+	 */
+	private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	/**
+	 * the bucket counts
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	/**
+	 * the sum of all values
+	 */
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * the maximum value
+	 */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 */
+	Histogram() {
+	}
+
+	/**
+	 * Records a value. Negative values are ignored.
+	 * @param value the value
+	 */
+	void record(final long value) {
+		if (value < 0) {
+			return;
+		}
+		counts.incrementAndGet(getBucket(value));
+		sum.addAndGet(value);
+		long previousMax;
+		do {
+			previousMax = max.get();
+		} while (value > previousMax && !max.compareAndSet(previousMax, value));
+	}
+
+	/**
+	 * Clears this histogram. Values recorded concurrently may or may not be kept.
+	 */
+	void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Takes a snapshot of this histogram.
+	 * @return the snapshot
+	 */
+	HistogramSnapshot snapshot() {
+		final long[] bucketCounts = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			bucketCounts[i] = counts.get(i);
+			count += bucketCounts[i];
+		}
+		final long maxValue = max.get();
+		return new HistogramSnapshot(count, (count == 0 ? 0.0 : (double)sum.get() / count), maxValue,
+			getPercentile(bucketCounts, count, 0.5, maxValue), getPercentile(bucketCounts, count, 0.9, maxValue),
+			getPercentile(bucketCounts, count, 0.99, maxValue));
+	}
+
+	/**
+	 * Returns the middle of the bucket that contains the specified percentile, but no more than the maximum value.
+	 */
+	private static long getPercentile(final long[] bucketCounts, final long count, final double fraction, final long maxValue) {
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long)Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += bucketCounts[i];
+			if (seen >= rank) {
+				final long lowerBound = getLowerBound(i);
+				final long middle = lowerBound + (getLowerBound(i + 1) - 1 - lowerBound) / 2;
+				return Math.min(middle, maxValue);
+			}
+		}
+		return maxValue;
+	}
+
+	/**
+	 * Returns the bucket for a non-negative value.
+	 */
+	static int getBucket(final long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int)value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/**
+	 * Returns the smallest value of a bucket. For the bucket after the last one, this is Long.MAX_VALUE.
+	 */
+	static long getLowerBound(final int bucket) {
+		if (bucket < SUB_BUCKET_COUNT) {
+			return bucket;
+		}
+		if (bucket >= BUCKET_COUNT) {
+			return Long.MAX_VALUE;
+		}
+		final int exponent = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+		final int subBucket = (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+		return (long)(SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+	}
+
+}
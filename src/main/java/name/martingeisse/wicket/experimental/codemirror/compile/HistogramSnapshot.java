@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+/**
+ * An immutable summary of the values recorded in a histogram of
+ * {@link AutocompileHistograms}. Percentiles are approximate.
+ */
+public final class HistogramSnapshot implements Serializable {
+
+	/**
+	 * the count
+	 */
+	private final long count;
+
+	/**
+	 * the mean
+	 */
+	private final double mean;
+
+	/**
+	 * the max
+	 */
+	private final long max;
+
+	/**
+	 * the p50
+	 */
+	private final long p50;
+
+	/**
+	 * the p90
+	 */
+	private final long p90;
+
+	/**
+	 * the p99
+	 */
+	private final long p99;
+
+	/**
+	 * Constructor.
+	 * @param count the number of recorded values
+	 * @param mean the mean value
+	 * @param max the maximum value
+	 * @param p50 the median
+	 * @param p90 the 90th percentile
+	 * @param p99 the 99th percentile
+	 */
+	@ConstructorProperties({"count", "mean", "max", "p50", "p90", "p99"})
+	public HistogramSnapshot(final long count, final double mean, final long max, final long p50, final long p90, final long p99) {
+		this.count = count;
+		this.mean = mean;
+		this.max = max;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+	}
+
+	/**
+	 * Getter method for the count.
+	 * @return the count
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Getter method for the mean.
+	 * @return the mean
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Getter method for the max.
+	 * @return the max
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Getter method for the p50.
+	 * @return the p50
+	 */
+	public long getP50() {
+		return p50;
+	}
+
+	/**
+	 * Getter method for the p90.
+	 * @return the p90
+	 */
+	public long getP90() {
+		return p90;
+	}
+
+	/**
+	 * Getter method for the p99.
+	 * @return the p99
+	 */
+	public long getP99() {
+		return p99;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + Math.round(mean) + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99 + ", max=" + max;
+	}
+
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+/**
+ * Receives the figures recorded for auto-compile requests. Implement this
+ * interface to pass them to a monitoring system, and install the implementation
+ * with {@link AutocompileMetrics#install(org.apache.wicket.Application, IAutocompileMetrics)}.
+ * {@link AutocompileHistograms} is a ready-made implementation that keeps
+ * histograms and exposes them through JMX.
+ *
+ * Implementations are called on request threads, usually concurrently, so
+ * they must be thread-safe and fast.
+ */
+public interface IAutocompileMetrics {
+
+	/**
+	 * Records a single value.
+	 *
+	 * @param metric the metric
+	 * @param value the value, in the unit of the metric
+	 */
+	public void record(AutocompileMetric metric, long value);
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+/**
+ * Extended compiler interface for compilers that can stop early. The
+ * compiler receives a {@link CompileCancellationToken} that carries
+ * an optional deadline and should check it regularly. When the token
+ * reports cancellation, the compiler should return (or throw a
+ * {@link CompileCancelledException}) as soon as possible, leaving the
+ * markers found so far in the result object.
+ *
+ * Implementations of this interface can still be used everywhere a
+ * plain {@link ICompiler} is expected; in that case they run without
+ * a deadline.
+ */
+public interface ICancellableCompiler extends ICompiler {
+
+	/**
+	 * Compiles a document and stores information about the compilation
+	 * in the specified result object.
+	 *
+	 * @param document the document
+	 * @param result the result object
+	 * @param cancellationToken the token to check for cancellation
+	 * @throws Exception on errors
+	 */
+	public void compile(String document, CompilerResult result, CompileCancellationToken cancellationToken) throws Exception;
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.ICompiler#compile(java.lang.String, name.martingeisse.wicket.experimental.codemirror.compile.CompilerResult)
+	 */
+	@Override
+	public default void compile(String document, CompilerResult result) throws Exception {
+		compile(document, result, CompileCancellationToken.withoutDeadline());
+	}
+
+}
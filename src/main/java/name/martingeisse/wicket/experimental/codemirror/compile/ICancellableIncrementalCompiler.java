@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Incremental compiler that can also stop early; see {@link IIncrementalCompiler}
+ * and {@link ICancellableCompiler}. When the token reports cancellation, the
+ * compiler should return (or throw a {@link CompileCancelledException}) as soon
+ * as possible. A cancelled compilation never provides the state for the next
+ * compilation, so the compiler may return null in that case.
+ *
+ * @param <S> the state type
+ */
+public interface ICancellableIncrementalCompiler<S> extends IIncrementalCompiler<S>, ICancellableCompiler {
+
+	/**
+	 * Compiles a document, reusing the previous state where possible, and stores
+	 * information about the compilation in the specified result object.
+	 *
+	 * @param document the document
+	 * @param result the result object
+	 * @param previousState the state returned by the previous compilation, or null to compile from scratch
+	 * @param edits the edits since the previous compilation, in the order they were applied
+	 * (empty if previousState is null)
+	 * @param cancellationToken the token to check for cancellation
+	 * @return the new state
+	 * @throws Exception on errors
+	 */
+	public S compileIncrementally(String document, CompilerResult result, S previousState, List<LineEdit> edits, CompileCancellationToken cancellationToken) throws Exception;
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.IIncrementalCompiler#compileIncrementally(java.lang.String, name.martingeisse.wicket.experimental.codemirror.compile.CompilerResult, java.lang.Object, java.util.List)
+	 */
+	@Override
+	public default S compileIncrementally(String document, CompilerResult result, S previousState, List<LineEdit> edits) throws Exception {
+		return compileIncrementally(document, result, previousState, edits, CompileCancellationToken.withoutDeadline());
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.ICancellableCompiler#compile(java.lang.String, name.martingeisse.wicket.experimental.codemirror.compile.CompilerResult, name.martingeisse.wicket.experimental.codemirror.compile.CompileCancellationToken)
+	 */
+	@Override
+	public default void compile(String document, CompilerResult result, CompileCancellationToken cancellationToken) throws Exception {
+		compileIncrementally(document, result, null, Collections.<LineEdit>emptyList(), cancellationToken);
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.ICompiler#compile(java.lang.String, name.martingeisse.wicket.experimental.codemirror.compile.CompilerResult)
+	 */
+	@Override
+	public default void compile(String document, CompilerResult result) throws Exception {
+		compile(document, result, CompileCancellationToken.withoutDeadline());
+	}
+
+}
@@ -50,6 +50,37 @@ public interface ICompiler {
 			}
 			return result;
 		}
+
+		/**
+		 * Compiles the document from the specified result object "safely", catching
+		 * exceptions. If the compiler implements {@link ICancellableCompiler}, it
+		 * receives the cancellation token; otherwise the token is only checked before
+		 * the compiler gets invoked. A compilation that stops due to cancellation
+		 * leaves the markers found so far in the result object.
+		 * 
+		 * @param compiler the compiler
+		 * @param result the result object, which also provides the document
+		 * @param cancellationToken the cancellation token
+		 */
+		public static void compileSafe(ICompiler compiler, CompilerResult result, CompileCancellationToken cancellationToken) {
+			try {
+				cancellationToken.checkCancelled();
+				if (compiler instanceof ICancellableCompiler) {
+					((ICancellableCompiler)compiler).compile(result.getDocument(), result, cancellationToken);
+				} else {
+					compiler.compile(result.getDocument(), result);
+				}
+			} catch (CompileCancelledException e) {
+				logger.debug("compilation cancelled: " + e.getMessage());
+			} catch (Exception e) {
+				if (cancellationToken.isCancelled()) {
+					logger.debug("compiler exception after cancellation", e);
+				} else {
+					logger.error("compiler exception", e);
+					result.getMarkers().add(new CompilerMarker(0, 0, 0, 0, CompilerErrorLevel.ERROR, "internal exception: " + e.getMessage()));
+				}
+			}
+		}
 		
 	}
 }
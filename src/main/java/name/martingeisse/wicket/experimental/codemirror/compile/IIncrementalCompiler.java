@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Variant of {@link ICompiler} for compilers that can reuse work from the
+ * previous compilation of the same editor. Each compilation returns an opaque
+ * state object (for example, parse results per line region). The next
+ * compilation receives that state together with the line edits that turned
+ * the previous document into the current one, and may reuse the parts of the
+ * state that belong to untouched regions.
+ *
+ * The previous state is null whenever no usable state is available, for example
+ * on the first compilation, after the state has been evicted, or when the client
+ * and server disagree about the previous document. The compiler must then compile
+ * the whole document. States are kept in memory on the server by
+ * {@link AutocompileEditorStates} and are never serialized.
+ *
+ * A compiler must not modify a previous state object in place if the compilation
+ * may be cancelled half-way; it should build a new state instead. Compilers
+ * that want to see the cancellation token implement {@link ICancellableIncrementalCompiler}.
+ *
+ * @param <S> the state type
+ */
+public interface IIncrementalCompiler<S> extends ICompiler {
+
+	/**
+	 * Compiles a document, reusing the previous state where possible, and stores
+	 * information about the compilation in the specified result object.
+	 *
+	 * @param document the document
+	 * @param result the result object
+	 * @param previousState the state returned by the previous compilation, or null to compile from scratch
+	 * @param edits the edits since the previous compilation, in the order they were applied
+	 * (empty if previousState is null)
+	 * @return the new state
+	 * @throws Exception on errors
+	 */
+	public S compileIncrementally(String document, CompilerResult result, S previousState, List<LineEdit> edits) throws Exception;
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.ICompiler#compile(java.lang.String, name.martingeisse.wicket.experimental.codemirror.compile.CompilerResult)
+	 */
+	@Override
+	public default void compile(String document, CompilerResult result) throws Exception {
+		compileIncrementally(document, result, null, Collections.<LineEdit>emptyList());
+	}
+
+}
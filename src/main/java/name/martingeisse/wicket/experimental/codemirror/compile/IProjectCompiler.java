@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.Set;
+
+/**
+ * Compiler for projects whose documents depend on each other, such as
+ * modules that import other modules. Used by a {@link ProjectCompiler},
+ * which keeps track of the dependencies and decides which documents to
+ * compile.
+ *
+ * Compiling a document produces an output, such as the symbols the
+ * document exports, which is available when compiling the documents that
+ * depend on it. Outputs should implement equals(): if a document's output
+ * did not change, the documents depending on it are not recompiled.
+ *
+ * Documents are compiled in parallel, so implementations must be thread-safe.
+ */
+public interface IProjectCompiler {
+
+	/**
+	 * Determines the documents the specified document depends on. This method is
+	 * called whenever a document changes, so it should be fast, for example by
+	 * only looking at import statements.
+	 *
+	 * @param documentId the id of the document
+	 * @param document the document
+	 * @return the ids of the documents it depends on
+	 */
+	public Set<String> getDependencies(String documentId, String document);
+
+	/**
+	 * Compiles a document and stores information about the compilation in
+	 * the specified result object.
+	 *
+	 * @param documentId the id of the document
+	 * @param document the document
+	 * @param context provides the outputs of the other documents
+	 * @param result the result object
+	 * @return the output of the document
+	 * @throws Exception on errors
+	 */
+	public Object compile(String documentId, String document, ProjectCompilationContext context, CompilerResult result) throws Exception;
+
+}
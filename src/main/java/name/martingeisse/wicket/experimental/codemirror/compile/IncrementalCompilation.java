@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Adapts an {@link IIncrementalCompiler} to the {@link ICancellableCompiler} interface
+ * for a single compilation, so it can run anywhere a plain compiler can, and
+ * captures the new compiler state. The cancellation token is passed on if the
+ * compiler implements {@link ICancellableIncrementalCompiler}.
+ *
+ * This class is NOT part of the public API.
+ *
+ * @param <S> the compiler state type
+ */
+final class IncrementalCompilation<S> implements ICancellableCompiler {
+
+	/**
+	 * the compiler
+	 */
+	private final IIncrementalCompiler<S> compiler;
+
+	/**
+	 * the previousState
+	 */
+	private final S previousState;
+
+	/**
+	 * the edits
+	 */
+	private final List<LineEdit> edits;
+
+	/**
+	 * the newState
+	 */
+	private volatile S newState;
+
+	/**
+	 * the finished
+	 */
+	private volatile boolean finished;
+
+	/**
+	 * Constructor.
+	 */
+	private IncrementalCompilation(final IIncrementalCompiler<S> compiler, final S previousState, final List<LineEdit> edits) {
+		this.compiler = compiler;
+		this.previousState = previousState;
+		this.edits = (previousState == null || edits == null ? Collections.<LineEdit>emptyList() : edits);
+	}
+
+	/**
+	 * Creates an instance, casting the previous state to the state type of the compiler.
+	 * The previous state is ignored if the edits are null.
+	 */
+	@SuppressWarnings("unchecked")
+	static <S> IncrementalCompilation<S> create(final IIncrementalCompiler<S> compiler, final Object previousState, final List<LineEdit> edits) {
+		return new IncrementalCompilation<S>(compiler, edits == null ? null : (S)previousState, edits);
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.ICancellableCompiler#compile(java.lang.String, name.martingeisse.wicket.experimental.codemirror.compile.CompilerResult, name.martingeisse.wicket.experimental.codemirror.compile.CompileCancellationToken)
+	 */
+	@Override
+	public void compile(final String document, final CompilerResult result, final CompileCancellationToken cancellationToken) throws Exception {
+		if (compiler instanceof ICancellableIncrementalCompiler) {
+			newState = ((ICancellableIncrementalCompiler<S>)compiler).compileIncrementally(document, result, previousState, edits, cancellationToken);
+		} else {
+			newState = compiler.compileIncrementally(document, result, previousState, edits);
+		}
+		finished = !cancellationToken.isCancelled();
+	}
+
+	/**
+	 * Stores the new compiler state in the specified editor state if the compilation
+	 * has finished, or discards the stored state otherwise so the next compilation
+	 * starts from scratch.
+	 *
+	 * @param editorState the editor state
+	 * @param revision the document revision that was compiled
+	 */
+	void storeState(final AutocompileEditorState editorState, final long revision) {
+		if (finished && revision >= 0) {
+			editorState.setCompilerState(revision, newState);
+		} else {
+			editorState.clearCompilerState();
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.io.Serializable;
+
+/**
+ * Describes a single edit to a document in terms of lines. The edit replaced
+ * the lines startLine to oldEndLine (inclusive) of the document before the
+ * edit by the lines startLine to newEndLine (inclusive) of the document after
+ * the edit. Line numbers are zero-based.
+ *
+ * Edits are reported in the order they were applied, and the line numbers of
+ * each edit refer to the document as it was right before that edit. To find
+ * the untouched regions of the old document, an incremental compiler has to
+ * replay the edits in order.
+ */
+public final class LineEdit implements Serializable {
+
+	/**
+	 * the startLine
+	 */
+	private final int startLine;
+
+	/**
+	 * the oldEndLine
+	 */
+	private final int oldEndLine;
+
+	/**
+	 * the newEndLine
+	 */
+	private final int newEndLine;
+
+	/**
+	 * Constructor.
+	 * @param startLine the first affected line
+	 * @param oldEndLine the last replaced line in the document before the edit
+	 * @param newEndLine the last replacement line in the document after the edit
+	 */
+	public LineEdit(final int startLine, final int oldEndLine, final int newEndLine) {
+		if (startLine < 0 || oldEndLine < startLine || newEndLine < startLine) {
+			throw new IllegalArgumentException("invalid line edit: " + startLine + ", " + oldEndLine + ", " + newEndLine);
+		}
+		this.startLine = startLine;
+		this.oldEndLine = oldEndLine;
+		this.newEndLine = newEndLine;
+	}
+
+	/**
+	 * Getter method for the startLine.
+	 * @return the startLine
+	 */
+	public int getStartLine() {
+		return startLine;
+	}
+
+	/**
+	 * Getter method for the oldEndLine.
+	 * @return the oldEndLine
+	 */
+	public int getOldEndLine() {
+		return oldEndLine;
+	}
+
+	/**
+	 * Getter method for the newEndLine.
+	 * @return the newEndLine
+	 */
+	public int getNewEndLine() {
+		return newEndLine;
+	}
+
+	/**
+	 * Returns the number of lines by which this edit moves the lines after it.
+	 * @return the line delta (negative if lines were removed)
+	 */
+	public int getLineDelta() {
+		return newEndLine - oldEndLine;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "LineEdit[" + startLine + ".." + oldEndLine + " -> " + startLine + ".." + newEndLine + "]";
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the markers of a compilation sorted by start line, so the markers
+ * for a range of lines can be found quickly. Used to deliver the markers
+ * of huge documents to the client region by region. Instances are immutable.
+ *
+ * This class is NOT part of the public API.
+ */
+final class MarkerLineIndex {
+
+	/**
+	 * the id
+	 */
+	private final String id;
+
+	/**
+	 * the lineCount
+	 */
+	private final int lineCount;
+
+	/**
+	 * the markers, sorted by start line
+	 */
+	private final List<CompilerMarker> markers;
+
+	/**
+	 * the start lines of the markers, in the same order
+	 */
+	private final int[] startLines;
+
+	/**
+	 * Constructor.
+	 * @param id identifies this index towards the client
+	 * @param lineCount the number of lines in the document
+	 * @param markers the markers (not modified)
+	 */
+	MarkerLineIndex(final String id, final int lineCount, final List<CompilerMarker> markers) {
+		this.id = id;
+		this.lineCount = lineCount;
+		final List<CompilerMarker> sortedMarkers = new ArrayList<>(markers);
+		Collections.sort(sortedMarkers, new Comparator<CompilerMarker>() {
+			@Override
+			public int compare(final CompilerMarker o1, final CompilerMarker o2) {
+				return Integer.compare(o1.getStartLine(), o2.getStartLine());
+			}
+		});
+		this.markers = sortedMarkers;
+		this.startLines = new int[sortedMarkers.size()];
+		for (int i = 0; i < startLines.length; i++) {
+			startLines[i] = sortedMarkers.get(i).getStartLine();
+		}
+	}
+
+	/**
+	 * Getter method for the id.
+	 * @return the id
+	 */
+	String getId() {
+		return id;
+	}
+
+	/**
+	 * Getter method for the lineCount.
+	 * @return the lineCount
+	 */
+	int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Returns the markers that start within the specified range of lines.
+	 *
+	 * @param firstLine the first line (inclusive)
+	 * @param lastLine the last line (inclusive)
+	 * @return the markers
+	 */
+	List<CompilerMarker> getMarkersInLineRange(final int firstLine, final int lastLine) {
+		if (lastLine < firstLine) {
+			return Collections.emptyList();
+		}
+		return markers.subList(findFirstIndexAtOrAfter(firstLine), findFirstIndexAtOrAfter(lastLine + 1));
+	}
+
+	/**
+	 * Returns the index of the first marker whose start line is at least the specified line.
+	 */
+	private int findFirstIndexAtOrAfter(final int line) {
+		int low = 0, high = startLines.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (startLines[middle] < line) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Counts the markers per region of the document, for use in an overview bar.
+	 * The document is divided into regions of equal size, and for each region that
+	 * contains markers, an array (region index, errors, warnings, infos) is returned.
+	 *
+	 * @param regionSize the number of lines per region
+	 * @return the counts for non-empty regions, sorted by region index
+	 */
+	List<int[]> countMarkersPerRegion(final int regionSize) {
+		final List<int[]> result = new ArrayList<>();
+		int[] current = null;
+		for (final CompilerMarker marker : markers) {
+			final int region = marker.getStartLine() / regionSize;
+			if (current == null || current[0] != region) {
+				current = new int[4];
+				current[0] = region;
+				result.add(current);
+			}
+			current[1 + marker.getErrorLevel().ordinal()]++;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.List;
+import name.martingeisse.wicket.helpers.IConsumer;
+
+/**
+ * A compilation that is running on the {@link AutocompileScheduler} and whose
+ * markers are delivered to the client in several steps. This object is the marker
+ * sink of the compilation's result, so it learns about each phase the compiler
+ * publishes. Between requests it is kept in the {@link AutocompileEditorState}.
+ *
+ * This class is NOT part of the public API.
+ */
+final class PendingAutocompilation implements IConsumer<List<CompilerMarker>> {
+
+	/**
+	 * the streamId
+	 */
+	private final String streamId;
+
+	/**
+	 * the compiler to run
+	 */
+	private final ICompiler compiler;
+
+	/**
+	 * the incrementalCompilation (may be null)
+	 */
+	private final IncrementalCompilation<?> incrementalCompilation;
+
+	/**
+	 * the revision
+	 */
+	private final long revision;
+
+	/**
+	 * the lineCount
+	 */
+	private final int lineCount;
+
+	/**
+	 * the ticket
+	 */
+	private AutocompileScheduler.Ticket ticket;
+
+	/**
+	 * the markers from the latest publication
+	 */
+	private List<CompilerMarker> publishedMarkers;
+
+	/**
+	 * the number of publications so far
+	 */
+	private int publicationCount;
+
+	/**
+	 * the number of publications already delivered to the client
+	 */
+	private int deliveredPublicationCount;
+
+	/**
+	 * the done flag
+	 */
+	private boolean done;
+
+	/**
+	 * the compileNanos (only used without a scheduler)
+	 */
+	private long compileNanos = -1;
+
+	/**
+	 * Constructor.
+	 * @param streamId identifies this compilation towards the client
+	 * @param compiler the plain compiler (used if there is no incremental compilation)
+	 * @param incrementalCompilation the incremental compilation, or null for plain compilers
+	 * @param revision the document revision being compiled
+	 * @param lineCount the number of lines in the document being compiled
+	 */
+	PendingAutocompilation(final String streamId, final ICompiler compiler, final IncrementalCompilation<?> incrementalCompilation, final long revision, final int lineCount) {
+		this.streamId = streamId;
+		this.compiler = (incrementalCompilation == null ? compiler : incrementalCompilation);
+		this.incrementalCompilation = incrementalCompilation;
+		this.revision = revision;
+		this.lineCount = lineCount;
+	}
+
+	/**
+	 * Getter method for the streamId.
+	 * @return the streamId
+	 */
+	String getStreamId() {
+		return streamId;
+	}
+
+	/**
+	 * Getter method for the compiler.
+	 * @return the compiler to run, which is the incremental compilation if there is one
+	 */
+	ICompiler getCompiler() {
+		return compiler;
+	}
+
+	/**
+	 * Getter method for the incrementalCompilation.
+	 * @return the incrementalCompilation
+	 */
+	IncrementalCompilation<?> getIncrementalCompilation() {
+		return incrementalCompilation;
+	}
+
+	/**
+	 * Getter method for the revision.
+	 * @return the revision
+	 */
+	long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Getter method for the lineCount.
+	 * @return the lineCount
+	 */
+	int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Getter method for the compileNanos.
+	 * @return the time the compiler ran, in nanoseconds, or -1 if unknown
+	 */
+	long getCompileNanos() {
+		return (ticket == null ? compileNanos : ticket.getCompileNanos());
+	}
+
+	/**
+	 * Setter method for the compileNanos, for compilations that do not run on the scheduler.
+	 * @param compileNanos the compileNanos to set
+	 */
+	void setCompileNanos(final long compileNanos) {
+		this.compileNanos = compileNanos;
+	}
+
+	/**
+	 * Getter method for the ticket.
+	 * @return the ticket
+	 */
+	AutocompileScheduler.Ticket getTicket() {
+		return ticket;
+	}
+
+	/**
+	 * Cancels this compilation if it has been handed to the scheduler.
+	 */
+	void cancel() {
+		if (ticket != null) {
+			ticket.getCancellationToken().cancel();
+		}
+	}
+
+	/**
+	 * Sets the ticket and starts watching it for completion.
+	 * @param ticket the ticket
+	 */
+	void setTicket(final AutocompileScheduler.Ticket ticket) {
+		this.ticket = ticket;
+		ticket.getCompletionFuture().whenComplete((ignored, exception) -> markDone());
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.helpers.IConsumer#consume(java.lang.Object)
+	 */
+	@Override
+	public synchronized void consume(final List<CompilerMarker> markers) {
+		publishedMarkers = markers;
+		publicationCount++;
+		notifyAll();
+	}
+
+	/**
+	 *
+	 */
+	private synchronized void markDone() {
+		done = true;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until either the compiler publishes markers that have not been delivered
+	 * yet, or the compilation is done, or the timeout expires.
+	 *
+	 * @param timeoutMillis the maximum time to wait
+	 * @return the newly published markers, or null if the compilation is done or the timeout has expired
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized List<CompilerMarker> awaitPublication(final long timeoutMillis) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!done && publicationCount == deliveredPublicationCount) {
+			final long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return null;
+			}
+			wait(remaining);
+		}
+		if (done) {
+			return null;
+		}
+		deliveredPublicationCount = publicationCount;
+		return publishedMarkers;
+	}
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.Map;
+
+/**
+ * Gives an {@link IProjectCompiler} access to the outputs of the documents
+ * that the document being compiled depends on. For documents that are
+ * recompiled in the same build, this is the new output. Dependencies that
+ * form a cycle cannot all wait for each other, so within a cycle some
+ * documents see the output of the previous build.
+ */
+public final class ProjectCompilationContext {
+
+	/**
+	 * the outputs, which start as those of the previous build and are replaced as documents get compiled
+	 */
+	private final Map<String, Object> outputs;
+
+	/**
+	 * Constructor.
+	 */
+	ProjectCompilationContext(final Map<String, Object> outputs) {
+		this.outputs = outputs;
+	}
+
+	/**
+	 * Returns the output of the specified document.
+	 *
+	 * @param documentId the id of the document
+	 * @return the output, or null if the document does not exist or has not been compiled
+	 */
+	public Object getOutput(final String documentId) {
+		return outputs.get(documentId);
+	}
+
+}
@@ -0,0 +1,457 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import name.martingeisse.wicket.internal.ParameterUtil;
+
+/**
+ * Compiles a project of documents that depend on each other, using an
+ * {@link IProjectCompiler}. The project keeps the latest version of each
+ * document, the dependency graph between the documents, and the output and
+ * {@link CompilerResult} of each document's latest compilation.
+ *
+ * Changing a document only marks it as changed. A subsequent {@link #build()}
+ * compiles the changed documents and the documents that depend on them,
+ * directly or indirectly, in parallel on a fork-join pool. Each document waits
+ * for the documents it depends on, and is skipped if neither the document itself
+ * nor the output of any of its dependencies has changed.
+ *
+ * Projects are thread-safe, and builds are serialized. A project is usually
+ * shared by the editors of a page or session but should not be serialized
+ * with the page; see {@link ProjectDocumentCompiler} for how editors use it.
+ */
+public final class ProjectCompiler {
+
+	/**
+	 * the logger
+	 */
+	private static Logger logger = LogManager.getLogger(ProjectCompiler.class);
+
+	/**
+	 * the compiler
+	 */
+	private final IProjectCompiler compiler;
+
+	/**
+	 * the pool
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * the documents by id (guarded by this)
+	 */
+	private final Map<String, DocumentEntry> entries = new HashMap<>();
+
+	/**
+	 * the ids of the documents that depend on each document, including documents that do not exist (guarded by this)
+	 */
+	private final Map<String, Set<String>> dependents = new HashMap<>();
+
+	/**
+	 * the ids of changed documents, including removed ones (guarded by this)
+	 */
+	private final Set<String> changedDocumentIds = new HashSet<>();
+
+	/**
+	 * the number of documents compiled so far (guarded by this)
+	 */
+	private long compilationCounter;
+
+	/**
+	 * the lock that serializes builds
+	 */
+	private final Object buildLock = new Object();
+
+	/**
+	 * Constructor that uses the common fork-join pool.
+	 * @param compiler the compiler
+	 */
+	public ProjectCompiler(final IProjectCompiler compiler) {
+		this(compiler, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor.
+	 * @param compiler the compiler
+	 * @param pool the pool to compile documents on
+	 */
+	public ProjectCompiler(final IProjectCompiler compiler, final ForkJoinPool pool) {
+		this.compiler = ParameterUtil.ensureNotNull(compiler, "compiler");
+		this.pool = ParameterUtil.ensureNotNull(pool, "pool");
+	}
+
+	/**
+	 * Adds or replaces a document. Nothing happens if the document is unchanged.
+	 *
+	 * @param documentId the id of the document
+	 * @param document the document
+	 */
+	public void setDocument(final String documentId, final String document) {
+		ParameterUtil.ensureNotNull(documentId, "documentId");
+		ParameterUtil.ensureNotNull(document, "document");
+		synchronized (this) {
+			final DocumentEntry existing = entries.get(documentId);
+			if (existing != null && existing.document.equals(document)) {
+				return;
+			}
+		}
+		final Set<String> dependencies = new HashSet<>(compiler.getDependencies(documentId, document));
+		dependencies.remove(documentId);
+		synchronized (this) {
+			DocumentEntry entry = entries.get(documentId);
+			if (entry == null) {
+				entry = new DocumentEntry();
+				entries.put(documentId, entry);
+			}
+			for (final String dependency : entry.dependencies) {
+				removeDependent(dependency, documentId);
+			}
+			entry.document = document;
+			entry.dependencies = Collections.unmodifiableSet(dependencies);
+			for (final String dependency : dependencies) {
+				addDependent(dependency, documentId);
+			}
+			changedDocumentIds.add(documentId);
+		}
+	}
+
+	/**
+	 * Removes a document. The documents that depend on it are recompiled with the next build.
+	 *
+	 * @param documentId the id of the document
+	 */
+	public synchronized void removeDocument(final String documentId) {
+		final DocumentEntry entry = entries.remove(documentId);
+		if (entry != null) {
+			for (final String dependency : entry.dependencies) {
+				removeDependent(dependency, documentId);
+			}
+			changedDocumentIds.add(documentId);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void addDependent(final String documentId, final String dependentId) {
+		Set<String> set = dependents.get(documentId);
+		if (set == null) {
+			set = new HashSet<>();
+			dependents.put(documentId, set);
+		}
+		set.add(dependentId);
+	}
+
+	/**
+	 *
+	 */
+	private void removeDependent(final String documentId, final String dependentId) {
+		final Set<String> set = dependents.get(documentId);
+		if (set != null) {
+			set.remove(dependentId);
+			if (set.isEmpty()) {
+				dependents.remove(documentId);
+			}
+		}
+	}
+
+	/**
+	 * @return the ids of all documents
+	 */
+	public synchronized Set<String> getDocumentIds() {
+		return new HashSet<>(entries.keySet());
+	}
+
+	/**
+	 * @param documentId the id of a document
+	 * @return the ids of the documents it depends on directly
+	 */
+	public synchronized Set<String> getDependencies(final String documentId) {
+		final DocumentEntry entry = entries.get(documentId);
+		return (entry == null ? Collections.<String>emptySet() : entry.dependencies);
+	}
+
+	/**
+	 * @param documentId the id of a document
+	 * @return the ids of the documents that depend on it directly
+	 */
+	public synchronized Set<String> getDependents(final String documentId) {
+		final Set<String> set = dependents.get(documentId);
+		return (set == null ? Collections.<String>emptySet() : new HashSet<>(set));
+	}
+
+	/**
+	 * Returns the result of the latest compilation of the specified document.
+	 *
+	 * @param documentId the id of the document
+	 * @return the result, or null if the document does not exist or has not been compiled yet
+	 */
+	public synchronized CompilerResult getResult(final String documentId) {
+		final DocumentEntry entry = entries.get(documentId);
+		return (entry == null ? null : entry.result);
+	}
+
+	/**
+	 * Returns a number that grows whenever the specified document gets compiled,
+	 * so callers can tell whether they have seen its latest result.
+	 *
+	 * @param documentId the id of the document
+	 * @return the generation, or 0 if the document does not exist or has not been compiled yet
+	 */
+	public synchronized long getGeneration(final String documentId) {
+		final DocumentEntry entry = entries.get(documentId);
+		return (entry == null ? 0 : entry.generation);
+	}
+
+	/**
+	 * Compiles the changed documents and the documents affected by the changes.
+	 * Returns when all of them have been compiled.
+	 *
+	 * @return the results of the documents that were compiled, by document id
+	 */
+	public Map<String, CompilerResult> build() {
+		synchronized (buildLock) {
+
+			// determine the affected documents and take a snapshot of their state
+			final Map<String, String> documents = new HashMap<>();
+			final Map<String, Set<String>> dependencies = new HashMap<>();
+			final Map<String, Object> previousOutputs = new HashMap<>();
+			final Set<String> changed;
+			synchronized (this) {
+				changed = new HashSet<>(changedDocumentIds);
+				changedDocumentIds.clear();
+				final Set<String> affected = new LinkedHashSet<>(changed);
+				final List<String> queue = new ArrayList<>(changed);
+				for (int i = 0; i < queue.size(); i++) {
+					final Set<String> set = dependents.get(queue.get(i));
+					if (set != null) {
+						for (final String dependent : set) {
+							if (affected.add(dependent)) {
+								queue.add(dependent);
+							}
+						}
+					}
+				}
+				for (final String documentId : affected) {
+					final DocumentEntry entry = entries.get(documentId);
+					if (entry != null) {
+						documents.put(documentId, entry.document);
+						dependencies.put(documentId, entry.dependencies);
+					}
+				}
+				for (final Map.Entry<String, DocumentEntry> entry : entries.entrySet()) {
+					if (entry.getValue().output != null) {
+						previousOutputs.put(entry.getKey(), entry.getValue().output);
+					}
+				}
+			}
+			if (documents.isEmpty()) {
+				return Collections.emptyMap();
+			}
+
+			// compile in dependency order; each task tells whether the output of its document has changed
+			final Build build = new Build(documents, dependencies, changed, previousOutputs);
+			for (final String documentId : documents.keySet()) {
+				build.schedule(documentId);
+			}
+			CompletableFuture.allOf(build.tasks.values().toArray(new CompletableFuture<?>[build.tasks.size()])).join();
+
+			// store the results, unless the document has been changed or removed in the meantime
+			synchronized (this) {
+				for (final Map.Entry<String, CompilerResult> resultEntry : build.results.entrySet()) {
+					final String documentId = resultEntry.getKey();
+					final DocumentEntry entry = entries.get(documentId);
+					if (entry != null && entry.document.equals(documents.get(documentId))) {
+						compilationCounter++;
+						entry.result = resultEntry.getValue();
+						entry.output = build.outputs.get(documentId);
+						entry.generation = compilationCounter;
+					}
+				}
+			}
+			return Collections.unmodifiableMap(new HashMap<>(build.results));
+
+		}
+	}
+
+	/**
+	 * The state of a single build.
+	 */
+	private final class Build {
+
+		/**
+		 * the documents to compile if needed
+		 */
+		private final Map<String, String> documents;
+
+		/**
+		 * the dependencies of the documents to compile
+		 */
+		private final Map<String, Set<String>> dependencies;
+
+		/**
+		 * the ids of the changed documents
+		 */
+		private final Set<String> changed;
+
+		/**
+		 * the outputs of the previous build
+		 */
+		private final Map<String, Object> previousOutputs;
+
+		/**
+		 * the outputs, starting with those of the previous build
+		 */
+		private final Map<String, Object> outputs;
+
+		/**
+		 * the results of the documents compiled in this build
+		 */
+		private final Map<String, CompilerResult> results = new ConcurrentHashMap<>();
+
+		/**
+		 * the tasks by document id
+		 */
+		private final Map<String, CompletableFuture<Boolean>> tasks = new HashMap<>();
+
+		/**
+		 * the documents whose tasks are being scheduled, used to detect cycles
+		 */
+		private final Set<String> scheduling = new HashSet<>();
+
+		/**
+		 * Constructor.
+		 */
+		Build(final Map<String, String> documents, final Map<String, Set<String>> dependencies, final Set<String> changed, final Map<String, Object> previousOutputs) {
+			this.documents = documents;
+			this.dependencies = dependencies;
+			this.changed = changed;
+			this.previousOutputs = previousOutputs;
+			this.outputs = new ConcurrentHashMap<>(previousOutputs);
+		}
+
+		/**
+		 * Schedules the task for a document after those of its dependencies. Returns null for a
+		 * document that is already being scheduled, so the task that closes a cycle does not wait;
+		 * that task always compiles its document, since it cannot know whether the output it
+		 * depends on will change.
+		 */
+		CompletableFuture<Boolean> schedule(final String documentId) {
+			CompletableFuture<Boolean> task = tasks.get(documentId);
+			if (task != null || scheduling.contains(documentId)) {
+				return task;
+			}
+			scheduling.add(documentId);
+			final List<CompletableFuture<Boolean>> dependencyTasks = new ArrayList<>();
+			boolean inCycle = false;
+			for (final String dependency : dependencies.get(documentId)) {
+				if (documents.containsKey(dependency)) {
+					final CompletableFuture<Boolean> dependencyTask = schedule(dependency);
+					if (dependencyTask == null) {
+						inCycle = true;
+					} else {
+						dependencyTasks.add(dependencyTask);
+					}
+				}
+			}
+			scheduling.remove(documentId);
+			final boolean mustCompile = inCycle || changed.contains(documentId) || hasChangedDependency(documentId);
+			task = CompletableFuture.allOf(dependencyTasks.toArray(new CompletableFuture<?>[dependencyTasks.size()])).thenApplyAsync(ignored -> {
+				for (final CompletableFuture<Boolean> dependencyTask : dependencyTasks) {
+					if (dependencyTask.join()) {
+						return compile(documentId);
+					}
+				}
+				return (mustCompile ? compile(documentId) : false);
+			}, pool);
+			tasks.put(documentId, task);
+			return task;
+		}
+
+		/**
+		 * Checks whether a dependency of the specified document has been removed or changed without being
+		 * part of this build. Such documents must be compiled even if all dependency tasks report no change.
+		 */
+		private boolean hasChangedDependency(final String documentId) {
+			for (final String dependency : dependencies.get(documentId)) {
+				if (changed.contains(dependency) && !documents.containsKey(dependency)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Compiles a document and returns whether its output has changed.
+		 */
+		private boolean compile(final String documentId) {
+			final String document = documents.get(documentId);
+			final CompilerResult result = new CompilerResult(document);
+			Object output;
+			try {
+				output = compiler.compile(documentId, document, new ProjectCompilationContext(outputs), result);
+			} catch (final Exception e) {
+				logger.error("compiler exception for document " + documentId, e);
+				result.getMarkers().add(new CompilerMarker(0, 0, 0, 0, CompilerErrorLevel.ERROR, "internal exception: " + e.getMessage()));
+				output = null;
+			}
+			if (output == null) {
+				outputs.remove(documentId);
+			} else {
+				outputs.put(documentId, output);
+			}
+			results.put(documentId, result);
+			return !Objects.equals(output, previousOutputs.get(documentId));
+		}
+
+	}
+
+	/**
+	 * The state of a single document.
+	 */
+	private static final class DocumentEntry {
+
+		/**
+		 * the document
+		 */
+		String document;
+
+		/**
+		 * the dependencies
+		 */
+		Set<String> dependencies = Collections.emptySet();
+
+		/**
+		 * the output of the latest compilation
+		 */
+		Object output;
+
+		/**
+		 * the result of the latest compilation
+		 */
+		CompilerResult result;
+
+		/**
+		 * the generation of the latest compilation
+		 */
+		long generation;
+
+	}
+
+}
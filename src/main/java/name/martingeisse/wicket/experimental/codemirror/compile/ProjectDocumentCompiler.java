@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.io.Serializable;
+import org.apache.wicket.model.IModel;
+import name.martingeisse.wicket.internal.ParameterUtil;
+
+/**
+ * Compiles the document of one editor as part of a {@link ProjectCompiler}. Use
+ * this compiler with the {@link CodeMirrorAutocompileBehavior} of each editor that
+ * shows a document of the project. Compiling an editor's document updates that
+ * document in the project and builds the project, which recompiles the documents
+ * that depend on it. The markers of those documents are then sent to the other
+ * editors on the same page that show them.
+ *
+ * The project is obtained from a model, since it should not be serialized with the
+ * page. The compiler may run on the threads of an {@link AutocompileScheduler}, so
+ * the model must not depend on the request, for example by fetching the project
+ * from an application-scoped map.
+ */
+public final class ProjectDocumentCompiler implements ICompiler, Serializable {
+
+	/**
+	 * the projectModel
+	 */
+	private final IModel<ProjectCompiler> projectModel;
+
+	/**
+	 * the documentId
+	 */
+	private final String documentId;
+
+	/**
+	 * Constructor.
+	 * @param projectModel the model for the project
+	 * @param documentId the id of the document within the project
+	 */
+	public ProjectDocumentCompiler(final IModel<ProjectCompiler> projectModel, final String documentId) {
+		this.projectModel = ParameterUtil.ensureNotNull(projectModel, "projectModel");
+		this.documentId = ParameterUtil.ensureNotNull(documentId, "documentId");
+	}
+
+	/**
+	 * Getter method for the project.
+	 * @return the project
+	 */
+	public ProjectCompiler getProject() {
+		return projectModel.getObject();
+	}
+
+	/**
+	 * Getter method for the documentId.
+	 * @return the documentId
+	 */
+	public String getDocumentId() {
+		return documentId;
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.ICompiler#compile(java.lang.String, name.martingeisse.wicket.experimental.codemirror.compile.CompilerResult)
+	 */
+	@Override
+	public void compile(final String document, final CompilerResult result) throws Exception {
+		final ProjectCompiler project = getProject();
+		project.setDocument(documentId, document);
+		project.build();
+		final CompilerResult projectResult = project.getResult(documentId);
+		if (projectResult != null) {
+			result.setOverallErrorLevel(projectResult.getOverallErrorLevel());
+			result.getMarkers().addAll(projectResult.getMarkerSnapshot());
+			for (final CompletionItem item : projectResult.getCompletionItems()) {
+				result.addCompletionItem(item);
+			}
+		}
+	}
+
+}
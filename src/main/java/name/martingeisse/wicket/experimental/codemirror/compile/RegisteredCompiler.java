@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.io.Serializable;
+
+/**
+ * Refers to a compiler of the {@link CompilerRegistry} by its key, so the
+ * compiler itself is not stored with the page. The compiler must be resolved
+ * on a request thread, since the registry belongs to the application.
+ *
+ * This class is NOT part of the public API.
+ */
+final class RegisteredCompiler implements ICompiler, Serializable {
+
+	/**
+	 * the key
+	 */
+	private final String key;
+
+	/**
+	 * Constructor.
+	 * @param key the key of the compiler
+	 */
+	RegisteredCompiler(final String key) {
+		this.key = key;
+	}
+
+	/**
+	 * Getter method for the key.
+	 * @return the key
+	 */
+	String getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the registered compiler.
+	 *
+	 * @return the compiler
+	 */
+	ICompiler resolve() {
+		final CompilerRegistry registry = CompilerRegistry.get();
+		final ICompiler compiler = (registry == null ? null : registry.getCompiler(key));
+		if (compiler == null) {
+			throw new IllegalStateException("no compiler registered with key " + key);
+		}
+		return compiler;
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.compile.ICompiler#compile(java.lang.String, name.martingeisse.wicket.experimental.codemirror.compile.CompilerResult)
+	 */
+	@Override
+	public void compile(final String document, final CompilerResult result) throws Exception {
+		resolve().compile(document, result);
+	}
+
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+/**
+ * Decides whether the server compiler runs for documents that have been
+ * checked by a {@link ClientSideValidator}.
+ */
+public enum ServerCompilePolicy {
+
+	/**
+	 * The server compiler runs for every document. The markers from the
+	 * validator and from the compiler are shown together.
+	 */
+	ALWAYS,
+
+	/**
+	 * The server compiler runs only for documents that the validator accepts,
+	 * so it only has to do semantic checks.
+	 */
+	IF_VALID,
+
+	/**
+	 * The server compiler never runs; only the validator checks the document.
+	 */
+	NEVER
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import name.martingeisse.wicket.internal.ParameterUtil;
+
+/**
+ * Runs compilers on an {@link ExecutorService} and enforces a time budget
+ * for each compilation. If the compiler does not finish in time, the calling
+ * thread stops waiting, the compilation is cancelled, and a partial result is
+ * returned that contains the markers found so far plus a timeout marker.
+ *
+ * Compilers that implement {@link ICancellableCompiler} see the deadline and
+ * can stop early. Plain {@link ICompiler} implementations cannot be stopped
+ * except by interrupting their thread, so they may keep an executor thread
+ * busy after the caller has moved on; the executor should be sized with that
+ * in mind.
+ *
+ * The executor is owned by the caller and not shut down by this class.
+ */
+public final class TimeBoxedCompilerRunner {
+
+	/**
+	 * the logger
+	 */
+	private static Logger logger = LogManager.getLogger(TimeBoxedCompilerRunner.class);
+
+	/**
+	 * the executorService
+	 */
+	private final ExecutorService executorService;
+
+	/**
+	 * the timeoutMillis
+	 */
+	private final long timeoutMillis;
+
+	/**
+	 * Constructor.
+	 * @param executorService the executor service that runs the compilers
+	 * @param timeoutMillis the time budget for each compilation in milliseconds
+	 */
+	public TimeBoxedCompilerRunner(final ExecutorService executorService, final long timeoutMillis) {
+		if (timeoutMillis < 0) {
+			throw new IllegalArgumentException("timeoutMillis is negative: " + timeoutMillis);
+		}
+		this.executorService = ParameterUtil.ensureNotNull(executorService, "executorService");
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Getter method for the executorService.
+	 * @return the executorService
+	 */
+	public ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	/**
+	 * Getter method for the timeoutMillis.
+	 * @return the timeoutMillis
+	 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * Compiles the specified document, waiting at most for the time budget
+	 * of this runner.
+	 *
+	 * @param compiler the compiler
+	 * @param document the document
+	 * @return the compiler result, which is partial and contains a timeout marker
+	 * if the compiler did not finish in time
+	 */
+	public CompilerResult compile(final ICompiler compiler, final String document) {
+		final CompilerResult result = new CompilerResult(document);
+		final CompileCancellationToken cancellationToken = CompileCancellationToken.withTimeout(timeoutMillis);
+		final Future<?> future;
+		try {
+			future = executorService.submit(new Runnable() {
+				@Override
+				public void run() {
+					ICompiler.Util.compileSafe(compiler, result, cancellationToken);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			logger.warn("compile request rejected by executor");
+			result.getMarkers().add(new CompilerMarker(0, 0, 0, 0, CompilerErrorLevel.WARNING, "compiler is busy, please try again later"));
+			return result;
+		}
+		return await(future, result, cancellationToken);
+	}
+
+	/**
+	 * Waits for a compilation that is running in the background until the deadline
+	 * of its cancellation token. If the compilation does not finish in time, it
+	 * gets cancelled and a partial result is returned (see {@link #createTimeoutResult(CompilerResult, CompileCancellationToken)}).
+	 * If the calling thread gets interrupted while waiting, the compilation gets
+	 * cancelled as well, and the partial result reports the interruption instead
+	 * (see {@link #createInterruptedResult(CompilerResult)}).
+	 *
+	 * @param future the future for the background compilation
+	 * @param result the result object the background compilation writes to
+	 * @param cancellationToken the cancellation token of the background compilation
+	 * @return the result, or a partial copy of it on timeout or interruption
+	 */
+	public static CompilerResult await(final Future<?> future, final CompilerResult result, final CompileCancellationToken cancellationToken) {
+		try {
+			if (cancellationToken.hasDeadline()) {
+				future.get(cancellationToken.getRemainingMillis(), TimeUnit.MILLISECONDS);
+			} else {
+				future.get();
+			}
+			return result;
+		} catch (final TimeoutException e) {
+			cancellationToken.cancel();
+			future.cancel(true);
+			return createTimeoutResult(result, cancellationToken);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancellationToken.cancel();
+			future.cancel(true);
+			return createInterruptedResult(result);
+		} catch (final ExecutionException e) {
+			logger.error("compiler failure", e.getCause());
+			final CompilerResult failedResult = createSnapshot(result);
+			failedResult.getMarkers().add(new CompilerMarker(0, 0, 0, 0, CompilerErrorLevel.ERROR, "internal exception: " + e.getCause()));
+			return failedResult;
+		}
+	}
+
+	/**
+	 * Creates a partial result for a compilation that did not finish in time. The
+	 * partial result contains the markers the compiler has produced so far, followed
+	 * by a warning marker at the start of the document that reports the timeout.
+	 * A copy is returned because the compiler may still be writing to the original
+	 * result object.
+	 *
+	 * @param result the result object of the compilation
+	 * @param cancellationToken the cancellation token of the compilation
+	 * @return the partial result
+	 */
+	public static CompilerResult createTimeoutResult(final CompilerResult result, final CompileCancellationToken cancellationToken) {
+		final CompilerResult partialResult = createSnapshot(result);
+		final String message = "compilation timed out" + (cancellationToken.hasDeadline() ? " after " + cancellationToken.getTimeoutMillis() + " ms" : "") + "; results are incomplete";
+		partialResult.getMarkers().add(new CompilerMarker(0, 0, 0, 0, CompilerErrorLevel.WARNING, message));
+		return partialResult;
+	}
+
+	/**
+	 * Creates a partial result for a compilation that was cancelled because the
+	 * waiting thread got interrupted, for example during shutdown. Like
+	 * {@link #createTimeoutResult(CompilerResult, CompileCancellationToken)}, but
+	 * the warning marker reports the interruption.
+	 *
+	 * @param result the result object of the compilation
+	 * @return the partial result
+	 */
+	public static CompilerResult createInterruptedResult(final CompilerResult result) {
+		final CompilerResult partialResult = createSnapshot(result);
+		partialResult.getMarkers().add(new CompilerMarker(0, 0, 0, 0, CompilerErrorLevel.WARNING, "compilation interrupted; results are incomplete"));
+		return partialResult;
+	}
+
+	/**
+	 *
+	 */
+	private static CompilerResult createSnapshot(final CompilerResult result) {
+		final CompilerResult snapshot = new CompilerResult(result.getDocument());
+		snapshot.setOverallErrorLevel(result.getOverallErrorLevel());
+		snapshot.getMarkers().addAll(result.getMarkerSnapshot());
+		return snapshot;
+	}
+
+}
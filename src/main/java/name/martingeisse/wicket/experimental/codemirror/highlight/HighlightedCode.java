@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.highlight;
+
+import org.apache.wicket.markup.ComponentTag;
+import org.apache.wicket.markup.MarkupStream;
+import org.apache.wicket.markup.head.CssHeaderItem;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.html.WebComponent;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.request.resource.CssResourceReference;
+import name.martingeisse.wicket.experimental.codemirror.CodeMirrorBehavior;
+import name.martingeisse.wicket.experimental.codemirror.CodeMirrorMode;
+
+/**
+ * Shows read-only code that is highlighted on the server by the {@link ServerSideHighlighter},
+ * so no CodeMirror instance and no Javascript is needed in the browser. This is much cheaper
+ * than {@link CodeMirrorBehavior} when a page shows many code snippets.
+ *
+ * This component should be used with a pre element. The model object is the code.
+ */
+public class HighlightedCode extends WebComponent {
+
+	/**
+	 * the mode
+	 */
+	private final CodeMirrorMode mode;
+
+	/**
+	 * Constructor.
+	 * @param id the wicket id
+	 * @param model the model for the code
+	 * @param mode the CodeMirror mode
+	 */
+	public HighlightedCode(final String id, final IModel<String> model, final CodeMirrorMode mode) {
+		super(id, model);
+		this.mode = mode;
+	}
+
+	/**
+	 * Getter method for the mode.
+	 * @return the mode
+	 */
+	public CodeMirrorMode getMode() {
+		return mode;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.Component#renderHead(org.apache.wicket.markup.head.IHeaderResponse)
+	 */
+	@Override
+	public void renderHead(final IHeaderResponse response) {
+		super.renderHead(response);
+		response.render(CssHeaderItem.forReference(new CssResourceReference(CodeMirrorBehavior.class, "codemirror.css")));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.Component#onComponentTag(org.apache.wicket.markup.ComponentTag)
+	 */
+	@Override
+	protected void onComponentTag(final ComponentTag tag) {
+		super.onComponentTag(tag);
+		tag.append("class", "cm-s-default", " ");
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.Component#onComponentTagBody(org.apache.wicket.markup.MarkupStream, org.apache.wicket.markup.ComponentTag)
+	 */
+	@Override
+	public void onComponentTagBody(final MarkupStream markupStream, final ComponentTag openTag) {
+		final Object code = getDefaultModelObject();
+		replaceComponentTagBody(markupStream, openTag, ServerSideHighlighter.get().highlight(code == null ? null : code.toString(), mode));
+	}
+
+}
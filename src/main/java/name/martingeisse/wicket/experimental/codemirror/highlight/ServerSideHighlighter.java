@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.highlight;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.wicket.Application;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.resource.PackageResourceReference;
+import org.apache.wicket.util.string.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import name.martingeisse.wicket.experimental.codemirror.CodeMirrorMode;
+import name.martingeisse.wicket.experimental.codemirror.modes.CodeMirrorModeRegistry;
+import name.martingeisse.wicket.experimental.codemirror.modes.RegisteredCodeMirrorMode;
+import name.martingeisse.wicket.experimental.codemirror.modes.SimpleCodeMirrorMode;
+
+/**
+ * Highlights code on the server, using the CodeMirror mode definitions and the JDK's
+ * Javascript engine, so that read-only code can be shown without a CodeMirror instance
+ * in the browser. The result is HTML with one span per token that uses the same CSS
+ * classes as CodeMirror, and is cached by mode and content hash.
+ *
+ * Only {@link SimpleCodeMirrorMode}s and {@link RegisteredCodeMirrorMode}s can be
+ * highlighted, since the mode scripts must be known. If no Javascript engine is available (it was removed from the JDK in Java 15)
+ * or highlighting fails, the code is returned as escaped plain text.
+ *
+ * An instance with a default cache size is created on first use. Call
+ * {@link #initialize(Application, long)} during application startup to use a
+ * different cache size.
+ */
+public final class ServerSideHighlighter {
+
+	/**
+	 * the logger
+	 */
+	private static Logger logger = LogManager.getLogger(ServerSideHighlighter.class);
+
+	/**
+	 * The metadata key for this object.
+	 */
+	public static final MetaDataKey<ServerSideHighlighter> KEY = new MetaDataKey<ServerSideHighlighter>() {
+	};
+
+	/**
+	 * the DEFAULT_MAXIMUM_CACHED_CHARACTERS
+	 */
+	public static final long DEFAULT_MAXIMUM_CACHED_CHARACTERS = 16 * 1024 * 1024;
+
+	/**
+	 * the tab size used to compute columns
+	 */
+	private static final int TAB_SIZE = 4;
+
+	/**
+	 * Creates the highlighter for the specified application.
+	 *
+	 * @param application the Wicket application
+	 * @param maximumCachedCharacters the maximum total length of the cached HTML
+	 * @return the highlighter
+	 */
+	public static ServerSideHighlighter initialize(final Application application, final long maximumCachedCharacters) {
+		final ServerSideHighlighter highlighter = new ServerSideHighlighter(maximumCachedCharacters);
+		application.setMetaData(KEY, highlighter);
+		return highlighter;
+	}
+
+	/**
+	 * Returns the highlighter for the application of the calling thread,
+	 * creating one with the default cache size if necessary.
+	 *
+	 * @return the highlighter
+	 */
+	public static ServerSideHighlighter get() {
+		return get(Application.get());
+	}
+
+	/**
+	 * Returns the highlighter for the specified application, creating one
+	 * with the default cache size if necessary.
+	 *
+	 * @param application the Wicket application
+	 * @return the highlighter
+	 */
+	public static ServerSideHighlighter get(final Application application) {
+		ServerSideHighlighter highlighter = application.getMetaData(KEY);
+		if (highlighter == null) {
+			synchronized (application) {
+				highlighter = application.getMetaData(KEY);
+				if (highlighter == null) {
+					highlighter = initialize(application, DEFAULT_MAXIMUM_CACHED_CHARACTERS);
+				}
+			}
+		}
+		return highlighter;
+	}
+
+	/**
+	 * the cache
+	 */
+	private final Cache<String, String> cache;
+
+	/**
+	 * the engine (null if not available)
+	 */
+	private final ScriptEngine engine;
+
+	/**
+	 * the scripts already loaded into the engine, as "scope class name/path"
+	 */
+	private final Set<String> loadedScripts = new HashSet<>();
+
+	/**
+	 * Constructor.
+	 */
+	private ServerSideHighlighter(final long maximumCachedCharacters) {
+		this.cache = CacheBuilder.newBuilder().maximumWeight(maximumCachedCharacters).weigher(new Weigher<String, String>() {
+			@Override
+			public int weigh(final String key, final String value) {
+				return key.length() + value.length();
+			}
+		}).build();
+		this.engine = createEngine();
+	}
+
+	/**
+	 *
+	 */
+	private static ScriptEngine createEngine() {
+		final ScriptEngineManager manager = new ScriptEngineManager();
+		ScriptEngine engine = manager.getEngineByName("nashorn");
+		if (engine == null) {
+			engine = manager.getEngineByName("javascript");
+		}
+		if (engine == null) {
+			logger.info("no Javascript engine available; code will not be highlighted on the server");
+			return null;
+		}
+		if (!(engine instanceof Invocable) || !loadScript(engine, ServerSideHighlighter.class, "ServerSideHighlighter.js")) {
+			logger.warn("could not initialize the Javascript engine; code will not be highlighted on the server");
+			return null;
+		}
+		return engine;
+	}
+
+	/**
+	 * @return true if code is actually highlighted, false if it is only escaped
+	 */
+	public boolean isAvailable() {
+		return (engine != null);
+	}
+
+	/**
+	 * Highlights the specified code.
+	 *
+	 * @param code the code
+	 * @param mode the CodeMirror mode
+	 * @return the highlighted code as HTML (without a surrounding element)
+	 */
+	public String highlight(final String code, final CodeMirrorMode mode) {
+		if (code == null) {
+			return "";
+		}
+		if (engine == null) {
+			return escape(code);
+		}
+		final List<PackageResourceReference> scripts;
+		final String parameterExpression;
+		if (mode instanceof SimpleCodeMirrorMode) {
+			final SimpleCodeMirrorMode simpleMode = (SimpleCodeMirrorMode)mode;
+			scripts = new ArrayList<>();
+			for (final String path : simpleMode.getPaths()) {
+				scripts.add(new PackageResourceReference(simpleMode.getAnchor(), path));
+			}
+			parameterExpression = simpleMode.getParameterExpression();
+		} else if (mode instanceof RegisteredCodeMirrorMode) {
+			final RegisteredCodeMirrorMode registeredMode = (RegisteredCodeMirrorMode)mode;
+			scripts = CodeMirrorModeRegistry.get().resolveScripts(registeredMode.getModeId());
+			parameterExpression = registeredMode.getParameterExpression();
+		} else {
+			return escape(code);
+		}
+		final StringBuilder keyBuilder = new StringBuilder();
+		for (final PackageResourceReference script : scripts) {
+			keyBuilder.append(getScriptKey(script)).append(',');
+		}
+		keyBuilder.append(':').append(parameterExpression).append(':').append(DigestUtils.sha1Hex(code));
+		try {
+			return cache.get(keyBuilder.toString(), new Callable<String>() {
+				@Override
+				public String call() {
+					return highlightUncached(code, scripts, parameterExpression);
+				}
+			});
+		} catch (final ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 *
+	 */
+	private String highlightUncached(final String code, final List<PackageResourceReference> scripts, final String parameterExpression) {
+		synchronized (engine) {
+			for (final PackageResourceReference script : scripts) {
+				final String scriptKey = getScriptKey(script);
+				if (!loadedScripts.contains(scriptKey)) {
+					if (!loadScript(engine, script.getScope(), script.getName())) {
+						return escape(code);
+					}
+					loadedScripts.add(scriptKey);
+				}
+			}
+			try {
+				final Object modeSpec = engine.eval("(" + parameterExpression + ")");
+				return String.valueOf(((Invocable)engine).invokeFunction("codeMirrorRunModeToHtml", code, modeSpec, TAB_SIZE));
+			} catch (final Exception e) {
+				logger.error("could not highlight code", e);
+				return escape(code);
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static String getScriptKey(final PackageResourceReference script) {
+		return script.getScope().getName() + "/" + script.getName();
+	}
+
+	/**
+	 * Loads a script into the engine.
+	 *
+	 * @return true on success, false on failure
+	 */
+	private static boolean loadScript(final ScriptEngine engine, final Class<?> anchor, final String path) {
+		try (InputStream inputStream = anchor.getResourceAsStream(path)) {
+			if (inputStream == null) {
+				logger.error("script not found: " + path + " relative to " + anchor);
+				return false;
+			}
+			engine.eval(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+			return true;
+		} catch (final Exception e) {
+			logger.error("could not load script " + path + " relative to " + anchor, e);
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static String escape(final String code) {
+		return Strings.escapeMarkup(code, false, false).toString();
+	}
+
+}
@@ -0,0 +1,262 @@
+/*
+ * A minimal stand-in for CodeMirror that is just enough to run the mode definitions
+ * outside the browser (similar to CodeMirror's runmode-standalone.js). Mode scripts
+ * are loaded after this script and register themselves through CodeMirror.defineMode().
+ * codeMirrorRunModeToHtml() then turns a document into HTML with one span per token,
+ * using the same CSS classes as CodeMirror itself.
+ */
+
+var CodeMirror = (function() {
+
+	function countColumn(string, end, tabSize) {
+		if (end === null || end === undefined) {
+			end = string.search(/[^\s ]/);
+			if (end == -1) {
+				end = string.length;
+			}
+		}
+		var n = 0;
+		for (var i = 0; i < end; i++) {
+			n += (string.charAt(i) == '\t' ? tabSize - (n % tabSize) : 1);
+		}
+		return n;
+	}
+
+	function StringStream(string, tabSize) {
+		this.pos = this.start = 0;
+		this.string = string;
+		this.tabSize = tabSize || 8;
+		this.lineStart = 0;
+	}
+
+	StringStream.prototype = {
+		eol: function() {
+			return this.pos >= this.string.length;
+		},
+		sol: function() {
+			return this.pos == this.lineStart;
+		},
+		peek: function() {
+			return this.string.charAt(this.pos) || undefined;
+		},
+		next: function() {
+			if (this.pos < this.string.length) {
+				return this.string.charAt(this.pos++);
+			}
+		},
+		eat: function(match) {
+			var ch = this.string.charAt(this.pos);
+			var ok = (typeof match == 'string' ? ch == match : ch && (match.test ? match.test(ch) : match(ch)));
+			if (ok) {
+				++this.pos;
+				return ch;
+			}
+		},
+		eatWhile: function(match) {
+			var start = this.pos;
+			while (this.eat(match)) {
+			}
+			return this.pos > start;
+		},
+		eatSpace: function() {
+			var start = this.pos;
+			while (/[\s ]/.test(this.string.charAt(this.pos))) {
+				++this.pos;
+			}
+			return this.pos > start;
+		},
+		skipToEnd: function() {
+			this.pos = this.string.length;
+		},
+		skipTo: function(ch) {
+			var found = this.string.indexOf(ch, this.pos);
+			if (found > -1) {
+				this.pos = found;
+				return true;
+			}
+		},
+		backUp: function(n) {
+			this.pos -= n;
+		},
+		column: function() {
+			return countColumn(this.string, this.start, this.tabSize);
+		},
+		indentation: function() {
+			return countColumn(this.string, null, this.tabSize);
+		},
+		match: function(pattern, consume, caseInsensitive) {
+			if (typeof pattern == 'string') {
+				var cased = function(str) {
+					return (caseInsensitive ? str.toLowerCase() : str);
+				};
+				var substr = this.string.substr(this.pos, pattern.length);
+				if (cased(substr) == cased(pattern)) {
+					if (consume !== false) {
+						this.pos += pattern.length;
+					}
+					return true;
+				}
+			} else {
+				var match = this.string.slice(this.pos).match(pattern);
+				if (match && match.index > 0) {
+					return null;
+				}
+				if (match && consume !== false) {
+					this.pos += match[0].length;
+				}
+				return match;
+			}
+		},
+		current: function() {
+			return this.string.slice(this.start, this.pos);
+		}
+	};
+
+	var modes = {}, mimeModes = {};
+
+	function resolveMode(spec) {
+		if (typeof spec == 'string' && mimeModes.hasOwnProperty(spec)) {
+			spec = mimeModes[spec];
+		} else if (spec && typeof spec.name == 'string' && mimeModes.hasOwnProperty(spec.name)) {
+			var found = mimeModes[spec.name];
+			if (typeof found == 'string') {
+				found = {name: found};
+			}
+			var merged = {};
+			for (var key in found) {
+				merged[key] = found[key];
+			}
+			for (var key2 in spec) {
+				merged[key2] = spec[key2];
+			}
+			merged.name = found.name;
+			spec = merged;
+		} else if (typeof spec == 'string' && /^[\w\-]+\/[\w\-]+\+xml$/.test(spec)) {
+			return resolveMode('application/xml');
+		}
+		return (typeof spec == 'string' ? {name: spec} : (spec || {name: 'null'}));
+	}
+
+	return {
+		Pass: {toString: function() { return 'CodeMirror.Pass'; }},
+		StringStream: StringStream,
+		countColumn: countColumn,
+		modes: modes,
+		mimeModes: mimeModes,
+		defineMode: function(name, mode) {
+			if (arguments.length > 2) {
+				mode.dependencies = Array.prototype.slice.call(arguments, 2);
+			}
+			modes[name] = mode;
+		},
+		defineMIME: function(mime, spec) {
+			mimeModes[mime] = spec;
+		},
+		resolveMode: resolveMode,
+		getMode: function(options, spec) {
+			spec = resolveMode(spec);
+			var factory = modes[spec.name];
+			if (!factory) {
+				return CodeMirror.getMode(options, 'text/plain');
+			}
+			return factory(options, spec);
+		},
+		startState: function(mode, a1, a2) {
+			return (mode.startState ? mode.startState(a1, a2) : true);
+		},
+		copyState: function(mode, state) {
+			if (state === true) {
+				return state;
+			}
+			if (mode.copyState) {
+				return mode.copyState(state);
+			}
+			var copy = {};
+			for (var key in state) {
+				var value = state[key];
+				if (value instanceof Array) {
+					value = value.concat([]);
+				}
+				copy[key] = value;
+			}
+			return copy;
+		},
+		innerMode: function(mode, state) {
+			while (mode.innerMode) {
+				var info = mode.innerMode(state);
+				if (!info || info.mode == mode) {
+					break;
+				}
+				state = info.state;
+				mode = info.mode;
+			}
+			return {mode: mode, state: state};
+		},
+		extendMode: function() {
+		},
+		registerHelper: function() {
+		},
+		registerGlobalHelper: function() {
+		}
+	};
+
+})();
+
+CodeMirror.defineMode('null', function() {
+	return {
+		token: function(stream) {
+			stream.skipToEnd();
+		}
+	};
+});
+CodeMirror.defineMIME('text/plain', 'null');
+
+function codeMirrorEscapeHtml(text) {
+	return text.replace(/&/g, '&amp;').replace(/</g, '&lt;').replace(/>/g, '&gt;').replace(/"/g, '&quot;');
+}
+
+function codeMirrorRunModeToHtml(text, modeSpec, tabSize) {
+	var mode = CodeMirror.getMode({indentUnit: 2, tabSize: tabSize}, modeSpec);
+	var state = CodeMirror.startState(mode);
+	var lines = text.split(/\r\n|\r|\n/);
+	var html = [];
+	for (var i = 0; i < lines.length; i++) {
+		if (i > 0) {
+			html.push('\n');
+		}
+		var stream = new CodeMirror.StringStream(lines[i], tabSize);
+		if (!stream.string && mode.blankLine) {
+			mode.blankLine(state);
+		}
+		var pendingText = '', pendingStyle = null;
+		while (!stream.eol()) {
+			var style = mode.token(stream, state) || null;
+			if (stream.pos <= stream.start) {
+				// modes must consume at least one character; guard against endless loops
+				stream.pos = stream.start + 1;
+			}
+			var tokenText = stream.current();
+			stream.start = stream.pos;
+			if (style === pendingStyle) {
+				pendingText += tokenText;
+				continue;
+			}
+			appendToken(html, pendingText, pendingStyle);
+			pendingText = tokenText;
+			pendingStyle = style;
+		}
+		appendToken(html, pendingText, pendingStyle);
+	}
+	return html.join('');
+}
+
+function appendToken(html, text, style) {
+	if (!text) {
+		return;
+	}
+	if (style) {
+		html.push('<span class="', codeMirrorEscapeHtml('cm-' + style.replace(/ +/g, ' cm-')), '">', codeMirrorEscapeHtml(text), '</span>');
+	} else {
+		html.push(codeMirrorEscapeHtml(text));
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.modes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.wicket.Application;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.JavaScriptHeaderItem;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.resource.PackageResourceReference;
+import name.martingeisse.wicket.experimental.codemirror.CodeMirrorResourceBundles;
+import name.martingeisse.wicket.internal.JsUtil;
+import name.martingeisse.wicket.internal.ParameterUtil;
+
+/**
+ * Knows the script of each CodeMirror mode and the modes it depends on, so
+ * that the browser can load mode scripts on demand the first time an editor
+ * uses a mode, instead of including them in the page up front. Modes are
+ * also known by the MIME types that select them.
+ *
+ * The mode ID used for registration must be the name the script passes to
+ * CodeMirror.defineMode(); the browser uses it to detect modes that are
+ * already loaded.
+ *
+ * A registry that knows the modes from {@link CodeMirrorModes} is created
+ * on first use. Additional modes can be registered during application startup.
+ */
+public final class CodeMirrorModeRegistry {
+
+	/**
+	 * The metadata key for this object.
+	 */
+	public static final MetaDataKey<CodeMirrorModeRegistry> KEY = new MetaDataKey<CodeMirrorModeRegistry>() {
+	};
+
+	/**
+	 * Returns the registry for the application of the calling thread,
+	 * creating one if necessary.
+	 *
+	 * @return the registry
+	 */
+	public static CodeMirrorModeRegistry get() {
+		return get(Application.get());
+	}
+
+	/**
+	 * Returns the registry for the specified application, creating one if necessary.
+	 *
+	 * @param application the Wicket application
+	 * @return the registry
+	 */
+	public static CodeMirrorModeRegistry get(final Application application) {
+		CodeMirrorModeRegistry registry = application.getMetaData(KEY);
+		if (registry == null) {
+			synchronized (application) {
+				registry = application.getMetaData(KEY);
+				if (registry == null) {
+					registry = new CodeMirrorModeRegistry();
+					application.setMetaData(KEY, registry);
+				}
+			}
+		}
+		return registry;
+	}
+
+	/**
+	 * the modes by ID
+	 */
+	private final Map<String, RegisteredMode> modes = new TreeMap<>();
+
+	/**
+	 * the mode IDs by MIME type
+	 */
+	private final Map<String, String> mimeTypes = new TreeMap<>();
+
+	/**
+	 * Constructor.
+	 */
+	private CodeMirrorModeRegistry() {
+		register("javascript", CodeMirrorModes.class, "javascript.js");
+		registerMimeType("text/javascript", "javascript");
+		registerMimeType("application/javascript", "javascript");
+		registerMimeType("application/json", "javascript");
+		registerMimeType("application/ld+json", "javascript");
+		registerMimeType("text/typescript", "javascript");
+		register("xml", CodeMirrorModes.class, "xml.js");
+		registerMimeType("application/xml", "xml");
+		registerMimeType("text/xml", "xml");
+		registerMimeType("text/html", "xml");
+	}
+
+	/**
+	 * Registers a mode, replacing any earlier registration with the same ID.
+	 *
+	 * @param modeId the mode ID, as passed to CodeMirror.defineMode() by the script
+	 * @param anchor the anchor class of the script
+	 * @param path the path of the script, relative to the anchor class
+	 * @param dependencies the IDs of the modes that must be loaded before this one
+	 * @return this
+	 */
+	public synchronized CodeMirrorModeRegistry register(final String modeId, final Class<?> anchor, final String path, final String... dependencies) {
+		ParameterUtil.ensureNotNull(modeId, "modeId");
+		modes.put(modeId, new RegisteredMode(new PackageResourceReference(ParameterUtil.ensureNotNull(anchor, "anchor"), ParameterUtil.ensureNotNull(path, "path")), dependencies));
+		return this;
+	}
+
+	/**
+	 * Registers a MIME type for a mode.
+	 *
+	 * @param mimeType the MIME type
+	 * @param modeId the ID of the mode that handles this MIME type
+	 * @return this
+	 */
+	public synchronized CodeMirrorModeRegistry registerMimeType(final String mimeType, final String modeId) {
+		mimeTypes.put(ParameterUtil.ensureNotNull(mimeType, "mimeType"), ParameterUtil.ensureNotNull(modeId, "modeId"));
+		return this;
+	}
+
+	/**
+	 * Resolves a MIME type to a mode ID.
+	 *
+	 * @param modeIdOrMimeType a mode ID or a registered MIME type
+	 * @return the mode ID
+	 */
+	public synchronized String resolveModeId(final String modeIdOrMimeType) {
+		final String modeId = mimeTypes.get(modeIdOrMimeType);
+		return (modeId == null ? modeIdOrMimeType : modeId);
+	}
+
+	/**
+	 * Returns the scripts for a mode, including those of all its dependencies,
+	 * in the order they must be loaded.
+	 *
+	 * @param modeIdOrMimeType a mode ID or a registered MIME type
+	 * @return the scripts (empty if the mode is unknown)
+	 */
+	public synchronized List<PackageResourceReference> resolveScripts(final String modeIdOrMimeType) {
+		final List<PackageResourceReference> result = new ArrayList<>();
+		collectScripts(resolveModeId(modeIdOrMimeType), result, new ArrayList<String>());
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 *
+	 */
+	private void collectScripts(final String modeId, final List<PackageResourceReference> result, final List<String> visited) {
+		if (visited.contains(modeId)) {
+			return;
+		}
+		visited.add(modeId);
+		final RegisteredMode mode = modes.get(modeId);
+		if (mode != null) {
+			for (final String dependency : mode.dependencies) {
+				collectScripts(dependency, result, visited);
+			}
+			result.add(mode.script);
+		}
+	}
+
+	/**
+	 * Renders the registry to the specified header response, so the browser
+	 * can load registered modes on demand.
+	 *
+	 * @param response the header response
+	 */
+	public void renderHead(final IHeaderResponse response) {
+		final CodeMirrorResourceBundles bundles = CodeMirrorResourceBundles.get(Application.get());
+		final StringBuilder builder = new StringBuilder("codeMirrorRegisterModes({");
+		synchronized (this) {
+			boolean first = true;
+			for (final Map.Entry<String, RegisteredMode> entry : modes.entrySet()) {
+				final RegisteredMode mode = entry.getValue();
+				final String url = (bundles == null ? RequestCycle.get().urlFor(mode.script, null).toString() : bundles.getScriptUrl(Collections.singletonList(mode.script)));
+				builder.append(first ? "" : ", ").append(JsUtil.toStringLiteral(entry.getKey()));
+				builder.append(": {url: ").append(JsUtil.toStringLiteral(url)).append(", dependencies: [");
+				for (int i = 0; i < mode.dependencies.length; i++) {
+					builder.append(i == 0 ? "" : ", ").append(JsUtil.toStringLiteral(mode.dependencies[i]));
+				}
+				builder.append("]}");
+				first = false;
+			}
+			builder.append("}, {");
+			first = true;
+			for (final Map.Entry<String, String> entry : mimeTypes.entrySet()) {
+				builder.append(first ? "" : ", ").append(JsUtil.toStringLiteral(entry.getKey())).append(": ").append(JsUtil.toStringLiteral(entry.getValue()));
+				first = false;
+			}
+		}
+		builder.append("});");
+		response.render(JavaScriptHeaderItem.forScript(builder.toString(), "codeMirrorModeRegistry"));
+	}
+
+	/**
+	 * The registration of a single mode.
+	 */
+	private static final class RegisteredMode {
+
+		/**
+		 * the script
+		 */
+		private final PackageResourceReference script;
+
+		/**
+		 * the dependencies
+		 */
+		private final String[] dependencies;
+
+		/**
+		 * Constructor.
+		 */
+		RegisteredMode(final PackageResourceReference script, final String[] dependencies) {
+			this.script = script;
+			this.dependencies = (dependencies == null ? new String[0] : dependencies.clone());
+		}
+
+	}
+
+}
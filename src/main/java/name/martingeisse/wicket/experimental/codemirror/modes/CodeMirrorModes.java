@@ -9,7 +9,9 @@ package name.martingeisse.wicket.experimental.codemirror.modes;
 import name.martingeisse.wicket.experimental.codemirror.CodeMirrorMode;
 
 /**
- * Standard modes are available as static fields of this class.
+ * Standard modes are available as static fields of this class. Their scripts
+ * and dependencies are declared in the {@link CodeMirrorModeRegistry} and
+ * loaded by the browser when an editor first needs them.
  */
 public class CodeMirrorModes {
 
@@ -22,31 +24,31 @@ public class CodeMirrorModes {
 	/**
 	 * 
 	 */
-	private static CodeMirrorMode fromModeId(String modeId, String... paths) {
-		return SimpleCodeMirrorMode.fromModeId(modeId, CodeMirrorModes.class, paths);
+	private static CodeMirrorMode fromModeId(String modeId) {
+		return RegisteredCodeMirrorMode.fromModeId(modeId);
 	}
 
 	/**
 	 * 
 	 */
 	@SuppressWarnings("unused")
-	private static CodeMirrorMode fromModeParameterExpression(String parameterExpression, String... paths) {
-		return SimpleCodeMirrorMode.fromModeParameterExpression(parameterExpression, CodeMirrorModes.class, paths);
+	private static CodeMirrorMode fromModeParameterExpression(String modeId, String parameterExpression) {
+		return RegisteredCodeMirrorMode.fromModeParameterExpression(modeId, parameterExpression);
 	}
 
 	/**
 	 * Javascript mode.
 	 */
-	public static final CodeMirrorMode JAVASCRIPT = fromModeId("text/javascript", "javascript.js");
+	public static final CodeMirrorMode JAVASCRIPT = fromModeId("text/javascript");
 
 	/**
 	 * JSON mode.
 	 */
-	public static final CodeMirrorMode JSON = fromModeId("application/json", "javascript.js");
+	public static final CodeMirrorMode JSON = fromModeId("application/json");
 
 	/**
 	 * XML mode.
 	 */
-	public static final CodeMirrorMode XML = fromModeId("application/xml", "xml.js");
+	public static final CodeMirrorMode XML = fromModeId("application/xml");
 
 }
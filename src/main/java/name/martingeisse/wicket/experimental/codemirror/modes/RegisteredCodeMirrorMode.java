@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.modes;
+
+import org.apache.wicket.markup.head.IHeaderResponse;
+import name.martingeisse.wicket.experimental.codemirror.CodeMirrorMode;
+import name.martingeisse.wicket.internal.JsUtil;
+import name.martingeisse.wicket.internal.ParameterUtil;
+
+/**
+ * A mode whose scripts are taken from the {@link CodeMirrorModeRegistry}. Unlike
+ * {@link SimpleCodeMirrorMode}, this mode does not add its scripts to the page;
+ * the editor loads them (and those of the modes it depends on) asynchronously
+ * the first time the mode is needed.
+ */
+public final class RegisteredCodeMirrorMode implements CodeMirrorMode {
+
+	/**
+	 * the modeId
+	 */
+	private final String modeId;
+
+	/**
+	 * the parameterExpression
+	 */
+	private final String parameterExpression;
+
+	/**
+	 * Builds a mode instance from the specified mode ID or MIME type.
+	 *
+	 * @param modeId the mode ID or MIME type
+	 * @return the mode
+	 */
+	public static RegisteredCodeMirrorMode fromModeId(final String modeId) {
+		return new RegisteredCodeMirrorMode(modeId, JsUtil.toStringLiteral(modeId));
+	}
+
+	/**
+	 * Builds a mode instance from the specified mode ID and parameter expression.
+	 *
+	 * @param modeId the mode ID or MIME type that determines the scripts to load
+	 * @param parameterExpression the Javascript expression to use for the 'mode' parameter
+	 * @return the mode
+	 */
+	public static RegisteredCodeMirrorMode fromModeParameterExpression(final String modeId, final String parameterExpression) {
+		return new RegisteredCodeMirrorMode(modeId, parameterExpression);
+	}
+
+	/**
+	 * Constructor.
+	 */
+	private RegisteredCodeMirrorMode(final String modeId, final String parameterExpression) {
+		this.modeId = ParameterUtil.ensureNotNull(modeId, "modeId");
+		this.parameterExpression = ParameterUtil.ensureNotNull(parameterExpression, "parameterExpression");
+	}
+
+	/**
+	 * Getter method for the modeId.
+	 * @return the modeId
+	 */
+	public String getModeId() {
+		return modeId;
+	}
+
+	/**
+	 * Getter method for the parameterExpression.
+	 * @return the parameterExpression
+	 */
+	public String getParameterExpression() {
+		return parameterExpression;
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.CodeMirrorMode#renderResourceReferences(org.apache.wicket.markup.head.IHeaderResponse)
+	 */
+	@Override
+	public void renderResourceReferences(final IHeaderResponse response) {
+		CodeMirrorModeRegistry.get().renderHead(response);
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.experimental.codemirror.CodeMirrorMode#renderModeParameter(java.lang.StringBuilder)
+	 */
+	@Override
+	public void renderModeParameter(final StringBuilder builder) {
+		builder.append(parameterExpression);
+	}
+
+}
@@ -75,6 +75,30 @@ public final class SimpleCodeMirrorMode implements CodeMirrorMode {
 		this.paths = ArrayUtils.clone(paths);
 	}
 
+	/**
+	 * Getter method for the parameterExpression.
+	 * @return the parameterExpression
+	 */
+	public String getParameterExpression() {
+		return parameterExpression;
+	}
+
+	/**
+	 * Getter method for the anchor.
+	 * @return the anchor
+	 */
+	public Class<?> getAnchor() {
+		return anchor;
+	}
+
+	/**
+	 * Getter method for the paths.
+	 * @return the paths
+	 */
+	public String[] getPaths() {
+		return ArrayUtils.clone(paths);
+	}
+
 	/* (non-Javadoc)
 	 * @see name.martingeisse.wicket.component.codemirror.CodeMirrorMode#renderResourceReferences(org.apache.wicket.markup.head.IHeaderResponse)
 	 */
@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.viewer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Gives access to the lines of a text file that may be too large to be loaded
+ * into memory. The file is memory-mapped in chunks, so its content does not use
+ * heap space. The offset of every {@link #LINES_PER_CHECKPOINT}-th line is kept
+ * in a sparse index that is built incrementally: each call to {@link #index(long)}
+ * scans a limited number of bytes, so the first lines of a huge file are available
+ * immediately while the rest of the file is still being indexed.
+ *
+ * Files that grow (such as log files) are handled by {@link #refresh()}; if a file
+ * shrinks, its index is discarded and rebuilt.
+ *
+ * Instances are shared through {@link #get(File)} and evicted after some time
+ * without use. All methods are thread-safe.
+ */
+public final class LargeTextFile {
+
+	/**
+	 * the number of lines between two entries of the line index
+	 */
+	public static final int LINES_PER_CHECKPOINT = 1024;
+
+	/**
+	 * the size of the mapped chunks
+	 */
+	private static final long CHUNK_SIZE = 1L << 28;
+
+	/**
+	 * the maximum number of bytes returned per line; longer lines are truncated
+	 */
+	private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	/**
+	 * the instances by canonical path
+	 */
+	private static final Cache<String, LargeTextFile> instances = CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).maximumSize(100).build();
+
+	/**
+	 * Returns the shared instance for the specified file.
+	 *
+	 * @param file the file
+	 * @return the instance
+	 * @throws IOException on I/O errors
+	 */
+	public static LargeTextFile get(final File file) throws IOException {
+		final File canonicalFile = file.getCanonicalFile();
+		try {
+			return instances.get(canonicalFile.getPath(), new Callable<LargeTextFile>() {
+				@Override
+				public LargeTextFile call() {
+					return new LargeTextFile(canonicalFile);
+				}
+			});
+		} catch (final ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * the file
+	 */
+	private final File file;
+
+	/**
+	 * the file size the mapped chunks and the index are based on
+	 */
+	private long size;
+
+	/**
+	 * the mapped chunks (null elements are not mapped yet)
+	 */
+	private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+	/**
+	 * the offsets of lines 0, K, 2K, ..., with K = LINES_PER_CHECKPOINT
+	 */
+	private long[] checkpoints = new long[16];
+
+	/**
+	 * the number of valid elements in the checkpoints array
+	 */
+	private int checkpointCount;
+
+	/**
+	 * the number of line starts found so far
+	 */
+	private long indexedLineCount;
+
+	/**
+	 * the offset up to which the file has been indexed
+	 */
+	private long indexedOffset;
+
+	/**
+	 * whether a line starts at indexedOffset, to be counted once the file has content there
+	 */
+	private boolean lineStartPending = true;
+
+	/**
+	 * Constructor.
+	 */
+	private LargeTextFile(final File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Getter method for the file.
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Getter method for the size.
+	 * @return the size
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of lines known so far. This is the total number of lines
+	 * once the file has been indexed completely.
+	 *
+	 * @return the number of lines
+	 */
+	public synchronized long getIndexedLineCount() {
+		return indexedLineCount;
+	}
+
+	/**
+	 * @return true if the whole file has been indexed
+	 */
+	public synchronized boolean isCompletelyIndexed() {
+		return (indexedOffset == size);
+	}
+
+	/**
+	 * Checks the file size and adapts to growing or shrinking files.
+	 *
+	 * @throws IOException on I/O errors
+	 */
+	public synchronized void refresh() throws IOException {
+		if (!file.isFile()) {
+			throw new IOException("file not found: " + file);
+		}
+		final long newSize = file.length();
+		if (newSize < size) {
+			chunks = new MappedByteBuffer[0];
+			checkpointCount = 0;
+			indexedLineCount = 0;
+			indexedOffset = 0;
+			lineStartPending = true;
+		} else if (newSize > size && chunks.length > 0) {
+			// the last chunk may have been mapped with the old size
+			chunks[chunks.length - 1] = null;
+		}
+		size = newSize;
+		final int chunkCount = (int)((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		if (chunkCount != chunks.length) {
+			chunks = Arrays.copyOf(chunks, chunkCount);
+		}
+	}
+
+	/**
+	 * Continues building the line index.
+	 *
+	 * @param maxBytes the maximum number of bytes to scan
+	 * @throws IOException on I/O errors
+	 */
+	public synchronized void index(final long maxBytes) throws IOException {
+		final long end = Math.min(size, indexedOffset + maxBytes);
+		long offset = indexedOffset;
+		if (lineStartPending && offset < end) {
+			addLineStart(offset);
+			lineStartPending = false;
+		}
+		while (offset < end) {
+			final MappedByteBuffer chunk = getChunk(offset);
+			final int chunkEnd = (int)Math.min(CHUNK_SIZE, end - (offset - offset % CHUNK_SIZE));
+			for (int i = (int)(offset % CHUNK_SIZE); i < chunkEnd; i++) {
+				if (chunk.get(i) == '\n') {
+					final long lineStart = offset - offset % CHUNK_SIZE + i + 1;
+					if (lineStart < size) {
+						addLineStart(lineStart);
+					} else {
+						lineStartPending = true;
+					}
+				}
+			}
+			offset = offset - offset % CHUNK_SIZE + chunkEnd;
+		}
+		indexedOffset = end;
+	}
+
+	/**
+	 *
+	 */
+	private void addLineStart(final long lineStart) {
+		if (indexedLineCount % LINES_PER_CHECKPOINT == 0) {
+			if (checkpointCount == checkpoints.length) {
+				checkpoints = Arrays.copyOf(checkpoints, checkpoints.length * 2);
+			}
+			checkpoints[checkpointCount] = lineStart;
+			checkpointCount++;
+		}
+		indexedLineCount++;
+	}
+
+	/**
+	 * Reads lines from the indexed part of the file. Lines are decoded as UTF-8,
+	 * without their line terminators.
+	 *
+	 * @param firstLine the index of the first line to read
+	 * @param count the maximum number of lines to read
+	 * @return the lines (fewer than requested at the end of the indexed part)
+	 * @throws IOException on I/O errors
+	 */
+	public synchronized List<String> readLines(final long firstLine, final int count) throws IOException {
+		final List<String> result = new ArrayList<>();
+		if (firstLine < 0 || firstLine >= indexedLineCount) {
+			return result;
+		}
+		final int checkpointIndex = (int)(firstLine / LINES_PER_CHECKPOINT);
+		long offset = checkpoints[checkpointIndex];
+		for (long line = (long)checkpointIndex * LINES_PER_CHECKPOINT; line < firstLine; line++) {
+			offset = findLineEnd(offset) + 1;
+		}
+		final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+		for (long line = firstLine; line < indexedLineCount && result.size() < count; line++) {
+			final long lineEnd = findLineEnd(offset);
+			lineBuffer.reset();
+			final long copyEnd = Math.min(lineEnd, offset + MAX_LINE_LENGTH);
+			for (long position = offset; position < copyEnd; position++) {
+				lineBuffer.write(getChunk(position).get((int)(position % CHUNK_SIZE)));
+			}
+			String text = new String(lineBuffer.toByteArray(), StandardCharsets.UTF_8);
+			if (text.endsWith("\r")) {
+				text = text.substring(0, text.length() - 1);
+			}
+			result.add(text);
+			offset = lineEnd + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the offset of the line terminator of the line that starts at the
+	 * specified offset, or the file size for the last line.
+	 */
+	private long findLineEnd(long offset) throws IOException {
+		while (offset < size) {
+			final MappedByteBuffer chunk = getChunk(offset);
+			final int chunkEnd = (int)Math.min(CHUNK_SIZE, size - (offset - offset % CHUNK_SIZE));
+			for (int i = (int)(offset % CHUNK_SIZE); i < chunkEnd; i++) {
+				if (chunk.get(i) == '\n') {
+					return offset - offset % CHUNK_SIZE + i;
+				}
+			}
+			offset = offset - offset % CHUNK_SIZE + chunkEnd;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the chunk that contains the specified offset, mapping it if necessary.
+	 */
+	private MappedByteBuffer getChunk(final long offset) throws IOException {
+		final int chunkIndex = (int)(offset / CHUNK_SIZE);
+		MappedByteBuffer chunk = chunks[chunkIndex];
+		if (chunk == null) {
+			final long chunkStart = chunkIndex * CHUNK_SIZE;
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, Math.min(CHUNK_SIZE, size - chunkStart));
+			}
+			chunks[chunkIndex] = chunk;
+		}
+		return chunk;
+	}
+
+}
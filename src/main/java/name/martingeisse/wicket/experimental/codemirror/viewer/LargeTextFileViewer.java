@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.viewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.attributes.AjaxCallListener;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
+import org.apache.wicket.ajax.attributes.CallbackParameter;
+import org.apache.wicket.markup.ComponentTag;
+import org.apache.wicket.markup.head.CssHeaderItem;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
+import org.apache.wicket.markup.html.WebComponent;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.request.IRequestParameters;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.resource.CssResourceReference;
+import com.google.gson.Gson;
+import name.martingeisse.wicket.experimental.codemirror.CodeMirrorBehavior;
+import name.martingeisse.wicket.internal.WicketHeadUtil;
+
+/**
+ * Shows a read-only text file that may be much too large for a {@link CodeMirrorBehavior},
+ * such as a server log. Only the lines around the visible part of the file are sent to
+ * the browser; further lines are fetched through an AJAX callback while scrolling. The
+ * file is read through a {@link LargeTextFile}, so opening even a multi-gigabyte file
+ * is fast and does not use heap space for the content.
+ *
+ * The line index is built a few megabytes at a time. While indexing is in progress,
+ * the browser keeps asking for more, and the scrollable area grows accordingly.
+ *
+ * This component should be used with a div element that has a fixed height.
+ */
+public class LargeTextFileViewer extends WebComponent {
+
+	/**
+	 * the logger
+	 */
+	private static Logger logger = LogManager.getLogger(LargeTextFileViewer.class);
+
+	/**
+	 * the maximum number of lines the browser may request at once
+	 */
+	private static final int MAX_WINDOW_SIZE = 2000;
+
+	/**
+	 * the number of bytes indexed per request
+	 */
+	private long indexBytesPerRequest = 64 * 1024 * 1024;
+
+	/**
+	 * the window size, in lines
+	 */
+	private int windowSize = 300;
+
+	/**
+	 * Constructor.
+	 * @param id the wicket id
+	 * @param model the model for the file
+	 */
+	public LargeTextFileViewer(final String id, final IModel<File> model) {
+		super(id, model);
+		setOutputMarkupId(true);
+		add(new WindowBehavior());
+	}
+
+	/**
+	 * Getter method for the file.
+	 * @return the file
+	 */
+	public File getFile() {
+		return (File)getDefaultModelObject();
+	}
+
+	/**
+	 * Getter method for the indexBytesPerRequest.
+	 * @return the indexBytesPerRequest
+	 */
+	public long getIndexBytesPerRequest() {
+		return indexBytesPerRequest;
+	}
+
+	/**
+	 * Setter method for the indexBytesPerRequest.
+	 * @param indexBytesPerRequest the indexBytesPerRequest to set
+	 * @return this
+	 */
+	public LargeTextFileViewer setIndexBytesPerRequest(final long indexBytesPerRequest) {
+		this.indexBytesPerRequest = indexBytesPerRequest;
+		return this;
+	}
+
+	/**
+	 * Getter method for the windowSize.
+	 * @return the windowSize
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Setter method for the windowSize. This is the number of lines fetched per request.
+	 * @param windowSize the windowSize to set
+	 * @return this
+	 */
+	public LargeTextFileViewer setWindowSize(final int windowSize) {
+		this.windowSize = Math.max(1, Math.min(windowSize, MAX_WINDOW_SIZE));
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.Component#onComponentTag(org.apache.wicket.markup.ComponentTag)
+	 */
+	@Override
+	protected void onComponentTag(final ComponentTag tag) {
+		super.onComponentTag(tag);
+		tag.append("class", "large-text-file-viewer cm-s-default", " ");
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.Component#renderHead(org.apache.wicket.markup.head.IHeaderResponse)
+	 */
+	@Override
+	public void renderHead(final IHeaderResponse response) {
+		super.renderHead(response);
+		response.render(CssHeaderItem.forReference(new CssResourceReference(CodeMirrorBehavior.class, "codemirror.css")));
+		WicketHeadUtil.includeClassStylesheet(response, LargeTextFileViewer.class);
+		WicketHeadUtil.includeClassJavascript(response, LargeTextFileViewer.class);
+	}
+
+	/**
+	 * Reads a window of lines and builds the data that is sent to the browser.
+	 */
+	private Map<String, Object> buildWindow(final long from, final int count) {
+		final Map<String, Object> data = new HashMap<>();
+		List<String> lines = Collections.emptyList();
+		long lineCount = 0;
+		boolean complete = true;
+		try {
+			final LargeTextFile file = LargeTextFile.get(getFile());
+			synchronized (file) {
+				file.refresh();
+				file.index(indexBytesPerRequest);
+				lines = file.readLines(from, count);
+				lineCount = file.getIndexedLineCount();
+				complete = file.isCompletelyIndexed();
+			}
+		} catch (final IOException e) {
+			logger.error("could not read file " + getFile(), e);
+			data.put("error", "The file could not be read.");
+		}
+		data.put("from", from);
+		data.put("lines", lines);
+		data.put("lineCount", lineCount);
+		data.put("complete", complete);
+		return data;
+	}
+
+	/**
+	 * Sends windows of lines to the browser.
+	 */
+	private final class WindowBehavior extends AbstractDefaultAjaxBehavior {
+
+		/* (non-Javadoc)
+		 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#renderHead(org.apache.wicket.Component, org.apache.wicket.markup.head.IHeaderResponse)
+		 */
+		@Override
+		public void renderHead(final Component component, final IHeaderResponse response) {
+			super.renderHead(component, response);
+			final StringBuilder builder = new StringBuilder();
+			builder.append("initializeLargeTextFileViewer('").append(component.getMarkupId()).append("', {windowSize: ").append(windowSize).append("}, ");
+			builder.append(getCallbackFunction(CallbackParameter.explicit("from"), CallbackParameter.explicit("count")));
+			builder.append(");");
+			response.render(OnDomReadyHeaderItem.forScript(builder.toString()));
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#updateAjaxAttributes(org.apache.wicket.ajax.attributes.AjaxRequestAttributes)
+		 */
+		@Override
+		protected void updateAjaxAttributes(final AjaxRequestAttributes attributes) {
+			super.updateAjaxAttributes(attributes);
+			attributes.getAjaxCallListeners().add(new AjaxCallListener().onComplete("largeTextFileViewerRequestComplete(attrs.c);"));
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#respond(org.apache.wicket.ajax.AjaxRequestTarget)
+		 */
+		@Override
+		protected void respond(final AjaxRequestTarget target) {
+			final IRequestParameters parameters = RequestCycle.get().getRequest().getRequestParameters();
+			final long from = Math.max(0, parameters.getParameterValue("from").toLong(0));
+			final int count = Math.max(0, Math.min(parameters.getParameterValue("count").toInt(0), MAX_WINDOW_SIZE));
+			final String json = new Gson().toJson(buildWindow(from, count));
+			target.appendJavaScript("largeTextFileViewerWindow('" + getComponent().getMarkupId() + "', " + json + ");");
+		}
+
+	}
+
+}
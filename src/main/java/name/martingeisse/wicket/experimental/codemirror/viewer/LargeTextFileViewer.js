@@ -0,0 +1,121 @@
+
+// Large text file viewers, by markup id. Each viewer shows a window of lines from a file that is
+// too large to be sent to the browser. The scrollable area has the height of the whole file
+// (scaled down for very large files, since browsers limit the height of elements), and the
+// visible lines are fetched through the callback while scrolling.
+largeTextFileViewers = {};
+
+initializeLargeTextFileViewer = function(id, options, callback) {
+	var MAX_HEIGHT = 4000000;
+	var container = $('#' + id);
+	container.empty();
+	var spacer = $('<div class="large-text-file-viewer-spacer"></div>').appendTo(container);
+	var content = $('<div class="large-text-file-viewer-content"></div>').appendTo(container);
+	var message = $('<div class="large-text-file-viewer-message"></div>').appendTo(container).hide();
+	var lineHeight = 0;
+	var lineCount = 0, complete = false;
+	var windowFrom = 0, windowLines = [];
+	var requestInFlight = false, renderScheduled = false;
+
+	function escapeHtml(text) {
+		return text.replace(/&/g, '&amp;').replace(/</g, '&lt;').replace(/>/g, '&gt;');
+	}
+
+	// determines the first visible line and the position of the content element
+	function computeView() {
+		if (lineHeight == 0) {
+			content.html('<div class="large-text-file-viewer-line">&nbsp;</div>');
+			lineHeight = content.children().first().outerHeight() || 16;
+		}
+		var clientHeight = container[0].clientHeight;
+		var scrollTop = container[0].scrollTop;
+		var visibleLines = Math.ceil(clientHeight / lineHeight) + 1;
+		var fullHeight = lineCount * lineHeight;
+		var first, top;
+		if (fullHeight <= MAX_HEIGHT) {
+			first = Math.floor(scrollTop / lineHeight);
+			top = first * lineHeight;
+		} else {
+			var maxScrollTop = Math.max(1, MAX_HEIGHT - clientHeight);
+			first = Math.round(Math.min(1, scrollTop / maxScrollTop) * Math.max(0, lineCount - visibleLines + 1));
+			top = scrollTop;
+		}
+		return {first: first, count: Math.max(0, Math.min(visibleLines, lineCount - first)), top: top};
+	}
+
+	function render() {
+		renderScheduled = false;
+		spacer.css('height', Math.min(lineCount * lineHeight, MAX_HEIGHT) + 'px');
+		var view = computeView();
+		var digits = String(lineCount).length;
+		var html = [];
+		for (var i = view.first; i < view.first + view.count; i++) {
+			var text = windowLines[i - windowFrom];
+			html.push('<div class="large-text-file-viewer-line"><span class="CodeMirror-linenumber" style="min-width: ', digits, 'ch">', i + 1, '</span>');
+			html.push(text === undefined ? '' : escapeHtml(text), '</div>');
+		}
+		content.css('top', view.top + 'px').html(html.join(''));
+		requestIfNeeded(view);
+	}
+
+	function scheduleRender() {
+		if (!renderScheduled) {
+			renderScheduled = true;
+			(window.requestAnimationFrame || setTimeout)(render);
+		}
+	}
+
+	// fetches the lines around the view if they are missing, or continues indexing
+	function requestIfNeeded(view) {
+		if (requestInFlight) {
+			return;
+		}
+		var covered = (windowLines.length > 0 || complete) && view.first >= windowFrom && view.first + view.count <= windowFrom + windowLines.length;
+		if (covered && complete) {
+			return;
+		}
+		requestInFlight = true;
+		if (covered) {
+			setTimeout(function() {
+				callback(view.first, 0);
+			}, 100);
+		} else {
+			callback(Math.max(0, view.first - Math.floor((options.windowSize - view.count) / 2)), options.windowSize);
+		}
+	}
+
+	largeTextFileViewers[id] = {
+		receive: function(data) {
+			lineCount = data.lineCount;
+			complete = data.complete;
+			if (data.lines.length > 0) {
+				windowFrom = data.from;
+				windowLines = data.lines;
+			}
+			if (data.error) {
+				message.text(data.error).show();
+				complete = true;
+			}
+		},
+		requestComplete: function() {
+			requestInFlight = false;
+			scheduleRender();
+		}
+	};
+	container.on('scroll', scheduleRender);
+	render();
+};
+
+largeTextFileViewerWindow = function(id, data) {
+	var viewer = largeTextFileViewers[id];
+	if (viewer) {
+		viewer.receive(data);
+	}
+};
+
+largeTextFileViewerRequestComplete = function(id) {
+	var viewer = largeTextFileViewers[id];
+	if (viewer) {
+		viewer.requestComplete();
+	}
+};
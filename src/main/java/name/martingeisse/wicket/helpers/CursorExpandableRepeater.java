@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2010 Martin Geisse
+ *
+ * This file is distributed under the terms of the MIT license.
+ */
+
+package name.martingeisse.wicket.helpers;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.wicket.model.IModel;
+
+/**
+ * {@link ExpandableRepeater} that loads its batches with a cursor. Each batch
+ * returns an opaque continuation token, such as the key of its last element,
+ * that is passed back when loading the next batch. This allows keyset
+ * pagination instead of skipping over all previous batches, and after a
+ * cache miss, only the missing batches are loaded.
+ * 
+ * Subclasses implement {@link #loadBatch(int, Serializable)} instead of
+ * {@link #loadBatches(int)} and {@link #loadBatch(int)}.
+ * 
+ * @param <T> the model type
+ * @param <E> the element type
+ */
+public abstract class CursorExpandableRepeater<T, E> extends ExpandableRepeater<T, E> {
+
+	/**
+	 * Constructor.
+	 * @param id the wicket id
+	 * @param model the model
+	 */
+	public CursorExpandableRepeater(final String id, final IModel<T> model) {
+		super(id, model);
+	}
+
+	/**
+	 * Constructor.
+	 * @param id the wicket id
+	 */
+	public CursorExpandableRepeater(final String id) {
+		super(id);
+	}
+
+	/**
+	 * Loads a single batch using a cursor. The continuation token is the one returned with
+	 * the previous batch; it is null for the first batch, and also if the previous batch
+	 * is not known anymore, in which case the batch must be found by its index.
+	 * 
+	 * @param batchIndex the index of the batch to load
+	 * @param continuationToken the continuation token of the previous batch, or null
+	 * @return the batch
+	 */
+	@Override
+	protected abstract Batch<E> loadBatch(int batchIndex, Serializable continuationToken);
+
+	/**
+	 * This implementation loads the batches one after another, each with the continuation
+	 * token of the previous one. It is not used by the repeater itself.
+	 */
+	@Override
+	protected final List<E> loadBatches(final int batchCount) {
+		final List<E> result = new ArrayList<>();
+		Serializable continuationToken = null;
+		for (int i = 0; i < batchCount; i++) {
+			final Batch<E> batch = loadBatch(i, continuationToken);
+			result.addAll(batch.getElements());
+			continuationToken = batch.getContinuationToken();
+		}
+		return result;
+	}
+
+	/**
+	 * This implementation loads the batch without a continuation token. It is not
+	 * used by the repeater itself.
+	 */
+	@Override
+	protected final List<E> loadBatch(final int batchIndex) {
+		return loadBatch(batchIndex, null).getElements();
+	}
+
+	/* (non-Javadoc)
+	 * @see name.martingeisse.wicket.helpers.ExpandableRepeater#isLoadingMissingBatchesOnly()
+	 */
+	@Override
+	final boolean isLoadingMissingBatchesOnly() {
+		return true;
+	}
+
+}
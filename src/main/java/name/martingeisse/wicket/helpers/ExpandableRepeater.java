@@ -6,15 +6,24 @@
 
 package name.martingeisse.wicket.helpers;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import org.apache.wicket.Application;
 import org.apache.wicket.Component;
+import org.apache.wicket.Session;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.markup.ComponentTag;
+import org.apache.wicket.markup.MarkupStream;
+import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.list.AbstractItem;
 import org.apache.wicket.markup.repeater.AbstractRepeater;
 import org.apache.wicket.model.IModel;
-import org.apache.wicket.model.PropertyModel;
 import name.martingeisse.wicket.internal.JsUtil;
 
 /**
@@ -42,6 +51,46 @@ import name.martingeisse.wicket.internal.JsUtil;
  * be empty, use {@link #notifyAboutPrototypeItem(String, String)}
  * to tell the repeater how newly rendered items should be handled.
  * 
+ * With {@link #setBatchCaching(boolean)}, batches that have been loaded are kept in
+ * the {@link ExpandableRepeaterBatchCache}, so a full render reuses them instead of
+ * loading all visible batches again. Cached batches belong to a single page instance
+ * and are shown as they were loaded until {@link #invalidateBatches()} is called or
+ * the cache evicts them, which by default happens after they have not been used for
+ * 10 minutes. Only enable caching if showing data that old is acceptable, or if all
+ * changes to the underlying data call {@link #invalidateBatches()}. Caching is off
+ * by default, so each full render loads the visible batches again. To load batches
+ * with a cursor instead of by their index, extend {@link CursorExpandableRepeater}.
+ * 
+ * Item models do not hold their element. They store the batch index, the position
+ * within the batch and optionally a key (see {@link #getItemKey(Object)}), and when
+ * used after being detached, they load the whole batch at once, so the elements are
+ * not serialized into the page store.
+ * 
+ * By default, a full render rebuilds all items. With {@link #setReuseItems(boolean)},
+ * items whose models are equal to the new ones are kept, and only new items are built
+ * and populated. Items that are still in the same place are left where they are, and
+ * only the children after the first change are removed and added again. Two item
+ * models are equal if their elements have equal keys, or if the repeater does not
+ * define keys, if they have the same position. The model of
+ * a reused item is moved to the current position of its element, which may be in
+ * another batch. Reused items are not populated again, so their components should
+ * take the element from the item model instead of copying values from it in
+ * {@link #populateItem(Item)}.
+ * 
+ * Subclasses can implement {@link #newBatchPrefetcher(int, Serializable)} to load the
+ * batch after the visible ones on a background thread, so it is already in the cache
+ * when the list gets expanded. Prefetching requires batch caching. This is most useful together with an
+ * {@link ExpandableRepeaterInfiniteScrollBehavior}.
+ * 
+ * In windowed mode (see {@link #setWindowSize(int)}), only the items of a limited
+ * number of batches are kept as components and in the browser. When the list is
+ * expanded beyond that, the batches farthest away are evicted: their items are
+ * replaced by a single empty placeholder element with the height the items had.
+ * When a placeholder scrolls into view, its batch is loaded and rendered again,
+ * and other batches get evicted instead. Placeholders use the element type of
+ * the items and the CSS class "expandable-repeater-placeholder"; element types
+ * that ignore a CSS height, such as table rows without cells, need extra CSS.
+ * 
  * @param <T> the model type
  * @param <E> the element type
  */
@@ -57,6 +106,56 @@ public abstract class ExpandableRepeater<T, E> extends AbstractRepeater {
 	 */
 	private transient List<E> currentList;
 
+	/**
+	 * the start index of each batch within the currentList, or null if the batches are unknown
+	 */
+	private transient int[] currentBatchStarts;
+
+	/**
+	 * the batches loaded in the current request to resolve item models, by batch index
+	 */
+	private transient List<Batch<E>> resolvedBatches;
+
+	/**
+	 * the size and continuation token of each batch loaded so far, by batch index
+	 */
+	private final ArrayList<BatchInfo> batchInfos = new ArrayList<>();
+
+	/**
+	 * distinguishes cached batches of this repeater from those of earlier data
+	 */
+	private long cacheGeneration = System.nanoTime();
+
+	/**
+	 * the batchCaching
+	 */
+	private boolean batchCaching;
+
+	/**
+	 * the reuseItems
+	 */
+	private boolean reuseItems;
+
+	/**
+	 * the number used for the ID of the next item
+	 */
+	private long nextItemId;
+
+	/**
+	 * the maximum number of batches whose items are kept, or 0 to keep all items
+	 */
+	private int windowSize;
+
+	/**
+	 * the batches whose items have been replaced by a placeholder
+	 */
+	private final BitSet evictedBatches = new BitSet();
+
+	/**
+	 * the estimatedItemHeight
+	 */
+	private int estimatedItemHeight = 40;
+
 	/**
 	 * the validElementType
 	 */
@@ -111,6 +210,15 @@ public abstract class ExpandableRepeater<T, E> extends AbstractRepeater {
 		setDefaultModel(model);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.Component#onModelChanged()
+	 */
+	@Override
+	protected void onModelChanged() {
+		super.onModelChanged();
+		invalidateBatches();
+	}
+
 	/**
 	 * Getter method for the batchCount.
 	 * @return the batchCount
@@ -125,16 +233,110 @@ public abstract class ExpandableRepeater<T, E> extends AbstractRepeater {
 	 */
 	public final void setBatchCount(final int batchCount) {
 		this.batchCount = batchCount;
+		while (batchInfos.size() > batchCount) {
+			batchInfos.remove(batchInfos.size() - 1);
+		}
+		evictedBatches.clear(batchCount, Math.max(batchCount, evictedBatches.length()));
+	}
+
+	/**
+	 * Getter method for the windowSize.
+	 * @return the maximum number of batches whose items are kept, or 0 if windowed mode is off
+	 */
+	public final int getWindowSize() {
+		return windowSize;
 	}
 
 	/**
+	 * Setter method for the windowSize. Windowed mode needs AJAX and a browser that
+	 * supports IntersectionObserver.
 	 * 
+	 * @param windowSize the maximum number of batches whose items are kept (at least 3),
+	 * or 0 to turn windowed mode off
 	 */
-	private static String internalGetItemId(final int major, final int minor) {
-		if (major < 0 || major >= 1000000 || minor < 0 || minor >= 1000000) {
-			throw new IllegalArgumentException("getDefaultId() invalid arguments: " + major + ", " + minor);
+	public final void setWindowSize(final int windowSize) {
+		if (windowSize != 0 && windowSize < 3) {
+			throw new IllegalArgumentException("window size must be 0 or at least 3: " + windowSize);
+		}
+		this.windowSize = windowSize;
+		final List<ExpandableRepeaterWindowBehavior> behaviors = getBehaviors(ExpandableRepeaterWindowBehavior.class);
+		if (windowSize == 0) {
+			evictedBatches.clear();
+			for (final ExpandableRepeaterWindowBehavior behavior : behaviors) {
+				remove(behavior);
+			}
+		} else if (behaviors.isEmpty()) {
+			add(new ExpandableRepeaterWindowBehavior());
 		}
-		return String.format("%06d", major) + String.format("%06d", minor);
+	}
+
+	/**
+	 * Getter method for the estimatedItemHeight.
+	 * @return the estimatedItemHeight
+	 */
+	public final int getEstimatedItemHeight() {
+		return estimatedItemHeight;
+	}
+
+	/**
+	 * Setter method for the estimatedItemHeight.
+	 * @param estimatedItemHeight the item height in pixels used for placeholders in windowed mode
+	 * until the browser has reported the actual height of some items
+	 */
+	public final void setEstimatedItemHeight(final int estimatedItemHeight) {
+		this.estimatedItemHeight = estimatedItemHeight;
+	}
+
+	/**
+	 * Getter method for the batchCaching.
+	 * @return the batchCaching
+	 */
+	public final boolean isBatchCaching() {
+		return batchCaching;
+	}
+
+	/**
+	 * Setter method for the batchCaching.
+	 * @param batchCaching whether loaded batches are kept in the {@link ExpandableRepeaterBatchCache}
+	 * and reused by full renders, possibly showing outdated data (see the class comment)
+	 */
+	public final void setBatchCaching(final boolean batchCaching) {
+		this.batchCaching = batchCaching;
+	}
+
+	/**
+	 * Getter method for the reuseItems.
+	 * @return the reuseItems
+	 */
+	public final boolean isReuseItems() {
+		return reuseItems;
+	}
+
+	/**
+	 * Setter method for the reuseItems.
+	 * @param reuseItems whether full renders should keep existing items whose models are equal to the new ones
+	 */
+	public final void setReuseItems(final boolean reuseItems) {
+		this.reuseItems = reuseItems;
+	}
+
+	/**
+	 * Discards the cached batches and continuation tokens, so all batches are
+	 * loaded again with the next render. Call this method when the underlying
+	 * data has changed.
+	 */
+	public final void invalidateBatches() {
+		cacheGeneration++;
+		batchInfos.clear();
+		evictedBatches.clear();
+	}
+
+	/**
+	 * Returns a new item ID. IDs are never used twice, so they don't collide with
+	 * the IDs of kept items, and it is not necessary to look at the children.
+	 */
+	private String newItemId() {
+		return Long.toString(nextItemId++);
 	}
 
 	/**
@@ -148,19 +350,21 @@ public abstract class ExpandableRepeater<T, E> extends AbstractRepeater {
 		// In non-AJAX calls, that's it. In AJAX calls, we'll have to render an on-the-fly update.
 		final AjaxRequestTarget target = AjaxRequestUtil.getAjaxRequestTarget();
 		if (target == null) {
+			evictDistantBatches(batchCount - 1, null);
 			return;
 		}
 
 		// build items
 		final int batchIndex = batchCount - 1;
-		final List<E> batch = loadBatch(batchIndex);
+		final List<E> batch = getBatch(batchIndex).getElements();
+		prefetchNextBatch();
 		final int expansionSize = batch.size();
 		final StringBuilder stringBuilder = new StringBuilder();
 		stringBuilder.append("var newItemMarkupIds = [");
 		boolean first = true;
 		for (int localIndex = 0; localIndex < expansionSize; localIndex++) {
-			final IModel<E> listItemModel = new PropertyModel<E>(batch, Integer.toString(localIndex));
-			final Item<E> listItem = newItem(internalGetItemId(batchIndex, localIndex), listItemModel);
+			final IModel<E> listItemModel = new ElementModel(batchIndex, localIndex, batch.get(localIndex));
+			final Item<E> listItem = newItem(newItemId(), listItemModel);
 			add(listItem);
 			populateItem(listItem);
 			if (first) {
@@ -181,7 +385,135 @@ public abstract class ExpandableRepeater<T, E> extends AbstractRepeater {
 		stringBuilder.append("  $parent.append(item);");
 		stringBuilder.append("}\n");
 		target.prependJavaScript(stringBuilder);
+		evictDistantBatches(batchIndex, target);
+
+	}
+
+	/**
+	 * Stores the height of a batch as measured by the browser, for use by placeholders.
+	 * 
+	 * @param batchIndex the batch index
+	 * @param height the height in pixels
+	 */
+	final void setBatchHeight(final int batchIndex, final int height) {
+		if (batchIndex >= 0 && batchIndex < batchInfos.size() && batchInfos.get(batchIndex) != null) {
+			batchInfos.get(batchIndex).height = height;
+		}
+	}
+
+	/**
+	 * Returns the height of the placeholder for a batch, in pixels.
+	 */
+	private int getPlaceholderHeight(final int batchIndex) {
+		final int batchSize = Math.max(0, getLoadedBatchSize(batchIndex));
+		final BatchInfo info = (batchIndex < batchInfos.size() ? batchInfos.get(batchIndex) : null);
+		if (info != null && info.height >= 0) {
+			return info.height;
+		}
+		int measuredHeight = 0, measuredItemCount = 0;
+		for (final BatchInfo otherInfo : batchInfos) {
+			if (otherInfo != null && otherInfo.height >= 0) {
+				measuredHeight += otherInfo.height;
+				measuredItemCount += otherInfo.size;
+			}
+		}
+		return (measuredItemCount == 0 ? estimatedItemHeight * batchSize : (int)((long)measuredHeight * batchSize / measuredItemCount));
+	}
+
+	/**
+	 * Returns the markup ID of the placeholder for the specified batch.
+	 */
+	private String getPlaceholderMarkupId(final int batchIndex) {
+		return getMarkupId() + "-placeholder-" + batchIndex;
+	}
+
+	/**
+	 * Renders the items of an evicted batch again, replacing its placeholder, and evicts other batches
+	 * if necessary. Does nothing if the batch is not evicted.
+	 * 
+	 * @param batchIndex the batch index
+	 * @param target the AJAX request target
+	 */
+	final void restoreBatch(final int batchIndex, final AjaxRequestTarget target) {
+		if (!evictedBatches.get(batchIndex) || batchIndex >= batchCount) {
+			return;
+		}
+		evictedBatches.clear(batchIndex);
+		final List<E> batch = getBatch(batchIndex).getElements();
+		final StringBuilder builder = new StringBuilder();
+		builder.append("expandableRepeaterWindowRestore('").append(getMarkupId()).append("', ").append(batchIndex).append(", [");
+		for (int localIndex = 0; localIndex < batch.size(); localIndex++) {
+			final Item<E> item = newItem(newItemId(), new ElementModel(batchIndex, localIndex, batch.get(localIndex)));
+			add(item);
+			populateItem(item);
+			if (localIndex > 0) {
+				builder.append(',');
+			}
+			builder.append(JsUtil.toStringLiteralCharSequence(item.getMarkupId()));
+			target.add(item);
+			if (getPlaceholderMarkupId(batchIndex).equals(initialItemMarkupId)) {
+				initialItemMarkupId = item.getMarkupId();
+			}
+		}
+		builder.append("]);");
+		target.prependJavaScript(builder);
+		evictDistantBatches(batchIndex, target);
+	}
+
+	/**
+	 * In windowed mode, evicts the batches farthest from the specified one until at most
+	 * windowSize batches are left. For AJAX requests, their items are removed and replaced
+	 * by placeholders on the client.
+	 */
+	private void evictDistantBatches(final int centerBatchIndex, final AjaxRequestTarget target) {
+		if (windowSize == 0) {
+			return;
+		}
+		int keptBatchCount = batchCount - evictedBatches.cardinality();
+		while (keptBatchCount > windowSize) {
+			int farthestBatchIndex = -1;
+			for (int i = 0; i < batchCount; i++) {
+				if (!evictedBatches.get(i) && (farthestBatchIndex < 0 || Math.abs(i - centerBatchIndex) > Math.abs(farthestBatchIndex - centerBatchIndex))) {
+					farthestBatchIndex = i;
+				}
+			}
+			evictedBatches.set(farthestBatchIndex);
+			keptBatchCount--;
+			if (target != null) {
+				evictBatchItems(farthestBatchIndex, target);
+			}
+		}
+	}
 
+	/**
+	 * Removes the items of an evicted batch and tells the client to replace them by a placeholder.
+	 */
+	private void evictBatchItems(final int batchIndex, final AjaxRequestTarget target) {
+		final List<Component> items = new ArrayList<>();
+		for (final Component child : this) {
+			if (child instanceof Item && ((Item<?>)child).getModel() instanceof ExpandableRepeater.ElementModel) {
+				if (((ExpandableRepeater<?, ?>.ElementModel)((Item<?>)child).getModel()).batchIndex == batchIndex) {
+					items.add(child);
+				}
+			}
+		}
+		final StringBuilder builder = new StringBuilder();
+		builder.append("expandableRepeaterWindowEvict('").append(getMarkupId()).append("', ").append(batchIndex).append(", [");
+		boolean first = true;
+		for (final Component item : items) {
+			if (first) {
+				first = false;
+			} else {
+				builder.append(',');
+			}
+			builder.append(JsUtil.toStringLiteralCharSequence(item.getMarkupId()));
+			if (item.getMarkupId().equals(initialItemMarkupId)) {
+				initialItemMarkupId = getPlaceholderMarkupId(batchIndex);
+			}
+			remove(item);
+		}
+		builder.append("]);");
+		target.prependJavaScript(builder);
 	}
 
 	/* (non-Javadoc)
@@ -197,25 +529,481 @@ public abstract class ExpandableRepeater<T, E> extends AbstractRepeater {
 	 */
 	@Override
 	protected void onBeforeRender() {
-		this.currentList = loadBatches(batchCount);
+		if (windowSize == 0) {
+			this.currentList = getAllBatches();
+			this.currentBatchStarts = getBatchStarts(currentList.size());
+		}
+		prefetchNextBatch();
 		super.onBeforeRender();
 	}
 
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.Component#onDetach()
+	 */
+	@Override
+	protected void onDetach() {
+		currentList = null;
+		currentBatchStarts = null;
+		resolvedBatches = null;
+		super.onDetach();
+	}
+
+	/**
+	 * Returns the start index of each batch within the list of all visible elements, followed by
+	 * the total size, or null if the batch sizes are not known or do not match the total size.
+	 */
+	private int[] getBatchStarts(final int totalSize) {
+		if (batchInfos.size() < batchCount) {
+			return null;
+		}
+		final int[] starts = new int[batchCount + 1];
+		for (int i = 0; i < batchCount; i++) {
+			final BatchInfo info = batchInfos.get(i);
+			if (info == null) {
+				return null;
+			}
+			starts[i + 1] = starts[i] + info.size;
+		}
+		return (starts[batchCount] == totalSize ? starts : null);
+	}
+
+	/**
+	 * Returns the elements of all visible batches, from the cache where possible.
+	 */
+	private List<E> getAllBatches() {
+
+		// use the cached batches, and find the first missing one
+		final List<E> result = new ArrayList<>();
+		int batchIndex = 0;
+		while (batchIndex < batchCount) {
+			final Batch<E> batch = getCachedBatch(batchIndex);
+			if (batch == null) {
+				break;
+			}
+			result.addAll(batch.getElements());
+			batchIndex++;
+		}
+		if (batchIndex == batchCount) {
+			return result;
+		}
+
+		// subclasses that support cursors load only the missing batches
+		if (isLoadingMissingBatchesOnly()) {
+			for (; batchIndex < batchCount; batchIndex++) {
+				result.addAll(getBatch(batchIndex).getElements());
+			}
+			return result;
+		}
+
+		// other subclasses load all batches at once; the result can be split into batches if the sizes of all but the last one are known
+		final List<E> allElements = loadBatches(batchCount);
+		int total = 0;
+		for (int i = 0; i < batchCount - 1 && total >= 0; i++) {
+			total = (i < batchInfos.size() && batchInfos.get(i) != null ? total + batchInfos.get(i).size : -1);
+		}
+		final BatchInfo lastInfo = (batchCount <= batchInfos.size() ? batchInfos.get(batchCount - 1) : null);
+		if (total >= 0 && (lastInfo == null ? total <= allElements.size() : total + lastInfo.size == allElements.size())) {
+			int start = 0;
+			for (int i = 0; i < batchCount; i++) {
+				final int end = (i == batchCount - 1 ? allElements.size() : start + batchInfos.get(i).size);
+				rememberBatch(i, new Batch<E>(new ArrayList<>(allElements.subList(start, end)), null));
+				start = end;
+			}
+		}
+		return allElements;
+
+	}
+
+	/**
+	 * Returns a single batch, from the cache if possible.
+	 */
+	private Batch<E> getBatch(final int batchIndex) {
+		Batch<E> batch = getCachedBatch(batchIndex);
+		if (batch == null) {
+			batch = loadBatch(batchIndex, getContinuationToken(batchIndex - 1));
+			rememberBatch(batchIndex, batch);
+		}
+		return batch;
+	}
+
+	/**
+	 * Returns the continuation token returned with the specified batch, or null if unknown or if the index is -1.
+	 */
+	private Serializable getContinuationToken(final int batchIndex) {
+		final BatchInfo info = (batchIndex >= 0 && batchIndex < batchInfos.size() ? batchInfos.get(batchIndex) : null);
+		return (info == null ? null : info.continuationToken);
+	}
+
+	/**
+	 * Stores the size and continuation token of a loaded batch, and caches the batch.
+	 */
+	private void rememberBatch(final int batchIndex, final Batch<E> batch) {
+		rememberBatchInfo(batchIndex, batch);
+		final String key = getBatchCacheKey(batchIndex);
+		if (key != null) {
+			ExpandableRepeaterBatchCache.get(Application.get()).put(key, batch);
+		}
+	}
+
+	/**
+	 * Stores the size and continuation token of a loaded batch.
+	 */
+	private void rememberBatchInfo(final int batchIndex, final Batch<E> batch) {
+		while (batchInfos.size() <= batchIndex) {
+			batchInfos.add(null);
+		}
+		final BatchInfo previousInfo = batchInfos.get(batchIndex);
+		final BatchInfo info = new BatchInfo(batch.getElements().size(), batch.getContinuationToken());
+		if (previousInfo != null && previousInfo.size == info.size) {
+			info.height = previousInfo.height;
+		}
+		batchInfos.set(batchIndex, info);
+	}
+
+	/**
+	 * Returns a batch from the cache, or null if it is not cached. Batches that were prefetched
+	 * are only known to the cache, so their size and continuation token are stored here.
+	 */
+	@SuppressWarnings("unchecked")
+	private Batch<E> getCachedBatch(final int batchIndex) {
+		final String key = getBatchCacheKey(batchIndex);
+		if (key == null) {
+			return null;
+		}
+		final Batch<E> batch = (Batch<E>)ExpandableRepeaterBatchCache.get(Application.get()).get(key);
+		if (batch != null && (batchIndex >= batchInfos.size() || batchInfos.get(batchIndex) == null)) {
+			rememberBatchInfo(batchIndex, batch);
+		}
+		return batch;
+	}
+
+	/**
+	 * Starts prefetching the batch after the visible ones, if the subclass supports it
+	 * and the last visible batch was not empty.
+	 */
+	private void prefetchNextBatch() {
+		final String key = getBatchCacheKey(batchCount);
+		if (key == null || getLoadedBatchSize(batchCount - 1) == 0) {
+			return;
+		}
+		final Callable<Batch<E>> prefetcher = newBatchPrefetcher(batchCount, getContinuationToken(batchCount - 1));
+		if (prefetcher != null) {
+			ExpandableRepeaterBatchCache.get(Application.get()).prefetch(key, prefetcher);
+		}
+	}
+
+	/**
+	 * Returns the number of elements in the specified batch.
+	 * 
+	 * @param batchIndex the batch index
+	 * @return the number of elements, or -1 if unknown
+	 */
+	final int getLoadedBatchSize(final int batchIndex) {
+		final BatchInfo info = (batchIndex >= 0 && batchIndex < batchInfos.size() ? batchInfos.get(batchIndex) : null);
+		return (info == null ? -1 : info.size);
+	}
+
+	/**
+	 * Returns the key of a batch of this repeater in the batch cache, or null if batches are not cached
+	 * because caching is disabled or the session is temporary.
+	 */
+	private String getBatchCacheKey(final int batchIndex) {
+		if (!batchCaching) {
+			return null;
+		}
+		final Session session = Session.get();
+		if (session.isTemporary()) {
+			return null;
+		}
+		return session.getId() + ':' + getPage().getPageId() + ':' + getPageRelativePath() + ':' + cacheGeneration + ':' + batchIndex;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.apache.wicket.markup.repeater.AbstractRepeater#onPopulate()
 	 */
 	@Override
 	protected final void onPopulate() {
-		removeAll();
-		final int size = currentList.size();
-		for (int index = 0; index < size; index++) {
-			final IModel<E> model = new PropertyModel<E>(currentList, Integer.toString(index));
-			final Item<E> item = newItem(internalGetItemId(0, index), model);
+
+		// determine the batch index and position of each element; in windowed mode, evicted batches
+		// get a placeholder instead, represented by a null element at position -1
+		final List<E> elements;
+		final int[] batchIndices;
+		final int[] positions;
+		if (windowSize == 0) {
+			elements = currentList;
+			batchIndices = new int[elements.size()];
+			positions = new int[elements.size()];
+			int batchIndex = 0;
+			for (int index = 0; index < elements.size(); index++) {
+				if (currentBatchStarts == null) {
+					batchIndices[index] = -1;
+					positions[index] = index;
+				} else {
+					while (index >= currentBatchStarts[batchIndex + 1]) {
+						batchIndex++;
+					}
+					batchIndices[index] = batchIndex;
+					positions[index] = index - currentBatchStarts[batchIndex];
+				}
+			}
+		} else {
+			final List<List<E>> batches = new ArrayList<>(batchCount);
+			int size = 0;
+			for (int batchIndex = 0; batchIndex < batchCount; batchIndex++) {
+				final List<E> batch = (evictedBatches.get(batchIndex) ? null : getResolvedBatch(batchIndex).getElements());
+				batches.add(batch);
+				size += (batch == null ? 1 : batch.size());
+			}
+			elements = new ArrayList<>(size);
+			batchIndices = new int[size];
+			positions = new int[size];
+			for (int batchIndex = 0; batchIndex < batchCount; batchIndex++) {
+				final List<E> batch = batches.get(batchIndex);
+				if (batch == null) {
+					batchIndices[elements.size()] = batchIndex;
+					positions[elements.size()] = -1;
+					elements.add(null);
+				} else {
+					for (int localIndex = 0; localIndex < batch.size(); localIndex++) {
+						batchIndices[elements.size()] = batchIndex;
+						positions[elements.size()] = localIndex;
+						elements.add(batch.get(localIndex));
+					}
+				}
+			}
+		}
+		final int size = elements.size();
+
+		// without reuse, build all items from scratch
+		if (!reuseItems) {
+			removeAll();
+			for (int index = 0; index < size; index++) {
+				addNewChild(batchIndices[index], positions[index], elements.get(index));
+			}
+			return;
+		}
+
+		// Wicket 7 iterates the children of a container that was not modified since it was detached
+		// in quadratic time, so the container is marked as modified before keeping all of its children
+		final Component modificationMarker = new WebMarkupContainer("modificationMarker");
+		add(modificationMarker);
+		remove(modificationMarker);
+
+		// keep the leading children that still match their element in place, only moving their models
+		final List<Component> children = new ArrayList<>(size());
+		for (final Component child : this) {
+			children.add(child);
+		}
+		int index = 0;
+		while (index < size && index < children.size() && keepChild(children.get(index), batchIndices[index], positions[index], elements.get(index))) {
+			index++;
+		}
+		if (index == size && index == children.size()) {
+			return;
+		}
+
+		// remove the other children, remembering their items by key or position to reuse them
+		final Map<Serializable, Item<E>> itemsByKey = new HashMap<>();
+		final Map<Long, Item<E>> itemsByPosition = new HashMap<>();
+		if (index == 0) {
+			removeAll();
+		}
+		for (int i = index; i < children.size(); i++) {
+			final Component child = children.get(i);
+			if (index > 0) {
+				remove(child);
+			}
+			final ElementModel model = getElementModel(child);
+			if (model != null) {
+				@SuppressWarnings("unchecked")
+				final Item<E> item = (Item<E>)child;
+				if (model.key != null) {
+					itemsByKey.put(model.key, item);
+				} else {
+					itemsByPosition.put(getPositionKey(model.batchIndex, model.position), item);
+				}
+			}
+		}
+
+		// add the remaining children, reusing the removed items whose elements are still visible
+		for (; index < size; index++) {
+			final E element = elements.get(index);
+			final Serializable key = (positions[index] < 0 ? null : getItemKey(element));
+			final Item<E> item;
+			if (positions[index] < 0) {
+				item = null;
+			} else if (key != null) {
+				item = itemsByKey.remove(key);
+			} else {
+				item = itemsByPosition.remove(getPositionKey(batchIndices[index], positions[index]));
+			}
+			if (item == null) {
+				addNewChild(batchIndices[index], positions[index], element);
+			} else {
+				// children of the item may share its model, so the model is moved instead of replaced
+				getElementModel(item).moveTo(batchIndices[index], positions[index], key, element);
+				add(item);
+			}
+		}
+
+	}
+
+	/**
+	 * Checks whether an existing child can be kept for the element with the specified batch
+	 * index and position (or for the placeholder of the batch if the position is -1), and
+	 * if it is an item, moves its model to that position.
+	 */
+	private boolean keepChild(final Component child, final int batchIndex, final int position, final E element) {
+		if (position < 0) {
+			if (!(child instanceof Placeholder)) {
+				return false;
+			}
+			final Placeholder placeholder = (Placeholder)child;
+			return (placeholder.batchIndex == batchIndex && placeholder.height == getPlaceholderHeight(batchIndex));
+		}
+		final ElementModel model = getElementModel(child);
+		if (model == null) {
+			return false;
+		}
+		final Serializable key = getItemKey(element);
+		if (!model.matches(batchIndex, position, key)) {
+			return false;
+		}
+		model.moveTo(batchIndex, position, key, element);
+		return true;
+	}
+
+	/**
+	 * Returns the element model of a child if the child is an item built by this repeater
+	 * with an unwrapped model, and null otherwise.
+	 */
+	private ElementModel getElementModel(final Component child) {
+		if (!(child instanceof Item)) {
+			return null;
+		}
+		final Object model = child.getDefaultModel();
+		if (!(model instanceof ExpandableRepeater.ElementModel)) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		final ElementModel elementModel = (ElementModel)model;
+		return (elementModel.getRepeater() == this ? elementModel : null);
+	}
+
+	/**
+	 * Combines a batch index and position to identify unkeyed items.
+	 */
+	private static Long getPositionKey(final int batchIndex, final int position) {
+		return (((long)batchIndex) << 32) | (position & 0xffffffffL);
+	}
+
+	/**
+	 * Builds and adds the item for the element with the specified batch index and position,
+	 * or the placeholder of the batch if the position is -1.
+	 */
+	private void addNewChild(final int batchIndex, final int position, final E element) {
+		if (position < 0) {
+			final Placeholder placeholder = new Placeholder("placeholder" + batchIndex, batchIndex, getPlaceholderHeight(batchIndex));
+			placeholder.setMarkupId(getPlaceholderMarkupId(batchIndex));
+			add(placeholder);
+		} else {
+			final Item<E> item = newItem(newItemId(), new ElementModel(batchIndex, position, element));
 			add(item);
 			populateItem(item);
 		}
 	}
 
+	/**
+	 * Returns a key that identifies the specified element. Item models store this key
+	 * instead of the element, and use it to find the element again after being detached,
+	 * even if it has moved within its batch. The default implementation returns null,
+	 * which makes item models find their element by its position alone. Keys should
+	 * be small, since they are stored in the page.
+	 * 
+	 * @param element the element
+	 * @return the key, or null to identify the element by its position
+	 */
+	protected Serializable getItemKey(final E element) {
+		return null;
+	}
+
+	/**
+	 * Returns a batch, loading it only once per request.
+	 */
+	private Batch<E> getResolvedBatch(final int batchIndex) {
+		if (resolvedBatches == null) {
+			resolvedBatches = new ArrayList<>();
+		}
+		while (resolvedBatches.size() <= batchIndex) {
+			resolvedBatches.add(null);
+		}
+		Batch<E> batch = resolvedBatches.get(batchIndex);
+		if (batch == null) {
+			batch = getBatch(batchIndex);
+			resolvedBatches.set(batchIndex, batch);
+		}
+		return batch;
+	}
+
+	/**
+	 * Finds the element of an item model, loading its batch if needed. The batch index
+	 * is -1 if the batches of the element are unknown, and the position is then relative
+	 * to the list of all visible elements.
+	 */
+	private E resolveElement(final int batchIndex, final int position, final Serializable key) {
+		final List<E> elements = getResolvedElements(batchIndex);
+		final int index = findElement(elements, position, key);
+		return (index < 0 ? null : elements.get(index));
+	}
+
+	/**
+	 * Replaces the element of an item model in its loaded batch. The batch index and
+	 * position have the same meaning as for {@link #resolveElement(int, int, Serializable)}.
+	 * 
+	 * @return true if replaced, false if the element was not found
+	 */
+	private boolean replaceElement(final int batchIndex, final int position, final Serializable key, final E element) {
+		final List<E> elements = getResolvedElements(batchIndex);
+		final int index = findElement(elements, position, key);
+		if (index < 0) {
+			return false;
+		}
+		elements.set(index, element);
+		return true;
+	}
+
+	/**
+	 * Returns the elements of a batch, or of all visible batches if the batch index is -1.
+	 */
+	private List<E> getResolvedElements(final int batchIndex) {
+		if (batchIndex < 0) {
+			if (currentList == null) {
+				currentList = getAllBatches();
+			}
+			return currentList;
+		} else {
+			return getResolvedBatch(batchIndex).getElements();
+		}
+	}
+
+	/**
+	 * Finds the index of an element by its position and optional key, or returns -1 if not found.
+	 */
+	private int findElement(final List<E> elements, final int position, final Serializable key) {
+		if (key == null) {
+			return (position < elements.size() ? position : -1);
+		}
+		if (position < elements.size() && key.equals(getItemKey(elements.get(position)))) {
+			return position;
+		}
+		for (int i = 0; i < elements.size(); i++) {
+			if (key.equals(getItemKey(elements.get(i)))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	/**
 	 * Creates a new item.
 	 * @param id the wicket id
@@ -240,6 +1028,27 @@ public abstract class ExpandableRepeater<T, E> extends AbstractRepeater {
 		return iterator();
 	}
 
+	/**
+	 * Creates an object that loads a batch on a background thread, so the batch is
+	 * cached before it is needed. This is called for the batch after the visible ones
+	 * whenever the repeater is rendered or expanded. The returned loader is called
+	 * with the application available, but without a session or request cycle, and
+	 * concurrently with the request that created it, so it must not use this component,
+	 * its models or the session. Take the information it needs, such as the ID of an
+	 * entity, the current user or the continuation token, from this method's arguments
+	 * and the current request instead.
+	 * 
+	 * This method is only called if batch caching is enabled (see {@link #setBatchCaching(boolean)}).
+	 * The default implementation returns null, which disables prefetching.
+	 * 
+	 * @param batchIndex the index of the batch to load
+	 * @param continuationToken the continuation token of the previous batch, or null if unknown
+	 * @return the loader, or null to not prefetch the batch
+	 */
+	protected Callable<Batch<E>> newBatchPrefetcher(final int batchIndex, final Serializable continuationToken) {
+		return null;
+	}
+
 	/**
 	 * Loads all visible batches.
 	 * 
@@ -256,6 +1065,27 @@ public abstract class ExpandableRepeater<T, E> extends AbstractRepeater {
 	 */
 	protected abstract List<E> loadBatch(int batchIndex);
 
+	/**
+	 * Loads a single batch together with the continuation token for the next one. This
+	 * implementation uses {@link #loadBatch(int)} and ignores continuation tokens;
+	 * {@link CursorExpandableRepeater} loads the batch with its cursor instead.
+	 * 
+	 * This method is NOT part of the public API.
+	 */
+	Batch<E> loadBatch(final int batchIndex, final Serializable continuationToken) {
+		return new Batch<E>(loadBatch(batchIndex), null);
+	}
+
+	/**
+	 * Determines whether a full render that misses batches in the cache loads only these
+	 * batches, one by one, instead of loading all visible batches with {@link #loadBatches(int)}.
+	 * 
+	 * This method is NOT part of the public API.
+	 */
+	boolean isLoadingMissingBatchesOnly() {
+		return false;
+	}
+
 	/**
 	 * @param validElementType an element type that is valid for items
 	 * @param initialItemMarkupId the markup ID of an initially rendered item
@@ -266,6 +1096,40 @@ public abstract class ExpandableRepeater<T, E> extends AbstractRepeater {
 		this.initialItemMarkupId = initialItemMarkupId;
 	}
 
+	/**
+	 * Returns the HTML element name of items, for use by client-side code.
+	 * 
+	 * @return the element name, or null if unknown
+	 */
+	final String getPrototypeElementType() {
+		final Component child = getFirstChild();
+		if (child != null) {
+			return ((ComponentTag)child.getMarkup().get(0)).getName();
+		}
+		return validElementType;
+	}
+
+	/**
+	 * Returns the markup ID of an item or item-like placeholder, for use by client-side code.
+	 * 
+	 * @return the markup ID, or null if unknown
+	 */
+	final String getPrototypeItemMarkupId() {
+		final Component child = getFirstChild();
+		if (child != null) {
+			return child.getMarkupId();
+		}
+		return initialItemMarkupId;
+	}
+
+	/**
+	 * Returns the first item or placeholder, or null if there is none.
+	 */
+	private Component getFirstChild() {
+		final Iterator<Component> iterator = iterator();
+		return (iterator.hasNext() ? iterator.next() : null);
+	}
+
 	/**
 	 * @param item the rendered item
 	 */
@@ -283,6 +1147,276 @@ public abstract class ExpandableRepeater<T, E> extends AbstractRepeater {
 		notifyAboutPrototypeItem(child);
 	}
 
+	/**
+	 * A batch of elements, together with the continuation token for loading the
+	 * next batch. Batches are returned by {@link CursorExpandableRepeater#loadBatch(int, Serializable)}
+	 * and by prefetchers. Batches loaded with {@link #loadBatches(int)} or
+	 * {@link #loadBatch(int)} are wrapped in a batch without a continuation token.
+	 * If batch caching is enabled, all batches are kept in the {@link ExpandableRepeaterBatchCache}.
+	 * 
+	 * @param <E> the element type
+	 */
+	public static final class Batch<E> {
+
+		/**
+		 * the elements
+		 */
+		private final List<E> elements;
+
+		/**
+		 * the continuationToken
+		 */
+		private final Serializable continuationToken;
+
+		/**
+		 * Constructor.
+		 * @param elements the elements
+		 * @param continuationToken the token that locates the next batch (should be small, since it is stored in the page)
+		 */
+		public Batch(final List<E> elements, final Serializable continuationToken) {
+			this.elements = elements;
+			this.continuationToken = continuationToken;
+		}
+
+		/**
+		 * Getter method for the elements.
+		 * @return the elements
+		 */
+		public List<E> getElements() {
+			return elements;
+		}
+
+		/**
+		 * Getter method for the continuationToken.
+		 * @return the continuationToken
+		 */
+		public Serializable getContinuationToken() {
+			return continuationToken;
+		}
+
+	}
+
+	/**
+	 * The model of an item. It stores only the position and key of its element,
+	 * and finds the element again through the repeater after being detached.
+	 * 
+	 * Setting the object replaces the element in the loaded batch, like setting an
+	 * element of the loaded list. The new element is seen until the end of the request,
+	 * or as long as the batch is cached if batch caching is enabled, but it is not
+	 * written back to where the batch was loaded from.
+	 */
+	private final class ElementModel implements IModel<E> {
+
+		/**
+		 * the batchIndex, or -1 if the position is relative to all visible elements
+		 */
+		private int batchIndex;
+
+		/**
+		 * the position
+		 */
+		private int position;
+
+		/**
+		 * the key, or null to identify the element by its position
+		 */
+		private Serializable key;
+
+		/**
+		 * the element
+		 */
+		private transient E element;
+
+		/**
+		 * whether the element is currently attached
+		 */
+		private transient boolean attached;
+
+		/**
+		 * Constructor.
+		 */
+		ElementModel(final int batchIndex, final int position, final E element) {
+			this.batchIndex = batchIndex;
+			this.position = position;
+			this.key = getItemKey(element);
+			this.element = element;
+			this.attached = true;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.wicket.model.IModel#getObject()
+		 */
+		@Override
+		public E getObject() {
+			if (!attached) {
+				element = resolveElement(batchIndex, position, key);
+				attached = true;
+			}
+			return element;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.wicket.model.IModel#setObject(java.lang.Object)
+		 */
+		@Override
+		public void setObject(final E object) {
+			if (!replaceElement(batchIndex, position, key, object)) {
+				throw new IllegalStateException("the element of this item is not part of the repeater's data anymore");
+			}
+			key = getItemKey(object);
+			element = object;
+			attached = true;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.wicket.model.IDetachable#detach()
+		 */
+		@Override
+		public void detach() {
+			element = null;
+			attached = false;
+		}
+
+		/**
+		 * Moves this model to the current position of its element. This is used when reusing
+		 * an item, so the item and all components that share its model see the element at
+		 * its current position.
+		 * 
+		 * This model must not be used as a hash key while being moved.
+		 */
+		private void moveTo(final int batchIndex, final int position, final Serializable key, final E element) {
+			this.batchIndex = batchIndex;
+			this.position = position;
+			this.key = key;
+			this.element = element;
+			this.attached = true;
+		}
+
+		/**
+		 * Checks whether this model belongs to the element with the specified key at the
+		 * specified position, using the same rules as {@link #equals(Object)}.
+		 */
+		private boolean matches(final int batchIndex, final int position, final Serializable key) {
+			if (this.key != null || key != null) {
+				return (this.key != null && this.key.equals(key));
+			}
+			return (this.batchIndex == batchIndex && this.position == position);
+		}
+
+		/**
+		 * @return the repeater that created this model
+		 */
+		private ExpandableRepeater<T, E> getRepeater() {
+			return ExpandableRepeater.this;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof ExpandableRepeater.ElementModel)) {
+				return false;
+			}
+			final ExpandableRepeater<?, ?>.ElementModel otherModel = (ExpandableRepeater<?, ?>.ElementModel)other;
+			if (otherModel.getRepeater() != getRepeater()) {
+				return false;
+			}
+			if (key != null || otherModel.key != null) {
+				return (key != null && key.equals(otherModel.key));
+			}
+			return (batchIndex == otherModel.batchIndex && position == otherModel.position);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return (key != null ? key.hashCode() : (batchIndex * 31 + position));
+		}
+
+	}
+
+	/**
+	 * The placeholder for the items of an evicted batch in windowed mode. It renders
+	 * as an empty element of the item element type with the height of the items.
+	 */
+	private static final class Placeholder extends WebMarkupContainer {
+
+		/**
+		 * the batchIndex
+		 */
+		private final int batchIndex;
+
+		/**
+		 * the height in pixels
+		 */
+		private final int height;
+
+		/**
+		 * Constructor.
+		 */
+		Placeholder(final String id, final int batchIndex, final int height) {
+			super(id);
+			this.batchIndex = batchIndex;
+			this.height = height;
+			setOutputMarkupId(true);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.wicket.Component#onComponentTag(org.apache.wicket.markup.ComponentTag)
+		 */
+		@Override
+		protected void onComponentTag(final ComponentTag tag) {
+			super.onComponentTag(tag);
+			tag.put("class", "expandable-repeater-placeholder");
+			tag.put("data-batch", batchIndex);
+			tag.put("aria-hidden", "true");
+			tag.put("style", "height: " + height + "px");
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.wicket.MarkupContainer#onComponentTagBody(org.apache.wicket.markup.MarkupStream, org.apache.wicket.markup.ComponentTag)
+		 */
+		@Override
+		public void onComponentTagBody(final MarkupStream markupStream, final ComponentTag openTag) {
+			// the item markup contains the tags of the item's children, which are skipped here
+			markupStream.skipToMatchingCloseTag(openTag);
+		}
+
+	}
+
+	/**
+	 * The size, continuation token and measured height of a loaded batch.
+	 */
+	private static final class BatchInfo implements Serializable {
+
+		/**
+		 * the size
+		 */
+		private final int size;
+
+		/**
+		 * the continuationToken
+		 */
+		private final Serializable continuationToken;
+
+		/**
+		 * the height in pixels as measured by the browser, or -1 if unknown
+		 */
+		private int height = -1;
+
+		/**
+		 * Constructor.
+		 */
+		BatchInfo(final int size, final Serializable continuationToken) {
+			this.size = size;
+			this.continuationToken = continuationToken;
+		}
+
+	}
+
 	/**
 	 * The item class used in the {@link ExpandableRepeater}. This class is
 	 * special in that it doesn't use an index, since indices cannot be maintained
@@ -0,0 +1,327 @@
+/**
+ * Copyright (c) 2010 Martin Geisse
+ *
+ * This file is distributed under the terms of the MIT license.
+ */
+
+package name.martingeisse.wicket.helpers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.wicket.Application;
+import org.apache.wicket.IApplicationListener;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.ThreadContext;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Keeps the batches loaded by {@link ExpandableRepeater}s in memory, so a full
+ * render of a repeater can reuse the batches it has already loaded instead of
+ * loading all of them again. The batches are kept outside the page, so they never
+ * end up in the page store. Only repeaters that enable batch caching (see
+ * {@link ExpandableRepeater#setBatchCaching(boolean)}) use this cache.
+ *
+ * The cache is bounded by the total number of elements in all batches, and batches
+ * that have not been used for a while are evicted. An evicted batch is simply
+ * loaded again when needed.
+ *
+ * Batches can also be prefetched on a small pool of background threads. A request
+ * that needs a batch which is still being prefetched waits for it instead of loading
+ * it again, but only up to {@link #getPrefetchWaitMillis()}. Prefetching is best-effort:
+ * if the pool is busy or the prefetch takes too long, the batch is simply loaded
+ * on the request thread.
+ *
+ * An instance with default limits is created on first use. Call
+ * {@link #initialize(Application, long, long, int)} during application startup
+ * to use different limits. The prefetch threads are stopped when the application
+ * gets destroyed.
+ */
+public final class ExpandableRepeaterBatchCache {
+
+	/**
+	 * The metadata key for this object.
+	 */
+	public static final MetaDataKey<ExpandableRepeaterBatchCache> KEY = new MetaDataKey<ExpandableRepeaterBatchCache>() {
+	};
+
+	/**
+	 * the DEFAULT_MAXIMUM_ELEMENT_COUNT
+	 */
+	public static final long DEFAULT_MAXIMUM_ELEMENT_COUNT = 100000;
+
+	/**
+	 * the DEFAULT_EXPIRE_AFTER_ACCESS_MINUTES
+	 */
+	public static final long DEFAULT_EXPIRE_AFTER_ACCESS_MINUTES = 10;
+
+	/**
+	 * the DEFAULT_PREFETCH_THREAD_COUNT
+	 */
+	public static final int DEFAULT_PREFETCH_THREAD_COUNT = 2;
+
+	/**
+	 * the DEFAULT_PREFETCH_WAIT_MILLIS
+	 */
+	public static final long DEFAULT_PREFETCH_WAIT_MILLIS = 2000;
+
+	/**
+	 * the maximum number of prefetches waiting for a thread
+	 */
+	private static final int MAX_QUEUED_PREFETCHES = 100;
+
+	/**
+	 * Creates the batch cache for the specified application.
+	 *
+	 * @param application the Wicket application
+	 * @param maximumElementCount the maximum total number of elements in all cached batches
+	 * @param expireAfterAccessMinutes the time after which an unused batch is evicted
+	 * @return the batch cache
+	 */
+	public static ExpandableRepeaterBatchCache initialize(final Application application, final long maximumElementCount, final long expireAfterAccessMinutes) {
+		return initialize(application, maximumElementCount, expireAfterAccessMinutes, DEFAULT_PREFETCH_THREAD_COUNT);
+	}
+
+	/**
+	 * Creates the batch cache for the specified application.
+	 *
+	 * @param application the Wicket application
+	 * @param maximumElementCount the maximum total number of elements in all cached batches
+	 * @param expireAfterAccessMinutes the time after which an unused batch is evicted
+	 * @param prefetchThreadCount the number of threads that prefetch batches
+	 * @return the batch cache
+	 */
+	public static ExpandableRepeaterBatchCache initialize(final Application application, final long maximumElementCount, final long expireAfterAccessMinutes, final int prefetchThreadCount) {
+		final ExpandableRepeaterBatchCache cache = new ExpandableRepeaterBatchCache(maximumElementCount, expireAfterAccessMinutes, prefetchThreadCount);
+		application.setMetaData(KEY, cache);
+		application.getApplicationListeners().add(new IApplicationListener() {
+
+			@Override
+			public void onAfterInitialized(final Application application) {
+			}
+
+			@Override
+			public void onBeforeDestroyed(final Application application) {
+				cache.prefetchExecutor.shutdownNow();
+			}
+
+		});
+		return cache;
+	}
+
+	/**
+	 * Returns the batch cache for the application of the calling thread,
+	 * creating one with default limits if necessary.
+	 *
+	 * @return the batch cache
+	 */
+	public static ExpandableRepeaterBatchCache get() {
+		return get(Application.get());
+	}
+
+	/**
+	 * Returns the batch cache for the specified application, creating one
+	 * with default limits if necessary.
+	 *
+	 * @param application the Wicket application
+	 * @return the batch cache
+	 */
+	public static ExpandableRepeaterBatchCache get(final Application application) {
+		ExpandableRepeaterBatchCache cache = application.getMetaData(KEY);
+		if (cache == null) {
+			synchronized (application) {
+				cache = application.getMetaData(KEY);
+				if (cache == null) {
+					cache = initialize(application, DEFAULT_MAXIMUM_ELEMENT_COUNT, DEFAULT_EXPIRE_AFTER_ACCESS_MINUTES);
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * the cache
+	 */
+	private final Cache<String, ExpandableRepeater.Batch<?>> cache;
+
+	/**
+	 * the batches being prefetched
+	 */
+	private final ConcurrentHashMap<String, FutureTask<ExpandableRepeater.Batch<?>>> prefetches;
+
+	/**
+	 * the prefetchExecutor
+	 */
+	private final ThreadPoolExecutor prefetchExecutor;
+
+	/**
+	 * the prefetchWaitMillis
+	 */
+	private volatile long prefetchWaitMillis = DEFAULT_PREFETCH_WAIT_MILLIS;
+
+	/**
+	 * Constructor.
+	 */
+	private ExpandableRepeaterBatchCache(final long maximumElementCount, final long expireAfterAccessMinutes, final int prefetchThreadCount) {
+		this.prefetches = new ConcurrentHashMap<>();
+		this.prefetchExecutor = new ThreadPoolExecutor(prefetchThreadCount, prefetchThreadCount, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PREFETCHES), new PrefetchThreadFactory());
+		this.prefetchExecutor.allowCoreThreadTimeOut(true);
+		this.cache = CacheBuilder.newBuilder().maximumWeight(maximumElementCount).weigher(new Weigher<String, ExpandableRepeater.Batch<?>>() {
+			@Override
+			public int weigh(final String key, final ExpandableRepeater.Batch<?> batch) {
+				return 1 + batch.getElements().size();
+			}
+		}).expireAfterAccess(expireAfterAccessMinutes, TimeUnit.MINUTES).build();
+	}
+
+	/**
+	 * Getter method for the prefetchWaitMillis.
+	 * @return the maximum time a request waits for a batch that is being prefetched
+	 */
+	public long getPrefetchWaitMillis() {
+		return prefetchWaitMillis;
+	}
+
+	/**
+	 * Setter method for the prefetchWaitMillis.
+	 * @param prefetchWaitMillis the maximum time a request waits for a batch that is being prefetched
+	 */
+	public void setPrefetchWaitMillis(final long prefetchWaitMillis) {
+		this.prefetchWaitMillis = prefetchWaitMillis;
+	}
+
+	/**
+	 * Returns a cached batch. If the batch is being prefetched, this method waits for it,
+	 * but a prefetch that has not started yet is cancelled instead, since loading the batch
+	 * on the calling thread is faster than waiting for a free thread. If the prefetch
+	 * does not finish within {@link #getPrefetchWaitMillis()}, this method returns null
+	 * so the caller loads the batch itself; the prefetch still caches its result.
+	 *
+	 * @param key the key
+	 * @return the batch, or null if neither cached nor successfully prefetched
+	 */
+	ExpandableRepeater.Batch<?> get(final String key) {
+		final ExpandableRepeater.Batch<?> batch = cache.getIfPresent(key);
+		if (batch != null) {
+			return batch;
+		}
+		final FutureTask<ExpandableRepeater.Batch<?>> prefetch = prefetches.get(key);
+		if (prefetch == null) {
+			return null;
+		}
+		if (prefetchExecutor.remove(prefetch)) {
+			prefetches.remove(key, prefetch);
+			prefetch.cancel(false);
+			return null;
+		}
+		try {
+			return prefetch.get(prefetchWaitMillis, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (final ExecutionException | CancellationException | TimeoutException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Starts loading a batch on a background thread, unless it is already cached or being
+	 * prefetched. The loader runs with the application of the calling thread, but without
+	 * a session or request cycle, since these are not thread-safe and are in use by the
+	 * calling thread. When the loader returns a batch, the batch gets cached.
+	 *
+	 * @param key the key
+	 * @param loader loads the batch (may return null)
+	 */
+	void prefetch(final String key, final Callable<? extends ExpandableRepeater.Batch<?>> loader) {
+		if (cache.getIfPresent(key) != null || prefetches.containsKey(key)) {
+			return;
+		}
+		final Application application = Application.get();
+		final FutureTask<ExpandableRepeater.Batch<?>> task = new FutureTask<>(new Callable<ExpandableRepeater.Batch<?>>() {
+			@Override
+			public ExpandableRepeater.Batch<?> call() throws Exception {
+				ThreadContext.setApplication(application);
+				try {
+					final ExpandableRepeater.Batch<?> batch = loader.call();
+					if (batch != null) {
+						cache.put(key, batch);
+					}
+					return batch;
+				} finally {
+					ThreadContext.detach();
+					prefetches.remove(key);
+				}
+			}
+		});
+		if (prefetches.putIfAbsent(key, task) != null) {
+			return;
+		}
+		try {
+			prefetchExecutor.execute(task);
+		} catch (final RejectedExecutionException e) {
+			prefetches.remove(key, task);
+			task.cancel(false);
+		}
+	}
+
+	/**
+	 * Caches a batch.
+	 *
+	 * @param key the key
+	 * @param batch the batch
+	 */
+	void put(final String key, final ExpandableRepeater.Batch<?> batch) {
+		cache.put(key, batch);
+	}
+
+	/**
+	 * Removes a batch from the cache.
+	 *
+	 * @param key the key
+	 */
+	void remove(final String key) {
+		cache.invalidate(key);
+	}
+
+	/**
+	 * Removes all batches from the cache.
+	 */
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Creates the daemon threads that prefetch batches.
+	 */
+	private static final class PrefetchThreadFactory implements ThreadFactory {
+
+		/**
+		 * the threadCounter
+		 */
+		private final AtomicInteger threadCounter = new AtomicInteger();
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+		 */
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "expandable-repeater-prefetch-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
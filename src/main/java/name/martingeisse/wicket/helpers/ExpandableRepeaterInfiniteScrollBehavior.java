@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2010 Martin Geisse
+ *
+ * This file is distributed under the terms of the MIT license.
+ */
+
+package name.martingeisse.wicket.helpers;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.attributes.AjaxCallListener;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
+import name.martingeisse.wicket.internal.JsUtil;
+import name.martingeisse.wicket.internal.WicketHeadUtil;
+
+/**
+ * Expands an {@link ExpandableRepeater} automatically when the user scrolls
+ * towards its end. The client places an empty sentinel element of the same
+ * element type as the items after the last item, and watches it with an
+ * IntersectionObserver. When the sentinel comes within {@link #getLookAhead()}
+ * pixels of the viewport, the repeater gets expanded by one batch through AJAX.
+ *
+ * Expansion stops once a batch is empty, or when {@link #isFinished(ExpandableRepeater)}
+ * is overridden and returns true. To have the next batch loaded before the user
+ * reaches the end, implement {@link ExpandableRepeater#newBatchPrefetcher(int, java.io.Serializable)}.
+ *
+ * This behavior can only be added to an {@link ExpandableRepeater}. Browsers
+ * without IntersectionObserver are not supported; on these, the repeater is
+ * not expanded automatically.
+ */
+public class ExpandableRepeaterInfiniteScrollBehavior extends AbstractDefaultAjaxBehavior {
+
+	/**
+	 * the distance in pixels from the viewport at which the next batch is requested
+	 */
+	private int lookAhead = 400;
+
+	/**
+	 * Constructor.
+	 */
+	public ExpandableRepeaterInfiniteScrollBehavior() {
+	}
+
+	/**
+	 * Getter method for the lookAhead.
+	 * @return the lookAhead
+	 */
+	public int getLookAhead() {
+		return lookAhead;
+	}
+
+	/**
+	 * Setter method for the lookAhead.
+	 * @param lookAhead the lookAhead to set
+	 * @return this
+	 */
+	public ExpandableRepeaterInfiniteScrollBehavior setLookAhead(final int lookAhead) {
+		this.lookAhead = lookAhead;
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.behavior.AbstractAjaxBehavior#onBind()
+	 */
+	@Override
+	protected void onBind() {
+		super.onBind();
+		if (!(getComponent() instanceof ExpandableRepeater)) {
+			throw new IllegalArgumentException("ExpandableRepeaterInfiniteScrollBehavior can only be added to an ExpandableRepeater");
+		}
+	}
+
+	/**
+	 * Getter method for the repeater.
+	 * @return the repeater
+	 */
+	public ExpandableRepeater<?, ?> getRepeater() {
+		return (ExpandableRepeater<?, ?>)getComponent();
+	}
+
+	/**
+	 * Determines whether the repeater has shown all its elements. The default
+	 * implementation returns true if the last batch was empty.
+	 *
+	 * @param repeater the repeater
+	 * @return true to stop expanding the repeater, false to continue
+	 */
+	protected boolean isFinished(final ExpandableRepeater<?, ?> repeater) {
+		return (repeater.getLoadedBatchSize(repeater.getBatchCount() - 1) == 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#renderHead(org.apache.wicket.Component, org.apache.wicket.markup.head.IHeaderResponse)
+	 */
+	@Override
+	public void renderHead(final Component component, final IHeaderResponse response) {
+		super.renderHead(component, response);
+		final ExpandableRepeater<?, ?> repeater = getRepeater();
+		final String elementType = repeater.getPrototypeElementType();
+		final String itemMarkupId = repeater.getPrototypeItemMarkupId();
+		if (elementType == null || itemMarkupId == null) {
+			return;
+		}
+		WicketHeadUtil.includeClassJavascript(response, ExpandableRepeaterInfiniteScrollBehavior.class);
+		final StringBuilder builder = new StringBuilder();
+		builder.append("initializeExpandableRepeaterInfiniteScroll('").append(component.getMarkupId()).append("', ");
+		builder.append(JsUtil.toStringLiteral(itemMarkupId)).append(", ").append(JsUtil.toStringLiteral(elementType)).append(", {");
+		builder.append("lookAhead: ").append(lookAhead);
+		builder.append(", finished: ").append(isFinished(repeater));
+		builder.append("}, ").append(getCallbackFunction()).append(");");
+		response.render(OnDomReadyHeaderItem.forScript(builder.toString()));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#updateAjaxAttributes(org.apache.wicket.ajax.attributes.AjaxRequestAttributes)
+	 */
+	@Override
+	protected void updateAjaxAttributes(final AjaxRequestAttributes attributes) {
+		super.updateAjaxAttributes(attributes);
+		attributes.getAjaxCallListeners().add(new AjaxCallListener().onFailure("expandableRepeaterInfiniteScrollFailed('" + getComponent().getMarkupId() + "');"));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#respond(org.apache.wicket.ajax.AjaxRequestTarget)
+	 */
+	@Override
+	protected void respond(final AjaxRequestTarget target) {
+		final ExpandableRepeater<?, ?> repeater = getRepeater();
+		final boolean finished = isFinished(repeater);
+		if (!finished) {
+			repeater.expandByOneBatch();
+		}
+		target.appendJavaScript("expandableRepeaterInfiniteScrollExpanded('" + repeater.getMarkupId() + "', " + (finished || isFinished(repeater)) + ");");
+	}
+
+}
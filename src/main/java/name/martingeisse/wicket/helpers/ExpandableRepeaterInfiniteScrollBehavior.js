@@ -0,0 +1,62 @@
+expandableRepeaterInfiniteScrollHandlers = {};
+
+initializeExpandableRepeaterInfiniteScroll = function(id, itemMarkupId, elementType, options, serverCallback) {
+	var item = document.getElementById(itemMarkupId);
+	if (!item || !window.IntersectionObserver) {
+		return;
+	}
+	var parent = item.parentNode;
+
+	// The sentinel is an empty element after the last item. New items are appended to the parent by the
+	// expansion script, so the sentinel is moved back to the end after each expansion. Observing it again
+	// reports its current state, so the next batch is requested right away if the sentinel is still visible.
+	var sentinel = document.createElement(elementType);
+	sentinel.setAttribute('aria-hidden', 'true');
+	parent.appendChild(sentinel);
+	var waiting = false;
+	var finished = options.finished;
+	var observer = new IntersectionObserver(function(entries) {
+		for (var i = 0; i < entries.length; i++) {
+			if (entries[i].isIntersecting && !waiting && !finished) {
+				waiting = true;
+				serverCallback();
+				return;
+			}
+		}
+	}, {rootMargin: '0px 0px ' + options.lookAhead + 'px 0px'});
+	if (!finished) {
+		observer.observe(sentinel);
+	}
+
+	// after a failed request, the next batch is only requested when the sentinel becomes visible again
+	expandableRepeaterInfiniteScrollHandlers[id] = function(nowFinished, failed) {
+		waiting = false;
+		if (failed) {
+			return;
+		}
+		finished = nowFinished;
+		observer.unobserve(sentinel);
+		if (finished) {
+			observer.disconnect();
+			$(sentinel).remove();
+		} else if (document.body.contains(sentinel)) {
+			parent.appendChild(sentinel);
+			observer.observe(sentinel);
+		}
+	};
+
+};
+
+expandableRepeaterInfiniteScrollExpanded = function(id, finished) {
+	var handler = expandableRepeaterInfiniteScrollHandlers[id];
+	if (handler) {
+		handler(finished, false);
+	}
+};
+
+expandableRepeaterInfiniteScrollFailed = function(id) {
+	var handler = expandableRepeaterInfiniteScrollHandlers[id];
+	if (handler) {
+		handler(false, true);
+	}
+};
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2010 Martin Geisse
+ *
+ * This file is distributed under the terms of the MIT license.
+ */
+
+package name.martingeisse.wicket.helpers;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.attributes.AjaxCallListener;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
+import org.apache.wicket.ajax.attributes.CallbackParameter;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
+import org.apache.wicket.request.IRequestParameters;
+import org.apache.wicket.request.cycle.RequestCycle;
+import name.martingeisse.wicket.internal.JsUtil;
+import name.martingeisse.wicket.internal.WicketHeadUtil;
+
+/**
+ * Implements the client side of the windowed mode of an {@link ExpandableRepeater}.
+ * The client watches the placeholders of evicted batches and asks the server to
+ * restore a batch when its placeholder comes near the viewport. It also measures
+ * the height of evicted items and reports it with the next request, so placeholders
+ * rendered in a full render get the right height.
+ *
+ * This behavior is added and removed by {@link ExpandableRepeater#setWindowSize(int)}.
+ *
+ * This class is NOT part of the public API.
+ */
+final class ExpandableRepeaterWindowBehavior extends AbstractDefaultAjaxBehavior {
+
+	/**
+	 * the distance in pixels from the viewport at which placeholders get restored
+	 */
+	private static final int LOOK_AHEAD = 400;
+
+	/**
+	 * Constructor.
+	 */
+	ExpandableRepeaterWindowBehavior() {
+	}
+
+	/**
+	 * Getter method for the repeater.
+	 * @return the repeater
+	 */
+	private ExpandableRepeater<?, ?> getRepeater() {
+		return (ExpandableRepeater<?, ?>)getComponent();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#renderHead(org.apache.wicket.Component, org.apache.wicket.markup.head.IHeaderResponse)
+	 */
+	@Override
+	public void renderHead(final Component component, final IHeaderResponse response) {
+		super.renderHead(component, response);
+		final ExpandableRepeater<?, ?> repeater = getRepeater();
+		final String elementType = repeater.getPrototypeElementType();
+		final String itemMarkupId = repeater.getPrototypeItemMarkupId();
+		if (elementType == null || itemMarkupId == null) {
+			return;
+		}
+		WicketHeadUtil.includeClassJavascript(response, ExpandableRepeaterWindowBehavior.class);
+		final StringBuilder builder = new StringBuilder();
+		builder.append("initializeExpandableRepeaterWindow('").append(component.getMarkupId()).append("', ");
+		builder.append(JsUtil.toStringLiteral(itemMarkupId)).append(", ").append(JsUtil.toStringLiteral(elementType)).append(", {");
+		builder.append("lookAhead: ").append(LOOK_AHEAD);
+		builder.append("}, ").append(getCallbackFunction(CallbackParameter.explicit("batch"), CallbackParameter.explicit("heights"))).append(");");
+		response.render(OnDomReadyHeaderItem.forScript(builder.toString()));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#updateAjaxAttributes(org.apache.wicket.ajax.attributes.AjaxRequestAttributes)
+	 */
+	@Override
+	protected void updateAjaxAttributes(final AjaxRequestAttributes attributes) {
+		super.updateAjaxAttributes(attributes);
+		attributes.getAjaxCallListeners().add(new AjaxCallListener().onFailure("expandableRepeaterWindowFailed('" + getComponent().getMarkupId() + "');"));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#respond(org.apache.wicket.ajax.AjaxRequestTarget)
+	 */
+	@Override
+	protected void respond(final AjaxRequestTarget target) {
+		final ExpandableRepeater<?, ?> repeater = getRepeater();
+		final IRequestParameters parameters = RequestCycle.get().getRequest().getRequestParameters();
+
+		// heights are sent as "batchIndex:height,batchIndex:height,..."
+		final String heights = parameters.getParameterValue("heights").toString("");
+		for (final String entry : heights.split(",")) {
+			final int colonIndex = entry.indexOf(':');
+			if (colonIndex > 0) {
+				try {
+					repeater.setBatchHeight(Integer.parseInt(entry.substring(0, colonIndex)), Integer.parseInt(entry.substring(colonIndex + 1)));
+				} catch (final NumberFormatException e) {
+					// ignore malformed entries
+				}
+			}
+		}
+
+		final int batchIndex = parameters.getParameterValue("batch").toInt(-1);
+		if (batchIndex >= 0) {
+			repeater.restoreBatch(batchIndex, target);
+		}
+		target.appendJavaScript("expandableRepeaterWindowUpdated('" + repeater.getMarkupId() + "');");
+
+	}
+
+}
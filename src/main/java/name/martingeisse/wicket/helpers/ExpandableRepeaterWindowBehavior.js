@@ -0,0 +1,125 @@
+expandableRepeaterWindows = {};
+
+initializeExpandableRepeaterWindow = function(id, itemMarkupId, elementType, options, serverCallback) {
+	var item = document.getElementById(itemMarkupId);
+	if (!item || !window.IntersectionObserver) {
+		return;
+	}
+	var parent = item.parentNode;
+
+	// Only one request is sent at a time. When it returns, all placeholders are observed again, which reports
+	// those that are still near the viewport, so the next one gets restored. Heights measured while evicting
+	// are sent with the next request.
+	var waiting = false;
+	var measuredHeights = [];
+	var observer = new IntersectionObserver(function(entries) {
+		for (var i = 0; i < entries.length; i++) {
+			if (entries[i].isIntersecting && !waiting) {
+				waiting = true;
+				var heights = measuredHeights.join(',');
+				measuredHeights = [];
+				serverCallback(entries[i].target.getAttribute('data-batch'), heights);
+				return;
+			}
+		}
+	}, {rootMargin: options.lookAhead + 'px 0px'});
+	var observePlaceholders = function() {
+		observer.disconnect();
+		$(parent).children('.expandable-repeater-placeholder').each(function() {
+			observer.observe(this);
+		});
+	};
+	observePlaceholders();
+
+	expandableRepeaterWindows[id] = {
+
+		// replaces the items of a batch by a placeholder with the same height
+		evict: function(batchIndex, itemMarkupIds) {
+			var elements = [], first = null, top = 0, bottom = 0;
+			for (var i = 0; i < itemMarkupIds.length; i++) {
+				var element = document.getElementById(itemMarkupIds[i]);
+				if (element) {
+					var rectangle = element.getBoundingClientRect();
+					if (first === null || rectangle.top < top) {
+						first = element;
+						top = rectangle.top;
+					}
+					bottom = (elements.length === 0 ? rectangle.bottom : Math.max(bottom, rectangle.bottom));
+					elements.push(element);
+				}
+			}
+			if (first === null) {
+				return;
+			}
+			var height = Math.max(0, Math.round(bottom - top));
+			var placeholder = document.createElement(elementType);
+			placeholder.id = id + '-placeholder-' + batchIndex;
+			placeholder.className = 'expandable-repeater-placeholder';
+			placeholder.setAttribute('data-batch', batchIndex);
+			placeholder.setAttribute('aria-hidden', 'true');
+			placeholder.style.height = height + 'px';
+			parent.insertBefore(placeholder, first);
+			$(elements).remove();
+			observer.observe(placeholder);
+			measuredHeights.push(batchIndex + ':' + height);
+		},
+
+		// replaces a placeholder by empty elements for the items, which are then filled by the AJAX response
+		restore: function(batchIndex, itemMarkupIds) {
+			var placeholder = document.getElementById(id + '-placeholder-' + batchIndex);
+			for (var i = 0; i < itemMarkupIds.length; i++) {
+				var element = document.createElement(elementType);
+				element.id = itemMarkupIds[i];
+				if (placeholder) {
+					parent.insertBefore(element, placeholder);
+				} else {
+					parent.appendChild(element);
+				}
+			}
+			if (placeholder) {
+				observer.unobserve(placeholder);
+				$(placeholder).remove();
+			}
+		},
+
+		updated: function() {
+			waiting = false;
+			observePlaceholders();
+		},
+
+		// after a failed request, a batch is only restored when a placeholder becomes visible again
+		failed: function() {
+			waiting = false;
+		}
+
+	};
+
+};
+
+expandableRepeaterWindowEvict = function(id, batchIndex, itemMarkupIds) {
+	var repeaterWindow = expandableRepeaterWindows[id];
+	if (repeaterWindow) {
+		repeaterWindow.evict(batchIndex, itemMarkupIds);
+	}
+};
+
+expandableRepeaterWindowRestore = function(id, batchIndex, itemMarkupIds) {
+	var repeaterWindow = expandableRepeaterWindows[id];
+	if (repeaterWindow) {
+		repeaterWindow.restore(batchIndex, itemMarkupIds);
+	}
+};
+
+expandableRepeaterWindowUpdated = function(id) {
+	var repeaterWindow = expandableRepeaterWindows[id];
+	if (repeaterWindow) {
+		repeaterWindow.updated();
+	}
+};
+
+expandableRepeaterWindowFailed = function(id) {
+	var repeaterWindow = expandableRepeaterWindows[id];
+	if (repeaterWindow) {
+		repeaterWindow.failed();
+	}
+};
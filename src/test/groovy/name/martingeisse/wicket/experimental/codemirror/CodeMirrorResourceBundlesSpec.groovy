@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror
+
+import org.apache.wicket.util.tester.WicketTester
+import spock.lang.Specification
+
+/**
+ * Tests for {@link CodeMirrorResourceBundles}.
+ */
+class CodeMirrorResourceBundlesSpec extends Specification {
+
+	WicketTester tester
+
+	def cleanup() {
+		tester?.destroy()
+	}
+
+	/**
+	 * Returns the URL of the stylesheet bundle as created by a separate application,
+	 * relative to the mount path.
+	 */
+	static String getStylesheetUrlFromOtherApplication() {
+		def otherTester = new WicketTester()
+		try {
+			def url = CodeMirrorResourceBundles.initialize(otherTester.application, "codemirror").stylesheetUrl
+			return url.substring(url.indexOf("codemirror/"))
+		} finally {
+			otherTester.destroy()
+		}
+	}
+
+	def "serves a bundle whose URL was created by another application instance"() {
+		setup:
+		def url = stylesheetUrlFromOtherApplication
+		tester = new WicketTester()
+		CodeMirrorResourceBundles.initialize(tester.application, "codemirror")
+
+		when:
+		tester.executeUrl(url)
+
+		then:
+		url.contains("?sources=")
+		tester.lastResponse.status == 200
+		tester.lastResponse.contentType.startsWith("text/css")
+		tester.lastResponse.getHeader("Cache-Control").contains("immutable")
+		tester.lastResponseAsString.contains(".CodeMirror")
+	}
+
+	def "does not serve a bundle whose content does not match the fingerprint"() {
+		setup:
+		def url = stylesheetUrlFromOtherApplication
+		tester = new WicketTester()
+		CodeMirrorResourceBundles.initialize(tester.application, "codemirror")
+
+		when:
+		tester.executeUrl(url.replaceFirst("codemirror/[0-9a-f]{20}", "codemirror/0123456789abcdef0123"))
+
+		then:
+		tester.lastResponse.status == 404
+	}
+
+	def "does not build bundles from resources the package resource guard rejects"() {
+		setup:
+		tester = new WicketTester()
+		def bundles = CodeMirrorResourceBundles.initialize(tester.application, "codemirror")
+
+		expect:
+		bundles.getBundle("0123456789abcdef0123.css", CodeMirrorBehavior.name + ":CodeMirrorBehavior.class") == null
+		bundles.getBundle("0123456789abcdef0123.js", "no.such.Class:foo.js") == null
+		bundles.getBundle("0123456789abcdef0123.class", CodeMirrorBehavior.name + ":codemirror.css") == null
+	}
+
+}
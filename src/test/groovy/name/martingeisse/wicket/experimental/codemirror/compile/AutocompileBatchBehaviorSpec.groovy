@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile
+
+import org.apache.wicket.util.tester.WicketTester
+import com.google.gson.Gson
+import spock.lang.Specification
+
+/**
+ * Tests for {@link AutocompileBatchBehavior}.
+ */
+class AutocompileBatchBehaviorSpec extends Specification {
+
+	WicketTester tester = new WicketTester()
+
+	def cleanup() {
+		tester.destroy()
+	}
+
+	def "without a scheduler, compiles all documents of a batch on the request thread"() {
+		setup:
+		def compilingThreads = []
+		def page = new AutocompileBatchTestPage({ String document, CompilerResult result ->
+			compilingThreads.add(Thread.currentThread())
+			result.markers.add(new CompilerMarker(0, 0, 0, 1, CompilerErrorLevel.ERROR, "bad " + document))
+		} as ICompiler)
+		tester.startPage(page)
+
+		when:
+		tester.request.method = "POST"
+		tester.request.postParameters.setParameterValue("batch", new Gson().toJson([
+			[id: page.firstEditor.markupId, value: "first", revision: 1],
+			[id: page.secondEditor.markupId, value: "second", revision: 2],
+		]))
+		tester.executeBehavior(page.batchBehavior)
+		def response = tester.lastResponseAsString
+
+		then:
+		compilingThreads == [Thread.currentThread(), Thread.currentThread()]
+		response.contains("addCodeMirrorAutocompilerMarkerToDocument('" + page.firstEditor.markupId + "', 0, 0, 0, 1, 'ERROR', \"bad first\")")
+		response.contains("addCodeMirrorAutocompilerMarkerToDocument('" + page.secondEditor.markupId + "', 0, 0, 0, 1, 'ERROR', \"bad second\")")
+	}
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile
+
+import org.apache.wicket.mock.MockRequestParameters
+import spock.lang.Specification
+
+/**
+ * Tests for {@link AutocompileRequest}.
+ */
+class AutocompileRequestSpec extends Specification {
+
+	/**
+	 * The parameter names of the autocompile callback. The client sends all of them
+	 * with each request, leaving the undefined ones empty.
+	 */
+	static final List<String> PARAMETER_NAMES = ["value", "revision", "previousRevision", "edits", "stream", "viewportFrom", "viewportTo", "markerRange", "search", "roundTrip"]
+
+	static MockRequestParameters parameters(Map<String, String> values) {
+		def parameters = new MockRequestParameters()
+		for (name in PARAMETER_NAMES) {
+			parameters.setParameterValue(name, values.containsKey(name) ? values[name] : "")
+		}
+		parameters
+	}
+
+	def "a plain compile request is not a follow-up request"() {
+		when:
+		def request = AutocompileRequest.fromParameters(parameters(value: "foo", revision: "5"))
+
+		then:
+		request.document == "foo"
+		request.revision == 5
+		request.stream == null
+		request.markerRange == null
+		!request.searchRequest
+		request.search == null
+	}
+
+	def "a follow-up request carries its stream id"() {
+		when:
+		def request = AutocompileRequest.fromParameters(parameters(stream: "123", viewportFrom: "10", viewportTo: "50"))
+
+		then:
+		request.stream == "123"
+		request.viewportFrom == 10
+		request.viewportTo == 50
+	}
+
+	def "a lazy marker request carries its marker range"() {
+		when:
+		def request = AutocompileRequest.fromParameters(parameters(markerRange: "123:200:300"))
+
+		then:
+		request.markerRange == "123:200:300"
+		request.stream == null
+	}
+
+	def "a search request for the kept document carries no document"() {
+		when:
+		def request = AutocompileRequest.fromParameters(parameters(revision: "7", search: '{"query": "foo", "caseSensitive": true, "page": 2}'))
+
+		then:
+		request.searchRequest
+		!request.hasDocument()
+		request.revision == 7
+		request.search.query == "foo"
+		request.search.caseSensitive
+		request.search.page == 2
+	}
+
+	def "a search request may carry the document"() {
+		when:
+		def request = AutocompileRequest.fromParameters(parameters(value: "foo bar", revision: "8", search: '{"query": "bar"}'))
+
+		then:
+		request.searchRequest
+		request.hasDocument()
+		request.document == "foo bar"
+	}
+
+	def "an empty document counts as missing"() {
+		when:
+		def request = AutocompileRequest.fromParameters(parameters(value: ""))
+
+		then:
+		!request.hasDocument()
+		request.document == ""
+	}
+
+	def "missing parameters have their defaults"() {
+		when:
+		def request = AutocompileRequest.fromParameters(new MockRequestParameters())
+
+		then:
+		request.document == ""
+		request.revision == -1
+		request.previousRevision == -1
+		request.edits == null
+		request.stream == null
+		request.markerRange == null
+		!request.searchRequest
+		request.viewportFrom == -1
+		request.roundTrip == -1
+	}
+
+	def "parses the line edits"() {
+		when:
+		def request = AutocompileRequest.fromParameters(parameters(value: "foo", edits: "[[1,2,3],[4,4,5]]"))
+
+		then:
+		request.edits*.startLine == [1, 4]
+		request.edits*.oldEndLine == [2, 4]
+		request.edits*.newEndLine == [3, 5]
+	}
+
+}
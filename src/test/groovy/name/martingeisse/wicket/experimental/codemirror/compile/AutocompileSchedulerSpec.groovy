@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.apache.wicket.mock.MockApplication
+import spock.lang.Specification
+
+/**
+ * Tests for {@link AutocompileScheduler}.
+ */
+class AutocompileSchedulerSpec extends Specification {
+
+	def application = new MockApplication()
+
+	AutocompileScheduler scheduler
+
+	def cleanup() {
+		scheduler?.shutdown()
+	}
+
+	def "compiles a document on a worker thread"() {
+		setup:
+		scheduler = AutocompileScheduler.initialize(application, 1, 10, 5000)
+		String workerName = null
+		def compiler = { String document, CompilerResult result ->
+			workerName = Thread.currentThread().name
+			result.markers.add(new CompilerMarker(0, 0, 0, document.length(), CompilerErrorLevel.ERROR, "error in " + document))
+		} as ICompiler
+
+		when:
+		def result = scheduler.compile("session", null, compiler, "foo")
+
+		then:
+		result.markerSnapshot*.message == ["error in foo"]
+		workerName.startsWith("autocompile-worker-")
+		scheduler.submittedCount == 1
+		scheduler.completedCount == 1
+		AutocompileScheduler.get(application) == scheduler
+	}
+
+	def "rejects submissions when the queue is full"() {
+		setup:
+		scheduler = AutocompileScheduler.initialize(application, 1, 1, 5000)
+		def blocker = new BlockingCompiler()
+		def running = scheduler.submit("session", null, blocker, "running")
+		blocker.awaitStarted()
+
+		when:
+		def queued = scheduler.submit("session", null, new RecordingCompiler(), "queued")
+		def rejected = scheduler.submit("other", null, new RecordingCompiler(), "rejected")
+
+		then:
+		!queued.rejected
+		rejected.rejected
+		scheduler.await(rejected) == null
+		scheduler.rejectedCount == 1
+		scheduler.queueDepth == 1
+
+		cleanup:
+		blocker.release()
+	}
+
+	def "serves sessions in round-robin order"() {
+		setup:
+		scheduler = AutocompileScheduler.initialize(application, 1, 10, 5000)
+		def blocker = new BlockingCompiler()
+		def recorder = new RecordingCompiler()
+		def first = scheduler.submit("a", null, blocker, "blocker")
+		blocker.awaitStarted()
+
+		when:
+		def tickets = [
+			scheduler.submit("a", null, recorder, "a1"),
+			scheduler.submit("a", null, recorder, "a2"),
+			scheduler.submit("a", null, recorder, "a3"),
+			scheduler.submit("b", null, recorder, "b1"),
+			scheduler.submit("c", null, recorder, "c1"),
+		]
+		blocker.release()
+		scheduler.await(first)
+		tickets.each { scheduler.await(it) }
+
+		then:
+		recorder.documents == ["a1", "b1", "c1", "a2", "a3"]
+	}
+
+	def "compiles every submitted document of the same session without editor keys"() {
+		setup:
+		scheduler = AutocompileScheduler.initialize(application, 1, 10, 5000)
+		def blocker = new BlockingCompiler()
+		def recorder = new RecordingCompiler()
+		scheduler.submit("session", null, blocker, "blocker")
+		blocker.awaitStarted()
+
+		when:
+		def older = scheduler.submit("session", null, recorder, "older")
+		def newer = scheduler.submit("session", null, recorder, "newer")
+		blocker.release()
+
+		then:
+		scheduler.await(older).document == "older"
+		scheduler.await(newer).document == "newer"
+		recorder.documents == ["older", "newer"]
+	}
+
+	def "supersedes a queued compilation of the same editor"() {
+		setup:
+		scheduler = AutocompileScheduler.initialize(application, 1, 10, 5000)
+		def blocker = new BlockingCompiler()
+		def recorder = new RecordingCompiler()
+		scheduler.submit("session", null, blocker, "blocker")
+		blocker.awaitStarted()
+
+		when:
+		def older = scheduler.submit("session", "editor", recorder, "older")
+		def other = scheduler.submit("session", "other", recorder, "other")
+		def newer = scheduler.submit("session", "editor", recorder, "newer")
+		blocker.release()
+
+		then:
+		older.superseded
+		scheduler.await(older) == null
+		scheduler.await(newer).document == "newer"
+		scheduler.await(other).document == "other"
+		recorder.documents == ["newer", "other"]
+		scheduler.supersededCount == 1
+	}
+
+	def "limits the queued compilations of a single session before the overall limit"() {
+		setup:
+		scheduler = AutocompileScheduler.initialize(application, 1, 10, 2, 5000)
+		def blocker = new BlockingCompiler()
+		scheduler.submit("busy", null, blocker, "blocker")
+		blocker.awaitStarted()
+
+		when:
+		def tickets = (1..3).collect { scheduler.submit("busy", "editor" + it, new RecordingCompiler(), "doc" + it) }
+		def other = scheduler.submit("other", null, new RecordingCompiler(), "other")
+
+		then:
+		tickets*.rejected == [false, false, true]
+		!other.rejected
+		scheduler.queueDepth == 3
+		scheduler.rejectedCount == 1
+
+		cleanup:
+		blocker.release()
+	}
+
+	def "returns a partial result when the time budget is used up"() {
+		setup:
+		scheduler = AutocompileScheduler.initialize(application, 1, 10, 100)
+		def compiler = { String document, CompilerResult result, CompileCancellationToken token ->
+			result.markers.add(new CompilerMarker(0, 0, 0, 1, CompilerErrorLevel.ERROR, "found early"))
+			while (!token.cancelled) {
+				Thread.sleep(5)
+			}
+		} as ICancellableCompiler
+
+		when:
+		def result = scheduler.compile("session", null, compiler, "foo")
+
+		then:
+		result.markerSnapshot*.message == ["found early", "compilation timed out after 100 ms; results are incomplete"]
+		result.markerSnapshot[1].errorLevel == CompilerErrorLevel.WARNING
+		scheduler.timedOutCount == 1
+	}
+
+	def "cancels queued compilations whose time budget is used up"() {
+		setup:
+		scheduler = AutocompileScheduler.initialize(application, 1, 10, 100)
+		def blocker = new BlockingCompiler()
+		def recorder = new RecordingCompiler()
+		scheduler.submit("session", null, blocker, "blocker")
+		blocker.awaitStarted()
+
+		when:
+		def result = scheduler.compile("session", null, recorder, "queued")
+		blocker.release()
+
+		then:
+		result.markerSnapshot*.message == ["compilation timed out after 100 ms; results are incomplete"]
+		scheduler.queueDepth == 0
+		recorder.documents.empty
+	}
+
+	def "rejects queued and new compilations after shutdown"() {
+		setup:
+		scheduler = AutocompileScheduler.initialize(application, 1, 10, 5000)
+		def blocker = new BlockingCompiler()
+		scheduler.submit("session", null, blocker, "blocker")
+		blocker.awaitStarted()
+		def queued = scheduler.submit("session", null, new RecordingCompiler(), "queued")
+
+		when:
+		scheduler.shutdown()
+
+		then:
+		queued.rejected
+		scheduler.submit("session", null, new RecordingCompiler(), "late").rejected
+		scheduler.queueDepth == 0
+	}
+
+	/**
+	 * Blocks its worker thread until released.
+	 */
+	static class BlockingCompiler implements ICompiler {
+
+		final CountDownLatch started = new CountDownLatch(1)
+
+		final CountDownLatch released = new CountDownLatch(1)
+
+		@Override
+		void compile(String document, CompilerResult result) {
+			started.countDown()
+			try {
+				released.await(5, TimeUnit.SECONDS)
+			} catch (InterruptedException e) {
+				// interrupted by shutdown
+			}
+		}
+
+		void awaitStarted() {
+			assert started.await(5, TimeUnit.SECONDS)
+		}
+
+		void release() {
+			released.countDown()
+		}
+
+	}
+
+	/**
+	 * Records the documents it compiles.
+	 */
+	static class RecordingCompiler implements ICompiler {
+
+		final List<String> documents = Collections.synchronizedList(new ArrayList<String>())
+
+		@Override
+		void compile(String document, CompilerResult result) {
+			documents.add(document)
+		}
+
+	}
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile
+
+import org.apache.wicket.util.tester.WicketTester
+import spock.lang.Specification
+
+/**
+ * Tests for {@link CodeMirrorAutocompileBehavior}, sending requests the way the client does.
+ */
+class CodeMirrorAutocompileBehaviorSpec extends Specification {
+
+	WicketTester tester = new WicketTester()
+
+	def cleanup() {
+		tester.destroy()
+	}
+
+	def "a plain compile request is answered with the markers"() {
+		setup:
+		def page = new AutocompileTestPage({ String document, CompilerResult result ->
+			result.markers.add(new CompilerMarker(0, 0, 0, 3, CompilerErrorLevel.ERROR, "bad " + document))
+		} as ICompiler)
+		tester.startPage(page)
+
+		when:
+		send(page, [value: "foo", revision: "1", stream: "", markerRange: "", search: ""])
+
+		then:
+		tester.lastResponseAsString.contains("addCodeMirrorAutocompilerMarkerToDocument('" + page.editor.markupId + "', 0, 0, 0, 3, 'ERROR', \"bad foo\")")
+		tester.lastResponseAsString.contains("codeMirrorAutocompilerReportStatistics('" + page.editor.markupId + "', 3)")
+	}
+
+	def "sends the markers of huge documents near the visible range first and the others on request"() {
+		setup:
+		def page = new AutocompileTestPage({ String document, CompilerResult result ->
+			result.markers.add(new CompilerMarker(5, 0, 5, 1, CompilerErrorLevel.ERROR, "near"))
+			result.markers.add(new CompilerMarker(400, 0, 400, 1, CompilerErrorLevel.ERROR, "far"))
+		} as ICompiler)
+		page.autocompileBehavior.lazyMarkerLineThreshold = 100
+		tester.startPage(page)
+
+		when:
+		send(page, [value: "x\n" * 500, revision: "1", stream: "", markerRange: "", search: "", viewportFrom: "0", viewportTo: "20"])
+		def initialResponse = tester.lastResponseAsString
+		def indexId = (initialResponse =~ /codeMirrorAutocompilerSetLazyMarkers\('editor1', '(\d+)', 0, 120, 100\)/)[0][1]
+		send(page, [value: "", revision: "", stream: "", markerRange: indexId + ":300:450", search: ""])
+		def rangeResponse = tester.lastResponseAsString
+
+		then:
+		initialResponse.contains('"near"')
+		!initialResponse.contains('"far"')
+		rangeResponse.contains('"far"')
+		!rangeResponse.contains('"near"')
+		!rangeResponse.contains("codeMirrorAutocompilerClearMarkers")
+	}
+
+	def "searches the kept document without replacing it"() {
+		setup:
+		def page = new AutocompileTestPage({ String document, CompilerResult result -> } as ICompiler)
+		page.autocompileBehavior.searchable = true
+		tester.startPage(page)
+		send(page, [value: "foo bar\nbar foo", revision: "1", stream: "", markerRange: "", search: ""])
+
+		when:
+		send(page, [value: "", revision: "1", stream: "", markerRange: "", search: '{"query": "foo"}'])
+		def firstResponse = tester.lastResponseAsString
+		send(page, [value: "", revision: "1", stream: "", markerRange: "", search: '{"query": "bar"}'])
+		def secondResponse = tester.lastResponseAsString
+		send(page, [value: "", revision: "2", stream: "", markerRange: "", search: '{"query": "bar"}'])
+		def staleResponse = tester.lastResponseAsString
+
+		then:
+		firstResponse.contains("total: 2, truncated: false, page: 0, pageCount: 1, matches: [[0,0,3],[1,4,7]]")
+		secondResponse.contains("total: 2, truncated: false, page: 0, pageCount: 1, matches: [[0,4,7],[1,0,3]]")
+		staleResponse.contains("codeMirrorAutocompilerSearchStale('" + page.editor.markupId + "')")
+	}
+
+	def "builds the search index on the first search of a revision only"() {
+		setup:
+		def page = new AutocompileTestPage({ String document, CompilerResult result -> } as ICompiler)
+		page.autocompileBehavior.searchable = true
+		tester.startPage(page)
+		def editorState = page.autocompileBehavior.editorState
+
+		when:
+		send(page, [value: "foo bar", revision: "1", stream: "", markerRange: "", search: ""])
+
+		then:
+		editorState.@searchIndex == null
+
+		when:
+		send(page, [value: "", revision: "1", stream: "", markerRange: "", search: '{"query": "foo"}'])
+		def index = editorState.@searchIndex
+		send(page, [value: "", revision: "1", stream: "", markerRange: "", search: '{"query": "bar"}'])
+
+		then:
+		index != null
+		editorState.@searchIndex.is(index)
+
+		when:
+		send(page, [value: "bar foo", revision: "2", stream: "", markerRange: "", search: ""])
+
+		then:
+		editorState.@searchIndex == null
+	}
+
+	/**
+	 * Sends a request to the autocompile behavior with the specified parameters. Like the
+	 * client, the request contains undefined parameters as empty values.
+	 */
+	def send(AutocompileTestPage page, Map<String, String> values) {
+		tester.request.method = "POST"
+		values.each { name, value ->
+			tester.request.postParameters.setParameterValue(name, value)
+		}
+		tester.executeBehavior(page.autocompileBehavior)
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2010 Martin Geisse
+ *
+ * This file is distributed under the terms of the MIT license.
+ */
+
+package name.martingeisse.wicket.helpers
+
+import org.apache.wicket.util.tester.WicketTester
+import spock.lang.Specification
+
+/**
+ * Tests for {@link CursorExpandableRepeater}, compared with a plain {@link ExpandableRepeater}.
+ */
+class CursorExpandableRepeaterSpec extends Specification {
+
+	WicketTester tester = new WicketTester()
+
+	def setup() {
+		tester.session.bind()
+	}
+
+	def cleanup() {
+		tester.destroy()
+	}
+
+	static List<String> elements(int count) {
+		(0..<count).collect { "e" + it }
+	}
+
+	def "passes the continuation token of the previous batch when expanding"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(50), 10, true, false)
+		tester.startPage(page)
+
+		when:
+		tester.executeBehavior(page.expandBehavior)
+		tester.executeBehavior(page.expandBehavior)
+
+		then:
+		page.loads == ["cursor:0:null", "cursor:1:10", "cursor:2:20"]
+		tester.lastResponseAsString.contains(">e29<")
+	}
+
+	def "after a cache miss, loads only the missing batches with their continuation tokens"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(50), 10, true, false)
+		tester.startPage(page)
+		tester.executeBehavior(page.expandBehavior)
+		tester.executeBehavior(page.expandBehavior)
+		page.loads.clear()
+
+		when:
+		ExpandableRepeaterBatchCache.get(tester.application).clear()
+		tester.startPage(page)
+
+		then:
+		page.loads == ["cursor:0:null", "cursor:1:10", "cursor:2:20"]
+		tester.lastResponseAsString.contains(">e0<")
+		tester.lastResponseAsString.contains(">e29<")
+	}
+
+	def "a full render takes all batches from the cache"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(50), 10, true, false)
+		tester.startPage(page)
+		tester.executeBehavior(page.expandBehavior)
+		page.loads.clear()
+
+		when:
+		tester.startPage(page)
+
+		then:
+		page.loads.empty
+		tester.lastResponseAsString.contains(">e19<")
+	}
+
+	def "a plain repeater loads missing batches all at once"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(50), 10, false, false)
+		tester.startPage(page)
+		tester.executeBehavior(page.expandBehavior)
+		tester.executeBehavior(page.expandBehavior)
+
+		expect:
+		page.loads == ["batches:1", "batch:1", "batch:2"]
+
+		when:
+		page.loads.clear()
+		ExpandableRepeaterBatchCache.get(tester.application).clear()
+		tester.startPage(page)
+
+		then:
+		page.loads == ["batches:3"]
+		tester.lastResponseAsString.contains(">e29<")
+	}
+
+	def "the legacy loading methods of a cursor repeater follow the cursor"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(25), 10, true, false)
+
+		expect:
+		page.repeater.loadBatches(3) == elements(25)
+		page.repeater.loadBatch(1) == elements(20)[10..19]
+		page.loads == ["cursor:0:null", "cursor:1:10", "cursor:2:20", "cursor:1:null"]
+	}
+
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2010 Martin Geisse
+ *
+ * This file is distributed under the terms of the MIT license.
+ */
+
+package name.martingeisse.wicket.helpers
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CountDownLatch
+import org.apache.wicket.util.tester.WicketTester
+import spock.lang.Specification
+
+/**
+ * Tests for {@link ExpandableRepeater}.
+ */
+class ExpandableRepeaterSpec extends Specification {
+
+	WicketTester tester = new WicketTester()
+
+	def setup() {
+		tester.session.bind()
+	}
+
+	def cleanup() {
+		tester.destroy()
+	}
+
+	static List<String> elements(int count) {
+		(0..<count).collect { "e" + it }
+	}
+
+	def "without batch caching, a full render loads the visible batches again"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(30), 10, cursor, false)
+		page.repeater.batchCaching = false
+		tester.startPage(page)
+		tester.executeBehavior(page.expandBehavior)
+		page.elements.set(12, "changed")
+		page.loads.clear()
+
+		when:
+		tester.startPage(page)
+
+		then:
+		page.loads == expectedLoads
+		tester.lastResponseAsString.contains(">changed<")
+
+		where:
+		cursor | expectedLoads
+		false  | ["batches:2"]
+		true   | ["cursor:0:null", "cursor:1:10"]
+	}
+
+	def "setting the object of an item model replaces the element in its batch"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(30), 10, cursor, keyed)
+		tester.startPage(page)
+		tester.executeBehavior(page.expandBehavior)
+		def item = page.repeater.find { it.defaultModelObject == "e12" }
+
+		when:
+		item.model.object = "changed"
+		page.loads.clear()
+		tester.startPage(page)
+
+		then:
+		item.model.object == "changed"
+		tester.lastResponseAsString.contains(">changed<")
+		!tester.lastResponseAsString.contains(">e12<")
+		page.loads.empty
+
+		where:
+		cursor | keyed
+		false  | false
+		false  | true
+		true   | false
+		true   | true
+	}
+
+	def "a full render with item reuse only populates new items"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(30), 10, false, keyed)
+		page.repeater.reuseItems = true
+		page.repeater.batchCount = 2
+		tester.startPage(page)
+		def items = page.repeater.toList()
+
+		when:
+		page.repeater.batchCount = 3
+		tester.startPage(page)
+
+		then:
+		page.populateCount == 30
+		page.repeater.toList().subList(0, 20) == items
+		tester.lastResponseAsString.contains(">e29<")
+
+		where:
+		keyed << [false, true]
+	}
+
+	def "a reused item follows its element into another batch"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(30), 10, true, true)
+		page.repeater.reuseItems = true
+		page.repeater.batchCount = 3
+		tester.startPage(page)
+		def item = page.repeater.find { it.defaultModelObject == "e9" }
+
+		when:
+		page.elements.add(0, "new")
+		page.repeater.invalidateBatches()
+		tester.startPage(page)
+
+		then:
+		page.populateCount == 31
+		page.repeater.contains(item, false)
+		tester.lastResponseAsString.contains(">e9<")
+
+		when:
+		page.repeater.invalidateBatches()
+		page.detach()
+
+		then:
+		item.model.object == "e9"
+		page.repeater.every { it.defaultModelObject != null }
+	}
+
+	def "item reuse makes a full render of 5000 items cheaper"() {
+		setup:
+		def threads = (com.sun.management.ThreadMXBean)ManagementFactory.threadMXBean
+		def rebuildPage = new ExpandableRepeaterTestPage(elements(5000), 100, false, true)
+		def reusePage = new ExpandableRepeaterTestPage(elements(5000), 100, false, true)
+		reusePage.repeater.reuseItems = true
+		[rebuildPage, reusePage].each {
+			it.repeater.batchCount = 50
+			tester.startPage(it)
+		}
+		def measure = { page ->
+			def threadId = Thread.currentThread().id
+			def bytesBefore = threads.getThreadAllocatedBytes(threadId)
+			def timeBefore = System.nanoTime()
+			tester.startPage(page)
+			[time: System.nanoTime() - timeBefore, bytes: threads.getThreadAllocatedBytes(threadId) - bytesBefore]
+		}
+
+		when:
+		def rebuild = []
+		def reuse = []
+		5.times {
+			rebuild << measure(rebuildPage)
+			reuse << measure(reusePage)
+		}
+		def rebuildCost = [time: rebuild*.time.min(), bytes: rebuild*.bytes.min()]
+		def reuseCost = [time: reuse*.time.min(), bytes: reuse*.bytes.min()]
+
+		then:
+		threads.threadAllocatedMemorySupported
+		rebuildPage.populateCount == 5000 * 6
+		reusePage.populateCount == 5000
+		reusePage.repeater.size() == 5000
+		reuseCost.bytes < rebuildCost.bytes
+		reuseCost.time < rebuildCost.time
+	}
+
+	def "a batch is prefetched without a session and used when expanding"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(30), 10, false, false)
+		page.prefetching = true
+		tester.startPage(page)
+		waitFor { page.loads.contains("prefetch:1") }
+		page.loads.clear()
+
+		when:
+		tester.executeBehavior(page.expandBehavior)
+
+		then:
+		!page.sessionSeenByPrefetch
+		!page.loads.contains("batch:1")
+		page.repeater.batchCount == 2
+		tester.lastResponseAsString.contains(">e19<")
+	}
+
+	def "a request stops waiting for a slow prefetch and loads the batch itself"() {
+		setup:
+		def latch = new CountDownLatch(1)
+		ExpandableRepeaterBatchCache.get(tester.application).prefetchWaitMillis = 100
+		def page = new ExpandableRepeaterTestPage(elements(30), 10, false, false)
+		page.prefetching = true
+		page.prefetchLatch = latch
+		tester.startPage(page)
+		Thread.sleep(100)
+		page.loads.clear()
+
+		when:
+		tester.executeBehavior(page.expandBehavior)
+
+		then:
+		page.loads == ["batch:1"]
+		tester.lastResponseAsString.contains(">e19<")
+
+		cleanup:
+		latch.countDown()
+	}
+
+	def "the prototype item is the first child"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(30), 10, false, false)
+		tester.startPage(page)
+
+		expect:
+		page.repeater.prototypeElementType == "li"
+		page.repeater.prototypeItemMarkupId == page.repeater.iterator().next().markupId
+	}
+
+	def "windowed mode evicts the batches farthest from the newest one"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(60), 10, false, false)
+		page.repeater.windowSize = 3
+		tester.startPage(page)
+		def id = page.repeater.markupId
+		def evictions = []
+
+		when:
+		4.times {
+			tester.executeBehavior(page.expandBehavior)
+			evictions << tester.lastResponseAsString.findAll(/expandableRepeaterWindowEvict\('${id}', (\d+)/) { match, batch -> batch as int }
+		}
+
+		then:
+		evictions == [[], [], [0], [1]]
+		page.repeater.batchCount == 5
+		page.repeater.size() == 30
+
+		when:
+		tester.startPage(page)
+		def html = tester.lastResponseAsString
+
+		then:
+		html.findAll(/class="expandable-repeater-placeholder"/).size() == 2
+		html.contains("id=\"${id}-placeholder-0\"")
+		html.contains("id=\"${id}-placeholder-1\"")
+		!html.contains(">e0<")
+		!html.contains(">e19<")
+		html.contains(">e20<")
+		html.contains(">e49<")
+	}
+
+	def "windowed mode restores an evicted batch and uses the reported heights"() {
+		setup:
+		def page = new ExpandableRepeaterTestPage(elements(60), 10, false, false)
+		page.repeater.windowSize = 3
+		tester.startPage(page)
+		4.times {
+			tester.executeBehavior(page.expandBehavior)
+		}
+		def id = page.repeater.markupId
+		def windowBehavior = page.repeater.getBehaviors(ExpandableRepeaterWindowBehavior)[0]
+
+		when:
+		tester.request.setParameter("batch", "0")
+		tester.request.setParameter("heights", "0:123,1:200,x:1")
+		tester.executeBehavior(windowBehavior)
+		def response = tester.lastResponseAsString
+
+		then:
+		response.contains("expandableRepeaterWindowRestore('${id}', 0, [")
+		response.contains(">e0<")
+		response.contains("expandableRepeaterWindowEvict('${id}', 4, [")
+		page.repeater.size() == 30
+
+		when:
+		tester.startPage(page)
+		def html = tester.lastResponseAsString
+
+		then:
+		html.contains(">e0<")
+		html.contains(">e39<")
+		!html.contains(">e40<")
+		html.contains("id=\"${id}-placeholder-1\"")
+		html.contains("height: 200px")
+	}
+
+	static void waitFor(Closure<Boolean> condition) {
+		long deadline = System.currentTimeMillis() + 5000
+		while (!condition()) {
+			if (System.currentTimeMillis() > deadline) {
+				throw new AssertionError("condition not met within 5 seconds")
+			}
+			Thread.sleep(10)
+		}
+	}
+
+}
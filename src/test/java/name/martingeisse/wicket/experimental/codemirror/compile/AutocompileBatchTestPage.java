@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.markup.IMarkupResourceStreamProvider;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.form.TextArea;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.StringResourceStream;
+
+/**
+ * A page with two auto-compiled editors whose compile requests are batched, used by the specs.
+ */
+public class AutocompileBatchTestPage extends WebPage implements IMarkupResourceStreamProvider {
+
+	/**
+	 * the firstEditor
+	 */
+	private final TextArea<String> firstEditor;
+
+	/**
+	 * the secondEditor
+	 */
+	private final TextArea<String> secondEditor;
+
+	/**
+	 * the batchBehavior
+	 */
+	private final AutocompileBatchBehavior batchBehavior;
+
+	/**
+	 * Constructor.
+	 * @param compiler the compiler used by both editors
+	 */
+	public AutocompileBatchTestPage(final ICompiler compiler) {
+		firstEditor = new TextArea<String>("firstEditor", Model.of(""));
+		firstEditor.add(new CodeMirrorAutocompileBehavior(compiler));
+		add(firstEditor);
+		secondEditor = new TextArea<String>("secondEditor", Model.of(""));
+		secondEditor.add(new CodeMirrorAutocompileBehavior(compiler));
+		add(secondEditor);
+		batchBehavior = new AutocompileBatchBehavior();
+		add(batchBehavior);
+	}
+
+	/**
+	 * Getter method for the firstEditor.
+	 * @return the firstEditor
+	 */
+	public TextArea<String> getFirstEditor() {
+		return firstEditor;
+	}
+
+	/**
+	 * Getter method for the secondEditor.
+	 * @return the secondEditor
+	 */
+	public TextArea<String> getSecondEditor() {
+		return secondEditor;
+	}
+
+	/**
+	 * Getter method for the batchBehavior.
+	 * @return the batchBehavior
+	 */
+	public AutocompileBatchBehavior getBatchBehavior() {
+		return batchBehavior;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.markup.IMarkupResourceStreamProvider#getMarkupResourceStream(org.apache.wicket.MarkupContainer, java.lang.Class)
+	 */
+	@Override
+	public IResourceStream getMarkupResourceStream(final MarkupContainer container, final Class<?> containerClass) {
+		return new StringResourceStream("<html><head></head><body><textarea wicket:id='firstEditor'></textarea><textarea wicket:id='secondEditor'></textarea></body></html>");
+	}
+
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2015 Martin Geisse
+ */
+
+package name.martingeisse.wicket.experimental.codemirror.compile;
+
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.markup.IMarkupResourceStreamProvider;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.form.TextArea;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.StringResourceStream;
+
+/**
+ * A page with a single auto-compiled editor, used by the specs.
+ */
+public class AutocompileTestPage extends WebPage implements IMarkupResourceStreamProvider {
+
+	/**
+	 * the editor
+	 */
+	private final TextArea<String> editor;
+
+	/**
+	 * the autocompileBehavior
+	 */
+	private final CodeMirrorAutocompileBehavior autocompileBehavior;
+
+	/**
+	 * Constructor.
+	 * @param compiler the compiler
+	 */
+	public AutocompileTestPage(final ICompiler compiler) {
+		editor = new TextArea<String>("editor", Model.of(""));
+		autocompileBehavior = new CodeMirrorAutocompileBehavior(compiler);
+		editor.add(autocompileBehavior);
+		add(editor);
+	}
+
+	/**
+	 * Getter method for the editor.
+	 * @return the editor
+	 */
+	public TextArea<String> getEditor() {
+		return editor;
+	}
+
+	/**
+	 * Getter method for the autocompileBehavior.
+	 * @return the autocompileBehavior
+	 */
+	public CodeMirrorAutocompileBehavior getAutocompileBehavior() {
+		return autocompileBehavior;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.markup.IMarkupResourceStreamProvider#getMarkupResourceStream(org.apache.wicket.MarkupContainer, java.lang.Class)
+	 */
+	@Override
+	public IResourceStream getMarkupResourceStream(final MarkupContainer container, final Class<?> containerClass) {
+		return new StringResourceStream("<html><head></head><body><textarea wicket:id='editor'></textarea></body></html>");
+	}
+
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright (c) 2010 Martin Geisse
+ *
+ * This file is distributed under the terms of the MIT license.
+ */
+
+package name.martingeisse.wicket.helpers;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.Session;
+import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.markup.IMarkupResourceStreamProvider;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.StringResourceStream;
+
+/**
+ * A page with an {@link ExpandableRepeater} over a list of strings, used by the specs.
+ * Batch caching is enabled.
+ * The page records how the repeater loads its batches and how many items it populates.
+ */
+public class ExpandableRepeaterTestPage extends WebPage implements IMarkupResourceStreamProvider {
+
+	/**
+	 * the elements
+	 */
+	private final ArrayList<String> elements;
+
+	/**
+	 * the batchSize
+	 */
+	private final int batchSize;
+
+	/**
+	 * the keyed
+	 */
+	private final boolean keyed;
+
+	/**
+	 * the repeater
+	 */
+	private final ExpandableRepeater<Void, String> repeater;
+
+	/**
+	 * the behavior that expands the repeater by one batch
+	 */
+	private final AbstractDefaultAjaxBehavior expandBehavior;
+
+	/**
+	 * the loads, such as "batches:3", "batch:1", "cursor:2:20" or "prefetch:2"
+	 */
+	private final List<String> loads = Collections.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * whether the repeater prefetches batches
+	 */
+	private boolean prefetching;
+
+	/**
+	 * the latch that prefetches wait for before loading, or null to load right away
+	 */
+	private transient CountDownLatch prefetchLatch;
+
+	/**
+	 * whether a session was bound to the thread of any prefetch
+	 */
+	private volatile boolean sessionSeenByPrefetch;
+
+	/**
+	 * the populateCount
+	 */
+	private int populateCount;
+
+	/**
+	 * Constructor.
+	 * @param elements the elements
+	 * @param batchSize the number of elements per batch
+	 * @param cursor whether the repeater loads batches with a cursor
+	 * @param keyed whether the elements are used as item keys
+	 */
+	public ExpandableRepeaterTestPage(final List<String> elements, final int batchSize, final boolean cursor, final boolean keyed) {
+		this.elements = new ArrayList<>(elements);
+		this.batchSize = batchSize;
+		this.keyed = keyed;
+		this.repeater = (cursor ? new TestCursorRepeater() : new TestRepeater());
+		repeater.setBatchCaching(true);
+		add(repeater);
+		expandBehavior = new AbstractDefaultAjaxBehavior() {
+			@Override
+			protected void respond(final AjaxRequestTarget target) {
+				repeater.expandByOneBatch();
+			}
+		};
+		add(expandBehavior);
+	}
+
+	/**
+	 * Getter method for the elements. Changes to the returned list change the data of the repeater.
+	 * @return the elements
+	 */
+	public List<String> getElements() {
+		return elements;
+	}
+
+	/**
+	 * Getter method for the repeater.
+	 * @return the repeater
+	 */
+	public ExpandableRepeater<Void, String> getRepeater() {
+		return repeater;
+	}
+
+	/**
+	 * Getter method for the expandBehavior.
+	 * @return the expandBehavior
+	 */
+	public AbstractDefaultAjaxBehavior getExpandBehavior() {
+		return expandBehavior;
+	}
+
+	/**
+	 * Getter method for the loads.
+	 * @return the loads
+	 */
+	public List<String> getLoads() {
+		return loads;
+	}
+
+	/**
+	 * Setter method for the prefetching.
+	 * @param prefetching whether the repeater prefetches batches
+	 */
+	public void setPrefetching(final boolean prefetching) {
+		this.prefetching = prefetching;
+	}
+
+	/**
+	 * Setter method for the prefetchLatch.
+	 * @param prefetchLatch the latch that prefetches wait for before loading, or null to load right away
+	 */
+	public void setPrefetchLatch(final CountDownLatch prefetchLatch) {
+		this.prefetchLatch = prefetchLatch;
+	}
+
+	/**
+	 * Getter method for the sessionSeenByPrefetch.
+	 * @return whether a session was bound to the thread of any prefetch
+	 */
+	public boolean isSessionSeenByPrefetch() {
+		return sessionSeenByPrefetch;
+	}
+
+	/**
+	 * Getter method for the populateCount.
+	 * @return the populateCount
+	 */
+	public int getPopulateCount() {
+		return populateCount;
+	}
+
+	/**
+	 * Returns the elements of a batch.
+	 */
+	private List<String> getBatchElements(final int batchIndex) {
+		return getElementsFrom(batchIndex * batchSize);
+	}
+
+	/**
+	 * Creates the prefetcher for a batch, or returns null if prefetching is disabled.
+	 */
+	private Callable<ExpandableRepeater.Batch<String>> newPrefetcher(final int batchIndex) {
+		if (!prefetching) {
+			return null;
+		}
+		final List<String> batchElements = getBatchElements(batchIndex);
+		final CountDownLatch latch = prefetchLatch;
+		return new Callable<ExpandableRepeater.Batch<String>>() {
+			@Override
+			public ExpandableRepeater.Batch<String> call() throws Exception {
+				if (Session.exists()) {
+					sessionSeenByPrefetch = true;
+				}
+				if (latch != null) {
+					latch.await(10, TimeUnit.SECONDS);
+				}
+				loads.add("prefetch:" + batchIndex);
+				return new ExpandableRepeater.Batch<String>(batchElements, null);
+			}
+		};
+	}
+
+	/**
+	 * Returns a batch that starts at the specified element index.
+	 */
+	private List<String> getElementsFrom(final int start) {
+		return new ArrayList<>(elements.subList(Math.min(start, elements.size()), Math.min(start + batchSize, elements.size())));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.wicket.markup.IMarkupResourceStreamProvider#getMarkupResourceStream(org.apache.wicket.MarkupContainer, java.lang.Class)
+	 */
+	@Override
+	public IResourceStream getMarkupResourceStream(final MarkupContainer container, final Class<?> containerClass) {
+		return new StringResourceStream("<html><head></head><body><ul><li wicket:id='repeater'><span wicket:id='label'></span></li></ul></body></html>");
+	}
+
+	/**
+	 * Loads batches by their index.
+	 */
+	private final class TestRepeater extends ExpandableRepeater<Void, String> {
+
+		/**
+		 * Constructor.
+		 */
+		TestRepeater() {
+			super("repeater");
+		}
+
+		@Override
+		protected List<String> loadBatches(final int batchCount) {
+			loads.add("batches:" + batchCount);
+			return new ArrayList<>(elements.subList(0, Math.min(batchCount * batchSize, elements.size())));
+		}
+
+		@Override
+		protected List<String> loadBatch(final int batchIndex) {
+			loads.add("batch:" + batchIndex);
+			return getBatchElements(batchIndex);
+		}
+
+		@Override
+		protected Callable<Batch<String>> newBatchPrefetcher(final int batchIndex, final Serializable continuationToken) {
+			return newPrefetcher(batchIndex);
+		}
+
+		@Override
+		protected Serializable getItemKey(final String element) {
+			return (keyed ? element : null);
+		}
+
+		@Override
+		protected void populateItem(final Item<String> item) {
+			populateCount++;
+			item.add(new Label("label", item.getModel()));
+		}
+
+	}
+
+	/**
+	 * Loads batches with a cursor; the continuation token is the index of the first element of the next batch.
+	 */
+	private final class TestCursorRepeater extends CursorExpandableRepeater<Void, String> {
+
+		/**
+		 * Constructor.
+		 */
+		TestCursorRepeater() {
+			super("repeater");
+		}
+
+		@Override
+		protected Batch<String> loadBatch(final int batchIndex, final Serializable continuationToken) {
+			loads.add("cursor:" + batchIndex + ":" + continuationToken);
+			final int start = (continuationToken == null ? batchIndex * batchSize : (Integer)continuationToken);
+			return new Batch<String>(getElementsFrom(start), start + batchSize);
+		}
+
+		@Override
+		protected Serializable getItemKey(final String element) {
+			return (keyed ? element : null);
+		}
+
+		@Override
+		protected void populateItem(final Item<String> item) {
+			populateCount++;
+			item.add(new Label("label", item.getModel()));
+		}
+
+	}
+
+}